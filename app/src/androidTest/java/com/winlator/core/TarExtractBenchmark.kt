@@ -0,0 +1,140 @@
+package com.winlator.core
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.github.luben.zstd.Zstd
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.tukaani.xz.LZMA2Options
+import org.tukaani.xz.XZOutputStream
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.InputStream
+import kotlin.random.Random
+
+/**
+ * Compares the extraction throughput of TarCompressorUtils with the previous single threaded
+ * implementation on a locally generated archive of many small files and a few large ones.
+ */
+@RunWith(AndroidJUnit4::class)
+class TarExtractBenchmark {
+    private val workDir = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "tar_extract_benchmark")
+    private val chunkSize = 4 * 1024 * 1024
+
+    private fun createTar(): File {
+        val random = Random(0)
+        val tarFile = File(workDir, "archive.tar")
+        TarArchiveOutputStream(BufferedOutputStream(FileOutputStream(tarFile), StreamUtils.BUFFER_SIZE)).use { tar ->
+            fun addFile(name: String, size: Int) {
+                val data = ByteArray(size) { i -> if ((i / 1024) % 3 == 0) random.nextInt(256).toByte() else (i % 31).toByte() }
+                tar.putArchiveEntry(TarArchiveEntry(name).apply { this.size = size.toLong() })
+                tar.write(data)
+                tar.closeArchiveEntry()
+            }
+
+            for (i in 0 until 40) {
+                tar.putArchiveEntry(TarArchiveEntry("root/dir$i/"))
+                tar.closeArchiveEntry()
+                for (j in 0 until 50) addFile("root/dir$i/file$j.dll", random.nextInt(256, 96 * 1024))
+            }
+            for (i in 0 until 2) addFile("root/large$i.bin", 24 * 1024 * 1024)
+        }
+        return tarFile
+    }
+
+    /**
+     * Compresses the tar in slices of chunkSize bytes, each as its own zstd frame or xz block.
+     */
+    private fun compress(type: TarCompressorUtils.Type, tarFile: File): File {
+        val file = File(workDir, if (type == TarCompressorUtils.Type.XZ) "archive.txz" else "archive.tzst")
+        BufferedInputStream(FileInputStream(tarFile), StreamUtils.BUFFER_SIZE).use { inStream ->
+            BufferedOutputStream(FileOutputStream(file), StreamUtils.BUFFER_SIZE).use { outStream ->
+                val xzStream = if (type == TarCompressorUtils.Type.XZ) XZOutputStream(outStream, LZMA2Options(3)) else null
+                val slice = ByteArray(chunkSize)
+                while (true) {
+                    var count = 0
+                    while (count < slice.size) {
+                        val read = inStream.read(slice, count, slice.size - count)
+                        if (read == -1) break
+                        count += read
+                    }
+                    if (count == 0) break
+                    if (xzStream != null) {
+                        xzStream.write(slice, 0, count)
+                        xzStream.endBlock()
+                    }
+                    else outStream.write(Zstd.compress(slice.copyOf(count), 3))
+                }
+                xzStream?.finish()
+            }
+        }
+        return file
+    }
+
+    private fun extractSequential(type: TarCompressorUtils.Type, source: File, destination: File): Boolean {
+        val compressedStream: InputStream = BufferedInputStream(FileInputStream(source), StreamUtils.BUFFER_SIZE)
+        val inStream = if (type == TarCompressorUtils.Type.XZ) XZCompressorInputStream(compressedStream) else ZstdCompressorInputStream(compressedStream)
+        TarArchiveInputStream(inStream).use { tar ->
+            while (true) {
+                val entry = tar.nextEntry ?: break
+                val file = File(destination, entry.name)
+                if (entry.isDirectory) {
+                    if (!file.isDirectory) file.mkdirs()
+                }
+                else {
+                    BufferedOutputStream(FileOutputStream(file), StreamUtils.BUFFER_SIZE).use { outStream ->
+                        if (!StreamUtils.copy(tar, outStream)) return false
+                    }
+                }
+                FileUtils.chmod(file, "771".toInt(8))
+            }
+        }
+        return true
+    }
+
+    private fun measure(tarSize: Long, name: String, extract: (File) -> Boolean): File {
+        val destination = File(workDir, name)
+        FileUtils.delete(destination)
+        destination.mkdirs()
+        val startTime = System.nanoTime()
+        assertTrue(extract(destination))
+        val elapsedTime = (System.nanoTime() - startTime) / 1000000.0
+        println("$name: %.0f ms, %.1f MB/s".format(elapsedTime, tarSize / 1048576.0 / (elapsedTime / 1000.0)))
+        return destination
+    }
+
+    private fun assertSameTree(expected: File, actual: File) {
+        val expectedFiles = expected.walk().filter { it.isFile }.associate { it.relativeTo(expected).path to it.length() }
+        val actualFiles = actual.walk().filter { it.isFile }.associate { it.relativeTo(actual).path to it.length() }
+        assertEquals(expectedFiles, actualFiles)
+    }
+
+    @Test
+    fun compareThroughput() {
+        FileUtils.delete(workDir)
+        workDir.mkdirs()
+        try {
+            val tarFile = createTar()
+            for (type in TarCompressorUtils.Type.values()) {
+                val archive = compress(type, tarFile)
+                println("$type: ${tarFile.length() / 1048576} MB tar, ${archive.length() / 1048576} MB compressed")
+                val sequential = measure(tarFile.length(), "$type sequential") { extractSequential(type, archive, it) }
+                val parallel = measure(tarFile.length(), "$type parallel") { TarCompressorUtils.extract(type, archive, it) }
+                assertSameTree(sequential, parallel)
+            }
+        }
+        finally {
+            FileUtils.delete(workDir)
+        }
+    }
+}
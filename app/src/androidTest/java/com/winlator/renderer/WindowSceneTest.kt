@@ -0,0 +1,84 @@
+package com.winlator.renderer
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.winlator.xserver.ScreenInfo
+import com.winlator.xserver.Window
+import com.winlator.xserver.XServer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class WindowSceneTest {
+    private val xServer = XServer(ScreenInfo(800, 600))
+    private val rootWindow = xServer.windowManager.rootWindow
+    private val scene = WindowScene(rootWindow, 800, 600)
+    private var nextId = 0x300000
+
+    private fun createWindow(parent: Window, x: Int, y: Int, width: Int, height: Int): Window {
+        val id = nextId++
+        val drawableManager = xServer.drawableManager
+        val content = drawableManager.createDrawable(id, width.toShort(), height.toShort(), drawableManager.visual)
+        val window = Window(id, content, x, y, width, height, null)
+        parent.addChild(window)
+        window.attributes.setMapped(true)
+        scene.addWindow(window)
+        return window
+    }
+
+    private fun positions(renderList: Array<RenderableWindow>) = renderList.map { Triple(it.content, it.rootX.toInt(), it.rootY.toInt()) }
+
+    @Test
+    fun addedWindowsAreRenderedAtTheirRootPosition() {
+        assertEquals(0, scene.renderList.size)
+        val window = createWindow(rootWindow, 10, 20, 100, 100)
+        val child = createWindow(window, 5, 5, 50, 50)
+
+        assertEquals(listOf(Triple(window.content, 10, 20), Triple(child.content, 15, 25)), positions(scene.renderList))
+    }
+
+    @Test
+    fun movePublishesNewListAndLeavesPreviousOneUntouched() {
+        val window = createWindow(rootWindow, 10, 20, 100, 100)
+        val child = createWindow(window, 5, 5, 50, 50)
+        val previous = scene.renderList
+        val previousPositions = positions(previous)
+
+        window.setX(30.toShort())
+        window.setY(40.toShort())
+        scene.moveWindow(window)
+        val current = scene.renderList
+
+        assertNotSame(previous, current)
+        assertEquals(previousPositions, positions(previous))
+        assertEquals(listOf(Triple(window.content, 30, 40), Triple(child.content, 35, 45)), positions(current))
+    }
+
+    @Test
+    fun restackedWindowChangesDrawingOrder() {
+        val first = createWindow(rootWindow, 0, 0, 100, 100)
+        val second = createWindow(rootWindow, 50, 50, 100, 100)
+        assertEquals(listOf(first.content, second.content), scene.renderList.map { it.content })
+
+        rootWindow.moveChildBelow(second, first)
+        scene.restackWindow(second)
+        assertEquals(listOf(second.content, first.content), scene.renderList.map { it.content })
+    }
+
+    @Test
+    fun unmappedWindowIsRemovedWithItsSubtree() {
+        val window = createWindow(rootWindow, 0, 0, 100, 100)
+        createWindow(window, 5, 5, 50, 50)
+        val other = createWindow(rootWindow, 200, 200, 100, 100)
+        val previous = scene.renderList
+        assertEquals(3, previous.size)
+
+        window.attributes.setMapped(false)
+        scene.updateWindow(window)
+        assertEquals(listOf(other.content), scene.renderList.map { it.content })
+        assertEquals(3, previous.size)
+        assertTrue(previous.any { it.content == window.content })
+    }
+}
@@ -0,0 +1,62 @@
+package com.winlator.xserver
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class DrawableReleaseTest {
+    private val xServer = XServer(ScreenInfo(800, 600))
+    private val drawableManager = xServer.drawableManager
+    private val pool = drawableManager.bufferPool
+
+    private fun createPixmap(id: Int, width: Int, height: Int): Drawable {
+        val drawable = drawableManager.createDrawable(id, width.toShort(), height.toShort(), drawableManager.visual)
+        xServer.pixmapManager.createPixmap(drawable)
+        return drawable
+    }
+
+    @Test
+    fun freeingFlippedPixmapUnflipsBeforeReleasingItsBuffer() {
+        val content = drawableManager.createDrawable(0x200001, 64.toShort(), 64.toShort(), drawableManager.visual)
+        val source = createPixmap(0x200002, 64, 64)
+        source.fillColor(0x00ff8040)
+        val color = source.data.getInt(0)
+        content.setFlipSource(source)
+
+        val liveBytes = pool.liveBytes
+        var listenerRan = false
+        xServer.pixmapManager.addOnResourceLifecycleListener(object : XResourceManager.OnResourceLifecycleListener {
+            override fun onFreeResource(resource: XResource) {
+                if (resource !is Pixmap) return
+                listenerRan = true
+                assertNotNull(source.data)
+                assertEquals(liveBytes, pool.liveBytes)
+                content.unflip()
+            }
+        })
+        xServer.pixmapManager.freePixmap(source.id)
+
+        assertTrue(listenerRan)
+        assertNull(source.data)
+        assertTrue(pool.liveBytes < liveBytes)
+        assertNull(content.flipSource)
+        assertEquals(color, content.data.getInt(0))
+    }
+
+    @Test
+    fun reacquiredBufferIsNotAliasedByReleasedDrawable() {
+        val first = createPixmap(0x200003, 32, 32)
+        first.fillColor(0x00123456)
+        xServer.pixmapManager.freePixmap(first.id)
+        assertNull(first.data)
+
+        val second = createPixmap(0x200004, 32, 32)
+        assertEquals(0, second.data.getInt(0))
+        assertNull(first.data)
+    }
+}
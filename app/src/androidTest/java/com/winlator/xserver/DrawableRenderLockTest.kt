@@ -0,0 +1,41 @@
+package com.winlator.xserver
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.atomic.AtomicBoolean
+
+@RunWith(AndroidJUnit4::class)
+class DrawableRenderLockTest {
+    private val xServer = XServer(ScreenInfo(800, 600))
+    private val drawableManager = xServer.drawableManager
+
+    @Test
+    fun readerHoldingTheRenderLockNeverSeesAHalfFilledDrawable() {
+        val drawable = drawableManager.createDrawable(0x200001, 256.toShort(), 256.toShort(), drawableManager.visual)
+        drawable.fillColor(0)
+        val done = AtomicBoolean(false)
+        val writer = Thread {
+            for (i in 0 until 500) drawable.fillColor(if (i % 2 == 0) 0x00ff0000 else 0x000000ff)
+            done.set(true)
+        }
+
+        var tornReads = 0
+        writer.start()
+        while (!done.get()) {
+            synchronized(drawable.renderLock) {
+                val data = drawable.data
+                val first = data.getInt(0)
+                for (offset in 4 until data.capacity() step 4) {
+                    if (data.getInt(offset) != first) {
+                        tornReads++
+                        break
+                    }
+                }
+            }
+        }
+        writer.join()
+        assertEquals(0, tornReads)
+    }
+}
@@ -0,0 +1,69 @@
+package com.winlator.xserver
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+class SingleWriterTest {
+    private val xServer = XServer(ScreenInfo(800, 600))
+
+    @Test
+    fun injectedInputRunsInOrderOnTheWriterThread() {
+        val writer = Executors.newSingleThreadExecutor()
+        val writerThread = writer.submit<Thread> { Thread.currentThread() }.get()
+        val listenerThreads = HashSet<Thread>()
+        xServer.pointer.addOnPointerMotionListener(object : Pointer.OnPointerMotionListener {
+            override fun onPointerMove(x: Short, y: Short) {
+                listenerThreads.add(Thread.currentThread())
+            }
+        })
+
+        xServer.setCommandExecutor(writer)
+        assertTrue(xServer.isSingleWriter)
+        xServer.injectPointerMove(100, 100)
+        xServer.injectPointerButtonPress(Pointer.Button.BUTTON_LEFT)
+        for (i in 0 until 50) xServer.injectPointerMoveDelta(2, 1)
+        xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_LEFT)
+        xServer.injectPointerButtonPress(Pointer.Button.BUTTON_RIGHT)
+        writer.shutdown()
+        assertTrue(writer.awaitTermination(5, TimeUnit.SECONDS))
+
+        assertEquals(200, xServer.pointer.x.toInt())
+        assertEquals(150, xServer.pointer.y.toInt())
+        assertFalse(xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_LEFT))
+        assertTrue(xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_RIGHT))
+        assertEquals(setOf(writerThread), listenerThreads)
+    }
+
+    @Test
+    fun injectedInputRunsOnCallerWithoutExecutor() {
+        xServer.setCommandExecutor(null)
+        assertFalse(xServer.isSingleWriter)
+        xServer.injectPointerMove(10, 20)
+        xServer.injectPointerMoveDelta(5, 5)
+
+        assertEquals(15, xServer.pointer.x.toInt())
+        assertEquals(25, xServer.pointer.y.toInt())
+    }
+
+    @Test
+    fun lockProfilingRecordsHoldTimes() {
+        xServer.isLockProfiling = true
+        xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE).use { Thread.sleep(2) }
+        xServer.lock(XServer.Lockable.WINDOW_MANAGER).use {}
+        xServer.isLockProfiling = false
+        xServer.lock(XServer.Lockable.WINDOW_MANAGER).use {}
+
+        val stats = xServer.getLockStats(XServer.Lockable.WINDOW_MANAGER)
+        assertEquals(2L, stats.acquireCount)
+        assertTrue(stats.maxHoldTime >= 2000000L)
+        assertEquals(1L, xServer.getLockStats(XServer.Lockable.INPUT_DEVICE).acquireCount)
+        assertEquals(0L, xServer.getLockStats(XServer.Lockable.PIXMAP_MANAGER).acquireCount)
+    }
+}
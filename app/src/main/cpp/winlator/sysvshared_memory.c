@@ -18,6 +18,8 @@
 #include <sys/stat.h>
 #include <errno.h>
 #include <android/sharedmem.h>
+#include <linux/futex.h>
+#include <limits.h>
 
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
 
@@ -111,3 +113,33 @@ Java_com_winlator_sysvshm_SysVSharedMemory_createMemoryFd(JNIEnv *env, jclass ob
 
     return fd;
 }
+
+JNIEXPORT jboolean JNICALL
+Java_com_winlator_sysvshm_SysVSharedMemory_getFileIdentity(JNIEnv *env, jclass obj, jint fd,
+                                                           jlongArray identity) {
+    struct stat st;
+    // ashmem regions all report the /dev/ashmem character device, so they have no identity
+    if (fstat(fd, &st) < 0 || S_ISCHR(st.st_mode)) return JNI_FALSE;
+
+    jlong values[2] = {(jlong)st.st_dev, (jlong)st.st_ino};
+    (*env)->SetLongArrayRegion(env, identity, 0, 2, values);
+    return JNI_TRUE;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_sysvshm_SysVSharedMemory_atomicLoad(JNIEnv *env, jclass obj, jobject data, jint offset) {
+    int32_t *word = (int32_t*)((char*)(*env)->GetDirectBufferAddress(env, data) + offset);
+    return __atomic_load_n(word, __ATOMIC_SEQ_CST);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_sysvshm_SysVSharedMemory_atomicStore(JNIEnv *env, jclass obj, jobject data, jint offset, jint value) {
+    int32_t *word = (int32_t*)((char*)(*env)->GetDirectBufferAddress(env, data) + offset);
+    __atomic_store_n(word, value, __ATOMIC_SEQ_CST);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_sysvshm_SysVSharedMemory_futexWake(JNIEnv *env, jclass obj, jobject data, jint offset) {
+    int32_t *word = (int32_t*)((char*)(*env)->GetDirectBufferAddress(env, data) + offset);
+    syscall(SYS_futex, word, FUTEX_WAKE, INT_MAX, NULL, NULL, 0);
+}
@@ -5,6 +5,7 @@
 #include <sys/types.h>
 #include <sys/eventfd.h>
 #include <sys/un.h>
+#include <sys/uio.h>
 #include <unistd.h>
 #include <string.h>
 #include <malloc.h>
@@ -17,6 +18,7 @@
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
 #define MAX_EVENTS 10
 #define MAX_FDS 32
+#define MAX_IOVECS 64
 
 #define MAX_TRACKED_FDS 1024  // Adjust based on your needs
 
@@ -193,6 +195,74 @@ Java_com_winlator_xconnector_ClientSocket_write(JNIEnv *env, jobject obj, jint f
     return write(fd, dataAddr, length);
 }
 
+static int writevFully(int fd, struct iovec *iov, int iovcnt) {
+    int total = 0;
+    while (iovcnt > 0) {
+        ssize_t res = writev(fd, iov, iovcnt);
+        if (res < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+        total += res;
+
+        while (iovcnt > 0 && (size_t)res >= iov->iov_len) {
+            res -= iov->iov_len;
+            iov++;
+            iovcnt--;
+        }
+
+        if (iovcnt > 0) {
+            iov->iov_base = (char*)iov->iov_base + res;
+            iov->iov_len -= res;
+        }
+    }
+    return total;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_xconnector_ClientSocket_writeRows(JNIEnv *env, jobject obj, jint fd, jobject header,
+                                                    jint headerLength, jobject data, jint offset,
+                                                    jint rowLength, jint stride, jint rows) {
+    char *headerAddr = (*env)->GetDirectBufferAddress(env, header);
+    char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    if (!headerAddr || !dataAddr) return -1;
+    dataAddr += offset;
+
+    struct iovec iov[MAX_IOVECS];
+    int iovcnt = 0;
+    int total = 0;
+
+    if (headerLength > 0) {
+        iov[iovcnt].iov_base = headerAddr;
+        iov[iovcnt++].iov_len = headerLength;
+    }
+
+    if (rowLength == stride) {
+        iov[iovcnt].iov_base = dataAddr;
+        iov[iovcnt++].iov_len = (size_t)rowLength * rows;
+        rows = 0;
+    }
+
+    for (int i = 0; i < rows; i++) {
+        iov[iovcnt].iov_base = dataAddr + (size_t)i * stride;
+        iov[iovcnt++].iov_len = rowLength;
+
+        if (iovcnt == MAX_IOVECS) {
+            int res = writevFully(fd, iov, iovcnt);
+            if (res < 0) return -1;
+            total += res;
+            iovcnt = 0;
+        }
+    }
+
+    if (iovcnt > 0) {
+        int res = writevFully(fd, iov, iovcnt);
+        if (res < 0) return -1;
+        total += res;
+    }
+    return total;
+}
+
 JNIEXPORT jint JNICALL
 Java_com_winlator_xconnector_XConnectorEpoll_createEventFd(JNIEnv *env, jobject obj) {
     int fd = eventfd(0, EFD_NONBLOCK);
@@ -560,4 +560,16 @@ object PrefManager {
     var wineDebugChannels: String
         get() = getPref(WINE_DEBUG_CHANNELS, Constants.XServer.DEFAULT_WINE_DEBUG_CHANNELS)
         set(value) = setPref(WINE_DEBUG_CHANNELS, value)
+
+    // Runs injected input on the X server's epoll thread instead of locking on the UI thread
+    private val XSERVER_SINGLE_WRITER = booleanPreferencesKey("xserver_single_writer")
+    var xServerSingleWriter: Boolean
+        get() = getPref(XSERVER_SINGLE_WRITER, false)
+        set(value) = setPref(XSERVER_SINGLE_WRITER, value)
+
+    // Records the wait and hold times of the X server locks, logged when the server stops
+    private val XSERVER_LOCK_PROFILING = booleanPreferencesKey("xserver_lock_profiling")
+    var xServerLockProfiling: Boolean
+        get() = getPref(XSERVER_LOCK_PROFILING, false)
+        set(value) = setPref(XSERVER_LOCK_PROFILING, value)
 }
@@ -70,6 +70,8 @@ fun SettingsGroupDebug() {
     // states for debug toggles
     var enableWineDebugPref by rememberSaveable { mutableStateOf(PrefManager.enableWineDebug) }
     var enableBox86Logs by rememberSaveable { mutableStateOf(WinlatorPrefManager.getBoolean("enable_box86_64_logs", false)) }
+    var xServerSingleWriter by rememberSaveable { mutableStateOf(PrefManager.xServerSingleWriter) }
+    var xServerLockProfiling by rememberSaveable { mutableStateOf(PrefManager.xServerLockProfiling) }
     var latestCrashFile: File? by rememberSaveable { mutableStateOf(null) }
     LaunchedEffect(Unit) {
         val crashDir = File(context.getExternalFilesDir(null), "crash_logs")
@@ -162,6 +164,26 @@ fun SettingsGroupDebug() {
                 WinlatorPrefManager.putBoolean("enable_box86_64_logs", it)
             },
         )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            state = xServerSingleWriter,
+            title = { Text(text = "Single-Writer X Server Input") },
+            subtitle = { Text(text = "Apply touch and key input on the X server thread") },
+            onCheckedChange = {
+                xServerSingleWriter = it
+                PrefManager.xServerSingleWriter = it
+            },
+        )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            state = xServerLockProfiling,
+            title = { Text(text = "Profile X Server Locks") },
+            subtitle = { Text(text = "Log lock wait and hold times when the game exits") },
+            onCheckedChange = {
+                xServerLockProfiling = it
+                PrefManager.xServerLockProfiling = it
+            },
+        )
         SettingsMenuLink(
             colors = settingsTileColors(),
             title = { Text(text = "View latest crash") },
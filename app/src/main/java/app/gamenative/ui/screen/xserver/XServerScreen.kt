@@ -601,7 +601,6 @@ fun XServerScreen(
                         container,
                         envVars,
                     )
-                    changeWineAudioDriver(xServerState.value.audioDriver, container, ImageFs.find(context))
                     PluviaApp.xEnvironment = setupXEnvironment(
                         context,
                         appId,
@@ -930,6 +929,8 @@ private fun shiftXEnvironmentToContext(
     environment.addComponent(sysVSharedMemoryComponent)
     xEnvironment.getComponent<XServerComponent>(XServerComponent::class.java).stop()
     val xServerComponent = XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH))
+    xServerComponent.isSingleWriter = PrefManager.xServerSingleWriter
+    xServer.isLockProfiling = PrefManager.xServerLockProfiling
     // val xServerComponent = xEnvironment.getComponent<XServerComponent>(XServerComponent::class.java)
     // xServerComponent.connectToXServer(xServer)
     environment.addComponent(xServerComponent)
@@ -1107,7 +1108,10 @@ private fun setupXEnvironment(
             UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
         ),
     )
-    environment.addComponent(XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH)))
+    val xServerComponent = XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH))
+    xServerComponent.isSingleWriter = PrefManager.xServerSingleWriter
+    xServer.isLockProfiling = PrefManager.xServerLockProfiling
+    environment.addComponent(xServerComponent)
     environment.addComponent(NetworkInfoUpdateComponent())
     environment.addComponent(SteamClientComponent())
 
@@ -1191,6 +1195,7 @@ private fun setupXEnvironment(
     environment.startEnvironmentComponents()
 
     // put in separate scope since winhandler start method does some network stuff
+    xServer.winHandler.setGamepadSocketConfig(UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.WINHANDLER_GAMEPAD_PATH))
     CoroutineScope(Dispatchers.IO).launch {
         xServer.winHandler.start()
     }
@@ -1499,13 +1504,6 @@ private fun setupWineSystemFiles(
     val imgVersion = imageFs.getVersion().toString()
     var containerDataChanged = false
 
-    if (!container.getExtra("appVersion").equals(appVersion) || !container.getExtra("imgVersion").equals(imgVersion)) {
-        applyGeneralPatches(context, container, imageFs, xServerState.value.wineInfo, onExtractFileListener)
-        container.putExtra("appVersion", appVersion)
-        container.putExtra("imgVersion", imgVersion)
-        containerDataChanged = true
-    }
-
     // Normalize dxwrapper for state (dxvk includes version for extraction switch)
     if (xServerState.value.dxwrapper == "dxvk") {
         xServerState.value = xServerState.value.copy(
@@ -1520,6 +1518,48 @@ private fun setupWineSystemFiles(
         )
     }
 
+    if (xServerState.value.dxwrapper == "cnc-ddraw") envVars.put("CNC_DDRAW_CONFIG_FILE", "C:\\ProgramData\\cnc-ddraw\\ddraw.ini")
+
+    // Each step of the registry patching phase checks the container extras itself, so an unchanged launch only compares them
+    val startTime = System.currentTimeMillis()
+    if (applyRegistryTweaks(context, firstTimeBoot, screenInfo, xServerState, container, containerManager, imageFs, appVersion, imgVersion, onExtractFileListener)) {
+        containerDataChanged = true
+        Timber.i("Registry tweaks applied in ${System.currentTimeMillis() - startTime}ms")
+    } else {
+        Timber.i("Registry tweaks unchanged, skipped in ${System.currentTimeMillis() - startTime}ms")
+    }
+
+    if (containerDataChanged) container.saveData()
+}
+
+/**
+ * Applies the registry tweaks, DLL overrides and service states whose settings changed since they were last
+ * applied, refreshing the start menu and dosdevices links before the service states, returns true if the
+ * container extras were updated.
+ */
+private fun applyRegistryTweaks(
+    context: Context,
+    firstTimeBoot: Boolean,
+    screenInfo: ScreenInfo,
+    xServerState: MutableState<XServerState>,
+    container: Container,
+    containerManager: ContainerManager,
+    imageFs: ImageFs,
+    appVersion: String,
+    imgVersion: String,
+    onExtractFileListener: OnExtractFileListener?,
+): Boolean {
+    var containerDataChanged = false
+    // The listener maps the files of a 32-bit Wine, so its extractions are recorded apart from the unmapped ones
+    val extractVariant = if (xServerState.value.wineInfo.isWin64) "win64" else "win32"
+
+    if (!container.getExtra("appVersion").equals(appVersion) || !container.getExtra("imgVersion").equals(imgVersion)) {
+        applyGeneralPatches(context, container, imageFs, xServerState.value.wineInfo, onExtractFileListener, extractVariant)
+        container.putExtra("appVersion", appVersion)
+        container.putExtra("imgVersion", imgVersion)
+        containerDataChanged = true
+    }
+
     val needReextract = xServerState.value.dxwrapper != container.getExtra("dxwrapper")
 
     Timber.i("needReextract is " + needReextract)
@@ -1535,18 +1575,17 @@ private fun setupWineSystemFiles(
             xServerState.value.dxwrapper,
             imageFs,
             onExtractFileListener,
+            extractVariant,
         )
         container.putExtra("dxwrapper", xServerState.value.dxwrapper)
         containerDataChanged = true
     }
 
-    if (xServerState.value.dxwrapper == "cnc-ddraw") envVars.put("CNC_DDRAW_CONFIG_FILE", "C:\\ProgramData\\cnc-ddraw\\ddraw.ini")
-
     // val wincomponents = if (shortcut != null) shortcut.getExtra("wincomponents", container.winComponents) else container.winComponents
     val wincomponents = container.winComponents
     if (!wincomponents.equals(container.getExtra("wincomponents"))) {
         // extractWinComponentFiles(context, firstTimeBoot, imageFs, container, containerManager, shortcut, onExtractFileListener)
-        extractWinComponentFiles(context, firstTimeBoot, imageFs, container, containerManager, onExtractFileListener)
+        extractWinComponentFiles(context, firstTimeBoot, imageFs, container, containerManager, onExtractFileListener, extractVariant)
         container.putExtra("wincomponents", wincomponents)
         containerDataChanged = true
     }
@@ -1568,7 +1607,8 @@ private fun setupWineSystemFiles(
         containerDataChanged = true
     }
 
-    if (containerDataChanged) container.saveData()
+    if (changeWineAudioDriver(xServerState.value.audioDriver, container, imageFs)) containerDataChanged = true
+    return containerDataChanged
 }
 
 private fun applyGeneralPatches(
@@ -1577,13 +1617,14 @@ private fun applyGeneralPatches(
     imageFs: ImageFs,
     wineInfo: WineInfo,
     onExtractFileListener: OnExtractFileListener?,
+    extractVariant: String,
 ) {
     Timber.i("Applying general patches")
     val rootDir = imageFs.getRootDir()
     FileUtils.delete(File(rootDir, "/opt/apps"))
     Timber.i("Applying imagefs_patches_gamenative.tzst")
-    TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "imagefs_patches_gamenative.tzst", rootDir, onExtractFileListener)
-    TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "pulseaudio.tzst", File(context.filesDir, "pulseaudio"))
+    TarCompressorUtils.extractIfChanged(TarCompressorUtils.Type.ZSTD, context, "imagefs_patches_gamenative.tzst", rootDir, container.extractionManifestFile, extractVariant, onExtractFileListener)
+    TarCompressorUtils.extractIfChanged(TarCompressorUtils.Type.ZSTD, context, "pulseaudio.tzst", File(context.filesDir, "pulseaudio"), container.extractionManifestFile)
     WineUtils.applySystemTweaks(context, wineInfo)
     container.putExtra("graphicsDriver", null)
     container.putExtra("desktopTheme", null)
@@ -1597,6 +1638,7 @@ private fun extractDXWrapperFiles(
     dxwrapper: String,
     imageFs: ImageFs,
     onExtractFileListener: OnExtractFileListener?,
+    extractVariant: String,
 ) {
     val dlls = arrayOf(
         "d3d10.dll",
@@ -1627,9 +1669,9 @@ private fun extractDXWrapperFiles(
             val shadersDir = File(rootDir, ImageFs.WINEPREFIX + "/drive_c/ProgramData/cnc-ddraw/Shaders")
             FileUtils.delete(shadersDir)
             FileUtils.copy(context, "$assetDir/Shaders", shadersDir)
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
-                "$assetDir/ddraw.tzst", windowsDir, onExtractFileListener,
+            TarCompressorUtils.extractIfChanged(
+                TarCompressorUtils.Type.ZSTD, context,
+                "$assetDir/ddraw.tzst", windowsDir, container.extractionManifestFile, extractVariant, onExtractFileListener,
             )
         }
         "vkd3d" -> {
@@ -1638,18 +1680,20 @@ private fun extractDXWrapperFiles(
             val vortekLike = container.graphicsDriver == "vortek" || container.graphicsDriver == "adreno" || container.graphicsDriver == "sd-8-elite"
             val dxvkVersionForVkd3d = if (vortekLike) "1.10.3" else "2.4.1"
             Timber.i("Extracting VKD3D DX version for dxwrapper: $dxvkVersionForVkd3d")
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
-                "dxwrapper/dxvk-${dxvkVersionForVkd3d}.tzst", windowsDir, onExtractFileListener,
+            TarCompressorUtils.extractIfChanged(
+                TarCompressorUtils.Type.ZSTD, context,
+                "dxwrapper/dxvk-${dxvkVersionForVkd3d}.tzst", windowsDir, container.extractionManifestFile, extractVariant, onExtractFileListener,
             )
             // Determine VKD3D version from state config
             Timber.i("Extracting VKD3D D3D12 DLLs version: $dxwrapper")
 
-            TarCompressorUtils.extract(
+            TarCompressorUtils.extractIfChanged(
                 TarCompressorUtils.Type.ZSTD,
-                context.assets,
+                context,
                 "dxwrapper/$dxwrapper.tzst",
                 windowsDir,
+                container.extractionManifestFile,
+                extractVariant,
                 onExtractFileListener,
             )
         }
@@ -1657,15 +1701,17 @@ private fun extractDXWrapperFiles(
             // This block handles dxvk-VERSION strings
             Timber.i("Extracting DXVK/D8VK DLLs for dxwrapper: $dxwrapper")
             restoreOriginalDllFiles(container, containerManager, imageFs, "d3d12.dll", "d3d12core.dll", "ddraw.dll")
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
-                "dxwrapper/$dxwrapper.tzst", windowsDir, onExtractFileListener,
+            TarCompressorUtils.extractIfChanged(
+                TarCompressorUtils.Type.ZSTD, context,
+                "dxwrapper/$dxwrapper.tzst", windowsDir, container.extractionManifestFile, extractVariant, onExtractFileListener,
             )
-            TarCompressorUtils.extract(
+            TarCompressorUtils.extractIfChanged(
                 TarCompressorUtils.Type.ZSTD,
-                context.assets,
+                context,
                 "dxwrapper/d8vk-${DefaultVersion.D8VK}.tzst",
                 windowsDir,
+                container.extractionManifestFile,
+                extractVariant,
                 onExtractFileListener,
             )
         }
@@ -1736,6 +1782,7 @@ private fun extractWinComponentFiles(
     containerManager: ContainerManager,
     // shortcut: Shortcut?,
     onExtractFileListener: OnExtractFileListener?,
+    extractVariant: String,
 ) {
     val rootDir = imageFs.rootDir
     val windowsDir = File(rootDir, ImageFs.WINEPREFIX + "/drive_c/windows")
@@ -1768,9 +1815,9 @@ private fun extractWinComponentFiles(
             val useNative = wincomponent[1].equals("1")
 
             if (useNative) {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD, context.assets,
-                    "wincomponents/$identifier.tzst", windowsDir, onExtractFileListener,
+                TarCompressorUtils.extractIfChanged(
+                    TarCompressorUtils.Type.ZSTD, context,
+                    "wincomponents/$identifier.tzst", windowsDir, container.extractionManifestFile, extractVariant, onExtractFileListener,
                 )
             } else {
                 val dlnames = wincomponentsJSONObject.getJSONArray(identifier)
@@ -1866,17 +1913,19 @@ private fun extractGraphicsDriverFiles(
         }
 
         if (changed) {
-            TarCompressorUtils.extract(
+            TarCompressorUtils.extractIfChanged(
                 TarCompressorUtils.Type.ZSTD,
-                context.assets,
+                context,
                 "graphics_driver/turnip-${turnipVersion}.tzst",
                 rootDir,
+                container.extractionManifestFile,
             )
-            TarCompressorUtils.extract(
+            TarCompressorUtils.extractIfChanged(
                 TarCompressorUtils.Type.ZSTD,
-                context.assets,
+                context,
                 "graphics_driver/zink-${zinkVersion}.tzst",
                 rootDir,
+                container.extractionManifestFile,
             )
         }
     } else if (graphicsDriver == "virgl") {
@@ -1887,9 +1936,9 @@ private fun extractGraphicsDriverFiles(
         envVars.put("MESA_GL_VERSION_OVERRIDE", "3.1")
         envVars.put("vblank_mode", "0")
         if (changed) {
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
-                "graphics_driver/virgl-${virglVersion}.tzst", rootDir,
+            TarCompressorUtils.extractIfChanged(
+                TarCompressorUtils.Type.ZSTD, context,
+                "graphics_driver/virgl-${virglVersion}.tzst", rootDir, container.extractionManifestFile,
             )
         }
     } else if (graphicsDriver == "vortek") {
@@ -1904,8 +1953,8 @@ private fun extractGraphicsDriverFiles(
             envVars.put("WINE_D3D_CONFIG", "renderer=gdi")
         }
         if (changed) {
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/vortek-2.0.tzst", rootDir)
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/zink-22.2.5.tzst", rootDir)
+            TarCompressorUtils.extractIfChanged(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/vortek-2.0.tzst", rootDir, container.extractionManifestFile)
+            TarCompressorUtils.extractIfChanged(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/zink-22.2.5.tzst", rootDir, container.extractionManifestFile)
         }
     } else if (graphicsDriver == "adreno" || graphicsDriver == "sd-8-elite") {
         val assetZip = if (graphicsDriver == "adreno") "Adreno_${adrenoVersion}_adpkg.zip" else "SD8Elite_${sd8EliteVersion}.zip"
@@ -1946,8 +1995,8 @@ private fun extractGraphicsDriverFiles(
             envVars.put("WINE_D3D_CONFIG", "renderer=gdi")
         }
         if (changed) {
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/vortek-2.0.tzst", rootDir)
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/zink-22.2.5.tzst", rootDir)
+            TarCompressorUtils.extractIfChanged(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/vortek-2.0.tzst", rootDir, container.extractionManifestFile)
+            TarCompressorUtils.extractIfChanged(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/zink-22.2.5.tzst", rootDir, container.extractionManifestFile)
         }
     }
 
@@ -1971,7 +2020,7 @@ private fun readLibraryNameFromExtractedDir(destinationDir: File): String? {
         null
     }
 }
-private fun changeWineAudioDriver(audioDriver: String, container: Container, imageFs: ImageFs) {
+private fun changeWineAudioDriver(audioDriver: String, container: Container, imageFs: ImageFs): Boolean {
     if (audioDriver != container.getExtra("audioDriver")) {
         val rootDir = imageFs.rootDir
         val userRegFile = File(rootDir, ImageFs.WINEPREFIX + "/user.reg")
@@ -1983,6 +2032,7 @@ private fun changeWineAudioDriver(audioDriver: String, container: Container, ima
             }
         }
         container.putExtra("audioDriver", audioDriver)
-        container.saveData()
+        return true
     }
+    return false
 }
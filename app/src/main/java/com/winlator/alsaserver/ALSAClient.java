@@ -1,10 +1,7 @@
 package com.winlator.alsaserver;
 
 import android.content.Context;
-import android.media.AudioFormat;
 import android.media.AudioManager;
-import android.media.AudioTrack;
-import android.util.Log;
 
 import com.winlator.core.KeyValueSet;
 import com.winlator.math.Mathf;
@@ -21,18 +18,21 @@ public class ALSAClient {
     protected final Options options;
     private int position;
     private ByteBuffer sharedBuffer;
+    private ByteBuffer ringBuffer;
     private DataType dataType = DataType.U8;
-    private AudioTrack audioTrack = null;
+    private final AudioMixer mixer;
+    private MixerStream stream = null;
     private byte channels = 2;
     private int sampleRate = 0;
-    private short previousUnderrunCount = 0;
 
     public enum DataType {
         U8(1),
         S16LE(2),
         S16BE(2),
         FLOATLE(4),
-        FLOATBE(4);
+        FLOATBE(4),
+        S32LE(4),
+        S32BE(4);
 
         public final byte byteCount;
 
@@ -45,6 +45,7 @@ public class ALSAClient {
         public short latencyMillis = 40;
         public byte performanceMode = 1;
         public float volume = 1.0f;
+        public Resampler.Quality resamplerQuality = Resampler.Quality.MEDIUM;
 
         public static Options fromKeyValueSet(KeyValueSet config) {
             Options options;
@@ -65,12 +66,15 @@ public class ALSAClient {
             }
             options.volume = config.getFloat("volume", 1.0f);
             options.latencyMillis = (short) config.getInt("latencyMillis", 40);
+            int resamplerQuality = config.getInt("resamplerQuality", Resampler.Quality.MEDIUM.ordinal());
+            options.resamplerQuality = Resampler.Quality.values()[Mathf.clamp(resamplerQuality, 0, Resampler.Quality.values().length - 1)];
             return options;
         }
     }
 
-    public ALSAClient(Options options) {
+    public ALSAClient(Options options, AudioMixer mixer) {
         this.options = options;
+        this.mixer = mixer;
     }
 
     public void release() {
@@ -79,13 +83,14 @@ public class ALSAClient {
             SysVSharedMemory.unmapSHMSegment(byteBuffer, byteBuffer.capacity());
             this.sharedBuffer = null;
         }
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.pause();
-            this.audioTrack.flush();
-            this.audioTrack.release();
-            this.audioTrack = null;
+        ByteBuffer ringBuffer = this.ringBuffer;
+        Runnable unmapRingBuffer = ringBuffer != null ? () -> SysVSharedMemory.unmapSHMSegment(ringBuffer, ringBuffer.capacity()) : null;
+        this.ringBuffer = null;
+        if (this.stream != null) {
+            this.mixer.removeStream(this.stream, unmapRingBuffer);
+            this.stream = null;
         }
+        else if (unmapRingBuffer != null) unmapRingBuffer.run();
     }
 
     public static int getPCMEncoding(DataType dataType) {
@@ -95,6 +100,9 @@ public class ALSAClient {
             case S16LE:
             case S16BE:
                 return 2;  // AudioFormat.ENCODING_PCM_16BIT
+            case S32LE:
+            case S32BE:
+                return 22; // AudioFormat.ENCODING_PCM_32BIT
             case FLOATLE:
             case FLOATBE:
                 return 4;  // AudioFormat.ENCODING_PCM_FLOAT
@@ -114,89 +122,57 @@ public class ALSAClient {
 
     public void prepare() {
         this.position = 0;
-        this.previousUnderrunCount = (short) 0;
         this.frameBytes = (byte) (this.channels * this.dataType.byteCount);
         release();
         if (isValidBufferSize()) {
-            AudioFormat format = new AudioFormat.Builder().setEncoding(getPCMEncoding(this.dataType)).setSampleRate(this.sampleRate).setChannelMask(getChannelConfig(this.channels)).build();
-            AudioTrack build = new AudioTrack.Builder().setPerformanceMode(this.options.performanceMode).setAudioFormat(format).setBufferSizeInBytes(getBufferSizeInBytes()).build();
-            this.audioTrack = build;
-            this.bufferCapacity = build.getBufferCapacityInFrames();
-            float f = this.options.volume;
-            if (f != 1.0f) {
-                this.audioTrack.setVolume(f);
-            }
-            this.audioTrack.play();
+            this.stream = this.mixer.createStream(this.sampleRate, this.bufferSize);
+            this.stream.setVolume(this.options.volume);
+            this.stream.setPlaying(true);
         }
     }
 
     public void start() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null && audioTrack.getPlayState() != 3) {
-            this.audioTrack.play();
+        if (this.stream != null) {
+            this.stream.setPlaying(true);
         }
     }
 
     public void stop() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.stop();
-            this.audioTrack.flush();
+        if (this.stream != null) {
+            this.stream.setPlaying(false);
+            this.stream.clear();
         }
     }
 
     public void pause() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.pause();
+        if (this.stream != null) {
+            this.stream.setPlaying(false);
         }
     }
 
     public void drain() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.flush();
+        if (this.stream != null) {
+            this.stream.clear();
         }
     }
 
     public void writeDataToTrack(ByteBuffer data) {
-        DataType dataType = this.dataType;
-        if (dataType == DataType.S16LE || dataType == DataType.FLOATLE) {
-            data.order(ByteOrder.LITTLE_ENDIAN);
-        } else if (dataType == DataType.S16BE || dataType == DataType.FLOATBE) {
-            data.order(ByteOrder.BIG_ENDIAN);
-        }
-        if (this.audioTrack != null) {
+        if (this.stream != null) {
             data.position(0);
-            do {
-                try {
-                    int bytesWritten = this.audioTrack.write(data, data.remaining(), 0);
-                    if (bytesWritten < 0) {
-                        break;
-                    } else {
-                        increaseBufferSizeIfUnderrunOccurs();
-                    }
-                } catch (Exception e) {
-                }
-            } while (data.position() != data.limit());
+            this.stream.write(data, this.dataType, this.channels);
             this.position += data.position();
             data.rewind();
         }
     }
 
-    private void increaseBufferSizeIfUnderrunOccurs() {
-        int i;
-        int underrunCount = this.audioTrack.getUnderrunCount();
-        if (underrunCount > this.previousUnderrunCount && (i = this.bufferSize) < this.bufferCapacity) {
-            this.previousUnderrunCount = (short) underrunCount;
-            int i2 = i + framesPerBuffer;
-            this.bufferSize = i2;
-            this.audioTrack.setBufferSizeInFrames(i2);
-        }
+    public void kick() {
+        this.mixer.wakeUp();
     }
 
     public int pointer() {
-        if (this.audioTrack != null) {
+        if (this.stream != null) {
+            this.stream.updateLatency();
+            if (this.ringBuffer != null) return (int)this.stream.getConsumedFrames();
             return this.position / this.frameBytes;
         }
         return 0;
@@ -234,10 +210,27 @@ public class ALSAClient {
         this.sharedBuffer = null;
     }
 
+    public boolean hasStream() {
+        return this.stream != null;
+    }
+
+    /**
+     * Switches the prepared stream to a {@link SharedAudioRing} mapped in ringBuffer, written by the
+     * client without WRITE requests.
+     */
+    public void setRingBuffer(ByteBuffer ringBuffer) {
+        this.ringBuffer = ringBuffer;
+        this.stream.setSharedSource(new SharedAudioRing(ringBuffer), this.dataType, this.channels);
+    }
+
     public ByteBuffer getAuxBuffer() {
         return this.auxBuffer;
     }
 
+    public int getFrameBytes() {
+        return this.frameBytes;
+    }
+
     public int getBufferSizeInBytes() {
         return this.bufferSize * this.frameBytes;
     }
@@ -253,6 +246,10 @@ public class ALSAClient {
         return i % this.frameBytes == 0 && i > 0;
     }
 
+    public static short getFramesPerBuffer() {
+        return framesPerBuffer;
+    }
+
     public static void assignFramesPerBuffer(Context context) {
         try {
             AudioManager am = (AudioManager) context.getSystemService("audio");
@@ -52,6 +52,20 @@ public class ALSARequestHandler implements RequestHandler {
                 alsaClient.prepare();
                 createSharedMemory(alsaClient, outputStream);
                 return true;
+            case RequestCodes.PREPARE_RING:
+                if (inputStream.available() < requestLength) {
+                    return false;
+                }
+                alsaClient.setChannels(inputStream.readByte());
+                alsaClient.setDataType(ALSAClient.DataType.values()[inputStream.readByte()]);
+                alsaClient.setSampleRate(inputStream.readInt());
+                alsaClient.setBufferSize(inputStream.readInt());
+                alsaClient.prepare();
+                createSharedRing(alsaClient, outputStream);
+                return true;
+            case RequestCodes.KICK:
+                alsaClient.kick();
+                return true;
             case RequestCodes.WRITE:
                 ByteBuffer sharedBuffer = alsaClient.getSharedBuffer();
                 if (sharedBuffer != null) {
@@ -151,4 +165,35 @@ public class ALSARequestHandler implements RequestHandler {
             }
         }
     }
+
+    /**
+     * Replies 0 with the fd of a {@link SharedAudioRing}, or 1 without fd when the buffer cannot be
+     * laid out as a ring, in which case the client falls back to PREPARE and WRITE requests.
+     */
+    private void createSharedRing(ALSAClient alsaClient, XOutputStream outputStream) throws IOException {
+        int capacity = alsaClient.hasStream() ? SharedAudioRing.getCapacity(alsaClient.getBufferSizeInBytes(), alsaClient.getFrameBytes()) : 0;
+        int size = SharedAudioRing.getSize(capacity);
+        int fd = -1;
+        if (capacity > 0) {
+            this.maxSHMemoryId++;
+            fd = SysVSharedMemory.createMemoryFd("alsa-ring" + this.maxSHMemoryId, size);
+            ByteBuffer buffer = fd >= 0 ? SysVSharedMemory.mapSHMSegment(fd, size, 0, false) : null;
+            if (buffer != null) {
+                SharedAudioRing.initialize(buffer, capacity);
+                alsaClient.setRingBuffer(buffer);
+            }
+            else if (fd >= 0) {
+                XConnectorEpoll.closeFd(fd);
+                fd = -1;
+            }
+        }
+
+        try (XStreamLock lock = outputStream.lock()) {
+            outputStream.writeByte((byte)(fd >= 0 ? 0 : 1));
+            if (fd >= 0) outputStream.setAncillaryFd(fd);
+        }
+        finally {
+            if (fd >= 0) XConnectorEpoll.closeFd(fd);
+        }
+    }
 }
@@ -0,0 +1,48 @@
+package com.winlator.alsaserver;
+
+/**
+ * Buffer size policy that grows by one step on every underrun and, once no underrun occurred
+ * for stableTime, shrinks back by one step at a time towards the initial size.
+ */
+public class AdaptiveBufferSize {
+    public static final long DEFAULT_STABLE_TIME = 10000000000L;
+    private final int minFrames;
+    private final int maxFrames;
+    private final int stepFrames;
+    private final long stableTime;
+    private int frames;
+    private long lastChangeTime;
+
+    public AdaptiveBufferSize(int initialFrames, int maxFrames, int stepFrames, long stableTime) {
+        this.minFrames = initialFrames;
+        this.maxFrames = Math.max(maxFrames, initialFrames);
+        this.stepFrames = stepFrames;
+        this.stableTime = stableTime;
+        frames = initialFrames;
+        lastChangeTime = System.nanoTime();
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * Returns true if the buffer size changed.
+     */
+    public boolean onUnderrun(long time) {
+        lastChangeTime = time;
+        if (frames >= maxFrames) return false;
+        frames = Math.min(frames + stepFrames, maxFrames);
+        return true;
+    }
+
+    /**
+     * Returns true if the buffer size changed.
+     */
+    public boolean update(long time) {
+        if (frames <= minFrames || time - lastChangeTime < stableTime) return false;
+        frames = Math.max(frames - stepFrames, minFrames);
+        lastChangeTime = time;
+        return true;
+    }
+}
@@ -0,0 +1,279 @@
+package com.winlator.alsaserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Mixes the streams of all ALSA clients into a single {@link AudioSink} from one thread. Each
+ * period the playing streams are summed with their volume, soft limited against clipping and
+ * written to the sink, which paces the loop. The sink is paused while no stream has data.
+ * While playing, the statistics of the streams are handed to an optional listener at a fixed
+ * interval.
+ */
+public class AudioMixer {
+    private static final MixerStream[] EMPTY = new MixerStream[0];
+    private static final float LIMITER_THRESHOLD = 0.9f;
+    private static final int IDLE_PERIODS = 32;
+    private final AudioSink sink;
+    private final int sampleRate;
+    private final int framesPerBuffer;
+    private final float[] mixBuffer;
+    private final float[] streamBuffer;
+    private volatile MixerStream[] streams = EMPTY;
+    private final ArrayList<Runnable> pendingRemovals = new ArrayList<>();
+    private Resampler.Quality resamplerQuality = Resampler.Quality.MEDIUM;
+    private Thread thread;
+    private volatile boolean running = false;
+    private volatile boolean idle = false;
+    private boolean sinkPaused = true;
+    private int idlePeriods = 0;
+    private int nextStreamId = 0;
+    private volatile OnStatsListener onStatsListener;
+    private long statsInterval;
+    private long nextStatsTime;
+
+    public interface OnStatsListener {
+        void onStats(AudioMixer mixer);
+    }
+
+    public AudioMixer(AudioSink sink, int sampleRate, int framesPerBuffer) {
+        this.sink = sink;
+        this.sampleRate = sampleRate;
+        this.framesPerBuffer = framesPerBuffer;
+        mixBuffer = new float[framesPerBuffer * MixerStream.CHANNELS];
+        streamBuffer = new float[framesPerBuffer * MixerStream.CHANNELS];
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFramesPerBuffer() {
+        return framesPerBuffer;
+    }
+
+    public Resampler.Quality getResamplerQuality() {
+        return resamplerQuality;
+    }
+
+    /**
+     * Sets the quality used by streams created afterwards whose rate differs from the output rate.
+     */
+    public void setResamplerQuality(Resampler.Quality resamplerQuality) {
+        this.resamplerQuality = resamplerQuality;
+    }
+
+    /**
+     * Sets a listener called from the mixer thread every intervalMillis while streams are playing.
+     */
+    public synchronized void setOnStatsListener(OnStatsListener onStatsListener, int intervalMillis) {
+        this.onStatsListener = onStatsListener;
+        statsInterval = intervalMillis * 1000000L;
+        nextStatsTime = System.nanoTime() + statsInterval;
+    }
+
+    public AudioStreamStats[] getStreamStats() {
+        MixerStream[] streams = this.streams;
+        AudioStreamStats[] stats = new AudioStreamStats[streams.length];
+        for (int i = 0; i < streams.length; i++) stats[i] = streams[i].getStats();
+        return stats;
+    }
+
+    public int getOutputUnderrunCount() {
+        return sink.getUnderrunCount();
+    }
+
+    public int getOutputBufferFrames() {
+        return sink.getBufferFrames();
+    }
+
+    public float getOutputLatencyMillis() {
+        return sink.getBufferFrames() * 1000.0f / sampleRate;
+    }
+
+    public synchronized MixerStream createStream(int sampleRate, int bufferFrames) {
+        MixerStream stream = new MixerStream(this, ++nextStreamId, sampleRate, bufferFrames);
+        MixerStream[] streams = Arrays.copyOf(this.streams, this.streams.length + 1);
+        streams[streams.length - 1] = stream;
+        this.streams = streams;
+        return stream;
+    }
+
+    public void removeStream(MixerStream stream) {
+        removeStream(stream, null);
+    }
+
+    /**
+     * Removes the stream and runs onRemoved once the mixer thread can no longer be reading it,
+     * right away when the mixer is stopped or idle and otherwise after the period in progress.
+     * Resources the stream reads from, like a mapped shared ring, are freed there.
+     */
+    public void removeStream(MixerStream stream, Runnable onRemoved) {
+        synchronized (this) {
+            stream.release();
+            MixerStream[] streams = this.streams;
+            for (int i = 0; i < streams.length; i++) {
+                if (streams[i] == stream) {
+                    MixerStream[] newStreams = new MixerStream[streams.length - 1];
+                    System.arraycopy(streams, 0, newStreams, 0, i);
+                    System.arraycopy(streams, i + 1, newStreams, i, streams.length - i - 1);
+                    this.streams = newStreams;
+                    break;
+                }
+            }
+
+            if (onRemoved == null) return;
+            if (running && !idle && Thread.currentThread() != thread) {
+                pendingRemovals.add(onRemoved);
+                return;
+            }
+        }
+        onRemoved.run();
+    }
+
+    private void runPendingRemovals() {
+        Runnable[] removals;
+        synchronized (this) {
+            if (pendingRemovals.isEmpty()) return;
+            removals = pendingRemovals.toArray(new Runnable[0]);
+            pendingRemovals.clear();
+        }
+        for (Runnable removal : removals) removal.run();
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        sink.open(sampleRate, MixerStream.CHANNELS, framesPerBuffer);
+        sinkPaused = true;
+        idlePeriods = IDLE_PERIODS;
+        thread = new Thread(this::run, "AudioMixer");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            thread = this.thread;
+            this.thread = null;
+            notifyAll();
+        }
+
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        runPendingRemovals();
+        sink.close();
+    }
+
+    void wakeUp() {
+        if (idle) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void run() {
+        while (running) {
+            runPendingRemovals();
+            if (!mixPeriod()) {
+                waitForData();
+                continue;
+            }
+
+            OnStatsListener onStatsListener = this.onStatsListener;
+            if (onStatsListener != null) {
+                long time = System.nanoTime();
+                if (time >= nextStatsTime) {
+                    nextStatsTime = time + statsInterval;
+                    onStatsListener.onStats(this);
+                }
+            }
+        }
+        runPendingRemovals();
+    }
+
+    private void waitForData() {
+        if (!sinkPaused) {
+            sink.pause();
+            sinkPaused = true;
+        }
+
+        synchronized (this) {
+            idle = true;
+            for (MixerStream stream : streams) stream.setConsumerWaiting(true);
+            try {
+                while (running && !hasQueuedData()) wait(100);
+            }
+            catch (InterruptedException e) {
+                running = false;
+            }
+            for (MixerStream stream : streams) stream.setConsumerWaiting(false);
+            idle = false;
+        }
+        idlePeriods = 0;
+    }
+
+    private boolean hasQueuedData() {
+        for (MixerStream stream : streams) {
+            if (stream.isPlaying() && stream.getQueuedFrames() > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Mixes and writes one period, returns false once no stream delivered data for a while so
+     * that the caller can stop feeding the sink.
+     */
+    boolean mixPeriod() {
+        Arrays.fill(mixBuffer, 0.0f);
+        boolean hasData = false;
+
+        for (MixerStream stream : streams) {
+            if (!stream.isPlaying()) continue;
+            int frames = stream.read(streamBuffer, framesPerBuffer);
+            if (frames == 0) continue;
+
+            hasData = true;
+            float volume = stream.getVolume();
+            for (int i = 0, length = frames * MixerStream.CHANNELS; i < length; i++) mixBuffer[i] += streamBuffer[i] * volume;
+        }
+
+        if (hasData) {
+            idlePeriods = 0;
+        }
+        else if (++idlePeriods >= IDLE_PERIODS) return false;
+
+        limit(mixBuffer);
+        if (sinkPaused) {
+            sink.resume();
+            sinkPaused = false;
+        }
+        sink.write(mixBuffer, framesPerBuffer);
+        return true;
+    }
+
+    /**
+     * Soft limiter that leaves samples below the threshold untouched and smoothly compresses
+     * the rest so that the sum of several streams never exceeds full scale.
+     */
+    static void limit(float[] samples) {
+        final float range = 1.0f - LIMITER_THRESHOLD;
+        for (int i = 0; i < samples.length; i++) {
+            float sample = samples[i];
+            float magnitude = Math.abs(sample);
+            if (magnitude > LIMITER_THRESHOLD) {
+                float excess = (magnitude - LIMITER_THRESHOLD) / range;
+                magnitude = LIMITER_THRESHOLD + range * (excess / (1.0f + excess));
+                samples[i] = Math.copySign(magnitude, sample);
+            }
+        }
+    }
+}
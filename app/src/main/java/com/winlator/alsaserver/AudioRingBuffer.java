@@ -0,0 +1,74 @@
+package com.winlator.alsaserver;
+
+/**
+ * Lock-free single-producer/single-consumer ring of float samples. Only one thread may call
+ * {@link #write(float[], int, int)} and only one other thread the reading methods.
+ */
+public class AudioRingBuffer {
+    private final float[] samples;
+    private final int mask;
+    private volatile long writeIndex = 0;
+    private volatile long readIndex = 0;
+
+    public AudioRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        samples = new float[capacity];
+        mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    public int available() {
+        return (int)(writeIndex - readIndex);
+    }
+
+    public int free() {
+        return samples.length - available();
+    }
+
+    public int write(float[] src, int offset, int length) {
+        long writeIndex = this.writeIndex;
+        length = Math.min(length, samples.length - (int)(writeIndex - readIndex));
+        if (length <= 0) return 0;
+
+        int start = (int)(writeIndex & mask);
+        int firstPart = Math.min(length, samples.length - start);
+        System.arraycopy(src, offset, samples, start, firstPart);
+        if (firstPart < length) System.arraycopy(src, offset + firstPart, samples, 0, length - firstPart);
+        this.writeIndex = writeIndex + length;
+        return length;
+    }
+
+    public int read(float[] dst, int offset, int length) {
+        long readIndex = this.readIndex;
+        length = Math.min(length, (int)(writeIndex - readIndex));
+        if (length <= 0) return 0;
+
+        int start = (int)(readIndex & mask);
+        int firstPart = Math.min(length, samples.length - start);
+        System.arraycopy(samples, start, dst, offset, firstPart);
+        if (firstPart < length) System.arraycopy(samples, 0, dst, offset + firstPart, length - firstPart);
+        this.readIndex = readIndex + length;
+        return length;
+    }
+
+    /**
+     * Returns the sample at the given distance from the read position without consuming it.
+     */
+    public float peek(int index) {
+        return samples[(int)((readIndex + index) & mask)];
+    }
+
+    public void skip(int length) {
+        readIndex += Math.min(length, available());
+    }
+
+    /**
+     * Drops everything written so far, must be called from the consumer thread.
+     */
+    public void clear() {
+        readIndex = writeIndex;
+    }
+}
@@ -0,0 +1,30 @@
+package com.winlator.alsaserver;
+
+/**
+ * Destination of the mixed output, fed with interleaved float frames at the mixer sample rate.
+ */
+public interface AudioSink {
+    void open(int sampleRate, int channels, int framesPerBuffer);
+
+    /**
+     * Queues the frames, blocking while the sink has no room for them.
+     */
+    void write(float[] samples, int frames);
+
+    default void pause() {}
+
+    default void resume() {}
+
+    /**
+     * Returns the number of frames the sink buffers before they are heard.
+     */
+    default int getBufferFrames() {
+        return 0;
+    }
+
+    default int getUnderrunCount() {
+        return 0;
+    }
+
+    void close();
+}
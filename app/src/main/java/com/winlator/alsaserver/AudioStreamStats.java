@@ -0,0 +1,96 @@
+package com.winlator.alsaserver;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Playback statistics of one {@link MixerStream}, updated by the client and mixer threads.
+ */
+public class AudioStreamStats {
+    public final int streamId;
+    public final int sampleRate;
+    private long underrunCount = 0;
+    private long writeCount = 0;
+    private long totalWriteTime = 0;
+    private long maxWriteTime = 0;
+    private long totalBlockedTime = 0;
+    private int bufferFrames = 0;
+    private float latencyMillis = 0;
+
+    public AudioStreamStats(int streamId, int sampleRate) {
+        this.streamId = streamId;
+        this.sampleRate = sampleRate;
+    }
+
+    synchronized void recordUnderrun() {
+        underrunCount++;
+    }
+
+    synchronized void recordWrite(long writeTime, long blockedTime) {
+        writeCount++;
+        totalWriteTime += writeTime;
+        maxWriteTime = Math.max(maxWriteTime, writeTime);
+        totalBlockedTime += blockedTime;
+    }
+
+    synchronized void setBufferFrames(int bufferFrames) {
+        this.bufferFrames = bufferFrames;
+    }
+
+    synchronized void setLatencyMillis(float latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public synchronized void reset() {
+        underrunCount = 0;
+        writeCount = 0;
+        totalWriteTime = 0;
+        maxWriteTime = 0;
+        totalBlockedTime = 0;
+    }
+
+    public synchronized long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    public synchronized int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    public synchronized float getBufferMillis() {
+        return bufferFrames * 1000.0f / sampleRate;
+    }
+
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    public synchronized long getTotalWriteTime() {
+        return totalWriteTime;
+    }
+
+    public synchronized long getMaxWriteTime() {
+        return maxWriteTime;
+    }
+
+    public synchronized long getTotalBlockedTime() {
+        return totalBlockedTime;
+    }
+
+    /**
+     * Returns the latency estimated at the last POINTER request: frames queued in the stream plus
+     * the output buffer.
+     */
+    public synchronized float getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        long averageWrite = writeCount > 0 ? totalWriteTime / writeCount : 0;
+        return String.format(Locale.ENGLISH, "stream=%d rate=%d underruns=%d buffer=%d(%.1fms) write(count=%d avg=%dus max=%dus) blocked=%dms latency=%.1fms",
+            streamId, sampleRate, underrunCount, bufferFrames, getBufferMillis(), writeCount, averageWrite / 1000, maxWriteTime / 1000, totalBlockedTime / 1000000, latencyMillis);
+    }
+}
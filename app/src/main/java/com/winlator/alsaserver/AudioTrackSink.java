@@ -0,0 +1,101 @@
+package com.winlator.alsaserver;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+/**
+ * Sink writing the mixed output to a single float {@link AudioTrack}. The track buffer starts at
+ * the configured latency, grows by one burst whenever an underrun is reported and shrinks back
+ * after a stable period, see {@link AdaptiveBufferSize}.
+ */
+public class AudioTrackSink implements AudioSink {
+    private final ALSAClient.Options options;
+    private AudioTrack audioTrack;
+    private int channels;
+    private int framesPerBuffer;
+    private AdaptiveBufferSize bufferSize;
+    private int previousUnderrunCount = 0;
+
+    public AudioTrackSink(ALSAClient.Options options) {
+        this.options = options;
+    }
+
+    public static int getNativeSampleRate() {
+        int sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        return sampleRate > 0 ? sampleRate : 48000;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, int framesPerBuffer) {
+        this.channels = channels;
+        this.framesPerBuffer = framesPerBuffer;
+        previousUnderrunCount = 0;
+        int bufferSizeInBytes = ALSAClient.latencyMillisToBufferSize(options.latencyMillis, channels, ALSAClient.DataType.FLOATLE, sampleRate);
+
+        AudioFormat format = new AudioFormat.Builder()
+            .setEncoding(AudioFormat.ENCODING_PCM_FLOAT)
+            .setSampleRate(sampleRate)
+            .setChannelMask(ALSAClient.getChannelConfig(channels))
+            .build();
+        audioTrack = new AudioTrack.Builder()
+            .setPerformanceMode(options.performanceMode)
+            .setAudioFormat(format)
+            .setBufferSizeInBytes(bufferSizeInBytes)
+            .build();
+        bufferSize = new AdaptiveBufferSize(bufferSizeInBytes / (channels * 4), audioTrack.getBufferCapacityInFrames(), framesPerBuffer, AdaptiveBufferSize.DEFAULT_STABLE_TIME);
+    }
+
+    @Override
+    public void write(float[] samples, int frames) {
+        if (audioTrack == null) return;
+        int length = frames * channels;
+        int offset = 0;
+        while (offset < length) {
+            int written = audioTrack.write(samples, offset, length - offset, AudioTrack.WRITE_BLOCKING);
+            if (written < 0) break;
+            offset += written;
+        }
+        updateBufferSize();
+    }
+
+    private void updateBufferSize() {
+        int underrunCount = audioTrack.getUnderrunCount();
+        long time = System.nanoTime();
+        boolean changed = underrunCount > previousUnderrunCount ? bufferSize.onUnderrun(time) : bufferSize.update(time);
+        previousUnderrunCount = underrunCount;
+        if (changed) audioTrack.setBufferSizeInFrames(bufferSize.getFrames());
+    }
+
+    @Override
+    public int getBufferFrames() {
+        AudioTrack audioTrack = this.audioTrack;
+        return audioTrack != null ? audioTrack.getBufferSizeInFrames() : 0;
+    }
+
+    @Override
+    public int getUnderrunCount() {
+        AudioTrack audioTrack = this.audioTrack;
+        return audioTrack != null ? audioTrack.getUnderrunCount() : 0;
+    }
+
+    @Override
+    public void pause() {
+        if (audioTrack != null) audioTrack.pause();
+    }
+
+    @Override
+    public void resume() {
+        if (audioTrack != null) audioTrack.play();
+    }
+
+    @Override
+    public void close() {
+        if (audioTrack != null) {
+            audioTrack.pause();
+            audioTrack.flush();
+            audioTrack.release();
+            audioTrack = null;
+        }
+    }
+}
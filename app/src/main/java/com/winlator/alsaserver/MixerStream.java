@@ -0,0 +1,253 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Input of the {@link AudioMixer} fed by one ALSA client. Written data is converted to stereo
+ * float frames at the client sample rate and queued in a lock-free ring, the mixer thread reads
+ * it back through a {@link Resampler} when the client rate differs from the output rate. With a
+ * {@link SharedAudioRing} source the mixer thread pulls and converts the client data itself.
+ * The amount {@link #write} may queue follows an {@link AdaptiveBufferSize} driven by the
+ * underruns of the stream, between the requested buffer size and twice that.
+ */
+public class MixerStream {
+    public static final int CHANNELS = 2;
+    private final AudioMixer mixer;
+    private final AudioRingBuffer ring;
+    private final int sampleRate;
+    private final float[] convertBuffer;
+    private final SampleConverter converter = new SampleConverter();
+    private final Resampler resampler;
+    private volatile float volume = 1.0f;
+    private volatile boolean playing = false;
+    private volatile boolean clearRequested = false;
+    private volatile boolean waitingForSpace = false;
+    private volatile boolean released = false;
+    private volatile SharedAudioRing sharedRing;
+    private ALSAClient.DataType sharedDataType;
+    private int sharedChannels;
+    private SampleConverter sharedConverter;
+    private float[] sharedConvertBuffer;
+    private volatile long consumedFrames = 0;
+    private final AudioStreamStats stats;
+    private final AdaptiveBufferSize bufferSize;
+    private volatile int bufferLimit;
+    private volatile boolean delivering = false;
+
+    MixerStream(AudioMixer mixer, int streamId, int sampleRate, int bufferFrames) {
+        this.mixer = mixer;
+        this.sampleRate = sampleRate;
+        bufferFrames = Math.max(bufferFrames, mixer.getFramesPerBuffer() * 2);
+        ring = new AudioRingBuffer(bufferFrames * 2 * CHANNELS);
+        bufferSize = new AdaptiveBufferSize(bufferFrames, bufferFrames * 2, mixer.getFramesPerBuffer(), AdaptiveBufferSize.DEFAULT_STABLE_TIME);
+        bufferLimit = bufferFrames * CHANNELS;
+        stats = new AudioStreamStats(streamId, sampleRate);
+        stats.setBufferFrames(bufferFrames);
+        convertBuffer = new float[mixer.getFramesPerBuffer() * CHANNELS];
+        resampler = sampleRate != mixer.getSampleRate() ? new Resampler(sampleRate, mixer.getSampleRate(), mixer.getResamplerQuality()) : null;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public AudioStreamStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Refreshes the latency estimate of the stats, called when the client asks for its position.
+     */
+    public void updateLatency() {
+        stats.setLatencyMillis(getQueuedFrames() * 1000.0f / sampleRate + mixer.getOutputLatencyMillis());
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    public void setVolume(float volume) {
+        this.volume = volume;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public void setPlaying(boolean playing) {
+        this.playing = playing;
+        if (playing) {
+            mixer.wakeUp();
+        }
+        else delivering = false;
+        wakeUpWriter();
+    }
+
+    /**
+     * Discards the queued frames, the ring is emptied by the mixer on its next read.
+     */
+    public void clear() {
+        clearRequested = true;
+        wakeUpWriter();
+    }
+
+    public int getQueuedFrames() {
+        int frames = ring.available() / CHANNELS;
+        SharedAudioRing sharedRing = this.sharedRing;
+        if (sharedRing != null && !released) frames += sharedRing.available() / (sharedDataType.byteCount * sharedChannels);
+        return frames;
+    }
+
+    /**
+     * Makes the mixer read the client data directly from a shared ring instead of {@link #write}.
+     */
+    public void setSharedSource(SharedAudioRing sharedRing, ALSAClient.DataType dataType, int channels) {
+        sharedDataType = dataType;
+        sharedChannels = channels;
+        sharedConverter = new SampleConverter();
+        sharedConvertBuffer = new float[convertBuffer.length];
+        consumedFrames = 0;
+        this.sharedRing = sharedRing;
+    }
+
+    /**
+     * Returns the number of frames taken from the shared ring so far.
+     */
+    public long getConsumedFrames() {
+        return consumedFrames;
+    }
+
+    void setConsumerWaiting(boolean waiting) {
+        SharedAudioRing sharedRing = this.sharedRing;
+        if (sharedRing != null && !released) sharedRing.setConsumerWaiting(waiting);
+    }
+
+    private void pullSharedRing(SharedAudioRing sharedRing) {
+        int frameBytes = sharedDataType.byteCount * sharedChannels;
+        while (true) {
+            int frames = Math.min(ring.free(), sharedConvertBuffer.length) / CHANNELS;
+            ByteBuffer data = sharedRing.peek(frames * frameBytes);
+            frames = data.remaining() / frameBytes;
+            if (frames == 0) break;
+
+            sharedConverter.convert(data, sharedDataType, sharedChannels, frames, sharedConvertBuffer);
+            ring.write(sharedConvertBuffer, 0, frames * CHANNELS);
+            sharedRing.advanceRead(frames * frameBytes);
+            consumedFrames += frames;
+        }
+    }
+
+    /**
+     * Converts and queues all frames of data, blocking while the ring is full and the stream is
+     * playing. Frames that do not fit while the stream is stopped are dropped.
+     */
+    public void write(ByteBuffer data, ALSAClient.DataType dataType, int channels) {
+        long startTime = System.nanoTime();
+        long blockedTime = 0;
+        int frameBytes = dataType.byteCount * channels;
+        int maxFrames = convertBuffer.length / CHANNELS;
+
+        while (data.remaining() >= frameBytes && !released) {
+            int frames = Math.min(data.remaining() / frameBytes, maxFrames);
+            converter.convert(data, dataType, channels, frames, convertBuffer);
+
+            int length = frames * CHANNELS;
+            int offset = 0;
+            while (offset < length) {
+                offset += ring.write(convertBuffer, offset, Math.min(length - offset, getFreeSpace()));
+                if (offset < length) {
+                    if (!playing || released) {
+                        stats.recordWrite(System.nanoTime() - startTime, blockedTime);
+                        return;
+                    }
+                    mixer.wakeUp();
+                    long waitTime = System.nanoTime();
+                    awaitSpace();
+                    blockedTime += System.nanoTime() - waitTime;
+                }
+            }
+        }
+        mixer.wakeUp();
+        stats.recordWrite(System.nanoTime() - startTime, blockedTime);
+    }
+
+    private int getFreeSpace() {
+        return Math.max(Math.min(bufferLimit - ring.available(), ring.free()), 0);
+    }
+
+    private void awaitSpace() {
+        synchronized (this) {
+            waitingForSpace = true;
+            try {
+                if (getFreeSpace() == 0 && playing && !released) wait(10);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                waitingForSpace = false;
+            }
+        }
+    }
+
+    private void wakeUpWriter() {
+        if (waitingForSpace) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Called by the mixer thread to fetch up to frames frames at the output rate, returns the
+     * number of frames produced.
+     */
+    int read(float[] output, int frames) {
+        if (released) return 0;
+        SharedAudioRing sharedRing = this.sharedRing;
+        if (clearRequested) {
+            clearRequested = false;
+            if (sharedRing != null) sharedRing.skipAll();
+            ring.clear();
+            if (resampler != null) resampler.reset();
+            delivering = false;
+        }
+        if (sharedRing != null) pullSharedRing(sharedRing);
+
+        int produced;
+        if (resampler != null) {
+            produced = resampler.process(ring, output, frames);
+        }
+        else produced = ring.read(output, 0, Math.min(frames, ring.available() / CHANNELS) * CHANNELS) / CHANNELS;
+
+        updateBufferSize(produced == frames);
+        if (produced > 0) wakeUpWriter();
+        return produced;
+    }
+
+    /**
+     * Counts an underrun when a stream that delivered full periods runs dry, and adapts the
+     * amount {@link #write} may queue.
+     */
+    private void updateBufferSize(boolean complete) {
+        long time = System.nanoTime();
+        boolean changed;
+        if (!complete && delivering) {
+            stats.recordUnderrun();
+            changed = bufferSize.onUnderrun(time);
+        }
+        else changed = bufferSize.update(time);
+        delivering = complete;
+
+        if (changed) {
+            bufferLimit = bufferSize.getFrames() * CHANNELS;
+            stats.setBufferFrames(bufferSize.getFrames());
+        }
+    }
+
+    void release() {
+        released = true;
+        playing = false;
+        wakeUpWriter();
+    }
+}
@@ -0,0 +1,56 @@
+package com.winlator.alsaserver;
+
+/**
+ * Sink that discards the output, optionally consuming it at the pace of a real device.
+ */
+public class NullAudioSink implements AudioSink {
+    private final boolean realTime;
+    private int sampleRate;
+    private long framesWritten = 0;
+    private long nextWriteTime = 0;
+
+    public NullAudioSink() {
+        this(false);
+    }
+
+    public NullAudioSink(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, int framesPerBuffer) {
+        this.sampleRate = sampleRate;
+        framesWritten = 0;
+        nextWriteTime = System.nanoTime();
+    }
+
+    @Override
+    public void write(float[] samples, int frames) {
+        framesWritten += frames;
+        if (!realTime) return;
+
+        nextWriteTime += frames * 1000000000L / sampleRate;
+        long delay = nextWriteTime - System.nanoTime();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay / 1000000, (int)(delay % 1000000));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        else nextWriteTime = System.nanoTime();
+    }
+
+    @Override
+    public void resume() {
+        nextWriteTime = System.nanoTime();
+    }
+
+    @Override
+    public void close() {}
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+}
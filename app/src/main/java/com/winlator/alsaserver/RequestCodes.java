@@ -10,4 +10,6 @@ public abstract class RequestCodes {
     public static final byte DRAIN = 6;
     public static final byte POINTER = 7;
     public static final byte MIN_BUFFER_SIZE = 8;
+    public static final byte PREPARE_RING = 9;
+    public static final byte KICK = 10;
 }
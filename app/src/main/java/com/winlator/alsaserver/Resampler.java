@@ -0,0 +1,143 @@
+package com.winlator.alsaserver;
+
+import java.util.Arrays;
+
+/**
+ * Streaming polyphase windowed-sinc sample rate converter for interleaved stereo frames. The
+ * filter is tabulated for PHASES fractional positions and interpolated linearly between them,
+ * the quality selects the number of taps. When downsampling the cutoff is lowered to the output
+ * Nyquist frequency to avoid aliasing.
+ */
+public class Resampler {
+    public enum Quality {
+        LOW(8), MEDIUM(16), HIGH(32);
+
+        public final int taps;
+
+        Quality(int taps) {
+            this.taps = taps;
+        }
+    }
+
+    private static final int CHANNELS = 2;
+    private static final int PHASES = 128;
+    private static final int CHUNK_FRAMES = 256;
+    private final int inputRate;
+    private final int outputRate;
+    private final int taps;
+    private final int halfTaps;
+    private final float[] table;
+    private final double step;
+    private final float[] buffer;
+    private int bufferFrames;
+    private double position;
+
+    public Resampler(int inputRate, int outputRate, Quality quality) {
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        taps = quality.taps;
+        halfTaps = taps / 2;
+        step = (double)inputRate / outputRate;
+        table = createTable(taps, Math.min(1.0, (double)outputRate / inputRate));
+        buffer = new float[(taps + CHUNK_FRAMES) * CHANNELS];
+        reset();
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    /**
+     * Forgets the buffered input, the next output starts at the next frame read from the source.
+     */
+    public void reset() {
+        Arrays.fill(buffer, 0.0f);
+        bufferFrames = halfTaps - 1;
+        position = halfTaps - 1;
+    }
+
+    private static float[] createTable(int taps, double cutoff) {
+        int halfTaps = taps / 2;
+        float[] table = new float[(PHASES + 1) * taps];
+        for (int phase = 0; phase <= PHASES; phase++) {
+            double fraction = (double)phase / PHASES;
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                double distance = fraction + halfTaps - 1 - j;
+                double value = cutoff * sinc(cutoff * distance) * window(distance / halfTaps);
+                table[phase * taps + j] = (float)value;
+                sum += value;
+            }
+            for (int j = 0; j < taps; j++) table[phase * taps + j] /= (float)sum;
+        }
+        return table;
+    }
+
+    private static double sinc(double x) {
+        if (Math.abs(x) < 1e-9) return 1.0;
+        return Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    /**
+     * Blackman window over [-1, 1].
+     */
+    private static double window(double x) {
+        if (Math.abs(x) >= 1.0) return 0.0;
+        return 0.42 + 0.5 * Math.cos(Math.PI * x) + 0.08 * Math.cos(2 * Math.PI * x);
+    }
+
+    /**
+     * Produces up to frames output frames, pulling input from source as needed. Returns the
+     * number of frames produced, fewer when the source runs out.
+     */
+    public int process(AudioRingBuffer source, float[] output, int frames) {
+        int produced = 0;
+        while (produced < frames) {
+            int index = (int)position;
+            if (index + halfTaps >= bufferFrames && !refill(source, index)) break;
+            index = (int)position;
+
+            double phase = (position - index) * PHASES;
+            int phaseIndex = (int)phase;
+            float weight = (float)(phase - phaseIndex);
+            int row0 = phaseIndex * taps;
+            int row1 = row0 + taps;
+            int start = (index - halfTaps + 1) * CHANNELS;
+
+            float left = 0, right = 0;
+            for (int j = 0, k = start; j < taps; j++, k += CHANNELS) {
+                float coefficient = table[row0 + j] + (table[row1 + j] - table[row0 + j]) * weight;
+                left += buffer[k] * coefficient;
+                right += buffer[k + 1] * coefficient;
+            }
+
+            output[produced * CHANNELS] = left;
+            output[produced * CHANNELS + 1] = right;
+            produced++;
+            position += step;
+        }
+        return produced;
+    }
+
+    private boolean refill(AudioRingBuffer source, int index) {
+        int discard = index - halfTaps + 1;
+        if (discard > 0) {
+            int keep = Math.max(bufferFrames - discard, 0);
+            System.arraycopy(buffer, discard * CHANNELS, buffer, 0, keep * CHANNELS);
+            bufferFrames = keep;
+            position -= discard;
+        }
+
+        int space = buffer.length / CHANNELS - bufferFrames;
+        int frames = Math.min(space, source.available() / CHANNELS);
+        if (frames > 0) {
+            source.read(buffer, bufferFrames * CHANNELS, frames * CHANNELS);
+            bufferFrames += frames;
+        }
+        return (int)position + halfTaps < bufferFrames;
+    }
+}
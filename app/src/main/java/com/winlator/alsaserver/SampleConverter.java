@@ -0,0 +1,107 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes interleaved PCM of any {@link ALSAClient.DataType} into stereo float frames. Samples
+ * are fetched with bulk typed views in the byte order of the format and scaled in flat loops the
+ * JIT can vectorise, other channel counts are mapped to stereo afterwards.
+ */
+public class SampleConverter {
+    private static final float U8_SCALE = 1.0f / 128;
+    private static final float S16_SCALE = 1.0f / 32768;
+    private static final float S32_SCALE = 1.0f / 2147483648.0f;
+    private byte[] byteBuffer = new byte[0];
+    private short[] shortBuffer = new short[0];
+    private int[] intBuffer = new int[0];
+    private float[] floatBuffer = new float[0];
+
+    public static ByteOrder getByteOrder(ALSAClient.DataType dataType) {
+        switch (dataType) {
+            case S16BE:
+            case S32BE:
+            case FLOATBE:
+                return ByteOrder.BIG_ENDIAN;
+            default:
+                return ByteOrder.LITTLE_ENDIAN;
+        }
+    }
+
+    /**
+     * Consumes frames frames of data and stores them as interleaved stereo in output.
+     */
+    public void convert(ByteBuffer data, ALSAClient.DataType dataType, int channels, int frames, float[] output) {
+        int length = frames * channels;
+        float[] samples = channels == 2 ? output : ensureFloatBuffer(length);
+        decode(data, dataType, length, samples);
+
+        if (channels == 1) {
+            for (int i = frames - 1; i >= 0; i--) {
+                output[i * 2] = samples[i];
+                output[i * 2 + 1] = samples[i];
+            }
+        }
+        else if (channels > 2) {
+            for (int i = 0, j = 0; i < frames; i++, j += channels) {
+                output[i * 2] = samples[j];
+                output[i * 2 + 1] = samples[j + 1];
+            }
+        }
+    }
+
+    private void decode(ByteBuffer data, ALSAClient.DataType dataType, int length, float[] output) {
+        ByteOrder order = data.order();
+        data.order(getByteOrder(dataType));
+        int position = data.position();
+
+        switch (dataType) {
+            case U8:
+                byte[] bytes = ensureByteBuffer(length);
+                data.get(bytes, 0, length);
+                for (int i = 0; i < length; i++) output[i] = ((bytes[i] & 0xff) - 128) * U8_SCALE;
+                break;
+            case S16LE:
+            case S16BE:
+                short[] shorts = ensureShortBuffer(length);
+                data.asShortBuffer().get(shorts, 0, length);
+                data.position(position + length * 2);
+                for (int i = 0; i < length; i++) output[i] = shorts[i] * S16_SCALE;
+                break;
+            case S32LE:
+            case S32BE:
+                int[] ints = ensureIntBuffer(length);
+                data.asIntBuffer().get(ints, 0, length);
+                data.position(position + length * 4);
+                for (int i = 0; i < length; i++) output[i] = ints[i] * S32_SCALE;
+                break;
+            case FLOATLE:
+            case FLOATBE:
+                data.asFloatBuffer().get(output, 0, length);
+                data.position(position + length * 4);
+                break;
+        }
+
+        data.order(order);
+    }
+
+    private byte[] ensureByteBuffer(int length) {
+        if (byteBuffer.length < length) byteBuffer = new byte[length];
+        return byteBuffer;
+    }
+
+    private short[] ensureShortBuffer(int length) {
+        if (shortBuffer.length < length) shortBuffer = new short[length];
+        return shortBuffer;
+    }
+
+    private int[] ensureIntBuffer(int length) {
+        if (intBuffer.length < length) intBuffer = new int[length];
+        return intBuffer;
+    }
+
+    private float[] ensureFloatBuffer(int length) {
+        if (floatBuffer.length < length) floatBuffer = new float[length];
+        return floatBuffer;
+    }
+}
@@ -0,0 +1,147 @@
+package com.winlator.alsaserver;
+
+import com.winlator.sysvshm.SharedMemoryAtomics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Single-producer/single-consumer byte ring living in memory shared with an ALSA client. The
+ * client writes periods and advances the write index, the mixer thread consumes them and
+ * advances the read index, so steady-state playback needs no socket traffic. Each side only
+ * signals the other when it has announced that it sleeps: the client stores the free space it
+ * needs in PRODUCER_WAITING and waits on the SPACE_SEQ futex, which is bumped once that much is
+ * free, and it sends a KICK request only after writing into an empty ring while the server
+ * announced CONSUMER_WAITING.
+ *
+ * Header layout (little-endian 32-bit words), data follows at HEADER_SIZE:
+ * WRITE_INDEX, READ_INDEX (free-running byte counters), CAPACITY (power of two),
+ * CONSUMER_WAITING, PRODUCER_WAITING (bytes awaited), SPACE_SEQ (futex word).
+ */
+public class SharedAudioRing {
+    public static final int HEADER_SIZE = 64;
+    public static final int WRITE_INDEX = 0;
+    public static final int READ_INDEX = 4;
+    public static final int CAPACITY = 8;
+    public static final int CONSUMER_WAITING = 12;
+    public static final int PRODUCER_WAITING = 16;
+    public static final int SPACE_SEQ = 20;
+    private final ByteBuffer buffer;
+    private final ByteBuffer data;
+    private final int capacity;
+    private final int mask;
+    private final SharedMemoryAtomics atomics;
+
+    public SharedAudioRing(ByteBuffer buffer) {
+        this(buffer, SharedMemoryAtomics.NATIVE);
+    }
+
+    public SharedAudioRing(ByteBuffer buffer, SharedMemoryAtomics atomics) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.atomics = atomics;
+        capacity = buffer.getInt(CAPACITY);
+        mask = capacity - 1;
+        buffer.position(HEADER_SIZE);
+        buffer.limit(HEADER_SIZE + capacity);
+        data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.clear();
+    }
+
+    /**
+     * Returns the smallest ring capacity holding bufferBytes, or 0 if frames of frameBytes bytes
+     * would straddle the end of such a ring.
+     */
+    public static int getCapacity(int bufferBytes, int frameBytes) {
+        int capacity = Integer.highestOneBit(Math.max(bufferBytes, 2) - 1) << 1;
+        return capacity % frameBytes == 0 ? capacity : 0;
+    }
+
+    public static int getSize(int capacity) {
+        return HEADER_SIZE + capacity;
+    }
+
+    public static void initialize(ByteBuffer buffer, int capacity) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < HEADER_SIZE; i += 4) buffer.putInt(i, 0);
+        buffer.putInt(CAPACITY, capacity);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int available() {
+        return atomics.load(buffer, WRITE_INDEX) - atomics.load(buffer, READ_INDEX);
+    }
+
+    /**
+     * Returns a view of up to length readable bytes that do not wrap around the end of the ring,
+     * to be followed by {@link #advanceRead(int)}.
+     */
+    public ByteBuffer peek(int length) {
+        int readIndex = atomics.load(buffer, READ_INDEX);
+        int start = readIndex & mask;
+        length = Math.min(Math.min(length, atomics.load(buffer, WRITE_INDEX) - readIndex), capacity - start);
+        data.limit(start + length).position(start);
+        return data;
+    }
+
+    public void advanceRead(int length) {
+        atomics.store(buffer, READ_INDEX, atomics.load(buffer, READ_INDEX) + length);
+        int minFree = atomics.load(buffer, PRODUCER_WAITING);
+        if (minFree != 0 && free() >= minFree) {
+            atomics.store(buffer, PRODUCER_WAITING, 0);
+            atomics.store(buffer, SPACE_SEQ, atomics.load(buffer, SPACE_SEQ) + 1);
+            atomics.wake(buffer, SPACE_SEQ);
+        }
+    }
+
+    public void skipAll() {
+        advanceRead(available());
+    }
+
+    public void setConsumerWaiting(boolean waiting) {
+        atomics.store(buffer, CONSUMER_WAITING, waiting ? 1 : 0);
+    }
+
+    /**
+     * Producer side, used by in-process clients: copies as much of src as fits and returns the
+     * number of bytes written.
+     */
+    public int write(ByteBuffer src) {
+        int writeIndex = atomics.load(buffer, WRITE_INDEX);
+        int length = Math.min(src.remaining(), capacity - (writeIndex - atomics.load(buffer, READ_INDEX)));
+        int written = 0;
+        while (written < length) {
+            int start = (writeIndex + written) & mask;
+            int part = Math.min(length - written, capacity - start);
+            ByteBuffer source = src.duplicate();
+            source.limit(source.position() + part);
+            data.limit(start + part).position(start);
+            data.put(source);
+            src.position(src.position() + part);
+            written += part;
+        }
+        atomics.store(buffer, WRITE_INDEX, writeIndex + length);
+        return length;
+    }
+
+    public int free() {
+        return capacity - available();
+    }
+
+    public boolean isConsumerWaiting() {
+        return atomics.load(buffer, CONSUMER_WAITING) != 0;
+    }
+
+    /**
+     * Announces that the producer sleeps on SPACE_SEQ until minFree bytes are free, 0 cancels.
+     */
+    public void setProducerWaiting(int minFree) {
+        atomics.store(buffer, PRODUCER_WAITING, minFree);
+    }
+
+    public int getSpaceSequence() {
+        return atomics.load(buffer, SPACE_SEQ);
+    }
+}
@@ -0,0 +1,78 @@
+package com.winlator.alsaserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Sink that records the output as a 16-bit PCM WAV file.
+ */
+public class WavFileSink implements AudioSink {
+    private static final int HEADER_SIZE = 44;
+    private final File file;
+    private RandomAccessFile output;
+    private ByteBuffer buffer;
+    private int channels;
+    private long dataSize;
+
+    public WavFileSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void open(int sampleRate, int channels, int framesPerBuffer) {
+        this.channels = channels;
+        dataSize = 0;
+        buffer = ByteBuffer.allocate(Math.max(framesPerBuffer * channels * 2, HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            output = new RandomAccessFile(file, "rw");
+            output.setLength(0);
+            buffer.put("RIFF".getBytes()).putInt(0).put("WAVE".getBytes());
+            buffer.put("fmt ".getBytes()).putInt(16).putShort((short)1).putShort((short)channels);
+            buffer.putInt(sampleRate).putInt(sampleRate * channels * 2).putShort((short)(channels * 2)).putShort((short)16);
+            buffer.put("data".getBytes()).putInt(0);
+            output.write(buffer.array(), 0, buffer.position());
+        }
+        catch (IOException e) {
+            output = null;
+        }
+    }
+
+    @Override
+    public void write(float[] samples, int frames) {
+        if (output == null) return;
+        int length = frames * channels;
+        if (buffer.capacity() < length * 2) buffer = ByteBuffer.allocate(length * 2).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.clear();
+        for (int i = 0; i < length; i++) {
+            float sample = Math.max(-1.0f, Math.min(1.0f, samples[i]));
+            buffer.putShort((short)(sample * Short.MAX_VALUE));
+        }
+
+        try {
+            output.write(buffer.array(), 0, buffer.position());
+            dataSize += buffer.position();
+        }
+        catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (output == null) return;
+        try {
+            output.seek(4);
+            output.writeInt(Integer.reverseBytes((int)(dataSize + HEADER_SIZE - 8)));
+            output.seek(40);
+            output.writeInt(Integer.reverseBytes((int)dataSize));
+            output.close();
+        }
+        catch (IOException e) {}
+        output = null;
+    }
+}
@@ -421,6 +421,10 @@ public class Container {
         return new File(rootDir, ".container");
     }
 
+    public File getExtractionManifestFile() {
+        return new File(rootDir, ".extraction_manifest");
+    }
+
     public File getDesktopDir() {
         return new File(rootDir, ".wine/drive_c/users/"+ImageFs.USER+"/Desktop/");
     }
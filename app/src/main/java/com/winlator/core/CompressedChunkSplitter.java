@@ -0,0 +1,480 @@
+package com.winlator.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Cuts a compressed stream into chunks that decode independently of each other, without decoding
+ * it: the frames of a zstd stream and the blocks of an xz stream, each wrapped into a stream of
+ * its own. Once a chunk would exceed MAX_CHUNK_SIZE (single frame or single block files) or its
+ * decoded size is unknown, the splitter stops and hands the rest of the input over through
+ * getRemainder.
+ */
+abstract class CompressedChunkSplitter {
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    protected final InputStream source;
+    protected final ByteArrayOutputStream chunk = new ByteArrayOutputStream(StreamUtils.BUFFER_SIZE);
+    protected InputStream remainder;
+    protected long uncompressedSize;
+
+    protected CompressedChunkSplitter(InputStream source) {
+        this.source = source;
+    }
+
+    public static CompressedChunkSplitter create(TarCompressorUtils.Type type, InputStream source) {
+        return type == TarCompressorUtils.Type.XZ ? new XZ(source) : new Zstd(source);
+    }
+
+    /**
+     * Returns the next chunk, or null at the end of the input or if the rest of it has to be
+     * decoded as a whole from getRemainder.
+     */
+    public abstract byte[] next() throws IOException;
+
+    /**
+     * Returns the part of the input that could not be split, which is a valid compressed stream
+     * of its own, or null.
+     */
+    public InputStream getRemainder() {
+        return remainder;
+    }
+
+    /**
+     * Returns the decoded size of the last chunk.
+     */
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    protected int readByte() throws IOException {
+        int value = source.read();
+        if (value == -1) throw new EOFException();
+        chunk.write(value);
+        return value;
+    }
+
+    protected long readLE(int length) throws IOException {
+        long value = 0;
+        for (int i = 0; i < length; i++) value |= (long)readByte() << (i * 8);
+        return value;
+    }
+
+    protected void copy(long length) throws IOException {
+        byte[] buffer = new byte[(int)Math.min(length, StreamUtils.BUFFER_SIZE)];
+        while (length > 0) {
+            int count = source.read(buffer, 0, (int)Math.min(length, buffer.length));
+            if (count == -1) throw new EOFException();
+            chunk.write(buffer, 0, count);
+            length -= count;
+        }
+    }
+
+    /**
+     * Skips exactly length bytes of the source, which may skip less than asked at a time.
+     */
+    protected void skip(long length) throws IOException {
+        while (length > 0) {
+            long count = source.skip(length);
+            if (count <= 0) {
+                if (source.read() == -1) throw new EOFException();
+                count = 1;
+            }
+            length -= count;
+        }
+    }
+
+    protected void giveUp(byte[] prefix) {
+        byte[] data = chunk.toByteArray();
+        InputStream buffered = new ByteArrayInputStream(data);
+        if (prefix != null) buffered = new SequenceInputStream(new ByteArrayInputStream(prefix), buffered);
+        remainder = new SequenceInputStream(buffered, source);
+        chunk.reset();
+    }
+
+    private static class Zstd extends CompressedChunkSplitter {
+        private static final int FRAME_MAGIC = 0xfd2fb528;
+        private static final int SKIPPABLE_MAGIC = 0x184d2a50;
+
+        private Zstd(InputStream source) {
+            super(source);
+        }
+
+        @Override
+        public byte[] next() throws IOException {
+            while (true) {
+                chunk.reset();
+                int first = source.read();
+                if (first == -1) return null;
+                chunk.write(first);
+                int magic = first | (int)(readLE(3) << 8);
+
+                if ((magic & 0xfffffff0) == SKIPPABLE_MAGIC) {
+                    long size = readLE(4);
+                    chunk.reset();
+                    skip(size);
+                    continue;
+                }
+                if (magic != FRAME_MAGIC) throw new IOException("Invalid zstd frame");
+
+                int descriptor = readByte();
+                boolean singleSegment = (descriptor & 0x20) != 0;
+                if (!singleSegment) readByte();
+                readLE(new int[]{0, 1, 2, 4}[descriptor & 3]);
+                int sizeFieldLength = new int[]{singleSegment ? 1 : 0, 2, 4, 8}[descriptor >> 6];
+                uncompressedSize = sizeFieldLength > 0 ? readLE(sizeFieldLength) + (sizeFieldLength == 2 ? 256 : 0) : -1;
+                // Without a content size the decoded frame could be of any size
+                if (uncompressedSize < 0 || uncompressedSize > MAX_CHUNK_SIZE) {
+                    giveUp(null);
+                    return null;
+                }
+
+                boolean lastBlock = false;
+                while (!lastBlock) {
+                    int header = (int)readLE(3);
+                    lastBlock = (header & 1) != 0;
+                    int blockType = (header >> 1) & 3;
+                    int blockSize = header >>> 3;
+                    if (blockType == 3) throw new IOException("Invalid zstd block");
+                    copy(blockType == 1 ? 1 : blockSize);
+                    if (chunk.size() > MAX_CHUNK_SIZE) {
+                        giveUp(null);
+                        return null;
+                    }
+                }
+                if ((descriptor & 0x04) != 0) readLE(4);
+                return chunk.toByteArray();
+            }
+        }
+    }
+
+    private static class XZ extends CompressedChunkSplitter {
+        private static final byte[] HEADER_MAGIC = {(byte)0xfd, '7', 'z', 'X', 'Z', 0};
+        private static final long LZMA2_FILTER_ID = 0x21;
+        private byte[] streamHeader;
+        private int blockCount;
+        private int headerSize;
+        private long compressedSize;
+
+        private XZ(InputStream source) {
+            super(source);
+        }
+
+        private static int getCheckSize(int checkType) {
+            return checkType == 0 ? 0 : 4 << ((checkType - 1) / 3);
+        }
+
+        private long readVLI() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 9; i++) {
+                int b = readByte();
+                value |= (long)(b & 0x7f) << (i * 7);
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Invalid xz integer");
+        }
+
+        private static void writeVLI(ByteArrayOutputStream out, long value) {
+            while (value >= 0x80) {
+                out.write((int)(value | 0x80));
+                value >>>= 7;
+            }
+            out.write((int)value);
+        }
+
+        private static void writeLE(ByteArrayOutputStream out, long value, int length) {
+            for (int i = 0; i < length; i++) out.write((int)(value >>> (i * 8)));
+        }
+
+        /**
+         * Reads the next stream header, skipping stream padding, returns false at the end.
+         */
+        private boolean readStreamHeader() throws IOException {
+            byte[] header = new byte[12];
+            while (true) {
+                int count = 0;
+                while (count < 4) {
+                    int read = source.read(header, count, 4 - count);
+                    if (read == -1) {
+                        if (count == 0) return false;
+                        throw new EOFException();
+                    }
+                    count += read;
+                }
+                if (header[0] != 0 || header[1] != 0 || header[2] != 0 || header[3] != 0) break;
+            }
+            for (int count = 4; count < 12; ) {
+                int read = source.read(header, count, 12 - count);
+                if (read == -1) throw new EOFException();
+                count += read;
+            }
+            for (int i = 0; i < HEADER_MAGIC.length; i++) {
+                if (header[i] != HEADER_MAGIC[i]) throw new IOException("Invalid xz stream");
+            }
+            streamHeader = header;
+            blockCount = 0;
+            return true;
+        }
+
+        private void skipIndexAndFooter() throws IOException {
+            long records = readVLI();
+            for (long i = 0; i < records * 2; i++) readVLI();
+            while (chunk.size() % 4 != 0) readByte();
+            readLE(4 + 12);
+            chunk.reset();
+        }
+
+        /**
+         * Reads the rest of a block header after its size byte, leaving the sizes it stores in
+         * compressedSize and uncompressedSize, -1 if absent, and returns the id of its last filter.
+         */
+        private long readBlockHeader(int headerSizeByte) throws IOException {
+            headerSize = (headerSizeByte + 1) * 4;
+            compressedSize = -1;
+            uncompressedSize = -1;
+            int flags = readByte();
+            if ((flags & 0x40) != 0) compressedSize = readVLI();
+            if ((flags & 0x80) != 0) uncompressedSize = readVLI();
+            long filterId = 0;
+            for (int i = 0, filters = (flags & 3) + 1; i < filters; i++) {
+                filterId = readVLI();
+                copy(readVLI());
+            }
+            copy(headerSize - chunk.size());
+            return filterId;
+        }
+
+        /**
+         * Copies the next LZMA2 chunk, returns its decoded size, or -1 for the end marker.
+         */
+        private int copyLZMA2Chunk() throws IOException {
+            int control = readByte();
+            if (control == 0x00) return -1;
+            if (control == 0x01 || control == 0x02) {
+                int length = (readByte() << 8 | readByte()) + 1;
+                copy(length);
+                return length;
+            }
+            else if (control >= 0x80) {
+                int size = ((control & 0x1f) << 16 | readByte() << 8 | readByte()) + 1;
+                int packedSize = (readByte() << 8 | readByte()) + 1;
+                copy(packedSize + (control >= 0xc0 ? 1 : 0));
+                return size;
+            }
+            else throw new IOException("Invalid LZMA2 chunk");
+        }
+
+        @Override
+        public byte[] next() throws IOException {
+            while (true) {
+                chunk.reset();
+                if (streamHeader == null && !readStreamHeader()) return null;
+
+                int headerSizeByte = readByte();
+                if (headerSizeByte == 0) {
+                    skipIndexAndFooter();
+                    streamHeader = null;
+                    continue;
+                }
+
+                boolean lzma2 = readBlockHeader(headerSizeByte) == LZMA2_FILTER_ID;
+                if (compressedSize > MAX_CHUNK_SIZE || uncompressedSize > MAX_CHUNK_SIZE || (!lzma2 && (compressedSize == -1 || uncompressedSize == -1))) {
+                    giveUpBlock(lzma2);
+                    return null;
+                }
+
+                if (lzma2) {
+                    // The chunk headers give the decoded size even when the block header does not
+                    long size = 0;
+                    int chunkSize;
+                    while ((chunkSize = copyLZMA2Chunk()) != -1) {
+                        size += chunkSize;
+                        if (chunk.size() > MAX_CHUNK_SIZE || size > MAX_CHUNK_SIZE) {
+                            giveUpBlock(true);
+                            return null;
+                        }
+                    }
+                    uncompressedSize = size;
+                    compressedSize = chunk.size() - headerSize;
+                }
+                else copy(compressedSize);
+
+                while (chunk.size() % 4 != 0) readByte();
+                int checkSize = getCheckSize(streamHeader[7] & 0x0f);
+                copy(checkSize);
+                blockCount++;
+                return wrapBlock(chunk.toByteArray(), headerSize + compressedSize + checkSize);
+            }
+        }
+
+        /**
+         * Hands the rest of the stream over from the current block. Past the first block of a
+         * stream the blocks already returned are dropped from its index, so that the rest still
+         * decodes as a stream of its own.
+         */
+        private void giveUpBlock(boolean lzma2) throws IOException {
+            if (blockCount == 0) {
+                giveUp(streamHeader);
+                return;
+            }
+            // Without a compressed size only the LZMA2 chunks tell where a block ends
+            if (!lzma2 && compressedSize == -1) throw new IOException("Unsupported xz filter chain");
+
+            ByteArrayOutputStream prefix = new ByteArrayOutputStream(streamHeader.length + chunk.size());
+            prefix.write(streamHeader, 0, streamHeader.length);
+            chunk.writeTo(prefix);
+            long dataLeft = lzma2 ? -1 : compressedSize - (chunk.size() - headerSize);
+            remainder = new SequenceInputStream(new ByteArrayInputStream(prefix.toByteArray()), new BlockRemainder(chunk.size(), dataLeft));
+            chunk.reset();
+        }
+
+        /**
+         * Returns an index of the given unpadded and uncompressed size pairs followed by a stream
+         * footer.
+         */
+        private byte[] getIndexAndFooter(long... records) {
+            ByteArrayOutputStream index = new ByteArrayOutputStream(16);
+            index.write(0);
+            writeVLI(index, records.length / 2);
+            for (long value : records) writeVLI(index, value);
+            while (index.size() % 4 != 0) index.write(0);
+            CRC32 crc32 = new CRC32();
+            crc32.update(index.toByteArray());
+            writeLE(index, crc32.getValue(), 4);
+
+            ByteArrayOutputStream footerFields = new ByteArrayOutputStream(6);
+            writeLE(footerFields, index.size() / 4 - 1, 4);
+            footerFields.write(streamHeader[6]);
+            footerFields.write(streamHeader[7]);
+            crc32.reset();
+            crc32.update(footerFields.toByteArray());
+
+            writeLE(index, crc32.getValue(), 4);
+            index.write(footerFields.toByteArray(), 0, footerFields.size());
+            index.write('Y');
+            index.write('Z');
+            return index.toByteArray();
+        }
+
+        /**
+         * Returns a single block xz stream made of the stream header, the block, an index and a
+         * stream footer.
+         */
+        private byte[] wrapBlock(byte[] block, long unpaddedSize) {
+            byte[] indexAndFooter = getIndexAndFooter(unpaddedSize, uncompressedSize);
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(streamHeader.length + block.length + indexAndFooter.length);
+            stream.write(streamHeader, 0, streamHeader.length);
+            stream.write(block, 0, block.length);
+            stream.write(indexAndFooter, 0, indexAndFooter.length);
+            return stream.toByteArray();
+        }
+
+        /**
+         * Passes the rest of the current stream through a piece at a time, from the middle of a
+         * block, rewriting its index without the records of the blocks already returned, then the
+         * input that follows the stream as it is.
+         */
+        private class BlockRemainder extends InputStream {
+            private static final byte STATE_DATA = 0;
+            private static final byte STATE_BLOCK_END = 1;
+            private static final byte STATE_BLOCK_HEADER = 2;
+            private static final byte STATE_DONE = 3;
+            private final int droppedRecords = blockCount;
+            private final int checkSize = getCheckSize(streamHeader[7] & 0x0f);
+            private byte state = STATE_DATA;
+            private long blockSize;
+            private long dataLeft;
+            private byte[] buffer = new byte[0];
+            private int position;
+
+            private BlockRemainder(long blockSize, long dataLeft) {
+                this.blockSize = blockSize;
+                this.dataLeft = dataLeft;
+            }
+
+            /**
+             * Reads the next piece of the stream into the buffer, returns false past its footer.
+             */
+            private boolean fill() throws IOException {
+                chunk.reset();
+                switch (state) {
+                    case STATE_DATA:
+                        if (dataLeft == -1) {
+                            if (copyLZMA2Chunk() == -1) state = STATE_BLOCK_END;
+                        }
+                        else {
+                            long count = Math.min(dataLeft, StreamUtils.BUFFER_SIZE);
+                            copy(count);
+                            dataLeft -= count;
+                            if (dataLeft == 0) state = STATE_BLOCK_END;
+                        }
+                        blockSize += chunk.size();
+                        break;
+                    case STATE_BLOCK_END:
+                        while ((blockSize + chunk.size()) % 4 != 0) readByte();
+                        copy(checkSize);
+                        state = STATE_BLOCK_HEADER;
+                        break;
+                    case STATE_BLOCK_HEADER:
+                        int headerSizeByte = readByte();
+                        if (headerSizeByte == 0) {
+                            rewriteIndexAndFooter();
+                            state = STATE_DONE;
+                            break;
+                        }
+                        boolean lzma2 = readBlockHeader(headerSizeByte) == LZMA2_FILTER_ID;
+                        if (!lzma2 && compressedSize == -1) throw new IOException("Unsupported xz filter chain");
+                        dataLeft = lzma2 ? -1 : compressedSize;
+                        blockSize = chunk.size();
+                        state = STATE_DATA;
+                        break;
+                    default:
+                        return false;
+                }
+                buffer = chunk.toByteArray();
+                position = 0;
+                return true;
+            }
+
+            private void rewriteIndexAndFooter() throws IOException {
+                long records = readVLI();
+                if (records <= droppedRecords) throw new IOException("Invalid xz index");
+                long[] keptRecords = new long[(int)(records - droppedRecords) * 2];
+                for (long i = 0; i < records; i++) {
+                    long unpadded = readVLI();
+                    long uncompressed = readVLI();
+                    if (i < droppedRecords) continue;
+                    keptRecords[(int)(i - droppedRecords) * 2] = unpadded;
+                    keptRecords[(int)(i - droppedRecords) * 2 + 1] = uncompressed;
+                }
+                while (chunk.size() % 4 != 0) readByte();
+                readLE(4 + 12);
+                chunk.reset();
+                byte[] indexAndFooter = getIndexAndFooter(keptRecords);
+                chunk.write(indexAndFooter, 0, indexAndFooter.length);
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                while (position == buffer.length) {
+                    if (!fill()) return source.read(b, off, len);
+                }
+                int count = Math.min(len, buffer.length - position);
+                System.arraycopy(buffer, position, b, off, count);
+                position += count;
+                return count;
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.winlator.core;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Record of extracted archives, kept in a metadata file outside of the directories they were
+ * extracted into. An archive is identified by a cheap source key and the hash of its data, and
+ * lists the files it wrote by absolute path with their size and modification time, so checking
+ * whether it is still in place takes one stat per file. The file holds a section per archive:
+ * <pre>
+ * [name]
+ * source=key
+ * hash=hex
+ * size	mtime	path
+ * </pre>
+ */
+class ExtractionManifest {
+    private static final long SYMLINK_SIZE = -1;
+    private final File file;
+    private final LinkedHashMap<String, Archive> archives = new LinkedHashMap<>();
+
+    public static class Archive {
+        private String sourceKey;
+        private final String hash;
+        private final LinkedHashMap<String, long[]> files = new LinkedHashMap<>();
+
+        private Archive(String sourceKey, String hash) {
+            this.sourceKey = sourceKey;
+            this.hash = hash;
+        }
+
+        public String getSourceKey() {
+            return sourceKey;
+        }
+
+        public void setSourceKey(String sourceKey) {
+            this.sourceKey = sourceKey;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public boolean contains(String path) {
+            return files.containsKey(path);
+        }
+
+        public int getFileCount() {
+            return files.size();
+        }
+    }
+
+    public ExtractionManifest(File file) {
+        this.file = file;
+        if (file.isFile()) parse(FileUtils.readLines(file));
+    }
+
+    private void parse(ArrayList<String> lines) {
+        Archive archive = null;
+        String name = null;
+        String sourceKey = null;
+
+        for (String line : lines) {
+            if (line.startsWith("[") && line.endsWith("]")) {
+                name = line.substring(1, line.length() - 1);
+                sourceKey = null;
+                archive = null;
+            }
+            else if (name == null) {
+                continue;
+            }
+            else if (line.startsWith("source=")) {
+                sourceKey = line.substring(7);
+            }
+            else if (line.startsWith("hash=")) {
+                if (sourceKey == null) continue;
+                archive = new Archive(sourceKey, line.substring(5));
+                archives.put(name, archive);
+            }
+            else if (archive != null) {
+                String[] parts = line.split("\t", 3);
+                if (parts.length != 3) continue;
+                try {
+                    archive.files.put(parts[2], new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])});
+                }
+                catch (NumberFormatException e) {}
+            }
+        }
+    }
+
+    public Archive get(String name) {
+        return archives.get(name);
+    }
+
+    /**
+     * Starts a new record for the archive, replacing the previous one.
+     */
+    public Archive put(String name, String sourceKey, String hash) {
+        Archive archive = new Archive(sourceKey, hash);
+        archives.put(name, archive);
+        return archive;
+    }
+
+    public void remove(String name) {
+        archives.remove(name);
+    }
+
+    /**
+     * Stores the current size and modification time of an extracted file, directories are not
+     * recorded.
+     */
+    public void record(Archive archive, File file) {
+        String path = file.getAbsolutePath();
+        if (FileUtils.isSymlink(file)) {
+            archive.files.put(path, new long[]{SYMLINK_SIZE, 0});
+        }
+        else if (file.isFile()) {
+            archive.files.put(path, new long[]{file.length(), file.lastModified()});
+        }
+        else archive.files.remove(path);
+    }
+
+    /**
+     * Returns the paths of the recorded files that were modified or removed since.
+     */
+    public HashSet<String> getModifiedFiles(Archive archive) {
+        HashSet<String> modifiedFiles = new HashSet<>();
+        for (Map.Entry<String, long[]> entry : archive.files.entrySet()) {
+            File file = new File(entry.getKey());
+            long[] stat = entry.getValue();
+            boolean unchanged = stat[0] == SYMLINK_SIZE ? FileUtils.isSymlink(file) :
+                !FileUtils.isSymlink(file) && file.length() == stat[0] && file.lastModified() == stat[1];
+            if (!unchanged) modifiedFiles.add(entry.getKey());
+        }
+        return modifiedFiles;
+    }
+
+    public boolean save() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Archive> entry : archives.entrySet()) {
+            Archive archive = entry.getValue();
+            sb.append('[').append(entry.getKey()).append("]\n");
+            sb.append("source=").append(archive.sourceKey).append('\n');
+            sb.append("hash=").append(archive.hash).append('\n');
+            for (Map.Entry<String, long[]> fileEntry : archive.files.entrySet()) {
+                long[] stat = fileEntry.getValue();
+                sb.append(stat[0]).append('\t').append(stat[1]).append('\t').append(fileEntry.getKey()).append('\n');
+            }
+        }
+
+        File parent = file.getParentFile();
+        if (parent == null || (!parent.isDirectory() && !parent.mkdirs())) return false;
+        File tempFile = FileUtils.createTempFile(parent, file.getName());
+        if (FileUtils.write(tempFile, sb.toString().getBytes(StandardCharsets.UTF_8)) && tempFile.renameTo(file)) return true;
+        tempFile.delete();
+        return false;
+    }
+}
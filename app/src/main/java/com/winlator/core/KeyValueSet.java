@@ -2,10 +2,25 @@ package com.winlator.core;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 
+/**
+ * Comma separated key=value pairs. The string is parsed once on first access into an ordered
+ * list of entries indexed by key, and is only encoded again when it is serialized. Lookups behave
+ * like a scan of the string: the first entry of a key wins and parsing stops at an empty or
+ * malformed item, whose remainder is kept verbatim.
+ */
 public class KeyValueSet implements Iterable<String[]> {
     private String data;
+    private volatile Entries entries;
+
+    private static class Entries {
+        private final ArrayList<String[]> list = new ArrayList<>();
+        private final HashMap<String, Integer> index = new HashMap<>();
+        private String tail;
+    }
 
     public KeyValueSet() {
         this.data = "";
@@ -16,33 +31,39 @@ public class KeyValueSet implements Iterable<String[]> {
     }
 
     public KeyValueSet(String data) {
-        String str = "";
-        this.data = "";
-        if (data != null && !data.isEmpty()) {
-            str = data;
-        }
-        this.data = str;
+        this.data = data != null ? data : "";
     }
 
     public String getData(){
-        return data;
+        return toString();
     }
 
-    private int[] indexOfKey(String key) {
+    /**
+     * Returns the parsed entries, which are built completely before they are published so that
+     * a thread reading the set never sees them half filled.
+     */
+    private Entries parse() {
+        Entries entries = this.entries;
+        if (entries != null) return entries;
+        entries = new Entries();
+
+        String data = this.data;
         int start = 0;
-        int end = data.indexOf(",");
-        if (end == -1) end = data.length();
-
-        while (start < end) {
-            int index = data.indexOf("=", start);
-            String currKey = data.substring(start, index);
-            if (currKey.equals(key)) return new int[]{start, end};
-            start = end+1;
-            end = data.indexOf(",", start);
-            if (end == -1) end = data.length();
+        int length = data.length();
+        while (start < length) {
+            int end = data.indexOf(',', start);
+            if (end == -1) end = length;
+            int separator = data.indexOf('=', start);
+            if (end == start || separator == -1 || separator > end) break;
+
+            String key = data.substring(start, separator);
+            entries.index.putIfAbsent(key, entries.list.size());
+            entries.list.add(new String[]{key, data.substring(separator + 1, end)});
+            start = end + 1;
         }
-
-        return null;
+        entries.tail = start > 0 ? data.substring(Math.min(start - 1, length)) : data;
+        this.entries = entries;
+        return entries;
     }
 
     public String get(String key) {
@@ -50,17 +71,9 @@ public class KeyValueSet implements Iterable<String[]> {
     }
 
     public String get(String key, String fallback) {
-        if (this.data.isEmpty()) {
-            return fallback;
-        }
-        Iterator<String[]> it = iterator();
-        while (it.hasNext()) {
-            String[] keyValue = it.next();
-            if (keyValue[0].equals(key)) {
-                return keyValue[1];
-            }
-        }
-        return fallback;
+        Entries entries = parse();
+        Integer position = entries.index.get(key);
+        return position != null ? entries.list.get(position)[1] : fallback;
     }
 
     public float getFloat(String key, float fallback) {
@@ -106,52 +119,42 @@ public class KeyValueSet implements Iterable<String[]> {
     }
 
     public KeyValueSet put(String key, Object value) {
-        String str;
-        int[] range = indexOfKey(key);
-        if (range != null) {
-            this.data = StringUtils.replace(this.data, range[0], range[1], key + "=" + value);
-        } else {
-            StringBuilder sb = new StringBuilder();
-            if (this.data.isEmpty()) {
-                str = "";
-            } else {
-                str = this.data + ",";
-            }
-            sb.append(str);
-            sb.append(key);
-            sb.append("=");
-            sb.append(value);
-            this.data = sb.toString();
+        Entries entries = parse();
+        String str = String.valueOf(value);
+        Integer position = entries.index.get(key);
+        if (position != null) {
+            entries.list.get(position)[1] = str;
+        }
+        else if (entries.tail.isEmpty()) {
+            entries.index.put(key, entries.list.size());
+            entries.list.add(new String[]{key, str});
+        }
+        else entries.tail += "," + key + "=" + str;
+        data = null;
+
+        // Separators inside the pair change how the string splits, so it is parsed again
+        if (key.indexOf(',') != -1 || key.indexOf('=') != -1 || str.indexOf(',') != -1) {
+            data = toString();
+            this.entries = null;
         }
         return this;
     }
 
     @Override // java.lang.Iterable
     public Iterator<String[]> iterator() {
-        int index = this.data.indexOf(",");
-        final int[] start = {0};
-        final int[] end = new int[1];
-        end[0] = index != -1 ? index : this.data.length();
+        final Iterator<String[]> it = parse().list.iterator();
         final String[] item = new String[2];
-        return new Iterator<String[]>() { // from class: com.winlator.core.KeyValueSet.1
+        return new Iterator<String[]>() {
             @Override // java.util.Iterator
             public boolean hasNext() {
-                return start[0] < end[0];
+                return it.hasNext();
             }
 
             @Override // java.util.Iterator
             public String[] next() {
-                int index2 = KeyValueSet.this.data.indexOf("=", start[0]);
-                item[0] = KeyValueSet.this.data.substring(start[0], index2);
-                item[1] = KeyValueSet.this.data.substring(index2 + 1, end[0]);
-                int[] iArr = start;
-                int[] iArr2 = end;
-                iArr[0] = iArr2[0] + 1;
-                iArr2[0] = KeyValueSet.this.data.indexOf(",", start[0]);
-                int[] iArr3 = end;
-                if (iArr3[0] == -1) {
-                    iArr3[0] = KeyValueSet.this.data.length();
-                }
+                String[] entry = it.next();
+                item[0] = entry[0];
+                item[1] = entry[1];
                 return item;
             }
         };
@@ -160,10 +163,21 @@ public class KeyValueSet implements Iterable<String[]> {
     @NonNull
     @Override
     public String toString() {
+        String data = this.data;
+        if (data == null) {
+            Entries entries = this.entries;
+            StringBuilder sb = new StringBuilder();
+            for (String[] entry : entries.list) {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(entry[0]).append('=').append(entry[1]);
+            }
+            data = sb.append(entries.tail).toString();
+            this.data = data;
+        }
         return data;
     }
 
     public boolean isEmpty() {
-        return this.data.isEmpty();
+        return toString().isEmpty();
     }
 }
@@ -0,0 +1,113 @@
+package com.winlator.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses the independent chunks found by CompressedChunkSplitter on a pool of threads and
+ * returns their data in order, keeping as many chunks in flight as there are threads. The part
+ * of the input that cannot be split is decoded sequentially after the last chunk.
+ */
+class ParallelDecompressorInputStream extends InputStream {
+    private final TarCompressorUtils.Type type;
+    private final InputStream source;
+    private final CompressedChunkSplitter splitter;
+    private final ExecutorService executor;
+    private final int maxPendingChunks;
+    private final ArrayDeque<Future<byte[]>> pendingChunks = new ArrayDeque<>();
+    private InputStream remainder;
+    private boolean splitterDone = false;
+    private byte[] buffer;
+    private int position;
+
+    public ParallelDecompressorInputStream(TarCompressorUtils.Type type, InputStream source, int threads) {
+        this.type = type;
+        this.source = source;
+        this.splitter = CompressedChunkSplitter.create(type, source);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.maxPendingChunks = threads;
+    }
+
+    private byte[] decode(byte[] chunk, int size) throws IOException {
+        byte[] data = new byte[size];
+        try (InputStream inStream = TarCompressorUtils.getCompressorInputStream(type, new ByteArrayInputStream(chunk))) {
+            int offset = 0;
+            while (offset < size) {
+                int count = inStream.read(data, offset, size - offset);
+                if (count == -1) throw new IOException("Truncated chunk");
+                offset += count;
+            }
+        }
+        return data;
+    }
+
+    private void submitChunks() throws IOException {
+        while (!splitterDone && pendingChunks.size() < maxPendingChunks) {
+            byte[] chunk = splitter.next();
+            if (chunk != null) {
+                int size = (int)splitter.getUncompressedSize();
+                pendingChunks.add(executor.submit(() -> decode(chunk, size)));
+            }
+            else {
+                splitterDone = true;
+                InputStream rest = splitter.getRemainder();
+                if (rest != null) remainder = TarCompressorUtils.getCompressorInputStream(type, rest);
+            }
+        }
+    }
+
+    /**
+     * Makes the buffer hold unread data, returns false once only the remainder is left.
+     */
+    private boolean fillBuffer() throws IOException {
+        while (buffer == null || position == buffer.length) {
+            submitChunks();
+            Future<byte[]> future = pendingChunks.poll();
+            if (future == null) return false;
+            try {
+                buffer = future.get();
+                position = 0;
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (fillBuffer()) return buffer[position++] & 0xff;
+        return remainder != null ? remainder.read() : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (fillBuffer()) {
+            int count = Math.min(len, buffer.length - position);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+        return remainder != null ? remainder.read(b, off, len) : -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        pendingChunks.clear();
+        if (remainder != null) remainder.close();
+        source.close();
+    }
+}
@@ -3,6 +3,8 @@ package com.winlator.core;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.net.Uri;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
 import org.apache.commons.compress.archivers.ArchiveInputStream;
@@ -18,6 +20,7 @@ import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStr
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -25,9 +28,24 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class TarCompressorUtils {
     public enum Type {XZ, ZSTD}
+    private static final int EXTRACT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int MAX_BUFFERED_FILE_SIZE = 4 * 1024 * 1024;
+    private static final int WRITE_BUDGET_SIZE = 32 * 1024 * 1024;
+    private static final int FILE_MODE = 0771;
 
     private static void addFile(ArchiveOutputStream tar, File file, String entryName) {
         try {
@@ -115,6 +133,90 @@ public abstract class TarCompressorUtils {
         }
     }
 
+    public static boolean extractIfChanged(Type type, Context context, String assetFile, File destination, File manifestFile) {
+        return extractIfChanged(type, context, assetFile, destination, manifestFile, null, null);
+    }
+
+    /**
+     * Extracts an asset unless the extraction manifest shows that it is already in place. The
+     * archive is identified by the size and modification time of the APK, and by the hash of its
+     * data once the APK changed, so an unchanged archive costs a stat of each file it wrote, and
+     * only its files that were modified or removed since are written again. The files are recorded
+     * where the listener put them, so a listener that maps them differently must come with its own
+     * variant.
+     */
+    public static boolean extractIfChanged(Type type, Context context, String assetFile, File destination, File manifestFile, String variant, OnExtractFileListener onExtractFileListener) {
+        AssetManager assetManager = context.getAssets();
+        File apkFile = new File(context.getApplicationInfo().sourceDir);
+        String sourceKey = apkFile.length() + ":" + apkFile.lastModified();
+        String name = variant != null ? assetFile + ":" + variant : assetFile;
+        ExtractionManifest manifest = new ExtractionManifest(manifestFile);
+        ExtractionManifest.Archive archive = manifest.get(name);
+
+        String hash = null;
+        if (archive != null && !sourceKey.equals(archive.getSourceKey())) {
+            hash = getAssetHash(assetManager, assetFile);
+            if (hash == null || !hash.equals(archive.getHash())) archive = null;
+        }
+
+        Set<String> modifiedFiles = null;
+        if (archive != null) {
+            modifiedFiles = manifest.getModifiedFiles(archive);
+            if (modifiedFiles.isEmpty()) {
+                if (!sourceKey.equals(archive.getSourceKey())) {
+                    archive.setSourceKey(sourceKey);
+                    manifest.save();
+                }
+                Log.d("TarCompressorUtils", "Skipped extracting unchanged " + assetFile);
+                return true;
+            }
+            Log.d("TarCompressorUtils", "Restoring " + modifiedFiles.size() + " modified files of " + assetFile);
+        }
+        else {
+            if (hash == null) hash = getAssetHash(assetManager, assetFile);
+            if (hash == null) return false;
+        }
+
+        final ExtractionManifest.Archive previousArchive = archive;
+        final Set<String> filesToExtract = modifiedFiles;
+        ArrayList<File> extractedFiles = new ArrayList<>();
+        boolean success = extract(type, assetManager, assetFile, destination, (file, size) -> {
+            if (onExtractFileListener != null) {
+                file = onExtractFileListener.onExtractFile(file, size);
+                if (file == null) return null;
+            }
+            String path = file.getAbsolutePath();
+            if (previousArchive != null && previousArchive.contains(path) && !filesToExtract.contains(path)) return null;
+            extractedFiles.add(file);
+            return file;
+        });
+
+        if (success) {
+            if (archive == null) archive = manifest.put(name, sourceKey, hash);
+            archive.setSourceKey(sourceKey);
+            for (File file : extractedFiles) manifest.record(archive, file);
+        }
+        else manifest.remove(name);
+        manifest.save();
+        return success;
+    }
+
+    private static String getAssetHash(AssetManager assetManager, String assetFile) {
+        try (InputStream inStream = assetManager.open(assetFile)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+            int amountRead;
+            while ((amountRead = inStream.read(buffer)) != -1) digest.update(buffer, 0, amountRead);
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) sb.append(String.format(Locale.ENGLISH, "%02x", b));
+            return sb.toString();
+        }
+        catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
     public static boolean extract(Type type, Context context, Uri source, File destination) {
         return extract(type, context, source, destination, null);
     }
@@ -147,12 +249,26 @@ public abstract class TarCompressorUtils {
         }
     }
 
+    /**
+     * Extracts the archive as a pipeline: the compressed stream is decoded on several threads
+     * where its format allows it (see ParallelDecompressorInputStream), this thread reads the tar
+     * entries in order and creates directories and symlinks itself, and regular files are handed
+     * over to a pool of writers within a bounded memory budget. Permissions are applied without
+     * logging each file, those of directories and symlinks once all files are written.
+     */
     private static boolean extract(Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener) {
         if (source == null) return false;
-        try (InputStream inStream = getCompressorInputStream(type, source);
+        ExecutorService writers = Executors.newFixedThreadPool(EXTRACT_THREADS);
+        Semaphore writeBudget = new Semaphore(WRITE_BUDGET_SIZE);
+        AtomicBoolean writeFailed = new AtomicBoolean(false);
+        Set<String> pendingPaths = ConcurrentHashMap.newKeySet();
+        ArrayList<String> deferredPaths = new ArrayList<>();
+        boolean success = false;
+
+        try (InputStream inStream = new ParallelDecompressorInputStream(type, source, EXTRACT_THREADS);
              ArchiveInputStream tar = new TarArchiveInputStream(inStream)) {
             TarArchiveEntry entry;
-            while ((entry = (TarArchiveEntry)tar.getNextEntry()) != null) {
+            while ((entry = (TarArchiveEntry)tar.getNextEntry()) != null && !writeFailed.get()) {
                 if (!tar.canReadEntryData(entry)) continue;
                 File file = new File(destination, entry.getName());
 
@@ -161,31 +277,88 @@ public abstract class TarCompressorUtils {
                     if (file == null) continue;
                 }
 
+                String path = file.getAbsolutePath();
+                if (pendingPaths.contains(path)) {
+                    writeBudget.acquire(WRITE_BUDGET_SIZE);
+                    writeBudget.release(WRITE_BUDGET_SIZE);
+                }
+
                 if (entry.isDirectory()) {
                     if (!file.isDirectory()) file.mkdirs();
+                    deferredPaths.add(path);
                 }
-                else {
-                    if (entry.isSymbolicLink()) {
-                        FileUtils.symlink(entry.getLinkName(), file.getAbsolutePath());
-                    }
-                    else {
-                        try (BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file), StreamUtils.BUFFER_SIZE)) {
-                            if (!StreamUtils.copy(tar, outStream)) return false;
+                else if (entry.isSymbolicLink()) {
+                    FileUtils.symlink(entry.getLinkName(), path);
+                    deferredPaths.add(path);
+                }
+                else if (entry.getSize() <= MAX_BUFFERED_FILE_SIZE) {
+                    byte[] data = new byte[(int)entry.getSize()];
+                    readFully(tar, data);
+                    int permits = Math.max(1, data.length);
+                    writeBudget.acquire(permits);
+                    pendingPaths.add(path);
+                    writers.execute(() -> {
+                        try (FileOutputStream outStream = new FileOutputStream(path)) {
+                            outStream.write(data);
+                            setPermissions(path);
                         }
+                        catch (IOException e) {
+                            Log.e("TarCompressorUtils", "Failed to write " + path + ": " + e);
+                            writeFailed.set(true);
+                        }
+                        finally {
+                            pendingPaths.remove(path);
+                            writeBudget.release(permits);
+                        }
+                    });
+                }
+                else {
+                    try (BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file), StreamUtils.BUFFER_SIZE)) {
+                        if (!StreamUtils.copy(tar, outStream)) return false;
                     }
+                    setPermissions(path);
                 }
-
-                FileUtils.chmod(file, 0771);
             }
-            return true;
+            success = true;
         }
-        catch (IOException e) {
+        catch (IOException | InterruptedException e) {
             e.printStackTrace();
-            return false;
+        }
+        finally {
+            writers.shutdown();
+            try {
+                writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                writers.shutdownNow();
+                success = false;
+            }
+        }
+
+        if (!success || writeFailed.get()) return false;
+        for (String path : deferredPaths) setPermissions(path);
+        return true;
+    }
+
+    private static void readFully(InputStream inStream, byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int count = inStream.read(data, offset, data.length - offset);
+            if (count == -1) throw new EOFException();
+            offset += count;
+        }
+    }
+
+    private static void setPermissions(String path) {
+        try {
+            Os.chmod(path, FILE_MODE);
+        }
+        catch (ErrnoException e) {
+            Log.e("TarCompressorUtils", "Failed to chmod " + path + ": " + e);
         }
     }
 
-    private static InputStream getCompressorInputStream(Type type, InputStream source) throws IOException {
+    static InputStream getCompressorInputStream(Type type, InputStream source) throws IOException {
         if (type == Type.XZ) {
             return new XZCompressorInputStream(source);
         }
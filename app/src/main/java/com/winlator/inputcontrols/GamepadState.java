@@ -3,6 +3,8 @@ package com.winlator.inputcontrols;
 import java.nio.ByteBuffer;
 
 public class GamepadState {
+    /** Size in bytes of the state written by {@link #writeTo(ByteBuffer)}. */
+    public static final int SIZE = 13;
     public float thumbLX = 0;
     public float thumbLY = 0;
     public float thumbRX = 0;
@@ -36,6 +38,21 @@ public class GamepadState {
         buffer.put((byte)(triggerR * 255));
     }
 
+    /**
+     * Reads a state written by {@link #writeTo(ByteBuffer)}.
+     */
+    public void readFrom(ByteBuffer buffer) {
+        buttons = buffer.getShort();
+        byte povHat = buffer.get();
+        for (byte i = 0; i < 4; i++) dpad[i] = povHat != -1 && (povHat == i * 2 || povHat == i * 2 + 1 || povHat == (i * 2 + 7) % 8);
+        thumbLX = buffer.getShort() / (float)Short.MAX_VALUE;
+        thumbLY = buffer.getShort() / (float)Short.MAX_VALUE;
+        thumbRX = buffer.getShort() / (float)Short.MAX_VALUE;
+        thumbRY = buffer.getShort() / (float)Short.MAX_VALUE;
+        triggerL = (buffer.get() & 0xff) / 255.0f;
+        triggerR = (buffer.get() & 0xff) / 255.0f;
+    }
+
     public void setPressed(int buttonIdx, boolean pressed) {
         int flag = 1<<buttonIdx;
         if (pressed) {
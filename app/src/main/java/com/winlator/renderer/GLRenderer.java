@@ -15,22 +15,24 @@ import com.winlator.renderer.material.CursorMaterial;
 import com.winlator.renderer.material.ShaderMaterial;
 import com.winlator.renderer.material.WindowMaterial;
 import com.winlator.widget.XServerView;
+import com.winlator.xserver.Atom;
 import com.winlator.xserver.Bitmask;
 import com.winlator.xserver.Cursor;
 import com.winlator.xserver.Drawable;
 import com.winlator.xserver.Pointer;
+import com.winlator.xserver.Property;
 import com.winlator.xserver.Window;
 import com.winlator.xserver.WindowAttributes;
 import com.winlator.xserver.WindowManager;
 import com.winlator.xserver.XLock;
+import com.winlator.xserver.XResource;
+import com.winlator.xserver.XResourceManager;
 import com.winlator.xserver.XServer;
 
-import java.util.ArrayList;
-
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindowModificationListener, Pointer.OnPointerMotionListener {
+public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindowModificationListener, XResourceManager.OnResourceLifecycleListener, Pointer.OnPointerMotionListener {
     public final XServerView xServerView;
     private final XServer xServer;
     private final VertexAttribute quadVertices = new VertexAttribute("position", 2);
@@ -40,7 +42,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     private final WindowMaterial windowMaterial = new WindowMaterial();
     public final ViewTransformation viewTransformation = new ViewTransformation();
     private final Drawable rootCursorDrawable;
-    private final ArrayList<RenderableWindow> renderableWindows = new ArrayList<>();
+    private final WindowScene scene;
     private String forceFullscreenWMClass = null;
     private boolean fullscreen = false;
     private boolean toggleFullscreen = false;
@@ -53,6 +55,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     private int surfaceWidth;
     private int surfaceHeight;
     private boolean sceneInitialized = false;
+    private int frameUploadSize = 0;
+    private int lastFrameUploadSize = 0;
 
     public GLRenderer(XServerView xServerView, XServer xServer) {
         this.xServerView = xServerView;
@@ -66,7 +70,11 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
                 1.0f, 1.0f
         });
 
-        xServer.windowManager.addOnWindowModificationListener(this);
+        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+            scene = new WindowScene(xServer.windowManager.rootWindow, xServer.screenInfo.width, xServer.screenInfo.height);
+            xServer.windowManager.addOnWindowModificationListener(this);
+            xServer.windowManager.addOnResourceLifecycleListener(this);
+        }
         xServer.pointer.addOnPointerMotionListener(this);
     }
 
@@ -93,7 +101,6 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
             }
             rootCursorDrawable.getTexture().invalidate();
         }
-        updateScene();
         xServerView.requestRender();
     }
 
@@ -138,6 +145,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         }
 
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        frameUploadSize = 0;
 
         if (magnifierEnabled) {
             float pointerX = 0;
@@ -176,6 +184,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         if (cursorVisible) renderCursor();
 
         if (!magnifierEnabled && !fullscreen) GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        lastFrameUploadSize = frameUploadSize;
 
         if (xrFrame) {
             // XrActivity.getInstance().endFrame();
@@ -184,21 +193,35 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         }
     }
 
+    @Override
+    public void onCreateResource(XResource resource) {
+        if (resource instanceof Window) scene.addWindow((Window)resource);
+    }
+
+    @Override
+    public void onFreeResource(XResource resource) {
+        if (resource instanceof Window) {
+            scene.removeWindow((Window)resource);
+            xServerView.requestRender();
+        }
+    }
+
     @Override
     public void onMapWindow(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        scene.updateWindow(window);
+        if (scene.isUnviewable(window) && window.attributes.isEnabled()) window.disableAllDescendants();
         xServerView.requestRender();
     }
 
     @Override
     public void onUnmapWindow(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        scene.updateWindow(window);
         xServerView.requestRender();
     }
 
     @Override
     public void onChangeWindowZOrder(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        scene.restackWindow(window);
         xServerView.requestRender();
     }
 
@@ -210,9 +233,9 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     @Override
     public void onUpdateWindowGeometry(final Window window, boolean resized) {
         if (resized) {
-            xServerView.queueEvent(this::updateScene);
+            scene.updateWindow(window);
         }
-        else xServerView.queueEvent(() -> updateWindowPosition(window));
+        else scene.moveWindow(window);
         xServerView.requestRender();
     }
 
@@ -221,6 +244,14 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         if (mask.isSet(WindowAttributes.FLAG_CURSOR)) xServerView.requestRender();
     }
 
+    @Override
+    public void onModifyWindowProperty(Window window, Property property) {
+        if (property.name != Atom.WM_CLASS) return;
+        scene.updateClassName(window);
+        if (window.attributes.isMapped() && scene.isUnviewable(window) && window.attributes.isEnabled()) window.disableAllDescendants();
+        xServerView.requestRender();
+    }
+
     @Override
     public void onPointerMove(short x, short y) {
         xServerView.requestRender();
@@ -234,6 +265,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         synchronized (drawable.renderLock) {
             Texture texture = drawable.getTexture();
             texture.updateFromDrawable(drawable);
+            frameUploadSize += texture.getLastUploadSize();
 
             if (forceFullscreen) {
                 short newHeight = (short)Math.min(xServer.screenInfo.height, ((float)xServer.screenInfo.width / drawable.width) * drawable.height);
@@ -258,9 +290,11 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         GLES20.glUniform2f(windowMaterial.getUniformLocation("viewSize"), xServer.screenInfo.width, xServer.screenInfo.height);
         quadVertices.bind(windowMaterial.programId);
 
-        try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
-            for (RenderableWindow window : renderableWindows) {
-                renderDrawable(window.content, window.rootX, window.rootY, windowMaterial, window.forceFullscreen);
+        for (RenderableWindow window : scene.getRenderList()) {
+            Drawable content = window.content;
+            synchronized (content.renderLock) {
+                Drawable flipSource = content.getFlipSource();
+                renderDrawable(flipSource != null ? flipSource : content, window.rootX, window.rootY, windowMaterial, window.forceFullscreen);
             }
         }
 
@@ -272,17 +306,15 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         GLES20.glUniform2f(cursorMaterial.getUniformLocation("viewSize"), xServer.screenInfo.width, xServer.screenInfo.height);
         quadVertices.bind(cursorMaterial.programId);
 
-        try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
-            Window pointWindow = xServer.inputDeviceManager.getPointWindow();
-            Cursor cursor = pointWindow != null ? pointWindow.attributes.getCursor() : null;
-            short x = xServer.pointer.getClampedX();
-            short y = xServer.pointer.getClampedY();
+        Window pointWindow = xServer.inputDeviceManager.getPointWindow();
+        Cursor cursor = pointWindow != null ? pointWindow.attributes.getCursor() : null;
+        short x = xServer.pointer.getClampedX();
+        short y = xServer.pointer.getClampedY();
 
-            if (cursor != null) {
-                if (cursor.isVisible()) renderDrawable(cursor.cursorImage, x - cursor.hotSpotX, y - cursor.hotSpotY, cursorMaterial);
-            }
-            else renderDrawable(rootCursorDrawable, x, y, cursorMaterial);
+        if (cursor != null) {
+            if (cursor.isVisible()) renderDrawable(cursor.cursorImage, x - cursor.hotSpotX, y - cursor.hotSpotY, cursorMaterial);
         }
+        else renderDrawable(rootCursorDrawable, x, y, cursorMaterial);
 
         quadVertices.disable();
     }
@@ -300,80 +332,11 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         return Drawable.fromBitmap(bitmap);
     }
 
-    private void updateScene() {
-        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-            renderableWindows.clear();
-            collectRenderableWindows(xServer.windowManager.rootWindow, xServer.windowManager.rootWindow.getX(), xServer.windowManager.rootWindow.getY());
-        }
-    }
-
-    private void collectRenderableWindows(Window window, int x, int y) {
-        if (!window.attributes.isMapped()) return;
-        if (window != xServer.windowManager.rootWindow) {
-            boolean viewable = true;
-
-            if (unviewableWMClasses != null) {
-                String wmClass = window.getClassName();
-                for (String unviewableWMClass : unviewableWMClasses) {
-                    if (wmClass.contains(unviewableWMClass)) {
-                        if (window.attributes.isEnabled()) window.disableAllDescendants();
-                        viewable = false;
-                        break;
-                    }
-                }
-            }
-
-            if (viewable) {
-                if (forceFullscreenWMClass != null) {
-                    short width = window.getWidth();
-                    short height = window.getHeight();
-                    boolean forceFullscreen= false;
-
-                    if (width >= 320 && height >= 200 && width < xServer.screenInfo.width && height < xServer.screenInfo.height) {
-                        Window parent = window.getParent();
-                        boolean parentHasWMClass = parent.getClassName().contains(forceFullscreenWMClass);
-                        boolean hasWMClass = window.getClassName().contains(forceFullscreenWMClass);
-                        if (hasWMClass) {
-                            forceFullscreen = !parentHasWMClass && window.getChildCount() == 0;
-                        }
-                        else {
-                            short borderX = (short)(parent.getWidth() - width);
-                            short borderY = (short)(parent.getHeight() - height);
-                            if (parent.getChildCount() == 1 && borderX > 0 && borderY > 0 && borderX <= 12) {
-                                forceFullscreen = true;
-                                removeRenderableWindow(parent);
-                            }
-                        }
-                    }
-
-                    renderableWindows.add(new RenderableWindow(window.getContent(), x, y, forceFullscreen));
-                }
-                else renderableWindows.add(new RenderableWindow(window.getContent(), x, y));
-            }
-        }
-
-        for (Window child : window.getChildren()) {
-            collectRenderableWindows(child, child.getX() + x, child.getY() + y);
-        }
-    }
-
-    private void removeRenderableWindow(Window window) {
-        for (int i = 0; i < renderableWindows.size(); i++) {
-            if (renderableWindows.get(i).content == window.getContent()) {
-                renderableWindows.remove(i);
-                break;
-            }
-        }
-    }
-
-    private void updateWindowPosition(Window window) {
-        for (RenderableWindow renderableWindow : renderableWindows) {
-            if (renderableWindow.content == window.getContent()) {
-                renderableWindow.rootX = window.getRootX();
-                renderableWindow.rootY = window.getRootY();
-                break;
-            }
-        }
+    /**
+     * Number of texture bytes uploaded from drawables while rendering the last frame.
+     */
+    public int getLastFrameUploadSize() {
+        return lastFrameUploadSize;
     }
 
     public void setCursorVisible(boolean cursorVisible) {
@@ -400,6 +363,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     public void setForceFullscreenWMClass(String forceFullscreenWMClass) {
         this.forceFullscreenWMClass = forceFullscreenWMClass;
+        scene.setForceFullscreenWMClass(forceFullscreenWMClass);
+        xServerView.requestRender();
     }
 
     public String[] getUnviewableWMClasses() {
@@ -408,6 +373,17 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     public void setUnviewableWMClasses(String... unviewableWMNames) {
         this.unviewableWMClasses = unviewableWMNames;
+        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+            scene.setUnviewableWMClasses(unviewableWMNames);
+            disableUnviewableWindows(xServer.windowManager.rootWindow);
+        }
+        xServerView.requestRender();
+    }
+
+    private void disableUnviewableWindows(Window window) {
+        if (!window.attributes.isMapped()) return;
+        if (scene.isUnviewable(window) && window.attributes.isEnabled()) window.disableAllDescendants();
+        for (Window child : window.getChildren()) disableUnviewableWindows(child);
     }
 
     public boolean isFullscreen() {
@@ -49,6 +49,7 @@ public class GPUImage extends Texture {
     public void updateFromDrawable(Drawable drawable) {
         if (!isAllocated()) allocateTexture(drawable.width, drawable.height, null);
         needsUpdate = false;
+        drawable.getDamage().clear();
     }
 
     public short getStride() {
@@ -4,8 +4,8 @@ import com.winlator.xserver.Drawable;
 
 class RenderableWindow {
     final Drawable content;
-    short rootX;
-    short rootY;
+    final short rootX;
+    final short rootY;
     final boolean forceFullscreen;
 
     public RenderableWindow(Drawable content, int rootX, int rootY) {
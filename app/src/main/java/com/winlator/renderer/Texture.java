@@ -2,8 +2,10 @@ package com.winlator.renderer;
 
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 
 // import com.winlator.XrActivity;
+import com.winlator.xserver.DamageRegion;
 import com.winlator.xserver.Drawable;
 
 import java.nio.ByteBuffer;
@@ -15,7 +17,9 @@ public class Texture {
     private int magFilter = GLES20.GL_LINEAR;
     private int minFilter = GLES20.GL_LINEAR;
     private int format = GLES11Ext.GL_BGRA;
-    protected boolean needsUpdate = true;
+    protected volatile boolean needsUpdate = true;
+    protected int lastUploadSize = 0;
+    private final int[] damageRects = new int[DamageRegion.MAX_RECTS * 4];
 
     public void allocateTexture(short width, short height, ByteBuffer data) {
         int[] textureIds = new int[1];
@@ -88,20 +92,50 @@ public class Texture {
     }
 
     public void updateFromDrawable(Drawable drawable) {
+        lastUploadSize = 0;
         ByteBuffer data = drawable.getData();
         if (data == null) return;
+        DamageRegion damage = drawable.getDamage();
 
         if (!isAllocated()) {
+            needsUpdate = false;
+            damage.take(damageRects);
             allocateTexture(drawable.width, drawable.height, data);
+            lastUploadSize = drawable.width * drawable.height * 4;
         }
         else if (needsUpdate) {
+            // Reset before taking the damage, a draw that lands meanwhile flags the next frame
+            needsUpdate = false;
+            int rectCount = damage.take(damageRects);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+            if (rectCount == 0) {
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+                lastUploadSize = drawable.width * drawable.height * 4;
+            }
+            else {
+                GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, drawable.width);
+                for (int i = 0; i < rectCount; i++) {
+                    int x = damageRects[i * 4];
+                    int y = damageRects[i * 4 + 1];
+                    int width = damageRects[i * 4 + 2];
+                    int height = damageRects[i * 4 + 3];
+                    GLES20.glPixelStorei(GLES30.GL_UNPACK_SKIP_PIXELS, x);
+                    GLES20.glPixelStorei(GLES30.GL_UNPACK_SKIP_ROWS, y);
+                    GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, width, height, format, GLES20.GL_UNSIGNED_BYTE, data);
+                    lastUploadSize += width * height * 4;
+                }
+                GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+                GLES20.glPixelStorei(GLES30.GL_UNPACK_SKIP_PIXELS, 0);
+                GLES20.glPixelStorei(GLES30.GL_UNPACK_SKIP_ROWS, 0);
+            }
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-            needsUpdate = false;
         }
     }
 
+    public int getLastUploadSize() {
+        return lastUploadSize;
+    }
+
     public boolean isAllocated() {
         return textureId > 0;
     }
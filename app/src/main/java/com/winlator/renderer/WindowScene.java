@@ -0,0 +1,249 @@
+package com.winlator.renderer;
+
+import com.winlator.xserver.Drawable;
+import com.winlator.xserver.Window;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Retained copy of the window tree kept for the renderer. It is patched from the window manager
+ * callbacks and flattened into an immutable render list only after the tree changed, so drawing
+ * a frame never walks the X window tree or reads window properties under the X locks. A published
+ * render list and its entries are never modified, changes publish a new list instead.
+ */
+class WindowScene {
+    private static final RenderableWindow[] EMPTY = new RenderableWindow[0];
+    private static final byte VIEWABILITY_UNKNOWN = 0;
+    private static final byte VIEWABILITY_VIEWABLE = 1;
+    private static final byte VIEWABILITY_UNVIEWABLE = 2;
+    private final HashMap<Window, Node> nodes = new HashMap<>();
+    private final Node root;
+    private final short screenWidth;
+    private final short screenHeight;
+    private String[] unviewableWMClasses = null;
+    private String forceFullscreenWMClass = null;
+    private volatile RenderableWindow[] renderList = EMPTY;
+    private volatile boolean dirty = true;
+
+    private static class Node {
+        private final Window window;
+        private Node parent;
+        private final ArrayList<Node> children = new ArrayList<>();
+        private Drawable content;
+        private short x;
+        private short y;
+        private short width;
+        private short height;
+        private boolean mapped;
+        private String className;
+        private byte viewability = VIEWABILITY_UNKNOWN;
+        private RenderableWindow renderable;
+        private int renderIndex;
+
+        private Node(Window window) {
+            this.window = window;
+            update();
+            className = window.getClassName();
+        }
+
+        private void update() {
+            content = window.getContent();
+            x = window.getX();
+            y = window.getY();
+            width = window.getWidth();
+            height = window.getHeight();
+            mapped = window.attributes.isMapped();
+        }
+    }
+
+    public WindowScene(Window rootWindow, short screenWidth, short screenHeight) {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        root = new Node(rootWindow);
+        nodes.put(rootWindow, root);
+        for (Window child : rootWindow.getChildren()) addSubtree(root, child);
+    }
+
+    private void addSubtree(Node parent, Window window) {
+        Node node = new Node(window);
+        node.parent = parent;
+        parent.children.add(node);
+        nodes.put(window, node);
+        for (Window child : window.getChildren()) addSubtree(node, child);
+    }
+
+    public synchronized void addWindow(Window window) {
+        Node parent = nodes.get(window.getParent());
+        if (parent == null || nodes.containsKey(window)) return;
+        Node node = new Node(window);
+        attach(parent, node);
+        nodes.put(window, node);
+        if (node.mapped) dirty = true;
+    }
+
+    public synchronized void removeWindow(Window window) {
+        Node node = nodes.get(window);
+        if (node == null || node == root) return;
+        if (node.parent != null) node.parent.children.remove(node);
+        removeSubtree(node);
+        dirty = true;
+    }
+
+    private void removeSubtree(Node node) {
+        nodes.remove(node.window);
+        for (Node child : node.children) removeSubtree(child);
+    }
+
+    public synchronized void updateWindow(Window window) {
+        Node node = nodes.get(window);
+        if (node == null) return;
+        node.update();
+        dirty = true;
+    }
+
+    /**
+     * Moves the node of a window that was restacked or reparented to its new place among its siblings.
+     */
+    public synchronized void restackWindow(Window window) {
+        Node node = nodes.get(window);
+        Node parent = nodes.get(window.getParent());
+        if (node == null || parent == null) return;
+        if (node.parent != null) node.parent.children.remove(node);
+        attach(parent, node);
+        dirty = true;
+    }
+
+    private void attach(Node parent, Node node) {
+        List<Window> siblings = parent.window.getChildren();
+        int index = 0;
+        for (int i = 0; i < siblings.size() && index < parent.children.size(); i++) {
+            Window sibling = siblings.get(i);
+            if (sibling == node.window) break;
+            if (parent.children.get(index).window == sibling) index++;
+        }
+        node.parent = parent;
+        parent.children.add(index, node);
+    }
+
+    /**
+     * Applies a move that did not resize the window by publishing a copy of the render list with
+     * the windows of its subtree shifted, without collecting the tree again.
+     */
+    public synchronized void moveWindow(Window window) {
+        Node node = nodes.get(window);
+        if (node == null) return;
+        int dx = window.getX() - node.x;
+        int dy = window.getY() - node.y;
+        node.x = window.getX();
+        node.y = window.getY();
+        if (dirty || (dx == 0 && dy == 0)) return;
+
+        RenderableWindow[] renderList = this.renderList.clone();
+        offsetSubtree(node, dx, dy, renderList);
+        this.renderList = renderList;
+    }
+
+    private void offsetSubtree(Node node, int dx, int dy, RenderableWindow[] renderList) {
+        RenderableWindow renderable = node.renderable;
+        if (renderable != null && !renderable.forceFullscreen) {
+            node.renderable = new RenderableWindow(renderable.content, renderable.rootX + dx, renderable.rootY + dy);
+            renderList[node.renderIndex] = node.renderable;
+        }
+        for (Node child : node.children) offsetSubtree(child, dx, dy, renderList);
+    }
+
+    public synchronized void updateClassName(Window window) {
+        Node node = nodes.get(window);
+        if (node == null) return;
+        node.className = window.getClassName();
+        node.viewability = VIEWABILITY_UNKNOWN;
+        dirty = true;
+    }
+
+    public synchronized boolean isUnviewable(Window window) {
+        Node node = nodes.get(window);
+        return node != null && node != root && !isViewable(node);
+    }
+
+    public synchronized void setUnviewableWMClasses(String[] unviewableWMClasses) {
+        this.unviewableWMClasses = unviewableWMClasses;
+        for (Node node : nodes.values()) node.viewability = VIEWABILITY_UNKNOWN;
+        dirty = true;
+    }
+
+    public synchronized void setForceFullscreenWMClass(String forceFullscreenWMClass) {
+        this.forceFullscreenWMClass = forceFullscreenWMClass;
+        dirty = true;
+    }
+
+    public synchronized void invalidate() {
+        dirty = true;
+    }
+
+    public RenderableWindow[] getRenderList() {
+        if (dirty) {
+            synchronized (this) {
+                if (dirty) {
+                    dirty = false;
+                    ArrayList<RenderableWindow> renderableWindows = new ArrayList<>();
+                    collectRenderableWindows(root, root.x, root.y, renderableWindows);
+                    renderList = renderableWindows.toArray(EMPTY);
+                }
+            }
+        }
+        return renderList;
+    }
+
+    private boolean isViewable(Node node) {
+        if (node.viewability == VIEWABILITY_UNKNOWN) {
+            node.viewability = VIEWABILITY_VIEWABLE;
+            if (unviewableWMClasses != null) {
+                for (String unviewableWMClass : unviewableWMClasses) {
+                    if (node.className.contains(unviewableWMClass)) {
+                        node.viewability = VIEWABILITY_UNVIEWABLE;
+                        break;
+                    }
+                }
+            }
+        }
+        return node.viewability == VIEWABILITY_VIEWABLE;
+    }
+
+    private void collectRenderableWindows(Node node, int x, int y, ArrayList<RenderableWindow> renderableWindows) {
+        node.renderable = null;
+        if (!node.mapped) return;
+        if (node != root && isViewable(node) && node.content != null) {
+            boolean forceFullscreen = false;
+
+            if (forceFullscreenWMClass != null && node.width >= 320 && node.height >= 200 && node.width < screenWidth && node.height < screenHeight) {
+                Node parent = node.parent;
+                boolean parentHasWMClass = parent.className.contains(forceFullscreenWMClass);
+                boolean hasWMClass = node.className.contains(forceFullscreenWMClass);
+                if (hasWMClass) {
+                    forceFullscreen = !parentHasWMClass && node.children.isEmpty();
+                }
+                else {
+                    short borderX = (short)(parent.width - node.width);
+                    short borderY = (short)(parent.height - node.height);
+                    if (parent.children.size() == 1 && borderX > 0 && borderY > 0 && borderX <= 12) {
+                        forceFullscreen = true;
+                        if (parent.renderable != null) {
+                            renderableWindows.remove(parent.renderable);
+                            parent.renderable = null;
+                        }
+                    }
+                }
+            }
+
+            node.renderable = new RenderableWindow(node.content, x, y, forceFullscreen);
+            node.renderIndex = renderableWindows.size();
+            renderableWindows.add(node.renderable);
+        }
+
+        for (Node child : node.children) {
+            collectRenderableWindows(child, child.x + x, child.y + y, renderableWindows);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.winlator.steampipeserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface MessageHandler {
+    /**
+     * Handles a complete message, payload holds exactly the payload size the handler was
+     * registered with and is only valid during the call.
+     */
+    void handleMessage(SteamPipeClient client, ByteBuffer payload) throws IOException;
+}
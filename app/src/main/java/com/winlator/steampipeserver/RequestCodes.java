@@ -8,4 +8,5 @@ public abstract class RequestCodes {
     public static final int MSG_REGISTER_CALLBACK = 5;
     public static final int MSG_UNREGISTER_CALLBACK = 6;
     public static final int MSG_RUN_CALLBACKS = 7;
+    public static final int MSG_GET_CALLBACKS = 8;
 }
@@ -0,0 +1,92 @@
+package com.winlator.steampipeserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * State of a connection of the SteamPipeServer. All methods are called on the selector thread,
+ * replies are queued and written when the channel is writable.
+ */
+public class SteamPipeClient {
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    final SocketChannel channel;
+    final SelectionKey key;
+    ByteBuffer inputBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ArrayDeque<ByteBuffer> outputQueue = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> callbacks = new ArrayDeque<>();
+    private boolean callbacksRegistered = false;
+    private boolean closed = false;
+
+    SteamPipeClient(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    public void sendInt(int value) {
+        send(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value));
+    }
+
+    public void send(ByteBuffer data) {
+        if (!closed) outputQueue.add(data);
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isCallbacksRegistered() {
+        return callbacksRegistered;
+    }
+
+    void setCallbacksRegistered(boolean callbacksRegistered) {
+        this.callbacksRegistered = callbacksRegistered;
+        if (!callbacksRegistered) callbacks.clear();
+    }
+
+    void queueCallback(byte[] frame) {
+        if (callbacksRegistered) callbacks.add(frame);
+    }
+
+    /**
+     * Sends the queued callbacks as a count followed by the length-prefixed callback frames.
+     */
+    void sendCallbacks() {
+        int size = 4;
+        for (byte[] frame : callbacks) size += frame.length;
+        ByteBuffer data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(callbacks.size());
+        while (!callbacks.isEmpty()) data.put(callbacks.poll());
+        data.flip();
+        send(data);
+    }
+
+    /**
+     * Writes as much of the output queue as the socket takes and returns true if it was emptied.
+     */
+    boolean flush() throws IOException {
+        while (!outputQueue.isEmpty()) {
+            ByteBuffer data = outputQueue.peek();
+            channel.write(data);
+            if (data.hasRemaining()) return false;
+            outputQueue.poll();
+        }
+        return true;
+    }
+
+    void ensureInputCapacity(int size) {
+        if (inputBuffer.capacity() < size) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Integer.highestOneBit(size - 1) << 1).order(ByteOrder.LITTLE_ENDIAN);
+            inputBuffer.flip();
+            newBuffer.put(inputBuffer);
+            inputBuffer = newBuffer;
+        }
+    }
+}
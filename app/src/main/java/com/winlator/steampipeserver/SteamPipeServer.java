@@ -1,112 +1,253 @@
 package com.winlator.steampipeserver;
 
-import android.util.Log;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import timber.log.Timber;
 
+/**
+ * Serves the steam_api pipe of the Wine side on a single selector thread. A message is a little
+ * endian int type followed by a payload whose size is given by the handler registered for the
+ * type, so a message is only dispatched once it arrived completely and an idle client costs
+ * nothing but its socket.
+ */
 public class SteamPipeServer {
     private static final int PORT = 34865;
-    private ServerSocket serverSocket;
-    private boolean running;
+    private static final int MAX_MESSAGE_TYPE = 63;
+    private final int port;
+    private final MessageHandler[] handlers = new MessageHandler[MAX_MESSAGE_TYPE + 1];
+    private final int[] payloadSizes = new int[MAX_MESSAGE_TYPE + 1];
+    private final ConcurrentLinkedQueue<byte[]> pendingCallbacks = new ConcurrentLinkedQueue<>();
+    private final ArrayList<SteamPipeClient> clients = new ArrayList<>();
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+
+    public SteamPipeServer() {
+        this(PORT);
+    }
+
+    public SteamPipeServer(int port) {
+        this.port = port;
+
+        setHandler(RequestCodes.MSG_INIT, 0, (client, payload) -> {
+            Timber.d("SteamPipeServer: Received MSG_INIT");
+            client.sendInt(1);
+        });
+        setHandler(RequestCodes.MSG_SHUTDOWN, 0, (client, payload) -> {
+            Timber.d("SteamPipeServer: Received MSG_SHUTDOWN");
+            client.close();
+        });
+        setHandler(RequestCodes.MSG_RESTART_APP, 4, (client, payload) -> {
+            int appId = payload.getInt();
+            Timber.d("SteamPipeServer: Received MSG_RESTART_APP %d", appId);
+            client.sendInt(0); // Send restart not needed
+        });
+        setHandler(RequestCodes.MSG_IS_RUNNING, 0, (client, payload) -> client.sendInt(1)); // Send Steam running status
+        setHandler(RequestCodes.MSG_REGISTER_CALLBACK, 0, (client, payload) -> client.setCallbacksRegistered(true));
+        setHandler(RequestCodes.MSG_UNREGISTER_CALLBACK, 0, (client, payload) -> client.setCallbacksRegistered(false));
+        setHandler(RequestCodes.MSG_RUN_CALLBACKS, 0, (client, payload) -> {});
+        setHandler(RequestCodes.MSG_GET_CALLBACKS, 0, (client, payload) -> client.sendCallbacks());
+    }
 
-    private int readNetworkInt(DataInputStream input) throws IOException {
-        return Integer.reverseBytes(input.readInt());
+    /**
+     * Registers the handler of a message type, must be called before start.
+     */
+    public void setHandler(int messageType, int payloadSize, MessageHandler handler) {
+        handlers[messageType] = handler;
+        payloadSizes[messageType] = payloadSize;
     }
 
-    private void writeNetworkInt(DataOutputStream output, int value) throws IOException {
-        output.writeInt(Integer.reverseBytes(value));
+    /**
+     * Queues a callback for every client that registered callbacks, it is delivered on the
+     * client's next MSG_GET_CALLBACKS as the callback id and data size followed by the data.
+     */
+    public void postCallback(int callbackId, byte[] data) {
+        ByteBuffer frame = ByteBuffer.allocate(8 + data.length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(callbackId).putInt(data.length).put(data);
+        pendingCallbacks.add(frame.array());
+        Selector selector = this.selector;
+        if (selector != null) selector.wakeup();
     }
 
-    public void start() {
+    public synchronized void start() {
+        if (running) return;
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException e) {
+            Timber.e(e, "SteamPipeServer: Server error");
+            closeQuietly();
+            return;
+        }
+
+        Timber.d("SteamPipeServer: Server started on port %d", getPort());
         running = true;
-        new Thread(() -> {
+        thread = new Thread(this::run, "SteamPipeServer");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            selector.wakeup();
             try {
-                serverSocket = new ServerSocket();
-                serverSocket.setReuseAddress(true);
-                serverSocket.bind(new InetSocketAddress(PORT));
-                Log.d("SteamPipeServer", "Server started on port " + PORT);
-
-                while (running) {
-                    Socket clientSocket = serverSocket.accept();
-                    // clientSocket.setTcpNoDelay(true);
-                    // clientSocket.setSoTimeout(5000);  // 5 second timeout
-                    handleClient(clientSocket);
-                }
-            } catch (IOException e) {
-                Log.e("SteamPipeServer", "Server error", e);
+                thread.join();
             }
-        }).start();
+            catch (InterruptedException e) {}
+            thread = null;
+        }
     }
 
-    private void handleClient(Socket clientSocket) {
-        new Thread(() -> {
-            try {
-                DataInputStream input = new DataInputStream(
-                        new BufferedInputStream(clientSocket.getInputStream()));
-                DataOutputStream output = new DataOutputStream(
-                        new BufferedOutputStream(clientSocket.getOutputStream()));
-
-                while (running && !clientSocket.isClosed()) {
-                    if (input.available() > 0) {
-                        int messageType = readNetworkInt(input);
-                        // Log.d("SteamPipeServer", "Received message: " + messageType);
-
-                        switch (messageType) {
-                            case RequestCodes.MSG_INIT:
-                                Log.d("SteamPipeServer", "Received MSG_INIT");
-                                writeNetworkInt(output, 1);
-                                output.flush();
-                                break;
-                            case RequestCodes.MSG_SHUTDOWN:
-                                Log.d("SteamPipeServer", "Received MSG_SHUTDOWN");
-                                clientSocket.close();
-                                break;
-                            case RequestCodes.MSG_RESTART_APP:
-                                Log.d("SteamPipeServer", "Received MSG_RESTART_APP");
-                                int appId = input.readInt();
-                                writeNetworkInt(output, 0); // Send restart not needed
-                                break;
-                            case RequestCodes.MSG_IS_RUNNING:
-                                Log.d("SteamPipeServer", "Received MSG_IS_RUNNING");
-                                writeNetworkInt(output, 1); // Send Steam running status
-                                break;
-                            case RequestCodes.MSG_REGISTER_CALLBACK:
-                                Log.d("SteamPipeServer", "Received MSG_REGISTER_CALLBACK");
-                                break;
-                            case RequestCodes.MSG_UNREGISTER_CALLBACK:
-                                Log.d("SteamPipeServer", "Received MSG_UNREGISTER_CALLBACK");
-                                break;
-                            case RequestCodes.MSG_RUN_CALLBACKS:
-                                Log.d("SteamPipeServer", "Received MSG_RUN_CALLBACKS");
-                                break;
-                            default:
-                                Log.w("SteamPipeServer", "Unknown message type: " + messageType);
-                                break;
+    public int getPort() {
+        ServerSocketChannel serverChannel = this.serverChannel;
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    public int getClientCount() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                dispatchCallbacks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        acceptClient();
+                    }
+                    else {
+                        SteamPipeClient client = (SteamPipeClient)key.attachment();
+                        try {
+                            if (key.isReadable() && !readMessages(client)) client.close();
+                            updateInterestOps(client);
+                        }
+                        catch (IOException e) {
+                            client.close();
                         }
+                        if (client.isClosed()) removeClient(client);
                     }
                 }
-            } catch (IOException e) {
-                Log.e("SteamPipeServer", "Client handler error", e);
             }
-        }).start();
+        }
+        catch (IOException e) {
+            Timber.e(e, "SteamPipeServer: Server error");
+        }
+        finally {
+            closeQuietly();
+        }
+    }
+
+    private void acceptClient() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        SteamPipeClient client = new SteamPipeClient(channel, key);
+        key.attach(client);
+        synchronized (clients) {
+            clients.add(client);
+        }
+    }
+
+    /**
+     * Reads what is available and dispatches every complete message, returns false on EOF.
+     */
+    private boolean readMessages(SteamPipeClient client) throws IOException {
+        int bytesRead = client.channel.read(client.inputBuffer);
+        if (bytesRead == -1) return false;
+
+        ByteBuffer input = client.inputBuffer;
+        input.flip();
+        while (input.remaining() >= 4 && !client.isClosed()) {
+            int start = input.position();
+            int messageType = input.getInt(start);
+            MessageHandler handler = messageType >= 0 && messageType <= MAX_MESSAGE_TYPE ? handlers[messageType] : null;
+            if (handler == null) {
+                Timber.w("SteamPipeServer: Unknown message type: %d", messageType);
+                input.position(start + 4);
+                continue;
+            }
+
+            int payloadSize = payloadSizes[messageType];
+            if (input.remaining() < 4 + payloadSize) {
+                input.compact();
+                client.ensureInputCapacity(4 + payloadSize);
+                return true;
+            }
+
+            int end = start + 4 + payloadSize;
+            ByteBuffer payload = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            payload.position(start + 4).limit(end);
+            handler.handleMessage(client, payload.slice().order(ByteOrder.LITTLE_ENDIAN));
+            input.position(end);
+        }
+        input.compact();
+        return true;
     }
 
-    public void stop() {
-        running = false;
-        try {
-            if (serverSocket != null) {
-                serverSocket.close();
+    private void updateInterestOps(SteamPipeClient client) throws IOException {
+        if (client.isClosed()) return;
+        int ops = SelectionKey.OP_READ;
+        if (!client.flush()) ops |= SelectionKey.OP_WRITE;
+        if (client.key.interestOps() != ops) client.key.interestOps(ops);
+    }
+
+    private void dispatchCallbacks() {
+        byte[] frame;
+        while ((frame = pendingCallbacks.poll()) != null) {
+            synchronized (clients) {
+                for (SteamPipeClient client : clients) client.queueCallback(frame);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
-}
 
+    private void removeClient(SteamPipeClient client) {
+        synchronized (clients) {
+            clients.remove(client);
+        }
+        client.key.cancel();
+        try {
+            client.channel.close();
+        }
+        catch (IOException e) {}
+    }
+
+    private void closeQuietly() {
+        SteamPipeClient[] clients;
+        synchronized (this.clients) {
+            clients = this.clients.toArray(new SteamPipeClient[0]);
+        }
+        for (SteamPipeClient client : clients) removeClient(client);
+        try {
+            if (serverChannel != null) serverChannel.close();
+            if (selector != null) selector.close();
+        }
+        catch (IOException e) {}
+    }
+}
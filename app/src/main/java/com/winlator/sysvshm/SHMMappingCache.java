@@ -0,0 +1,171 @@
+package com.winlator.sysvshm;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+
+/**
+ * Shares the mappings of shared memory received as file descriptors. Mappings are keyed by the
+ * identity of the underlying file (st_dev, st_ino) together with the mapped range, so a buffer
+ * handed over again through a new descriptor reuses the existing mapping. Descriptors without an
+ * identity of their own, like ashmem regions which all report the /dev/ashmem device, are mapped
+ * separately, and SysV segments are keyed by their shmid instead. Each acquired buffer is a view
+ * of the mapping and the mapping is unmapped when the last view is released.
+ */
+public class SHMMappingCache {
+    private final Mapper mapper;
+    private final HashMap<Key, Mapping> mappings = new HashMap<>();
+    private final IdentityHashMap<ByteBuffer, Mapping> views = new IdentityHashMap<>();
+    private final long[] identity = new long[2];
+    private long hits = 0;
+    private long misses = 0;
+    private long liveBytes = 0;
+
+    public interface Mapper {
+        boolean getFileIdentity(int fd, long[] identity);
+
+        ByteBuffer map(int fd, long size, int offset, boolean readonly);
+
+        void unmap(ByteBuffer data, long size);
+    }
+
+    private static class NativeMapper implements Mapper {
+        @Override
+        public boolean getFileIdentity(int fd, long[] identity) {
+            return SysVSharedMemory.getFileIdentity(fd, identity);
+        }
+
+        @Override
+        public ByteBuffer map(int fd, long size, int offset, boolean readonly) {
+            return SysVSharedMemory.mapSHMSegment(fd, size, offset, readonly);
+        }
+
+        @Override
+        public void unmap(ByteBuffer data, long size) {
+            SysVSharedMemory.unmapSHMSegment(data, size);
+        }
+    }
+
+    private static class Key {
+        private final boolean segment;
+        private final long device;
+        private final long inode;
+        private final long size;
+        private final int offset;
+        private final boolean readonly;
+
+        private Key(boolean segment, long device, long inode, long size, int offset, boolean readonly) {
+            this.segment = segment;
+            this.device = device;
+            this.inode = inode;
+            this.size = size;
+            this.offset = offset;
+            this.readonly = readonly;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key)o;
+            return segment == key.segment && device == key.device && inode == key.inode && size == key.size && offset == key.offset && readonly == key.readonly;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(segment, device, inode, size, offset, readonly);
+        }
+    }
+
+    private static class Mapping {
+        private final Key key;
+        private final ByteBuffer data;
+        private final long size;
+        private int refCount = 0;
+
+        private Mapping(Key key, ByteBuffer data, long size) {
+            this.key = key;
+            this.data = data;
+            this.size = size;
+        }
+    }
+
+    public SHMMappingCache() {
+        this(new NativeMapper());
+    }
+
+    public SHMMappingCache(Mapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Returns a view of the mapping of the given range of fd, or null if it cannot be mapped.
+     * The fd is not kept and may be closed by the caller right after.
+     */
+    public synchronized ByteBuffer acquire(int fd, long size, int offset, boolean readonly) {
+        Key key = mapper.getFileIdentity(fd, identity) ? new Key(false, identity[0], identity[1], size, offset, readonly) : null;
+        return acquire(key, fd, size, offset, readonly);
+    }
+
+    /**
+     * Returns a view of the mapping of a SysV segment, or null if it cannot be mapped. Segment ids
+     * are not reused, so the shmid identifies the memory behind fd for as long as it is attached.
+     */
+    public synchronized ByteBuffer acquireSegment(int shmid, int fd, long size, boolean readonly) {
+        return acquire(new Key(true, 0, shmid, size, 0, readonly), fd, size, 0, readonly);
+    }
+
+    private ByteBuffer acquire(Key key, int fd, long size, int offset, boolean readonly) {
+        Mapping mapping = key != null ? mappings.get(key) : null;
+
+        if (mapping != null) {
+            hits++;
+        }
+        else {
+            ByteBuffer data = mapper.map(fd, size, offset, readonly);
+            if (data == null) return null;
+            misses++;
+            mapping = new Mapping(key, data, size);
+            if (key != null) mappings.put(key, mapping);
+            liveBytes += size;
+        }
+
+        ByteBuffer view = mapping.data.duplicate().order(mapping.data.order());
+        views.put(view, mapping);
+        mapping.refCount++;
+        return view;
+    }
+
+    /**
+     * Releases a view obtained from one of the acquire methods, other buffers are ignored.
+     */
+    public synchronized void release(ByteBuffer view) {
+        Mapping mapping = views.remove(view);
+        if (mapping == null || --mapping.refCount > 0) return;
+
+        if (mapping.key != null) mappings.remove(mapping.key);
+        mapper.unmap(mapping.data, mapping.size);
+        liveBytes -= mapping.size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public synchronized int getMappingCount() {
+        return mappings.size();
+    }
+
+    public synchronized int getViewCount() {
+        return views.size();
+    }
+}
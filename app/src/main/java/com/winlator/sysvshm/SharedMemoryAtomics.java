@@ -0,0 +1,34 @@
+package com.winlator.sysvshm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sequentially consistent access to 32-bit words of memory shared with another process.
+ */
+public interface SharedMemoryAtomics {
+    SharedMemoryAtomics NATIVE = new SharedMemoryAtomics() {
+        @Override
+        public int load(ByteBuffer buffer, int offset) {
+            return SysVSharedMemory.atomicLoad(buffer, offset);
+        }
+
+        @Override
+        public void store(ByteBuffer buffer, int offset, int value) {
+            SysVSharedMemory.atomicStore(buffer, offset, value);
+        }
+
+        @Override
+        public void wake(ByteBuffer buffer, int offset) {
+            SysVSharedMemory.futexWake(buffer, offset);
+        }
+    };
+
+    int load(ByteBuffer buffer, int offset);
+
+    void store(ByteBuffer buffer, int offset, int value);
+
+    /**
+     * Wakes all waiters of the futex word at offset.
+     */
+    void wake(ByteBuffer buffer, int offset);
+}
@@ -63,6 +63,13 @@ public class SysVSharedMemory {
         }
     }
 
+    public long getSize(int shmid) {
+        synchronized (shmemories) {
+            SHMemory shmemory = shmemories.get(shmid);
+            return shmemory != null ? SHMemory.access$200(shmemory) : 0;
+        }
+    }
+
     public int get(long size) {
         synchronized (shmemories) {
             int index = shmemories.size();
@@ -147,4 +154,12 @@ public class SysVSharedMemory {
     public static native ByteBuffer mapSHMSegment(int fd, long size, int offset, boolean readonly);
 
     public static native void unmapSHMSegment(ByteBuffer data, long size);
+
+    public static native boolean getFileIdentity(int fd, long[] identity);
+
+    public static native int atomicLoad(ByteBuffer data, int offset);
+
+    public static native void atomicStore(ByteBuffer data, int offset, int value);
+
+    public static native void futexWake(ByteBuffer data, int offset);
 }
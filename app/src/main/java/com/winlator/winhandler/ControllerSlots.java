@@ -0,0 +1,64 @@
+package com.winlator.winhandler;
+
+import java.util.List;
+
+/**
+ * Assignment of physical controllers, identified by their input device descriptor, to the
+ * gamepad slots exposed to Wine. A slot stays reserved for its controller while it is
+ * disconnected, so a controller that reconnects gets its old slot back; a new controller takes
+ * the first never used slot and only then the first slot whose controller is gone.
+ */
+public class ControllerSlots {
+    public static final int MAX_SLOTS = 4;
+    private final String[] descriptors = new String[MAX_SLOTS];
+    private final boolean[] connected = new boolean[MAX_SLOTS];
+
+    /**
+     * Marks which controllers are connected and assigns slots to the new ones.
+     */
+    public synchronized void update(List<String> connectedDescriptors) {
+        for (int i = 0; i < MAX_SLOTS; i++) connected[i] = descriptors[i] != null && connectedDescriptors.contains(descriptors[i]);
+        for (String descriptor : connectedDescriptors) {
+            if (indexOf(descriptor) == -1) assign(descriptor);
+        }
+    }
+
+    /**
+     * Returns the slot of a connected controller, assigning one if needed, or -1 if all slots
+     * are taken by connected controllers.
+     */
+    public synchronized int assign(String descriptor) {
+        int slot = indexOf(descriptor);
+        if (slot == -1) {
+            for (int i = 0; i < MAX_SLOTS && slot == -1; i++) {
+                if (descriptors[i] == null) slot = i;
+            }
+            for (int i = 0; i < MAX_SLOTS && slot == -1; i++) {
+                if (!connected[i]) slot = i;
+            }
+            if (slot == -1) return -1;
+            descriptors[slot] = descriptor;
+        }
+        connected[slot] = true;
+        return slot;
+    }
+
+    public synchronized int getSlot(String descriptor) {
+        return indexOf(descriptor);
+    }
+
+    public synchronized String getDescriptor(int slot) {
+        return descriptors[slot];
+    }
+
+    public synchronized boolean isConnected(int slot) {
+        return connected[slot];
+    }
+
+    private int indexOf(String descriptor) {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            if (descriptor.equals(descriptors[i])) return i;
+        }
+        return -1;
+    }
+}
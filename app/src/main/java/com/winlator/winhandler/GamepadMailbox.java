@@ -0,0 +1,132 @@
+package com.winlator.winhandler;
+
+import com.winlator.inputcontrols.GamepadState;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Latest-state-wins mailbox between the input threads updating a gamepad and the WinHandler send
+ * thread. Posting only overwrites the packed state and bumps a sequence number, the sender takes
+ * it at most once per poll interval. Button and d-pad changes are queued as separate snapshots
+ * that are due immediately, so a short press is neither delayed nor lost. A packet holds the
+ * enabled flag, the gamepad id and the state, which is zeroed while the gamepad is disabled.
+ */
+public class GamepadMailbox {
+    public static final int PACKET_SIZE = 1 + 4 + GamepadState.SIZE;
+    private static final int BUTTONS_OFFSET = 5;
+    private static final int POV_HAT_OFFSET = 7;
+    private final ByteBuffer latest = ByteBuffer.allocate(PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ArrayDeque<Snapshot> edges = new ArrayDeque<>();
+    private long sequence = 0;
+    private long sentSequence = 0;
+    private long lastSendTime = 0;
+    private long pendingSince = 0;
+    private long postCount = 0;
+    private long sendCount = 0;
+    private long totalLatency = 0;
+    private long maxLatency = 0;
+
+    private static class Snapshot {
+        private final byte[] data;
+        private final long time;
+
+        private Snapshot(byte[] data, long time) {
+            this.data = data;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Packs the state, state may be null if the gamepad is disabled. Returns true if the sender
+     * has to be woken up because nothing was pending or the state is due immediately.
+     */
+    public synchronized boolean post(boolean enabled, int gamepadId, GamepadState state, long time) {
+        boolean wasPending = !edges.isEmpty() || sequence != sentSequence;
+        byte previousEnabled = latest.get(0);
+        int previousGamepadId = latest.getInt(1);
+        short previousButtons = latest.getShort(BUTTONS_OFFSET);
+        byte previousPovHat = latest.get(POV_HAT_OFFSET);
+
+        latest.clear();
+        latest.put((byte)(enabled ? 1 : 0));
+        latest.putInt(gamepadId);
+        if (enabled && state != null) {
+            state.writeTo(latest);
+        }
+        else while (latest.hasRemaining()) latest.put((byte)0);
+
+        boolean edge = sequence == 0 || latest.get(0) != previousEnabled || latest.getInt(1) != previousGamepadId ||
+                       latest.getShort(BUTTONS_OFFSET) != previousButtons || latest.get(POV_HAT_OFFSET) != previousPovHat;
+        if (sequence == sentSequence) pendingSince = time;
+        sequence++;
+        postCount++;
+        if (edge) {
+            edges.add(new Snapshot(latest.array().clone(), time));
+            sentSequence = sequence;
+        }
+        return edge || !wasPending;
+    }
+
+    /**
+     * Returns the nanoseconds until the next packet is due, or Long.MAX_VALUE if none is pending.
+     */
+    public synchronized long getDelay(long time, long pollInterval) {
+        if (!edges.isEmpty()) return 0;
+        if (sequence == sentSequence) return Long.MAX_VALUE;
+        return Math.max(lastSendTime + pollInterval - time, 0);
+    }
+
+    /**
+     * Puts the body of the next due packet into buffer, queued edges first, and returns false if
+     * no packet is due.
+     */
+    public synchronized boolean poll(ByteBuffer buffer, long time, long pollInterval) {
+        long postTime;
+        Snapshot edge = edges.poll();
+        if (edge != null) {
+            buffer.put(edge.data);
+            postTime = edge.time;
+        }
+        else if (sequence != sentSequence && time - lastSendTime >= pollInterval) {
+            buffer.put(latest.array(), 0, PACKET_SIZE);
+            sentSequence = sequence;
+            postTime = pendingSince;
+        }
+        else return false;
+
+        lastSendTime = time;
+        sendCount++;
+        long latency = time - postTime;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        return true;
+    }
+
+    public synchronized void resetStats() {
+        postCount = 0;
+        sendCount = 0;
+        totalLatency = 0;
+        maxLatency = 0;
+    }
+
+    public synchronized long getPostCount() {
+        return postCount;
+    }
+
+    public synchronized long getSendCount() {
+        return sendCount;
+    }
+
+    /**
+     * Returns the average time in nanoseconds from the first post a packet carries to its send.
+     */
+    public synchronized long getAverageLatency() {
+        return sendCount > 0 ? totalLatency / sendCount : 0;
+    }
+
+    public synchronized long getMaxLatency() {
+        return maxLatency;
+    }
+}
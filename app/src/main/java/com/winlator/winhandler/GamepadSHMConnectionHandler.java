@@ -0,0 +1,21 @@
+package com.winlator.winhandler;
+
+import com.winlator.xconnector.Client;
+import com.winlator.xconnector.ConnectionHandler;
+
+public class GamepadSHMConnectionHandler implements ConnectionHandler {
+    private final WinHandler winHandler;
+
+    public GamepadSHMConnectionHandler(WinHandler winHandler) {
+        this.winHandler = winHandler;
+    }
+
+    @Override
+    public void handleNewConnection(Client client) {
+        client.createIOStreams();
+        client.setTag(winHandler);
+    }
+
+    @Override
+    public void handleConnectionShutdown(Client client) {}
+}
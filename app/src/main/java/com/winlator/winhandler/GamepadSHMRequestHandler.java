@@ -0,0 +1,41 @@
+package com.winlator.winhandler;
+
+import com.winlator.xconnector.Client;
+import com.winlator.xconnector.RequestHandler;
+import com.winlator.xconnector.XInputStream;
+import com.winlator.xconnector.XOutputStream;
+import com.winlator.xconnector.XStreamLock;
+
+import java.io.IOException;
+
+/**
+ * Hands the memfd of a {@link GamepadStateBlock} to the Wine-side client as an SCM_RIGHTS
+ * ancillary fd. A GET_GAMEPAD_SHM request holds the slot and the UDP port of the client, which no
+ * longer gets the state of the slot pushed over UDP once it has the block. The reply is 0 and the
+ * block size with the fd attached, or 1 and 0 without fd.
+ */
+public class GamepadSHMRequestHandler implements RequestHandler {
+    @Override
+    public boolean handleRequest(Client client) throws IOException {
+        WinHandler winHandler = (WinHandler)client.getTag();
+        XInputStream inputStream = client.getInputStream();
+        XOutputStream outputStream = client.getOutputStream();
+
+        if (inputStream.available() < 9) return false;
+        byte requestCode = inputStream.readByte();
+
+        if (requestCode == RequestCodes.GET_GAMEPAD_SHM) {
+            int slot = inputStream.readInt();
+            int port = inputStream.readInt();
+            int fd = winHandler.getGamepadStateBlockFd(slot, port);
+
+            try (XStreamLock lock = outputStream.lock()) {
+                outputStream.writeByte((byte)(fd != -1 ? 0 : 1));
+                outputStream.writeInt(fd != -1 ? GamepadStateBlock.SIZE : 0);
+                if (fd != -1) outputStream.setAncillaryFd(fd);
+            }
+        }
+        else inputStream.skip(8);
+        return true;
+    }
+}
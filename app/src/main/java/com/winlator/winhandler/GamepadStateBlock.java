@@ -0,0 +1,85 @@
+package com.winlator.winhandler;
+
+import com.winlator.inputcontrols.GamepadState;
+import com.winlator.sysvshm.SharedMemoryAtomics;
+import com.winlator.sysvshm.SysVSharedMemory;
+import com.winlator.xconnector.XConnectorEpoll;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Memfd-backed block holding the state of one controller slot, mapped once by the Wine-side
+ * client instead of polling it over UDP. The state is published with a seqlock: the writer
+ * makes SEQUENCE odd, stores the data words and makes it even again, a reader retries until it
+ * saw the same even sequence before and after copying the data, see {@link GamepadStateReader}.
+ *
+ * Layout (little-endian 32-bit words): SEQUENCE, ENABLED, GAMEPAD_ID, then the state as written
+ * by {@link GamepadState#writeTo(ByteBuffer)}, padded to STATE_WORDS words.
+ */
+public class GamepadStateBlock {
+    public static final int SIZE = 64;
+    public static final int SEQUENCE = 0;
+    public static final int ENABLED = 4;
+    public static final int GAMEPAD_ID = 8;
+    public static final int STATE = 12;
+    public static final int STATE_WORDS = 4;
+    private final ByteBuffer buffer;
+    private final SharedMemoryAtomics atomics;
+    private final ByteBuffer packed = ByteBuffer.allocate(STATE_WORDS * 4).order(ByteOrder.LITTLE_ENDIAN);
+    private final int fd;
+    private int sequence = 0;
+    private boolean closed = false;
+
+    public GamepadStateBlock(ByteBuffer buffer, SharedMemoryAtomics atomics) {
+        this(buffer, atomics, -1);
+    }
+
+    private GamepadStateBlock(ByteBuffer buffer, SharedMemoryAtomics atomics, int fd) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.atomics = atomics;
+        this.fd = fd;
+    }
+
+    /**
+     * Creates the block of a controller slot in a new memfd, or returns null on failure.
+     */
+    public static GamepadStateBlock create(int slot) {
+        int fd = SysVSharedMemory.createMemoryFd("gamepad" + slot, SIZE);
+        if (fd < 0) return null;
+        ByteBuffer buffer = SysVSharedMemory.mapSHMSegment(fd, SIZE, 0, false);
+        if (buffer == null) {
+            XConnectorEpoll.closeFd(fd);
+            return null;
+        }
+        return new GamepadStateBlock(buffer, SharedMemoryAtomics.NATIVE, fd);
+    }
+
+    public int getFd() {
+        return fd;
+    }
+
+    /**
+     * Publishes a state, state may be null if the gamepad is disabled. Only one thread may write.
+     */
+    public synchronized void write(boolean enabled, int gamepadId, GamepadState state) {
+        if (closed) return;
+        packed.clear();
+        if (enabled && state != null) state.writeTo(packed);
+        while (packed.hasRemaining()) packed.put((byte)0);
+
+        atomics.store(buffer, SEQUENCE, ++sequence);
+        atomics.store(buffer, ENABLED, enabled ? 1 : 0);
+        atomics.store(buffer, GAMEPAD_ID, gamepadId);
+        for (int i = 0; i < STATE_WORDS; i++) atomics.store(buffer, STATE + i * 4, packed.getInt(i * 4));
+        atomics.store(buffer, SEQUENCE, ++sequence);
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (fd >= 0) {
+            SysVSharedMemory.unmapSHMSegment(buffer, SIZE);
+            XConnectorEpoll.closeFd(fd);
+        }
+    }
+}
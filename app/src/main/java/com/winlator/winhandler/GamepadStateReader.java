@@ -0,0 +1,63 @@
+package com.winlator.winhandler;
+
+import com.winlator.inputcontrols.GamepadState;
+import com.winlator.sysvshm.SharedMemoryAtomics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reading side of a {@link GamepadStateBlock}, mirroring what the Wine-side client does with its
+ * mapping of the block.
+ */
+public class GamepadStateReader {
+    private final ByteBuffer buffer;
+    private final SharedMemoryAtomics atomics;
+    private final ByteBuffer packed = ByteBuffer.allocate(GamepadStateBlock.STATE_WORDS * 4).order(ByteOrder.LITTLE_ENDIAN);
+    private boolean enabled;
+    private int gamepadId;
+    private long retryCount = 0;
+
+    public GamepadStateReader(ByteBuffer buffer, SharedMemoryAtomics atomics) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.atomics = atomics;
+    }
+
+    /**
+     * Copies a consistent snapshot of the block into state and returns its sequence number.
+     */
+    public int read(GamepadState state) {
+        while (true) {
+            int sequence = atomics.load(buffer, GamepadStateBlock.SEQUENCE);
+            if ((sequence & 1) == 0) {
+                boolean enabled = atomics.load(buffer, GamepadStateBlock.ENABLED) != 0;
+                int gamepadId = atomics.load(buffer, GamepadStateBlock.GAMEPAD_ID);
+                for (int i = 0; i < GamepadStateBlock.STATE_WORDS; i++) {
+                    packed.putInt(i * 4, atomics.load(buffer, GamepadStateBlock.STATE + i * 4));
+                }
+
+                if (atomics.load(buffer, GamepadStateBlock.SEQUENCE) == sequence) {
+                    this.enabled = enabled;
+                    this.gamepadId = gamepadId;
+                    packed.rewind();
+                    state.readFrom(packed);
+                    return sequence;
+                }
+            }
+            retryCount++;
+            Thread.yield();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getGamepadId() {
+        return gamepadId;
+    }
+
+    public long getRetryCount() {
+        return retryCount;
+    }
+}
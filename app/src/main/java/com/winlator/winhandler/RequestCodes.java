@@ -15,4 +15,5 @@ abstract class RequestCodes {
     public static final byte KEYBOARD_EVENT = 11;
     public static final byte BRING_TO_FRONT = 12;
     public static final byte CURSOR_POS_FEEDBACK = 13;
+    public static final byte GET_GAMEPAD_SHM = 14;
 }
\ No newline at end of file
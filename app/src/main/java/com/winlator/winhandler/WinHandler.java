@@ -11,10 +11,13 @@ import android.view.MotionEvent;
 import com.winlator.core.StringUtils;
 import com.winlator.inputcontrols.ControlsProfile;
 import com.winlator.inputcontrols.ExternalController;
+import com.winlator.inputcontrols.GamepadState;
 import com.winlator.inputcontrols.TouchMouse;
 import com.winlator.math.XForm;
 import com.winlator.widget.InputControlsView;
 import com.winlator.widget.XServerView;
+import com.winlator.xconnector.UnixSocketConfig;
+import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xserver.Pointer;
 import com.winlator.xserver.XKeycode;
 import com.winlator.xserver.XServer;
@@ -30,7 +33,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
@@ -40,10 +42,19 @@ import timber.log.Timber;
 public class WinHandler {
     private static final short SERVER_PORT = 7947;
     private static final short CLIENT_PORT = 7946;
+    private static final long DEFAULT_GAMEPAD_POLL_INTERVAL = 4000000;
+    private static final int GET_GAMEPAD_LENGTH = 7;
     private final ArrayDeque<Runnable> actions;
-    private ExternalController currentController;
+    private final ExternalController[] controllers = new ExternalController[ControllerSlots.MAX_SLOTS];
+    private final ControllerSlots controllerSlots = new ControllerSlots();
     private byte dinputMapperType;
-    private final List<Integer> gamepadClients;
+    private final List<Integer>[] gamepadClients;
+    private XConnectorEpoll gamepadConnector;
+    private UnixSocketConfig gamepadSocketConfig;
+    private final GamepadMailbox[] gamepadMailboxes = new GamepadMailbox[ControllerSlots.MAX_SLOTS];
+    private volatile GamepadStateBlock[] gamepadStateBlocks = new GamepadStateBlock[ControllerSlots.MAX_SLOTS];
+    private long gamepadPollInterval = DEFAULT_GAMEPAD_POLL_INTERVAL;
+    private long gamepadPacketCount = 0;
     private boolean initReceived;
     private InetAddress localhost;
     private OnGetProcessInfoListener onGetProcessInfoListener;
@@ -86,7 +97,11 @@ public class WinHandler {
         this.running = false;
         this.dinputMapperType = (byte) 1;
         this.preferredInputApi = PreferredInputApi.BOTH;
-        this.gamepadClients = new CopyOnWriteArrayList();
+        this.gamepadClients = new List[ControllerSlots.MAX_SLOTS];
+        for (int i = 0; i < ControllerSlots.MAX_SLOTS; i++) {
+            this.gamepadClients[i] = new CopyOnWriteArrayList<>();
+            this.gamepadMailboxes[i] = new GamepadMailbox();
+        }
         this.xinputProcesses = new ArrayList<>();
         this.xServer = xServer;
         this.xServerView = xServerView;
@@ -280,8 +295,12 @@ public class WinHandler {
                     while (this.initReceived && !this.actions.isEmpty()) {
                         this.actions.poll().run();
                     }
+                    long delay = this.initReceived ? sendPendingGamepadStates() : Long.MAX_VALUE;
                     try {
-                        this.actions.wait();
+                        if (delay == Long.MAX_VALUE) {
+                            this.actions.wait();
+                        }
+                        else if (delay > 0) this.actions.wait(delay / 1000000, (int)(delay % 1000000));
                     } catch (InterruptedException e) {
                     }
                 }
@@ -289,8 +308,20 @@ public class WinHandler {
         });
     }
 
+    /**
+     * Sets the unix socket on which the fds of the gamepad state blocks are handed out, started
+     * and stopped with the handler.
+     */
+    public void setGamepadSocketConfig(UnixSocketConfig gamepadSocketConfig) {
+        this.gamepadSocketConfig = gamepadSocketConfig;
+    }
+
     public void stop() {
         this.running = false;
+        if (this.gamepadConnector != null) {
+            this.gamepadConnector.stop();
+            this.gamepadConnector = null;
+        }
         DatagramSocket datagramSocket = this.socket;
         if (datagramSocket != null) {
             datagramSocket.close();
@@ -299,11 +330,15 @@ public class WinHandler {
         synchronized (this.actions) {
             this.actions.notify();
         }
+        GamepadStateBlock[] gamepadStateBlocks = this.gamepadStateBlocks;
+        this.gamepadStateBlocks = new GamepadStateBlock[ControllerSlots.MAX_SLOTS];
+        for (GamepadStateBlock gamepadStateBlock : gamepadStateBlocks) {
+            if (gamepadStateBlock != null) gamepadStateBlock.close();
+        }
     }
 
     private void handleRequest(byte requestCode, final int port) throws IOException {
         boolean enabled = true;
-        ExternalController externalController;
         switch (requestCode) {
             case RequestCodes.INIT:
                 this.initReceived = true;
@@ -331,14 +366,19 @@ public class WinHandler {
             case RequestCodes.GET_GAMEPAD:
                 boolean isXInput = this.receiveData.get() == 1;
                 boolean notify = this.receiveData.get() == 1;
-                final ControlsProfile profile = inputControlsView.getProfile();
-                final boolean useVirtualGamepad = inputControlsView != null && profile != null && profile.isVirtualGamepad();
                 int processId = this.receiveData.getInt();
-                if (!useVirtualGamepad && ((externalController = this.currentController) == null || !externalController.isConnected())) {
-                    this.currentController = ExternalController.getController(0);
+                final int slot = this.receivePacket.getLength() > GET_GAMEPAD_LENGTH ? this.receiveData.get() : 0;
+                if (slot < 0 || slot >= ControllerSlots.MAX_SLOTS) {
+                    return;
+                }
+                final ControlsProfile profile = inputControlsView.getProfile();
+                final boolean useVirtualGamepad = isVirtualGamepadSlot(slot);
+                ExternalController controller = this.controllers[slot];
+                if (!useVirtualGamepad && (controller == null || !controller.isConnected())) {
+                    refreshControllers();
+                    controller = this.controllers[slot];
                 }
-                boolean enabled2 = this.currentController != null || useVirtualGamepad;
-                if (enabled2) {
+                if (controller != null || useVirtualGamepad) {
                     switch (this.preferredInputApi) {
                         case DINPUT:
                             boolean hasXInputProcess = this.xinputProcesses.contains(Integer.valueOf(processId));
@@ -366,43 +406,26 @@ public class WinHandler {
                             break;
                     }
                     if (notify) {
-                        if (!this.gamepadClients.contains(Integer.valueOf(port))) {
-                            this.gamepadClients.add(Integer.valueOf(port));
+                        if (!this.gamepadClients[slot].contains(Integer.valueOf(port))) {
+                            this.gamepadClients[slot].add(Integer.valueOf(port));
                         }
                     } else {
-                        this.gamepadClients.remove(Integer.valueOf(port));
+                        this.gamepadClients[slot].remove(Integer.valueOf(port));
                     }
-                    final boolean finalEnabled = enabled;
-                    addAction(() -> {
-                        this.sendData.rewind();
-                        this.sendData.put((byte) 8);
-                        if (finalEnabled) {
-                            this.sendData.putInt(!useVirtualGamepad ? this.currentController.getDeviceId() : profile.id);
-                            this.sendData.put(this.dinputMapperType);
-                            byte[] bytes2 = (useVirtualGamepad ? profile.getName() : this.currentController.getName()).getBytes();
-                            this.sendData.putInt(bytes2.length);
-                            this.sendData.put(bytes2);
-                        } else {
-                            this.sendData.putInt(0);
-                            this.sendData.put((byte) 0);
-                            this.sendData.putInt(0);
-                        }
-                        sendPacket(port);
-                    });
-                    return;
                 }
-                enabled = enabled2;
-                if (!enabled) {
+                else {
+                    enabled = false;
+                    this.gamepadClients[slot].remove(Integer.valueOf(port));
                 }
-                this.gamepadClients.remove(Integer.valueOf(port));
-                final boolean finalEnabled2 = enabled;
+                final boolean finalEnabled = enabled;
+                final ExternalController finalController = controller;
                 addAction(() -> {
                     this.sendData.rewind();
-                    this.sendData.put((byte) 8);
-                    if (finalEnabled2) {
-                        this.sendData.putInt(!useVirtualGamepad ? this.currentController.getDeviceId() : profile.id);
+                    this.sendData.put(RequestCodes.GET_GAMEPAD);
+                    if (finalEnabled) {
+                        this.sendData.putInt(!useVirtualGamepad ? finalController.getDeviceId() : profile.id);
                         this.sendData.put(this.dinputMapperType);
-                        byte[] bytes2 = (useVirtualGamepad ? profile.getName() : this.currentController.getName()).getBytes();
+                        byte[] bytes2 = (useVirtualGamepad ? profile.getName() : finalController.getName()).getBytes();
                         this.sendData.putInt(bytes2.length);
                         this.sendData.put(bytes2);
                     } else {
@@ -410,36 +433,31 @@ public class WinHandler {
                         this.sendData.put((byte) 0);
                         this.sendData.putInt(0);
                     }
+                    this.sendData.put((byte) slot);
                     sendPacket(port);
                 });
                 return;
             case RequestCodes.GET_GAMEPAD_STATE:
                 final int gamepadId = this.receiveData.getInt();
-                final ControlsProfile profile2 = inputControlsView.getProfile();
-                final boolean useVirtualGamepad2 = inputControlsView != null && profile2 != null && profile2.isVirtualGamepad();
-                ExternalController externalController2 = this.currentController;
-                final boolean enabled3 = externalController2 != null || useVirtualGamepad2;
-                if (externalController2 != null && externalController2.getDeviceId() != gamepadId) {
-                    this.currentController = null;
-                }
+                final int stateSlot = getSlotByGamepadId(gamepadId);
                 addAction(() -> {
-                    sendData.rewind();
-                    sendData.put(RequestCodes.GET_GAMEPAD_STATE);
-                    this.sendData.put((byte)(enabled3 ? 1 : 0));
-                    if (enabled3) {
+                    this.sendData.rewind();
+                    this.sendData.put(RequestCodes.GET_GAMEPAD_STATE);
+                    this.sendData.put((byte)(stateSlot != -1 ? 1 : 0));
+                    if (stateSlot != -1) {
                         this.sendData.putInt(gamepadId);
-                        if (useVirtualGamepad2) {
-                            inputControlsView.getProfile().getGamepadState().writeTo(this.sendData);
-                        } else {
-                            this.currentController.state.writeTo(this.sendData);
-                        }
+                        getGamepadState(stateSlot).writeTo(this.sendData);
+                        this.sendData.put((byte) stateSlot);
                     }
                     sendPacket(port);
                 });
                 return;
             case RequestCodes.RELEASE_GAMEPAD:
-                this.currentController = null;
-                this.gamepadClients.clear();
+                for (int i = 0; i < ControllerSlots.MAX_SLOTS; i++) {
+                    this.controllers[i] = null;
+                    this.gamepadClients[i].clear();
+                    if (this.gamepadStateBlocks[i] != null) sendGamepadState(i);
+                }
                 this.xinputProcesses.clear();
                 return;
             case RequestCodes.CURSOR_POS_FEEDBACK:
@@ -464,6 +482,10 @@ public class WinHandler {
             }
         }
         this.running = true;
+        if (this.gamepadSocketConfig != null && this.gamepadConnector == null) {
+            this.gamepadConnector = new XConnectorEpoll(this.gamepadSocketConfig, new GamepadSHMConnectionHandler(this), new GamepadSHMRequestHandler());
+            this.gamepadConnector.start();
+        }
         startSendThread();
         Executors.newSingleThreadExecutor().execute(() -> {
             try {
@@ -484,80 +506,190 @@ public class WinHandler {
         });
     }
 
+    private boolean isVirtualGamepadSlot(int slot) {
+        ControlsProfile profile = inputControlsView != null ? inputControlsView.getProfile() : null;
+        return slot == 0 && profile != null && profile.isVirtualGamepad();
+    }
+
+    /**
+     * Assigns the connected game controllers to slots, keeping the slots of known ones.
+     */
+    private void refreshControllers() {
+        ArrayList<ExternalController> connectedControllers = ExternalController.getControllers();
+        ArrayList<String> descriptors = new ArrayList<>();
+        for (ExternalController controller : connectedControllers) descriptors.add(controller.getId());
+        this.controllerSlots.update(descriptors);
+
+        for (ExternalController controller : connectedControllers) {
+            int slot = this.controllerSlots.getSlot(controller.getId());
+            ExternalController current = slot != -1 ? this.controllers[slot] : null;
+            if (slot != -1 && (current == null || !current.isConnected())) this.controllers[slot] = controller;
+        }
+    }
+
+    /**
+     * Returns the slot of the controller with deviceId, adopting it if it is a game controller
+     * without slot yet, or -1.
+     */
+    private int getControllerSlot(int deviceId, boolean adopt) {
+        for (int i = 0; i < ControllerSlots.MAX_SLOTS; i++) {
+            ExternalController controller = this.controllers[i];
+            if (controller != null && controller.getDeviceId() == deviceId) return i;
+        }
+        if (!adopt) return -1;
+
+        ExternalController adopted = ExternalController.getController(deviceId);
+        if (adopted == null) return -1;
+        int slot = this.controllerSlots.assign(adopted.getId());
+        if (slot != -1) {
+            this.controllers[slot] = adopted;
+            Timber.d("WinHandler: adopted controller %s(#%d) in slot %d", adopted.getName(), adopted.getDeviceId(), slot);
+        }
+        return slot;
+    }
+
+    private int getSlotByGamepadId(int gamepadId) {
+        if (isVirtualGamepadSlot(0) && inputControlsView.getProfile().id == gamepadId) return 0;
+        for (int i = 0; i < ControllerSlots.MAX_SLOTS; i++) {
+            ExternalController controller = this.controllers[i];
+            if (controller != null && controller.getDeviceId() == gamepadId && !isVirtualGamepadSlot(i)) return i;
+        }
+        return -1;
+    }
+
+    private GamepadState getGamepadState(int slot) {
+        if (isVirtualGamepadSlot(slot)) return inputControlsView.getProfile().getGamepadState();
+        ExternalController controller = this.controllers[slot];
+        return controller != null ? controller.state : null;
+    }
+
+    private synchronized GamepadStateBlock getGamepadStateBlock(int slot) {
+        GamepadStateBlock[] gamepadStateBlocks = this.gamepadStateBlocks;
+        if (gamepadStateBlocks[slot] == null) {
+            GamepadStateBlock gamepadStateBlock = GamepadStateBlock.create(slot);
+            if (gamepadStateBlock == null) return null;
+            gamepadStateBlocks = gamepadStateBlocks.clone();
+            gamepadStateBlocks[slot] = gamepadStateBlock;
+            this.gamepadStateBlocks = gamepadStateBlocks;
+        }
+        return gamepadStateBlocks[slot];
+    }
+
+    /**
+     * Returns the fd of the state block of a slot for the client listening on the UDP port, which
+     * is then dropped from the UDP clients of the slot, or -1.
+     */
+    int getGamepadStateBlockFd(int slot, int port) {
+        if (slot < 0 || slot >= ControllerSlots.MAX_SLOTS) return -1;
+        synchronized (this.actions) {
+            GamepadStateBlock block = getGamepadStateBlock(slot);
+            if (block == null) return -1;
+            this.gamepadClients[slot].remove(Integer.valueOf(port));
+            sendGamepadState(slot);
+            return block.getFd();
+        }
+    }
+
+    /**
+     * Sends the state of slot 0, which also carries the virtual gamepad of the controls profile.
+     */
     public void sendGamepadState() {
-        if (!this.initReceived || this.gamepadClients.isEmpty()) {
+        sendGamepadState(0);
+    }
+
+    /**
+     * Publishes the state of a slot in its shared state block if a client mapped it, and posts it
+     * to the mailbox of the slot drained by the send thread, which sends it to the UDP clients of
+     * the slot at most once per poll interval, or immediately if a button changed.
+     */
+    public void sendGamepadState(int slot) {
+        GamepadStateBlock gamepadStateBlock = this.gamepadStateBlocks[slot];
+        List<Integer> clients = this.gamepadClients[slot];
+        if (!this.initReceived || (gamepadStateBlock == null && clients.isEmpty())) {
             return;
         }
-        final ControlsProfile profile = inputControlsView.getProfile();
-        final boolean useVirtualGamepad = profile != null && profile.isVirtualGamepad();
-        final boolean enabled = this.currentController != null || useVirtualGamepad;
-        Iterator<Integer> it = this.gamepadClients.iterator();
-        while (it.hasNext()) {
-            final int port = it.next().intValue();
-            addAction(() -> {
+        boolean useVirtualGamepad = isVirtualGamepadSlot(slot);
+        ExternalController controller = this.controllers[slot];
+        boolean enabled = controller != null || useVirtualGamepad;
+        int gamepadId = useVirtualGamepad ? inputControlsView.getProfile().id : (controller != null ? controller.getDeviceId() : 0);
+        GamepadState state = getGamepadState(slot);
+
+        if (gamepadStateBlock != null) gamepadStateBlock.write(enabled, gamepadId, state);
+        if (!clients.isEmpty() && this.gamepadMailboxes[slot].post(enabled, gamepadId, state, System.nanoTime())) {
+            synchronized (this.actions) {
+                this.actions.notify();
+            }
+        }
+    }
+
+    /**
+     * Sends the due states of all slots, each packet followed by its slot index, and returns the
+     * nanoseconds until the next one is due.
+     */
+    private long sendPendingGamepadStates() {
+        long time = System.nanoTime();
+        long delay = Long.MAX_VALUE;
+        for (int slot = 0; slot < ControllerSlots.MAX_SLOTS; slot++) {
+            GamepadMailbox gamepadMailbox = this.gamepadMailboxes[slot];
+            while (true) {
                 this.sendData.rewind();
-                sendData.put(RequestCodes.GET_GAMEPAD_STATE);
-                sendData.put((byte)(enabled ? 1 : 0));
-                if (enabled) {
-                    this.sendData.putInt(!useVirtualGamepad ? this.currentController.getDeviceId() : inputControlsView.getProfile().id);
-                    if (useVirtualGamepad) {
-                        inputControlsView.getProfile().getGamepadState().writeTo(sendData);
-                    } else {
-                        this.currentController.state.writeTo(this.sendData);
-                    }
+                this.sendData.put(RequestCodes.GET_GAMEPAD_STATE);
+                if (!gamepadMailbox.poll(this.sendData, time, this.gamepadPollInterval)) break;
+                this.sendData.put((byte) slot);
+                for (int port : this.gamepadClients[slot]) {
+                    if (sendPacket(port)) this.gamepadPacketCount++;
                 }
-                sendPacket(port);
-            });
+            }
+            delay = Math.min(delay, gamepadMailbox.getDelay(time, this.gamepadPollInterval));
         }
+        return delay;
+    }
+
+    public GamepadMailbox getGamepadMailbox(int slot) {
+        return this.gamepadMailboxes[slot];
+    }
+
+    /**
+     * Returns the number of gamepad state packets sent so far, over all clients.
+     */
+    public long getGamepadPacketCount() {
+        return this.gamepadPacketCount;
+    }
+
+    public void setGamepadPollInterval(int pollIntervalMillis) {
+        this.gamepadPollInterval = pollIntervalMillis * 1000000L;
     }
 
     public boolean onGenericMotionEvent(MotionEvent event) {
-        boolean handled = false;
-        ExternalController externalController = this.currentController;
-        // Adopt newly connected controller if deviceId mismatches
-        if ((externalController == null || externalController.getDeviceId() != event.getDeviceId()) && ExternalController.isJoystickDevice(event)) {
-            ExternalController adopted = ExternalController.getController(event.getDeviceId());
-            if (adopted != null) {
-                this.currentController = adopted;
-                externalController = adopted;
-                Timber.d("WinHandler.onGenericMotionEvent: adopted controller %s(#%d)", adopted.getName(), adopted.getDeviceId());
-            }
+        int slot = getControllerSlot(event.getDeviceId(), ExternalController.isJoystickDevice(event));
+        ExternalController controller = slot != -1 ? this.controllers[slot] : null;
+        if (controller == null) {
+            return false;
         }
-        if (externalController != null && externalController.getDeviceId() == event.getDeviceId() && (handled = this.currentController.updateStateFromMotionEvent(event))) {
-            if (handled) {
-                sendGamepadState();
-            }
+        boolean handled = controller.updateStateFromMotionEvent(event);
+        if (handled) {
+            sendGamepadState(slot);
         }
         return handled;
     }
 
     public boolean onKeyEvent(KeyEvent event) {
-        boolean handled = false;
-        ExternalController externalController = this.currentController;
-        // If this is a gamepad event but our controller is null or mismatched, adopt it
         InputDevice device = event.getDevice();
-        if ((externalController == null || externalController.getDeviceId() != event.getDeviceId())
-                && device != null && ExternalController.isGameController(device)
-                && event.getRepeatCount() == 0) {
-            ExternalController adopted = ExternalController.getController(event.getDeviceId());
-            if (adopted != null) {
-                this.currentController = adopted;
-                externalController = adopted;
-                Timber.d("WinHandler.onKeyEvent: adopted controller %s(#%d)", adopted.getName(), adopted.getDeviceId());
-            }
+        if (event.getRepeatCount() != 0) {
+            return false;
         }
-
-
-        if (externalController != null && externalController.getDeviceId() == event.getDeviceId() && event.getRepeatCount() == 0) {
-            int action = event.getAction();
-            if (action == KeyEvent.ACTION_DOWN) {
-                handled = this.currentController.updateStateFromKeyEvent(event);
-            } else if (action == KeyEvent.ACTION_UP) {
-                handled = this.currentController.updateStateFromKeyEvent(event);
-            }
-            if (handled) {
-                sendGamepadState();
-            }
+        int slot = getControllerSlot(event.getDeviceId(), device != null && ExternalController.isGameController(device));
+        ExternalController controller = slot != -1 ? this.controllers[slot] : null;
+        if (controller == null) {
+            return false;
+        }
+        boolean handled = false;
+        int action = event.getAction();
+        if (action == KeyEvent.ACTION_DOWN || action == KeyEvent.ACTION_UP) {
+            handled = controller.updateStateFromKeyEvent(event);
+        }
+        if (handled) {
+            sendGamepadState(slot);
         }
         return handled;
     }
@@ -571,6 +703,10 @@ public class WinHandler {
     }
 
     public ExternalController getCurrentController() {
-        return this.currentController;
+        return this.controllers[0];
+    }
+
+    public ExternalController getController(int slot) {
+        return this.controllers[slot];
     }
 }
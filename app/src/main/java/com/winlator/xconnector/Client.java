@@ -15,6 +15,8 @@ public class Client {
     protected Thread pollThread;
     protected int shutdownFd;
     protected boolean connected;
+    protected boolean monitored;
+    protected volatile boolean suspended;
 
     public Client(XConnectorEpoll connector, ClientSocket clientSocket) {
         this.connector = connector;
@@ -27,6 +29,7 @@ public class Client {
         outputStream = new XOutputStream(clientSocket, connector.getInitialOutputBufferCapacity());
         inputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
         outputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        if (connector.isWriteCombining()) outputStream.setFlushScheduler(connector);
     }
 
     public XInputStream getInputStream() {
@@ -45,6 +48,26 @@ public class Client {
         this.tag = tag;
     }
 
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Stops handling requests from this client after the current one; later requests stay queued
+     * in the input stream until {@link #resume()} is called. Must be called while handling a request.
+     */
+    public void suspend() {
+        suspended = true;
+    }
+
+    public void resume() {
+        if (suspended) connector.scheduleResume(this);
+    }
+
     protected void requestShutdown() {
         try {
             ByteBuffer data = ByteBuffer.allocateDirect(8);
@@ -52,6 +52,14 @@ public class ClientSocket {
         else throw new IOException("Failed to write data.");
     }
 
+    public void writeRows(ByteBuffer header, ByteBuffer data, int offset, int rowLength, int stride, int rows) throws IOException {
+        int bytesWritten = writeRows(fd, header, header.limit(), data, offset, rowLength, stride, rows);
+        if (bytesWritten >= 0) {
+            header.position(header.limit());
+        }
+        else throw new IOException("Failed to write data.");
+    }
+
     public int recvAncillaryMsg(ByteBuffer data) throws IOException {
         int position = data.position();
         int bytesRead = recvAncillaryMsg(fd, data, position, data.remaining());
@@ -77,6 +85,8 @@ public class ClientSocket {
 
     private native int write(int fd, ByteBuffer data, int length);
 
+    private native int writeRows(int fd, ByteBuffer header, int headerLength, ByteBuffer data, int offset, int rowLength, int stride, int rows);
+
     private native int recvAncillaryMsg(int clientFd, ByteBuffer data, int offset, int length);
 
     private native int sendAncillaryMsg(int clientFd, ByteBuffer data, int length, int ancillaryFd);
@@ -5,21 +5,32 @@ import android.util.SparseArray;
 import androidx.annotation.Keep;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class XConnectorEpoll implements Runnable {
+public class XConnectorEpoll implements Runnable, Executor {
     private final ConnectionHandler connectionHandler;
     private final int epollFd;
     private Thread epollThread;
     private final RequestHandler requestHandler;
     private final int serverFd;
     private final int shutdownFd;
+    private final int wakeupFd;
     private boolean running = false;
     private boolean multithreadedClients = false;
     private boolean canReceiveAncillaryMessages = false;
     private boolean monitorClients = true;
+    private boolean writeCombining = false;
     private int initialInputBufferCapacity = 128;
     private int initialOutputBufferCapacity = 128;
     private final SparseArray<Client> connectedClients = new SparseArray<>();
+    private final ArrayDeque<XOutputStream> pendingFlushes = new ArrayDeque<>();
+    private final ArrayDeque<Client> pendingResumes = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> pendingCommands = new ArrayDeque<>();
+    private final ByteBuffer wakeupData = ByteBuffer.allocateDirect(8);
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
 
     private native boolean addFdToEpoll(int i, int i2);
 
@@ -68,6 +79,15 @@ public class XConnectorEpoll implements Runnable {
             closeFd(createEpollFd);
             throw new RuntimeException("Failed to add shutdown fd to epoll.");
         }
+        int createWakeupFd = createEventFd();
+        this.wakeupFd = createWakeupFd;
+        if (!addFdToEpoll(createEpollFd, createWakeupFd)) {
+            closeFd(createAFUnixSocket);
+            closeFd(createEventFd);
+            closeFd(createWakeupFd);
+            closeFd(createEpollFd);
+            throw new RuntimeException("Failed to add wakeup fd to epoll.");
+        }
         this.epollThread = new Thread(this);
     }
 
@@ -107,6 +127,7 @@ public class XConnectorEpoll implements Runnable {
     private void handleNewConnection(int fd) {
         final Client client = new Client(this, new ClientSocket(fd));
         client.connected = true;
+        client.monitored = !this.multithreadedClients && this.monitorClients;
         if (this.multithreadedClients) {
             client.shutdownFd = createEventFd();
             client.pollThread = new Thread(() -> {
@@ -124,6 +145,10 @@ public class XConnectorEpoll implements Runnable {
 
     @Keep
     private void handleExistingConnection(int fd) {
+        if (fd == this.wakeupFd) {
+            handleWakeup();
+            return;
+        }
         Client client = this.connectedClients.get(fd);
         if (client == null) {
             return;
@@ -132,11 +157,7 @@ public class XConnectorEpoll implements Runnable {
         try {
             if (inputStream != null) {
                 if (inputStream.readMoreData(this.canReceiveAncillaryMessages) > 0) {
-                    int activePosition = 0;
-                    while (this.running && this.requestHandler.handleRequest(client)) {
-                        activePosition = inputStream.getActivePosition();
-                    }
-                    inputStream.setActivePosition(activePosition);
+                    processRequests(client);
                     return;
                 }
                 killConnection(client);
@@ -148,12 +169,174 @@ public class XConnectorEpoll implements Runnable {
         }
     }
 
+    private void processRequests(Client client) throws IOException {
+        XInputStream inputStream = client.getInputStream();
+        XOutputStream outputStream = this.writeCombining ? client.getOutputStream() : null;
+        if (outputStream != null) {
+            outputStream.beginBatch();
+        }
+        try {
+            int activePosition = inputStream.getActivePosition();
+            while (this.running && !client.suspended && this.requestHandler.handleRequest(client)) {
+                activePosition = inputStream.getActivePosition();
+            }
+            inputStream.setActivePosition(activePosition);
+            if (client.suspended && client.monitored && !this.multithreadedClients) {
+                removeFdFromEpoll(this.epollFd, client.clientSocket.fd);
+                client.monitored = false;
+            }
+        } finally {
+            if (outputStream != null && client.connected) {
+                outputStream.endBatch();
+            }
+        }
+    }
+
+    private void wakeup() {
+        try {
+            this.wakeupData.clear();
+            this.wakeupData.putLong(0, 1L);
+            new ClientSocket(this.wakeupFd).write(this.wakeupData);
+        } catch (IOException e) {
+        }
+    }
+
+    void scheduleFlush(XOutputStream outputStream) {
+        synchronized (this.wakeupData) {
+            boolean wakeup = isWakeupIdle();
+            this.pendingFlushes.add(outputStream);
+            if (wakeup) {
+                wakeup();
+            }
+        }
+    }
+
+    /**
+     * Lets a suspended client run again; its queued requests are handled on the epoll thread
+     * and its socket is monitored again.
+     */
+    void scheduleResume(Client client) {
+        synchronized (this.wakeupData) {
+            boolean wakeup = isWakeupIdle();
+            this.pendingResumes.add(client);
+            if (wakeup) {
+                wakeup();
+            }
+        }
+    }
+
+    /**
+     * Runs a command on the epoll thread, between the handling of two client reads, so that it
+     * never races with request processing.
+     */
+    @Override
+    public void execute(Runnable command) {
+        synchronized (this.wakeupData) {
+            boolean wakeup = isWakeupIdle();
+            this.pendingCommands.add(command);
+            if (wakeup) {
+                wakeup();
+            }
+        }
+    }
+
+    private boolean isWakeupIdle() {
+        return this.pendingFlushes.isEmpty() && this.pendingResumes.isEmpty() && this.pendingCommands.isEmpty();
+    }
+
+    private void handleWakeup() {
+        synchronized (this.wakeupData) {
+            try {
+                this.wakeupData.clear();
+                new ClientSocket(this.wakeupFd).read(this.wakeupData);
+            } catch (IOException e) {
+            }
+        }
+        while (true) {
+            Client client;
+            synchronized (this.wakeupData) {
+                client = this.pendingResumes.poll();
+            }
+            if (client == null) {
+                break;
+            }
+            resumeClient(client);
+        }
+        while (true) {
+            Runnable command;
+            synchronized (this.wakeupData) {
+                command = this.pendingCommands.poll();
+            }
+            if (command == null) {
+                break;
+            }
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                Log.e("XConnectorEpoll", "Failed to run command: " + e);
+            }
+        }
+        while (true) {
+            XOutputStream outputStream;
+            synchronized (this.wakeupData) {
+                outputStream = this.pendingFlushes.poll();
+            }
+            if (outputStream == null) {
+                break;
+            }
+            try {
+                outputStream.flushPending();
+            } catch (IOException e) {
+                Log.e("XConnectorEpoll", "Failed to flush pending output: " + e);
+            }
+        }
+    }
+
+    private void resumeClient(Client client) {
+        if (!client.connected || !client.suspended) {
+            return;
+        }
+        client.suspended = false;
+        try {
+            processRequests(client);
+        } catch (IOException e) {
+            killConnection(client);
+            return;
+        }
+        if (client.connected && !client.suspended && !client.monitored) {
+            client.monitored = addFdToEpoll(this.epollFd, client.clientSocket.fd);
+        }
+    }
+
+    void onMessage() {
+        this.messageCount.incrementAndGet();
+    }
+
+    void onFlush() {
+        this.flushCount.incrementAndGet();
+    }
+
+    /**
+     * Number of replies and events written by all clients, compare with {@link #getFlushCount()}
+     * to measure how much write-combining saves.
+     */
+    public long getMessageCount() {
+        return this.messageCount.get();
+    }
+
+    public long getFlushCount() {
+        return this.flushCount.get();
+    }
+
     public Client getClient(int fd) {
         return this.connectedClients.get(fd);
     }
 
     public void killConnection(Client client) {
         client.connected = false;
+        if (client.getOutputStream() != null) {
+            client.getOutputStream().close();
+        }
         if (this.multithreadedClients) {
             if (Thread.currentThread() != client.pollThread) {
                 client.requestShutdown();
@@ -169,7 +352,9 @@ public class XConnectorEpoll implements Runnable {
             closeFd(client.shutdownFd);
         } else {
             this.connectionHandler.handleConnectionShutdown(client);
-            removeFdFromEpoll(this.epollFd, client.clientSocket.fd);
+            if (client.monitored) {
+                removeFdFromEpoll(this.epollFd, client.clientSocket.fd);
+            }
         }
         closeFd(client.clientSocket.fd);
         this.connectedClients.remove(client.clientSocket.fd);
@@ -182,8 +367,10 @@ public class XConnectorEpoll implements Runnable {
         }
         removeFdFromEpoll(this.epollFd, this.serverFd);
         removeFdFromEpoll(this.epollFd, this.shutdownFd);
+        removeFdFromEpoll(this.epollFd, this.wakeupFd);
         closeFd(this.serverFd);
         closeFd(this.shutdownFd);
+        closeFd(this.wakeupFd);
         closeFd(this.epollFd);
     }
 
@@ -207,6 +394,14 @@ public class XConnectorEpoll implements Runnable {
         this.multithreadedClients = multithreadedClients;
     }
 
+    public boolean isWriteCombining() {
+        return this.writeCombining;
+    }
+
+    public void setWriteCombining(boolean writeCombining) {
+        this.writeCombining = writeCombining;
+    }
+
     public void setCanReceiveAncillaryMessages(boolean canReceiveAncillaryMessages) {
         this.canReceiveAncillaryMessages = canReceiveAncillaryMessages;
     }
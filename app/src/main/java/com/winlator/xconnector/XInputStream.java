@@ -75,6 +75,10 @@ public class XInputStream {
         return activeBuffer.remaining();
     }
 
+    public byte peekByte(int offset) {
+        return activeBuffer.get(activeBuffer.position() + offset);
+    }
+
     public byte readByte() {
         return activeBuffer.get();
     }
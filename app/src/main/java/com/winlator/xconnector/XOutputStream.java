@@ -9,10 +9,22 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class XOutputStream {
     private static final byte[] ZERO = new byte[64];
+    public static final int MAX_DEFERRED_BYTES = 65536;
+    public static final long MAX_DEFERRED_LATENCY_NS = 2000000;
     private ByteBuffer buffer;
     public final ClientSocket clientSocket;
     private final ReentrantLock lock = new ReentrantLock();
+    private final OutputStreamLock streamLock = new OutputStreamLock();
     private int ancillaryFd = -1;
+    private XConnectorEpoll flushScheduler;
+    private boolean batching = false;
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+    private long pendingSince = 0;
+    private long messageCount = 0;
+    private long flushCount = 0;
+    private int messageStart = 0;
+    private int lastMessageStart = -1;
 
     public XOutputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -73,12 +85,147 @@ public class XOutputStream {
         buffer.put(data);
     }
 
+    /**
+     * Writes rows taken straight from a strided pixel buffer. Pending data and the rows are sent
+     * together with a single gathered write instead of being copied into the output buffer first.
+     */
+    public void writeRows(ByteBuffer data, int offset, int rowLength, int stride, int rows) throws IOException {
+        if (clientSocket == null || ancillaryFd != -1 || closed) {
+            ensureSpaceIsAvailable(rowLength * rows);
+            for (int i = 0; i < rows; i++) {
+                ByteBuffer row = data.duplicate();
+                row.limit(offset + i * stride + rowLength).position(offset + i * stride);
+                buffer.put(row);
+            }
+            return;
+        }
+
+        flushCount++;
+        if (flushScheduler != null) flushScheduler.onFlush();
+        buffer.flip();
+        clientSocket.writeRows(buffer, data, offset, rowLength, stride, rows);
+        buffer.clear();
+        lastMessageStart = -1;
+    }
+
+    /**
+     * Returns the offset of the last message if it is still waiting in the buffer and nothing was
+     * written after it, otherwise -1. Together with the get/put methods below this lets a caller
+     * holding the lock merge a new message into a pending one instead of queueing both.
+     */
+    public int getLastMessageOffset() {
+        return lastMessageStart;
+    }
+
+    public byte getByte(int offset) {
+        return buffer.get(offset);
+    }
+
+    public short getShort(int offset) {
+        return buffer.getShort(offset);
+    }
+
+    public int getInt(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    public void putShort(int offset, short value) {
+        buffer.putShort(offset, value);
+    }
+
+    public void putInt(int offset, int value) {
+        buffer.putInt(offset, value);
+    }
+
+    public int getBufferedLength() {
+        return buffer.position();
+    }
+
     public void writePad(int length) {
         write(ZERO, 0, length);
     }
 
+    /**
+     * Enables write-combining: messages written outside of a request batch are not sent right away
+     * but handed to the connector, which flushes all pending streams at once from its epoll thread.
+     */
+    void setFlushScheduler(XConnectorEpoll flushScheduler) {
+        this.flushScheduler = flushScheduler;
+    }
+
+    /**
+     * Starts deferring flushes until {@link #endBatch()}, used while the connector drains
+     * the requests of a single read so that all replies and events go out in one write.
+     */
+    public void beginBatch() {
+        lock.lock();
+        try {
+            batching = true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void endBatch() throws IOException {
+        lock.lock();
+        try {
+            batching = false;
+            flush();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends any deferred data, called by the connector after a coalesced flush request.
+     */
+    void flushPending() throws IOException {
+        lock.lock();
+        try {
+            flushScheduled = false;
+            if (!batching) flush();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops any deferred data and turns later flushes into no-ops, so that nothing is written
+     * to the socket fd once the connection has been killed and the fd possibly reused.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            buffer.clear();
+            lastMessageStart = -1;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
     private void flush() throws IOException {
-        if (buffer.position() != 0) {
+        if (closed) {
+            buffer.clear();
+            lastMessageStart = -1;
+            return;
+        }
+
+        if (buffer.position() != 0 && clientSocket != null) {
+            flushCount++;
+            if (flushScheduler != null) flushScheduler.onFlush();
             buffer.flip();
 
             if (ancillaryFd != -1) {
@@ -88,35 +235,56 @@ public class XOutputStream {
             else clientSocket.write(buffer);
 
             buffer.clear();
+            lastMessageStart = -1;
         }
     }
 
     public XStreamLock lock() {
-        return new OutputStreamLock();
+        lock.lock();
+        if (lock.getHoldCount() == 1) messageStart = buffer.position();
+        return streamLock;
     }
 
     private void ensureSpaceIsAvailable(int length) {
         int position = buffer.position();
         if ((buffer.capacity() - position) >= length) return;
-        ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() + length).order(buffer.order());
+        int newCapacity = flushScheduler != null ? Math.max(buffer.capacity() * 2, position + length) : buffer.capacity() + length;
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity).order(buffer.order());
         buffer.rewind();
         newBuffer.put(buffer).position(position);
         buffer = newBuffer;
     }
 
     private class OutputStreamLock implements XStreamLock {
-        public OutputStreamLock() {
-            lock.lock();
-        }
-
         @Override
         public void close() throws IOException {
             try {
-                flush();
+                if (lock.getHoldCount() == 1) {
+                    messageCount++;
+                    if (flushScheduler != null) flushScheduler.onMessage();
+                    if (buffer.position() > messageStart) lastMessageStart = messageStart;
+                    if (!deferFlush()) flush();
+                }
             }
             finally {
                 lock.unlock();
             }
         }
     }
+
+    private boolean deferFlush() {
+        if (flushScheduler == null || ancillaryFd != -1 || buffer.position() >= MAX_DEFERRED_BYTES) return false;
+        if (batching) return true;
+
+        long now = System.nanoTime();
+        if (!flushScheduled) {
+            flushScheduled = true;
+            pendingSince = now;
+            flushScheduler.scheduleFlush(this);
+            return true;
+        }
+        if ((now - pendingSince) < MAX_DEFERRED_LATENCY_NS) return true;
+        pendingSince = now;
+        return false;
+    }
 }
@@ -4,6 +4,9 @@ import android.util.Log;
 
 import com.winlator.alsaserver.ALSAClientConnectionHandler;
 import com.winlator.alsaserver.ALSARequestHandler;
+import com.winlator.alsaserver.AudioMixer;
+import com.winlator.alsaserver.AudioStreamStats;
+import com.winlator.alsaserver.AudioTrackSink;
 import com.winlator.core.KeyValueSet;
 import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xconnector.XConnectorEpoll;
@@ -11,7 +14,9 @@ import com.winlator.xenvironment.EnvironmentComponent;
 import com.winlator.alsaserver.ALSAClient;
 
 public class ALSAServerComponent extends EnvironmentComponent {
+    private static final int STATS_LOG_INTERVAL = 10000;
     private XConnectorEpoll connector;
+    private AudioMixer mixer;
     private final ALSAClient.Options options;
     private final UnixSocketConfig socketConfig;
 
@@ -26,7 +31,11 @@ public class ALSAServerComponent extends EnvironmentComponent {
             return;
         }
         ALSAClient.assignFramesPerBuffer(this.environment.getContext());
-        XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, new ALSAClientConnectionHandler(this.options), new ALSARequestHandler());
+        this.mixer = new AudioMixer(new AudioTrackSink(this.options), AudioTrackSink.getNativeSampleRate(), ALSAClient.getFramesPerBuffer());
+        this.mixer.setResamplerQuality(this.options.resamplerQuality);
+        this.mixer.setOnStatsListener(ALSAServerComponent::logStats, STATS_LOG_INTERVAL);
+        this.mixer.start();
+        XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, new ALSAClientConnectionHandler(this.options, this.mixer), new ALSARequestHandler());
         this.connector = xConnectorEpoll;
         xConnectorEpoll.setMultithreadedClients(true);
         this.connector.start();
@@ -39,5 +48,14 @@ public class ALSAServerComponent extends EnvironmentComponent {
             xConnectorEpoll.stop();
             this.connector = null;
         }
+        if (this.mixer != null) {
+            this.mixer.stop();
+            this.mixer = null;
+        }
+    }
+
+    private static void logStats(AudioMixer mixer) {
+        Log.d("ALSAServerComponent", "output underruns=" + mixer.getOutputUnderrunCount() + " buffer=" + mixer.getOutputBufferFrames());
+        for (AudioStreamStats stats : mixer.getStreamStats()) Log.d("ALSAServerComponent", stats.toString());
     }
 }
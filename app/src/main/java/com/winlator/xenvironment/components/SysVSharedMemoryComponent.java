@@ -9,6 +9,7 @@ import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xenvironment.EnvironmentComponent;
 import com.winlator.xserver.SHMSegmentManager;
+import com.winlator.xserver.XLock;
 import com.winlator.xserver.XServer;
 
 public class SysVSharedMemoryComponent extends EnvironmentComponent {
@@ -30,7 +31,7 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
         connector = new XConnectorEpoll(socketConfig, new SysVSHMConnectionHandler(sysVSharedMemory), new SysVSHMRequestHandler());
         connector.start();
 
-        xServer.setSHMSegmentManager(new SHMSegmentManager(sysVSharedMemory));
+        xServer.setSHMSegmentManager(new SHMSegmentManager(sysVSharedMemory, xServer.shmMappingCache));
     }
 
     @Override
@@ -41,6 +42,13 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
             connector = null;
         }
 
+        SHMSegmentManager shmSegmentManager = xServer.getSHMSegmentManager();
+        if (shmSegmentManager != null) {
+            try (XLock lock = xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER)) {
+                shmSegmentManager.detachAll();
+            }
+        }
+
         sysVSharedMemory.deleteAll();
     }
 }
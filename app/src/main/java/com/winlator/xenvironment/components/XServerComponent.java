@@ -13,6 +13,7 @@ public class XServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
     private final XServer xServer;
     private final UnixSocketConfig socketConfig;
+    private boolean singleWriter = false;
 
     public XServerComponent(XServer xServer, UnixSocketConfig socketConfig) {
         this.xServer = xServer;
@@ -26,19 +27,40 @@ public class XServerComponent extends EnvironmentComponent {
         connector = new XConnectorEpoll(socketConfig, new XClientConnectionHandler(xServer), new XClientRequestHandler());
         connector.setInitialInputBufferCapacity(262144);
         connector.setCanReceiveAncillaryMessages(true);
+        connector.setWriteCombining(true);
         connector.start();
+        if (singleWriter) xServer.setCommandExecutor(connector);
     }
 
     @Override
     public void stop() {
         Log.d("XServerComponent", "Stopping...");
         if (connector != null) {
+            xServer.setCommandExecutor(null);
             connector.stop();
             connector = null;
+            if (xServer.isLockProfiling()) {
+                for (XServer.Lockable lockable : XServer.Lockable.values()) {
+                    Log.d("XServerComponent", lockable + ": " + xServer.getLockStats(lockable));
+                }
+            }
         }
     }
 
     public XServer getXServer() {
         return xServer;
     }
+
+    public boolean isSingleWriter() {
+        return singleWriter;
+    }
+
+    /**
+     * When enabled, input injected from the UI thread and scheduled Present commands are handed to
+     * the connector's epoll thread instead of taking the X server locks on the caller thread.
+     * Takes effect on the next start.
+     */
+    public void setSingleWriter(boolean singleWriter) {
+        this.singleWriter = singleWriter;
+    }
 }
@@ -1,31 +1,120 @@
 package com.winlator.xserver;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class Atom {
-    private static final ArrayList<String> atoms = new ArrayList<>(Arrays.asList(null, "PRIMARY", "SECONDARY", "ARC", "ATOM", "BITMAP", "CARDINAL", "COLORMAP", "CURSOR", "CUT_BUFFER0", "CUT_BUFFER1", "CUT_BUFFER2", "CUT_BUFFER3", "CUT_BUFFER4", "CUT_BUFFER5", "CUT_BUFFER6", "CUT_BUFFER7", "DRAWABLE", "FONT", "INTEGER", "PIXMAP", "POINT", "RECTANGLE", "RESOURCE_MANAGER", "RGB_COLOR_MAP", "RGB_BEST_MAP", "RGB_BLUE_MAP", "RGB_DEFAULT_MAP", "RGB_GRAY_MAP", "RGB_GREEN_MAP", "RGB_RED_MAP", "STRING", "VISUALID", "WINDOW", "WM_COMMAND", "WM_HINTS", "WM_CLIENT_MACHINE", "WM_ICON_NAME", "WM_ICON_SIZE", "WM_NAME", "WM_NORMAL_HINTS", "WM_SIZE_HINTS", "WM_ZOOM_HINTS", "MIN_SPACE", "NORM_SPACE", "MAX_SPACE", "END_SPACE", "SUPERSC.LPT_X", "SUPERSC.LPT_Y", "SUBSC.LPT_X", "SUBSC.LPT_Y", "UNDERLINE_POSITION", "UNDERLINE_THICKNESS", "STRIKEOUT_ASCENT", "STRIKEOUT_DESCENT", "ITALIC_ANGLE", "X_HEIGHT", "QUAD_WIDTH", "WEIGHT", "POINT_SIZE", "RESOLUTION", "COPYRIGHT", "NOTICE", "FONT_NAME", "FAMILY_NAME", "FULL_NAME", "CAP_HEIGHT", "WM_CLASS", "WM_TRANSIENT_FOR"));
+    public static final int PRIMARY = 1;
+    public static final int SECONDARY = 2;
+    public static final int ARC = 3;
+    public static final int ATOM = 4;
+    public static final int BITMAP = 5;
+    public static final int CARDINAL = 6;
+    public static final int COLORMAP = 7;
+    public static final int CURSOR = 8;
+    public static final int CUT_BUFFER0 = 9;
+    public static final int CUT_BUFFER1 = 10;
+    public static final int CUT_BUFFER2 = 11;
+    public static final int CUT_BUFFER3 = 12;
+    public static final int CUT_BUFFER4 = 13;
+    public static final int CUT_BUFFER5 = 14;
+    public static final int CUT_BUFFER6 = 15;
+    public static final int CUT_BUFFER7 = 16;
+    public static final int DRAWABLE = 17;
+    public static final int FONT = 18;
+    public static final int INTEGER = 19;
+    public static final int PIXMAP = 20;
+    public static final int POINT = 21;
+    public static final int RECTANGLE = 22;
+    public static final int RESOURCE_MANAGER = 23;
+    public static final int RGB_COLOR_MAP = 24;
+    public static final int RGB_BEST_MAP = 25;
+    public static final int RGB_BLUE_MAP = 26;
+    public static final int RGB_DEFAULT_MAP = 27;
+    public static final int RGB_GRAY_MAP = 28;
+    public static final int RGB_GREEN_MAP = 29;
+    public static final int RGB_RED_MAP = 30;
+    public static final int STRING = 31;
+    public static final int VISUALID = 32;
+    public static final int WINDOW = 33;
+    public static final int WM_COMMAND = 34;
+    public static final int WM_HINTS = 35;
+    public static final int WM_CLIENT_MACHINE = 36;
+    public static final int WM_ICON_NAME = 37;
+    public static final int WM_ICON_SIZE = 38;
+    public static final int WM_NAME = 39;
+    public static final int WM_NORMAL_HINTS = 40;
+    public static final int WM_SIZE_HINTS = 41;
+    public static final int WM_ZOOM_HINTS = 42;
+    public static final int MIN_SPACE = 43;
+    public static final int NORM_SPACE = 44;
+    public static final int MAX_SPACE = 45;
+    public static final int END_SPACE = 46;
+    public static final int SUPERSC_LPT_X = 47;
+    public static final int SUPERSC_LPT_Y = 48;
+    public static final int SUBSC_LPT_X = 49;
+    public static final int SUBSC_LPT_Y = 50;
+    public static final int UNDERLINE_POSITION = 51;
+    public static final int UNDERLINE_THICKNESS = 52;
+    public static final int STRIKEOUT_ASCENT = 53;
+    public static final int STRIKEOUT_DESCENT = 54;
+    public static final int ITALIC_ANGLE = 55;
+    public static final int X_HEIGHT = 56;
+    public static final int QUAD_WIDTH = 57;
+    public static final int WEIGHT = 58;
+    public static final int POINT_SIZE = 59;
+    public static final int RESOLUTION = 60;
+    public static final int COPYRIGHT = 61;
+    public static final int NOTICE = 62;
+    public static final int FONT_NAME = 63;
+    public static final int FAMILY_NAME = 64;
+    public static final int FULL_NAME = 65;
+    public static final int CAP_HEIGHT = 66;
+    public static final int WM_CLASS = 67;
+    public static final int WM_TRANSIENT_FOR = 68;
+    public static final int NET_WM_PID = 69;
+    public static final int NET_WM_WOW64 = 70;
+    public static final int NET_WM_HWND = 71;
+    private static final String[] INITIAL_ATOMS = {null, "PRIMARY", "SECONDARY", "ARC", "ATOM", "BITMAP", "CARDINAL", "COLORMAP", "CURSOR", "CUT_BUFFER0", "CUT_BUFFER1", "CUT_BUFFER2", "CUT_BUFFER3", "CUT_BUFFER4", "CUT_BUFFER5", "CUT_BUFFER6", "CUT_BUFFER7", "DRAWABLE", "FONT", "INTEGER", "PIXMAP", "POINT", "RECTANGLE", "RESOURCE_MANAGER", "RGB_COLOR_MAP", "RGB_BEST_MAP", "RGB_BLUE_MAP", "RGB_DEFAULT_MAP", "RGB_GRAY_MAP", "RGB_GREEN_MAP", "RGB_RED_MAP", "STRING", "VISUALID", "WINDOW", "WM_COMMAND", "WM_HINTS", "WM_CLIENT_MACHINE", "WM_ICON_NAME", "WM_ICON_SIZE", "WM_NAME", "WM_NORMAL_HINTS", "WM_SIZE_HINTS", "WM_ZOOM_HINTS", "MIN_SPACE", "NORM_SPACE", "MAX_SPACE", "END_SPACE", "SUPERSC.LPT_X", "SUPERSC.LPT_Y", "SUBSC.LPT_X", "SUBSC.LPT_Y", "UNDERLINE_POSITION", "UNDERLINE_THICKNESS", "STRIKEOUT_ASCENT", "STRIKEOUT_DESCENT", "ITALIC_ANGLE", "X_HEIGHT", "QUAD_WIDTH", "WEIGHT", "POINT_SIZE", "RESOLUTION", "COPYRIGHT", "NOTICE", "FONT_NAME", "FAMILY_NAME", "FULL_NAME", "CAP_HEIGHT", "WM_CLASS", "WM_TRANSIENT_FOR", "_NET_WM_PID", "_NET_WM_WOW64", "_NET_WM_HWND"};
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // Readers take the published array without locking, only internAtom() writes under the ids monitor
+    private static volatile String[] names = Arrays.copyOf(INITIAL_ATOMS, 256);
+    private static volatile int count = INITIAL_ATOMS.length;
 
-    public synchronized static String getName(int id) {
-        return atoms.get(id);
+    static {
+        for (int i = 1; i < INITIAL_ATOMS.length; i++) ids.put(INITIAL_ATOMS[i], i);
     }
 
-    public synchronized static int getId(String name) {
+    public static String getName(int id) {
+        String[] names = Atom.names;
+        return id >= 0 && id < names.length ? names[id] : null;
+    }
+
+    public static int getId(String name) {
         if (name == null) return 0;
-        for (int i = 0; i < atoms.size(); i++) if (name.equals(atoms.get(i))) return i;
-        return -1;
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
     }
 
-    public synchronized static int internAtom(String name) {
-        int id = getId(name);
-        if (id == -1) {
-            id = atoms.size();
-            atoms.add(name);
+    public static int internAtom(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+
+        synchronized (ids) {
+            id = ids.get(name);
+            if (id != null) return id;
+
+            id = count;
+            String[] newNames = id < names.length ? names : Arrays.copyOf(names, names.length * 2);
+            newNames[id] = name;
+            names = newNames;
+            count = id + 1;
+            ids.put(name, id);
+            return id;
         }
-        return id;
     }
 
-    public synchronized static boolean isValid(int id) {
-        return id > 0 && id < atoms.size();
+    public static boolean isValid(int id) {
+        return id > 0 && id < count;
     }
 }
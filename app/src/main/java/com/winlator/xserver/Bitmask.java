@@ -36,6 +36,10 @@ public class Bitmask implements Iterable<Integer> {
         bits &= ~flag;
     }
 
+    public void clear() {
+        bits = 0;
+    }
+
     public boolean isEmpty() {
         return bits == 0;
     }
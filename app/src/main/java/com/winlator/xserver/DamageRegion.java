@@ -0,0 +1,175 @@
+package com.winlator.xserver;
+
+/**
+ * Accumulates the areas of a drawable modified since its texture was last uploaded,
+ * as a short list of bounding rectangles so that only those parts need to be re-uploaded.
+ */
+public class DamageRegion {
+    public static final int MAX_RECTS = 8;
+    private static final int MERGE_SLACK_AREA = 1024;
+    public final int width;
+    public final int height;
+    private final int[] x0 = new int[MAX_RECTS + 1];
+    private final int[] y0 = new int[MAX_RECTS + 1];
+    private final int[] x1 = new int[MAX_RECTS + 1];
+    private final int[] y1 = new int[MAX_RECTS + 1];
+    private int count = 0;
+    private boolean full = false;
+
+    public DamageRegion(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public synchronized void add(int x, int y, int width, int height) {
+        if (full) return;
+        int left = Math.max(x, 0);
+        int top = Math.max(y, 0);
+        int right = Math.min(x + width, this.width);
+        int bottom = Math.min(y + height, this.height);
+        if (left >= right || top >= bottom) return;
+
+        if (left == 0 && top == 0 && right == this.width && bottom == this.height) {
+            addAll();
+            return;
+        }
+
+        insert(left, top, right, bottom);
+        if (getArea() * 4 >= this.width * this.height * 3) addAll();
+    }
+
+    public synchronized void addAll() {
+        full = true;
+        count = 0;
+    }
+
+    public synchronized void clear() {
+        full = false;
+        count = 0;
+    }
+
+    /**
+     * Copies the damaged rectangles into rects as x, y, width and height and clears the region in
+     * one step, so damage added meanwhile is kept for the next call. Returns the number of
+     * rectangles, which is 0 when nothing or everything is damaged.
+     */
+    public synchronized int take(int[] rects) {
+        int rectCount = full ? 0 : count;
+        for (int i = 0; i < rectCount; i++) {
+            rects[i * 4] = x0[i];
+            rects[i * 4 + 1] = y0[i];
+            rects[i * 4 + 2] = x1[i] - x0[i];
+            rects[i * 4 + 3] = y1[i] - y0[i];
+        }
+        full = false;
+        count = 0;
+        return rectCount;
+    }
+
+    public synchronized boolean isEmpty() {
+        return !full && count == 0;
+    }
+
+    public synchronized boolean isFull() {
+        return full;
+    }
+
+    public synchronized int getRectCount() {
+        return full ? 1 : count;
+    }
+
+    public synchronized int getX(int index) {
+        return full ? 0 : x0[index];
+    }
+
+    public synchronized int getY(int index) {
+        return full ? 0 : y0[index];
+    }
+
+    public synchronized int getWidth(int index) {
+        return full ? width : x1[index] - x0[index];
+    }
+
+    public synchronized int getHeight(int index) {
+        return full ? height : y1[index] - y0[index];
+    }
+
+    public synchronized int getArea() {
+        if (full) return width * height;
+        int area = 0;
+        for (int i = 0; i < count; i++) area += (x1[i] - x0[i]) * (y1[i] - y0[i]);
+        return area;
+    }
+
+    private void insert(int left, int top, int right, int bottom) {
+        while (true) {
+            int mergeIndex = -1;
+            for (int i = 0; i < count; i++) {
+                if (left >= x0[i] && top >= y0[i] && right <= x1[i] && bottom <= y1[i]) return;
+                if (shouldMerge(i, left, top, right, bottom)) {
+                    mergeIndex = i;
+                    break;
+                }
+            }
+
+            if (mergeIndex == -1) break;
+
+            left = Math.min(left, x0[mergeIndex]);
+            top = Math.min(top, y0[mergeIndex]);
+            right = Math.max(right, x1[mergeIndex]);
+            bottom = Math.max(bottom, y1[mergeIndex]);
+            remove(mergeIndex);
+        }
+
+        x0[count] = left;
+        y0[count] = top;
+        x1[count] = right;
+        y1[count] = bottom;
+        count++;
+
+        if (count > MAX_RECTS) mergeClosestPair();
+    }
+
+    private boolean shouldMerge(int index, int left, int top, int right, int bottom) {
+        int unionArea = (Math.max(right, x1[index]) - Math.min(left, x0[index])) * (Math.max(bottom, y1[index]) - Math.min(top, y0[index]));
+        int overlapWidth = Math.min(right, x1[index]) - Math.max(left, x0[index]);
+        int overlapHeight = Math.min(bottom, y1[index]) - Math.max(top, y0[index]);
+        int overlapArea = overlapWidth > 0 && overlapHeight > 0 ? overlapWidth * overlapHeight : 0;
+        int coveredArea = (right - left) * (bottom - top) + (x1[index] - x0[index]) * (y1[index] - y0[index]) - overlapArea;
+        return unionArea - coveredArea <= MERGE_SLACK_AREA;
+    }
+
+    private void mergeClosestPair() {
+        int bestA = 0;
+        int bestB = 1;
+        int bestGrowth = Integer.MAX_VALUE;
+
+        for (int a = 0; a < count; a++) {
+            for (int b = a + 1; b < count; b++) {
+                int unionArea = (Math.max(x1[a], x1[b]) - Math.min(x0[a], x0[b])) * (Math.max(y1[a], y1[b]) - Math.min(y0[a], y0[b]));
+                int growth = unionArea - (x1[a] - x0[a]) * (y1[a] - y0[a]) - (x1[b] - x0[b]) * (y1[b] - y0[b]);
+                if (growth < bestGrowth) {
+                    bestGrowth = growth;
+                    bestA = a;
+                    bestB = b;
+                }
+            }
+        }
+
+        int left = Math.min(x0[bestA], x0[bestB]);
+        int top = Math.min(y0[bestA], y0[bestB]);
+        int right = Math.max(x1[bestA], x1[bestB]);
+        int bottom = Math.max(y1[bestA], y1[bestB]);
+        remove(bestB);
+        remove(bestA);
+        insert(left, top, right, bottom);
+    }
+
+    private void remove(int index) {
+        count--;
+        x0[index] = x0[count];
+        y0[index] = y0[count];
+        x1[index] = x1[count];
+        y1[index] = y1[count];
+    }
+}
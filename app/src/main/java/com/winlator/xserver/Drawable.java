@@ -17,8 +17,17 @@ public class Drawable extends XResource {
     public final Visual visual;
     private Texture texture = new Texture();
     private ByteBuffer data;
+    private final DamageRegion damage;
+    private final DrawableBufferPool bufferPool;
+    private ByteBuffer pooledData;
     private Runnable onDrawListener;
     private Callback<Drawable> onDestroyListener;
+    private Drawable flipSource;
+    private Callback<Drawable> onUnflipListener;
+    /**
+     * Held while the pixels or the flip source change and while the renderer uploads them, so an
+     * upload never reads a half-written region and then clears its damage.
+     */
     public final Object renderLock = new Object();
 
     static {
@@ -26,12 +35,22 @@ public class Drawable extends XResource {
     }
 
     public Drawable(int id, int width, int height, Visual visual) {
+        this(id, width, height, visual, null);
+    }
+
+    public Drawable(int id, int width, int height, Visual visual, DrawableBufferPool bufferPool) {
         super(id);
         this.blank = true;
         this.width = (short)width;
         this.height = (short)height;
         this.visual = visual;
-        this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        this.damage = new DamageRegion(width, height);
+        this.bufferPool = bufferPool;
+        if (bufferPool != null) {
+            this.pooledData = bufferPool.acquire(width * height * 4);
+            this.data = pooledData;
+        }
+        else this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
     }
 
     public static Drawable fromBitmap(Bitmap bitmap) {
@@ -50,20 +69,52 @@ public class Drawable extends XResource {
     }
 
     public void setTexture(Texture texture) {
-        if (texture instanceof GPUImage) data = ((GPUImage)texture).getVirtualData();
+        if (texture instanceof GPUImage) {
+            data = ((GPUImage)texture).getVirtualData();
+            releaseData();
+        }
         this.texture = texture;
     }
 
     public ByteBuffer getData() {
+        unflip();
         return data;
     }
 
     public void setData(ByteBuffer data) {
-        this.data = data;
-        this.blank = false;
+        synchronized (renderLock) {
+            this.data = data;
+            this.blank = false;
+            releaseData();
+            damage.addAll();
+        }
+    }
+
+    /**
+     * Returns the pooled backing store, if any, to the buffer pool. When it still holds the
+     * drawable data the drawable is left without data, so a stale reference cannot alias the
+     * pixels of the next drawable that acquires the buffer. Holds the render lock so the renderer
+     * is never uploading from the buffer while it goes back to the pool.
+     */
+    public void releaseData() {
+        synchronized (renderLock) {
+            if (pooledData != null) {
+                if (data == pooledData) data = null;
+                bufferPool.release(pooledData);
+                pooledData = null;
+            }
+        }
     }
 
-    private short getStride() {
+    public void releaseImage(ByteBuffer image) {
+        if (bufferPool != null) bufferPool.release(image);
+    }
+
+    public DamageRegion getDamage() {
+        return damage;
+    }
+
+    public short getStride() {
         return texture instanceof GPUImage ? ((GPUImage)texture).getStride() : width;
     }
 
@@ -83,37 +134,84 @@ public class Drawable extends XResource {
         this.onDestroyListener = onDestroyListener;
     }
 
-    public void drawImage(short srcX, short srcY, short dstX, short dstY, short width, short height, byte depth, ByteBuffer data, short totalWidth, short totalHeight) {
-        if (depth == 1) {
-            drawBitmap(width, height, data, this.data);
-        }
-        else if (depth == 24 || depth == 32) {
-            dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
-            dstY = (short)Mathf.clamp(dstY, 0, this.height-1);
-            if ((dstX + width) > this.width) width = (short)((this.width - dstX));
-            if ((dstY + height) > this.height) height = (short)((this.height - dstY));
+    public Drawable getFlipSource() {
+        return flipSource;
+    }
 
-            copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
-        }
+    /**
+     * Displays the contents of source in place of this drawable without copying them. The data of
+     * this drawable becomes current again, through {@link #unflip()}, before it is next accessed.
+     */
+    public void setFlipSource(Drawable source) {
+        flipSource = source;
+        blank = false;
+        source.damage.addAll();
+        source.texture.setNeedsUpdate(true);
+        if (onDrawListener != null) onDrawListener.run();
+    }
+
+    public void setOnUnflipListener(Callback<Drawable> onUnflipListener) {
+        this.onUnflipListener = onUnflipListener;
+    }
 
-        this.data.rewind();
-        data.rewind();
+    /**
+     * Copies the flipped contents back into this drawable and stops displaying the flip source.
+     */
+    public void unflip() {
+        synchronized (renderLock) {
+            Drawable source = flipSource;
+            if (source == null) return;
+            flipSource = null;
+            if (data == null || source.data == null) return;
+
+            copyArea((short)0, (short)0, (short)0, (short)0, width, height, source.getStride(), getStride(), source.data, data);
+            damage.addAll();
+            data.rewind();
+            source.data.rewind();
+
+            texture.setNeedsUpdate(true);
+        }
+        if (onUnflipListener != null) onUnflipListener.call(this);
+    }
 
-        texture.setNeedsUpdate(true);
+    public void drawImage(short srcX, short srcY, short dstX, short dstY, short width, short height, byte depth, ByteBuffer data, short totalWidth, short totalHeight) {
+        unflip();
+        synchronized (renderLock) {
+            if (depth == 1) {
+                drawBitmap(width, height, data, this.data);
+                damage.addAll();
+            }
+            else if (depth == 24 || depth == 32) {
+                dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
+                dstY = (short)Mathf.clamp(dstY, 0, this.height-1);
+                if ((dstX + width) > this.width) width = (short)((this.width - dstX));
+                if ((dstY + height) > this.height) height = (short)((this.height - dstY));
+
+                copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+                damage.add(dstX, dstY, width, height);
+            }
+
+            this.data.rewind();
+            data.rewind();
+
+            texture.setNeedsUpdate(true);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
     public ByteBuffer getImage(short x, short y, short width, short height) {
-        ByteBuffer dstData = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        unflip();
+        ByteBuffer dstData = bufferPool != null ? bufferPool.acquire(width * height * 4) : ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
 
         x = (short)Mathf.clamp(x, 0, this.width-1);
         y = (short)Mathf.clamp(y, 0, this.height-1);
         if ((x + width) > this.width) width = (short)(this.width - x);
         if ((y + height) > this.height) height = (short)(this.height - y);
 
-        copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
-
-        this.data.rewind();
+        synchronized (renderLock) {
+            copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
+            this.data.rewind();
+        }
         dstData.rewind();
         return dstData;
     }
@@ -123,20 +221,25 @@ public class Drawable extends XResource {
     }
 
     public void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, Drawable drawable, GraphicsContext.Function gcFunction) {
+        unflip();
+        drawable.unflip();
         dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
         dstY = (short)Mathf.clamp(dstY, 0, this.height-1);
         if ((dstX + width) > this.width) width = (short)(this.width - dstX);
         if ((dstY + height) > this.height) height = (short)(this.height - dstY);
 
-        if (gcFunction == GraphicsContext.Function.COPY) {
-            copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
-        }
-        else copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction.ordinal());
+        synchronized (renderLock) {
+            if (gcFunction == GraphicsContext.Function.COPY) {
+                copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
+            }
+            else copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction.ordinal());
+            damage.add(dstX, dstY, width, height);
 
-        this.data.rewind();
-        drawable.data.rewind();
+            this.data.rewind();
+            drawable.data.rewind();
 
-        texture.setNeedsUpdate(true);
+            texture.setNeedsUpdate(true);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
@@ -145,15 +248,19 @@ public class Drawable extends XResource {
     }
 
     public void fillRect(int x, int y, int width, int height, int color) {
+        unflip();
         x = (short)Mathf.clamp(x, 0, this.width-1);
         y = (short)Mathf.clamp(y, 0, this.height-1);
         if ((x + width) > this.width) width = (short)((this.width - x));
         if ((y + height) > this.height) height = (short)((this.height - y));
 
-        fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
-        this.data.rewind();
+        synchronized (renderLock) {
+            fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
+            damage.add(x, y, width, height);
+            this.data.rewind();
 
-        texture.setNeedsUpdate(true);
+            texture.setNeedsUpdate(true);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
@@ -164,28 +271,39 @@ public class Drawable extends XResource {
     }
 
     public void drawLine(int x0, int y0, int x1, int y1, int color, int lineWidth) {
+        unflip();
         x0 = Mathf.clamp(x0, 0, width-lineWidth);
         y0 = Mathf.clamp(y0, 0, height-lineWidth);
         x1 = Mathf.clamp(x1, 0, width-lineWidth);
         y1 = Mathf.clamp(y1, 0, height-lineWidth);
 
-        drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
+        synchronized (renderLock) {
+            drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
+            damage.add(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0) + lineWidth, Math.abs(y1 - y0) + lineWidth);
 
-        this.data.rewind();
+            this.data.rewind();
 
-        texture.setNeedsUpdate(true);
+            texture.setNeedsUpdate(true);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
     public void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, Drawable srcDrawable, Drawable maskDrawable) {
-        drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcDrawable.data, maskDrawable.data, this.data);
-        this.data.rewind();
-
-        texture.setNeedsUpdate(true);
+        unflip();
+        srcDrawable.unflip();
+        maskDrawable.unflip();
+        synchronized (renderLock) {
+            drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcDrawable.data, maskDrawable.data, this.data);
+            damage.addAll();
+            this.data.rewind();
+
+            texture.setNeedsUpdate(true);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
     public void forceUpdate() {
+        this.damage.addAll();
         this.texture.setNeedsUpdate(true);
         this.blank = false;
         Runnable runnable = this.onDrawListener;
@@ -0,0 +1,116 @@
+package com.winlator.xserver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Recycles the direct buffers backing drawables. Requested sizes are rounded up to a size class
+ * (powers of two up to 64 KiB, then eight page-aligned steps per doubling) and released buffers
+ * are kept per class until the pool holds more than maxPooledBytes.
+ */
+public class DrawableBufferPool {
+    public static final int PAGE_SIZE = 4096;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+    private static final int SMALL_SIZE_LIMIT = 65536;
+    private static final byte[] ZERO = new byte[PAGE_SIZE * 16];
+    private final HashMap<Integer, ArrayDeque<ByteBuffer>> buckets = new HashMap<>();
+    private final IdentityHashMap<ByteBuffer, ByteBuffer> liveBuffers = new IdentityHashMap<>();
+    private long maxPooledBytes;
+    private long liveBytes = 0;
+    private long pooledBytes = 0;
+    private long peakBytes = 0;
+
+    public DrawableBufferPool() {
+        this(DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    public DrawableBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    public static int getSizeClass(int size) {
+        if (size <= PAGE_SIZE) return PAGE_SIZE;
+        int highestBit = Integer.highestOneBit(size - 1);
+        if (size <= SMALL_SIZE_LIMIT) return highestBit << 1;
+        int step = highestBit >> 3;
+        return ((size + step - 1) / step) * step;
+    }
+
+    /**
+     * Returns a zero-filled little-endian buffer with a capacity of exactly size bytes.
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        int sizeClass = getSizeClass(size);
+        ArrayDeque<ByteBuffer> bucket = buckets.get(sizeClass);
+        ByteBuffer buffer = bucket != null ? bucket.poll() : null;
+
+        if (buffer != null) {
+            pooledBytes -= sizeClass;
+            clearBuffer(buffer, size);
+        }
+        else buffer = ByteBuffer.allocateDirect(sizeClass);
+
+        buffer.clear().limit(size);
+        ByteBuffer slice = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        liveBuffers.put(slice, buffer);
+        liveBytes += sizeClass;
+        peakBytes = Math.max(peakBytes, liveBytes);
+        return slice;
+    }
+
+    /**
+     * Gives back a buffer obtained from {@link #acquire(int)}, buffers from elsewhere are ignored.
+     */
+    public synchronized void release(ByteBuffer slice) {
+        ByteBuffer buffer = liveBuffers.remove(slice);
+        if (buffer == null) return;
+
+        int sizeClass = buffer.capacity();
+        liveBytes -= sizeClass;
+        if (pooledBytes + sizeClass > maxPooledBytes) return;
+
+        ArrayDeque<ByteBuffer> bucket = buckets.get(sizeClass);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(sizeClass, bucket);
+        }
+        bucket.push(buffer);
+        pooledBytes += sizeClass;
+    }
+
+    public synchronized void trim() {
+        buckets.clear();
+        pooledBytes = 0;
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public synchronized long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        if (pooledBytes > maxPooledBytes) trim();
+    }
+
+    private static void clearBuffer(ByteBuffer buffer, int size) {
+        buffer.clear();
+        while (buffer.position() < size) {
+            buffer.put(ZERO, 0, Math.min(ZERO.length, size - buffer.position()));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.winlator.xserver;
 import android.util.SparseArray;
 
 import com.winlator.core.Callback;
+import com.winlator.renderer.GLRenderer;
 import com.winlator.renderer.Texture;
 import com.winlator.widget.XServerView;
 import com.winlator.xenvironment.components.VortekRendererComponent;
@@ -12,6 +13,7 @@ import java.util.Objects;
 public class DrawableManager extends XResourceManager implements XResourceManager.OnResourceLifecycleListener {
     private final XServer xServer;
     private final SparseArray<Drawable> drawables = new SparseArray<>();
+    public final DrawableBufferPool bufferPool = new DrawableBufferPool();
 
     public DrawableManager(XServer xServer) {
         this.xServer = xServer;
@@ -29,12 +31,16 @@ public class DrawableManager extends XResourceManager implements XResourceManage
     public Drawable createDrawable(int id, short width, short height, Visual visual) {
         if (id == 0) return new Drawable(id, width, height, visual);
         if (drawables.indexOfKey(id) >= 0) return null;
-        Drawable drawable = new Drawable(id, width, height, visual);
+        Drawable drawable = new Drawable(id, width, height, visual, bufferPool);
         drawables.put(id, drawable);
         return drawable;
     }
 
     public void removeDrawable(int id) {
+        removeDrawable(id, true);
+    }
+
+    private void removeDrawable(int id, boolean releaseData) {
         Drawable drawable = drawables.get(id);
 
         final Texture texture = drawable.getTexture();
@@ -43,18 +49,22 @@ public class DrawableManager extends XResourceManager implements XResourceManage
 //            Objects.requireNonNull(texture);
 //            xServerView.queueEvent(() -> VortekRendererComponent.destroyTexture(texture));
 //        }
-        if (texture != null) xServer.getRenderer().xServerView.queueEvent(texture::destroy);
+        GLRenderer renderer = xServer.getRenderer();
+        if (texture != null && renderer != null) renderer.xServerView.queueEvent(texture::destroy);
 
         Callback<Drawable> onDestroyListener = drawable.getOnDestroyListener();
         if (onDestroyListener != null) onDestroyListener.call(drawable);
 
         drawable.setOnDrawListener(null);
+        if (releaseData) drawable.releaseData();
         drawables.remove(id);
     }
 
     @Override
     public void onFreeResource(XResource resource) {
-        if (resource instanceof Pixmap) removeDrawable(((Pixmap)resource).drawable.id);
+        // Other listeners may still read the pixmap (an unflip copies from it), its data is
+        // released by the PixmapManager once all of them ran
+        if (resource instanceof Pixmap) removeDrawable(((Pixmap)resource).drawable.id, false);
     }
 
     public Visual getVisual() {
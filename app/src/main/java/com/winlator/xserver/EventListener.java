@@ -1,12 +1,14 @@
 package com.winlator.xserver;
 
 import com.winlator.xserver.events.Event;
+import com.winlator.xserver.events.MotionNotify;
 
 import java.io.IOException;
 
 public class EventListener {
     public final XClient client;
     public final Bitmask eventMask;
+    private int motionHintSerial = -1;
 
     public EventListener(XClient client, Bitmask eventMask) {
         this.client = client;
@@ -22,11 +24,41 @@ public class EventListener {
     }
 
     public void sendEvent(Event event) {
+        if (event instanceof MotionNotify && eventMask.isSet(Event.POINTER_MOTION_HINT)) {
+            sendMotionHint((MotionNotify)event);
+            return;
+        }
+
+        try {
+            event.send(client.getSequenceNumber(), client.getOutputStream());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * With PointerMotionHint selected only one motion event, flagged as a hint, is sent until the
+     * pointer changes window, a button changes state or the client queries the pointer.
+     */
+    private void sendMotionHint(MotionNotify event) {
+        int serial = client.xServer.inputDeviceManager.getMotionHintSerial();
+        if (motionHintSerial == serial) return;
+        motionHintSerial = serial;
+
+        event.setHint(true);
         try {
             event.send(client.getSequenceNumber(), client.getOutputStream());
         }
         catch (IOException e) {
             e.printStackTrace();
         }
+        finally {
+            event.setHint(false);
+        }
+    }
+
+    public void resetMotionHint() {
+        motionHintSerial = -1;
     }
 }
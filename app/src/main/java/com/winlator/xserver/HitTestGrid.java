@@ -0,0 +1,119 @@
+package com.winlator.xserver;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the area of a window used to find which of its children contains a point.
+ * Rectangles are added in priority order (topmost first) and each cell keeps the rectangles that
+ * overlap it in that order, so a lookup only tests the few rectangles of a single cell.
+ */
+public class HitTestGrid {
+    public static final int CELLS = 16;
+    private int width = 1;
+    private int height = 1;
+    private int count = 0;
+    private int[] x0 = new int[8];
+    private int[] y0 = new int[8];
+    private int[] x1 = new int[8];
+    private int[] y1 = new int[8];
+    private final int[] cellStart = new int[CELLS * CELLS + 1];
+    private final int[] cellFill = new int[CELLS * CELLS];
+    private int[] cellItems = new int[0];
+    private boolean built = false;
+
+    public void clear(int width, int height) {
+        this.width = Math.max(width, 1);
+        this.height = Math.max(height, 1);
+        count = 0;
+        built = false;
+    }
+
+    public void add(int x, int y, int width, int height) {
+        if (count == x0.length) {
+            int newLength = count * 2;
+            x0 = Arrays.copyOf(x0, newLength);
+            y0 = Arrays.copyOf(y0, newLength);
+            x1 = Arrays.copyOf(x1, newLength);
+            y1 = Arrays.copyOf(y1, newLength);
+        }
+
+        x0[count] = x;
+        y0[count] = y;
+        x1[count] = x + width;
+        y1[count] = y + height;
+        count++;
+        built = false;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the index of the first added rectangle containing the point, or -1.
+     */
+    public int find(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            for (int i = 0; i < count; i++) {
+                if (contains(i, x, y)) return i;
+            }
+            return -1;
+        }
+
+        if (!built) build();
+        int cell = cellRow(y) * CELLS + cellColumn(x);
+        for (int i = cellStart[cell], end = cellStart[cell + 1]; i < end; i++) {
+            int index = cellItems[i];
+            if (contains(index, x, y)) return index;
+        }
+        return -1;
+    }
+
+    private boolean contains(int index, int x, int y) {
+        return x >= x0[index] && y >= y0[index] && x < x1[index] && y < y1[index];
+    }
+
+    private int cellColumn(int x) {
+        return (int)((long)Math.min(Math.max(x, 0), width - 1) * CELLS / width);
+    }
+
+    private int cellRow(int y) {
+        return (int)((long)Math.min(Math.max(y, 0), height - 1) * CELLS / height);
+    }
+
+    private boolean isOutside(int index) {
+        return x1[index] <= 0 || y1[index] <= 0 || x0[index] >= width || y0[index] >= height || x0[index] >= x1[index] || y0[index] >= y1[index];
+    }
+
+    private void build() {
+        Arrays.fill(cellStart, 0);
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            if (isOutside(i)) continue;
+            int column0 = cellColumn(x0[i]);
+            int column1 = cellColumn(x1[i] - 1);
+            int row0 = cellRow(y0[i]);
+            int row1 = cellRow(y1[i] - 1);
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) cellStart[row * CELLS + column + 1]++;
+            }
+            total += (column1 - column0 + 1) * (row1 - row0 + 1);
+        }
+
+        for (int cell = 0; cell < CELLS * CELLS; cell++) cellStart[cell + 1] += cellStart[cell];
+        if (cellItems.length < total) cellItems = new int[total];
+
+        System.arraycopy(cellStart, 0, cellFill, 0, cellFill.length);
+        for (int i = 0; i < count; i++) {
+            if (isOutside(i)) continue;
+            int column0 = cellColumn(x0[i]);
+            int column1 = cellColumn(x1[i] - 1);
+            int row0 = cellRow(y0[i]);
+            int row1 = cellRow(y1[i] - 1);
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) cellItems[cellFill[row * CELLS + column]++] = i;
+            }
+        }
+        built = true;
+    }
+}
@@ -15,8 +15,11 @@ import com.winlator.xserver.events.PointerWindowEvent;
 
 public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyboard.OnKeyboardListener, WindowManager.OnWindowModificationListener, XResourceManager.OnResourceLifecycleListener {
     private static final byte MOUSE_WHEEL_DELTA = 120;
-    private Window pointWindow;
+    private volatile Window pointWindow;
     private final XServer xServer;
+    private final Bitmask motionEventMask = new Bitmask();
+    private final MotionNotify motionNotify = new MotionNotify();
+    private int motionHintSerial = 0;
 
     public InputDeviceManager(XServer xServer) {
         this.xServer = xServer;
@@ -59,13 +62,22 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     private void updatePointWindow() {
         Window pointWindow = xServer.windowManager.findPointWindow(xServer.pointer.getClampedX(), xServer.pointer.getClampedY());
-        this.pointWindow = pointWindow != null ? pointWindow : xServer.windowManager.rootWindow;
+        if (pointWindow == null) pointWindow = xServer.windowManager.rootWindow;
+        if (pointWindow != this.pointWindow) motionHintSerial++;
+        this.pointWindow = pointWindow;
     }
 
     public Window getPointWindow() {
         return pointWindow;
     }
 
+    /**
+     * Changes whenever a pending PointerMotionHint has to be re-armed for every listener.
+     */
+    public int getMotionHintSerial() {
+        return motionHintSerial;
+    }
+
     private void sendEvent(Window window, int eventId, Event event) {
         Window grabWindow = xServer.grabManager.getWindow();
         if (grabWindow != null && grabWindow.attributes.isEnabled()) {
@@ -126,6 +138,7 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onPointerButtonPress(Pointer.Button button) {
+        motionHintSerial++;
         if (xServer.isRelativeMouseMovement()) {
             WinHandler winHandler = xServer.getWinHandler();
             int wheelDelta = button == Pointer.Button.BUTTON_SCROLL_UP ? MOUSE_WHEEL_DELTA : (button == Pointer.Button.BUTTON_SCROLL_DOWN ? -MOUSE_WHEEL_DELTA : 0);
@@ -154,6 +167,7 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onPointerButtonRelease(Pointer.Button button) {
+        motionHintSerial++;
         if (xServer.isRelativeMouseMovement()) {
             WinHandler winHandler = xServer.getWinHandler();
             winHandler.mouseEvent(MouseEventFlags.getFlagFor(button, false), 0, 0, 0);
@@ -184,16 +198,19 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     @Override
     public void onPointerMove(short x, short y) {
         updatePointWindow();
-        Bitmask eventMask = createPointerEventMask();
+        Bitmask eventMask = fillPointerEventMask(motionEventMask);
         Window grabWindow = xServer.grabManager.getWindow();
         Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
 
         if (grabWindow != null || window != null) {
             Window eventWindow = window != null ? window : grabWindow;
-            short[] localPoint = eventWindow.rootPointToLocal(x, y);
+            short localX = (short)(x - eventWindow.getRootX());
+            short localY = (short)(y - eventWindow.getRootY());
+            int keyButMask = xServer.pointer.getButtonMask().getBits() | xServer.keyboard.getModifiersMask().getBits();
 
             Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-            sendEvent(window, eventMask, new MotionNotify(false, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], getKeyButMask()));
+            motionNotify.set(xServer.windowManager.rootWindow, eventWindow, child, x, y, localX, localY, keyButMask);
+            sendEvent(window, eventMask, motionNotify);
         }
     }
 
@@ -257,7 +274,11 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     }
 
     private Bitmask createPointerEventMask() {
-        Bitmask eventMask = new Bitmask();
+        return fillPointerEventMask(new Bitmask());
+    }
+
+    private Bitmask fillPointerEventMask(Bitmask eventMask) {
+        eventMask.clear();
         eventMask.set(Event.POINTER_MOTION);
 
         Bitmask buttonMask = xServer.pointer.getButtonMask();
@@ -33,8 +33,11 @@ public class PixmapManager extends XResourceManager {
     }
 
     public void freePixmap(int id) {
-        triggerOnFreeResourceListener(pixmaps.get(id));
+        Pixmap pixmap = pixmaps.get(id);
+        if (pixmap == null) return;
+        triggerOnFreeResourceListener(pixmap);
         pixmaps.remove(id);
+        pixmap.drawable.releaseData();
     }
 
     public Visual getVisualForDepth(byte depth) {
@@ -2,32 +2,42 @@ package com.winlator.xserver;
 
 import android.util.SparseArray;
 
+import com.winlator.sysvshm.SHMMappingCache;
 import com.winlator.sysvshm.SysVSharedMemory;
 
 import java.nio.ByteBuffer;
 
 public class SHMSegmentManager {
     private final SysVSharedMemory sysVSharedMemory;
+    private final SHMMappingCache mappingCache;
     private final SparseArray<ByteBuffer> shmSegments = new SparseArray<>();
 
-    public SHMSegmentManager(SysVSharedMemory sysVSharedMemory) {
+    public SHMSegmentManager(SysVSharedMemory sysVSharedMemory, SHMMappingCache mappingCache) {
         this.sysVSharedMemory = sysVSharedMemory;
+        this.mappingCache = mappingCache;
     }
 
     public void attach(int xid, int shmid) {
         if (shmSegments.indexOfKey(xid) >= 0) detach(xid);
-        ByteBuffer data = sysVSharedMemory.attach(shmid);
+        int fd = sysVSharedMemory.getFd(shmid);
+        if (fd == -1) return;
+        ByteBuffer data = mappingCache.acquireSegment(shmid, fd, sysVSharedMemory.getSize(shmid), true);
         if (data != null) shmSegments.put(xid, data);
     }
 
     public void detach(int xid) {
         ByteBuffer data = shmSegments.get(xid);
         if (data != null) {
-            sysVSharedMemory.detach(data);
+            mappingCache.release(data);
             shmSegments.remove(xid);
         }
     }
 
+    public void detachAll() {
+        for (int i = shmSegments.size() - 1; i >= 0; i--) mappingCache.release(shmSegments.valueAt(i));
+        shmSegments.clear();
+    }
+
     public ByteBuffer getData(int xid) {
         return shmSegments.get(xid);
     }
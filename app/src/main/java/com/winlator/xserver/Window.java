@@ -18,6 +18,7 @@ public class Window extends XResource {
     public static final int FLAG_BORDER_WIDTH = 1<<4;
     public static final int FLAG_SIBLING = 1<<5;
     public static final int FLAG_STACK_MODE = 1<<6;
+    private static final int MIN_INDEXED_CHILDREN = 8;
     public enum StackMode {ABOVE, BELOW, TOP_IF, BOTTOM_IF, OPPOSITE}
     public enum MapState {UNMAPPED, UNVIEWABLE, VIEWABLE}
     public enum WMHints {FLAGS, INPUT, INITIAL_STATE, ICON_PIXMAP, ICON_WINDOW, ICON_X, ICON_Y, ICON_MASK, WINDOW_GROUP}
@@ -27,6 +28,8 @@ public class Window extends XResource {
     private short width;
     private short height;
     private short borderWidth;
+    private short rootX;
+    private short rootY;
     private Window parent;
     public final XClient originClient;
     public final WindowAttributes attributes = new WindowAttributes(this);
@@ -34,6 +37,9 @@ public class Window extends XResource {
     private final ArrayList<Window> children = new ArrayList<>();
     private final List<Window> immutableChildren = Collections.unmodifiableList(children);
     private final ArrayList<EventListener> eventListeners = new ArrayList<>();
+    private final HitTestGrid childGrid = new HitTestGrid();
+    private Window[] gridChildren = new Window[0];
+    private boolean childGridDirty = true;
 
     public Window(int id, Drawable content, int x, int y, int width, int height, XClient originClient) {
         super(id);
@@ -43,6 +49,8 @@ public class Window extends XResource {
         this.width = (short)width;
         this.height = (short)height;
         this.originClient = originClient;
+        this.rootX = this.x;
+        this.rootY = this.y;
     }
 
     public short getX() {
@@ -51,6 +59,8 @@ public class Window extends XResource {
 
     public void setX(short x) {
         this.x = x;
+        updateRootPosition();
+        if (parent != null) parent.invalidateChildGrid();
     }
 
     public short getY() {
@@ -59,6 +69,8 @@ public class Window extends XResource {
 
     public void setY(short y) {
         this.y = y;
+        updateRootPosition();
+        if (parent != null) parent.invalidateChildGrid();
     }
 
     public short getWidth() {
@@ -67,6 +79,8 @@ public class Window extends XResource {
 
     public void setWidth(short width) {
         this.width = width;
+        invalidateChildGrid();
+        if (parent != null) parent.invalidateChildGrid();
     }
 
     public short getHeight() {
@@ -75,6 +89,8 @@ public class Window extends XResource {
 
     public void setHeight(short height) {
         this.height = height;
+        invalidateChildGrid();
+        if (parent != null) parent.invalidateChildGrid();
     }
 
     public short getBorderWidth() {
@@ -99,6 +115,7 @@ public class Window extends XResource {
 
     public void setParent(Window parent) {
         this.parent = parent;
+        updateRootPosition();
     }
 
     public Property getProperty(int id) {
@@ -146,32 +163,32 @@ public class Window extends XResource {
     }
 
     public String getName() {
-        Property property = getProperty(Atom.getId("WM_NAME"));
+        Property property = getProperty(Atom.WM_NAME);
         return property != null ? property.toString() : "";
     }
 
     public String getClassName() {
-        Property property = getProperty(Atom.getId("WM_CLASS"));
+        Property property = getProperty(Atom.WM_CLASS);
         return property != null ? property.toString() : "";
     }
 
     public int getWMHintsValue(WMHints wmHints) {
-        Property property = getProperty(Atom.getId("WM_HINTS"));
+        Property property = getProperty(Atom.WM_HINTS);
         return property != null ? property.getInt(wmHints.ordinal()) : 0;
     }
 
     public int getProcessId() {
-        Property property = getProperty(Atom.getId("_NET_WM_PID"));
+        Property property = getProperty(Atom.NET_WM_PID);
         return property != null ? property.getInt(0) : 0;
     }
 
     public boolean isWoW64() {
-        Property property = getProperty(Atom.getId("_NET_WM_WOW64"));
+        Property property = getProperty(Atom.NET_WM_WOW64);
         return property != null && property.data.get(0) == 1;
     }
 
     public long getHandle() {
-        Property property = getProperty(Atom.getId("_NET_WM_HWND"));
+        Property property = getProperty(Atom.NET_WM_HWND);
         return property != null ? property.getLong(0) : 0;
     }
 
@@ -188,12 +205,16 @@ public class Window extends XResource {
         if (child == null || child.parent == this) return;
         child.parent = this;
         children.add(child);
+        child.updateRootPosition();
+        invalidateChildGrid();
     }
 
     public void removeChild(Window child) {
         if (child == null || child.parent != this) return;
         child.parent = null;
         children.remove(child);
+        child.updateRootPosition();
+        invalidateChildGrid();
     }
 
     public Window previousSibling() {
@@ -203,6 +224,7 @@ public class Window extends XResource {
     }
 
     public void moveChildAbove(Window child, Window sibling) {
+        invalidateChildGrid();
         children.remove(child);
         if (sibling != null && children.contains(sibling)) {
             children.add(children.indexOf(sibling) + 1, child);
@@ -212,6 +234,7 @@ public class Window extends XResource {
     }
 
     public void moveChildBelow(Window child, Window sibling) {
+        invalidateChildGrid();
         children.remove(child);
         if (sibling != null && children.contains(sibling)) {
             children.add(children.indexOf(sibling), child);
@@ -244,8 +267,8 @@ public class Window extends XResource {
     }
 
     public boolean hasEventListenerFor(Bitmask mask) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(mask)) return true;
+        for (int i = 0; i < eventListeners.size(); i++) {
+            if (eventListeners.get(i).isInterestedIn(mask)) return true;
         }
         return false;
     }
@@ -259,7 +282,8 @@ public class Window extends XResource {
     }
 
     public void sendEvent(Bitmask eventMask, Event event) {
-        for (EventListener eventListener : eventListeners) {
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
             if (eventListener.isInterestedIn(eventMask)) {
                 eventListener.sendEvent(event);
             }
@@ -275,7 +299,8 @@ public class Window extends XResource {
     }
 
     public void sendEvent(Bitmask eventMask, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
             if (eventListener.isInterestedIn(eventMask) && eventListener.client == client) {
                 eventListener.sendEvent(event);
             }
@@ -287,50 +312,40 @@ public class Window extends XResource {
     }
 
     public boolean containsPoint(short rootX, short rootY) {
-        short[] localPoint = rootPointToLocal(rootX, rootY);
-        return localPoint[0] >= 0 && localPoint[1] >= 0 && localPoint[0] < width && localPoint[1] < height;
+        short localX = (short)(rootX - getRootX());
+        short localY = (short)(rootY - getRootY());
+        return localX >= 0 && localY >= 0 && localX < width && localY < height;
     }
 
     public short[] rootPointToLocal(short x, short y) {
-        Window window = this;
-        while (window != null) {
-            x -= window.x;
-            y -= window.y;
-            window = window.parent;
-        }
-        return new short[]{x, y};
+        return new short[]{(short)(x - rootX), (short)(y - rootY)};
     }
 
     public short[] localPointToRoot(short x, short y) {
-        Window window = this;
-        while (window != null) {
-            x += window.x;
-            y += window.y;
-            window = window.parent;
-        }
-        return new short[]{x, y};
+        return new short[]{(short)(x + rootX), (short)(y + rootY)};
     }
 
     public short getRootX() {
-        short rootX = x;
-        Window window = parent;
-        while (window != null) {
-            rootX += window.x;
-            window = window.parent;
-        }
         return rootX;
     }
 
     public short getRootY() {
-        short rootY = y;
-        Window window = parent;
-        while (window != null) {
-            rootY += window.y;
-            window = window.parent;
-        }
         return rootY;
     }
 
+    /**
+     * Refreshes the cached root coordinates of this window and its descendants after it was moved or reparented.
+     */
+    private void updateRootPosition() {
+        rootX = parent != null ? (short)(parent.rootX + x) : x;
+        rootY = parent != null ? (short)(parent.rootY + y) : y;
+        for (int i = 0; i < children.size(); i++) children.get(i).updateRootPosition();
+    }
+
+    void invalidateChildGrid() {
+        childGridDirty = true;
+    }
+
     public Window getAncestorWithEventMask(Bitmask eventMask) {
         Window window = this;
         while (window != null) {
@@ -365,11 +380,29 @@ public class Window extends XResource {
     }
 
     public Window getChildByCoords(short x, short y) {
+        if (children.size() < MIN_INDEXED_CHILDREN) {
+            for (int i = children.size()-1; i >= 0; i--) {
+                Window child = children.get(i);
+                if (child.attributes.isMapped() && child.containsPoint(x, y)) return child;
+            }
+            return null;
+        }
+
+        if (childGridDirty) rebuildChildGrid();
+        int index = childGrid.find((short)(x - rootX), (short)(y - rootY));
+        return index != -1 ? gridChildren[index] : null;
+    }
+
+    private void rebuildChildGrid() {
+        if (gridChildren.length < children.size()) gridChildren = new Window[children.size()];
+        childGrid.clear(width, height);
         for (int i = children.size()-1; i >= 0; i--) {
             Window child = children.get(i);
-            if (child.attributes.isMapped() && child.containsPoint(x, y)) return child;
+            if (!child.attributes.isMapped()) continue;
+            gridChildren[childGrid.size()] = child;
+            childGrid.add(child.x, child.y, child.width, child.height);
         }
-        return null;
+        childGridDirty = false;
     }
 
     public MapState getMapState() {
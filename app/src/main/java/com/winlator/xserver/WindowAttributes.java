@@ -26,7 +26,7 @@ public class WindowAttributes {
     private int backingPlanes = 1;
     private BackingStore backingStore = BackingStore.NOT_USEFUL;
     private BitGravity bitGravity = BitGravity.CENTER;
-    private Cursor cursor;
+    private volatile Cursor cursor;
     private Bitmask doNotPropagateMask = new Bitmask(0);
     private Bitmask eventMask = new Bitmask(0);
     private boolean mapped = false;
@@ -76,6 +76,8 @@ public class WindowAttributes {
 
     public void setMapped(boolean mapped) {
         this.mapped = mapped;
+        Window parent = window.getParent();
+        if (parent != null) parent.invalidateChildGrid();
     }
 
     public boolean isOverrideRedirect() {
@@ -81,8 +81,8 @@ public class WindowManager extends XResourceManager {
         window.sendEvent(Event.STRUCTURE_NOTIFY, new DestroyNotify(window, window));
         parent.sendEvent(Event.SUBSTRUCTURE_NOTIFY, new DestroyNotify(parent, window));
         windows.remove(window.id);
-        if (window.isInputOutput()) drawableManager.removeDrawable(window.getContent().id);
         triggerOnFreeResourceListener(window);
+        if (window.isInputOutput()) drawableManager.removeDrawable(window.getContent().id);
         if (window == focusedWindow) revertFocus();
         parent.removeChild(window);
     }
@@ -276,6 +276,7 @@ public class WindowManager extends XResourceManager {
         Window oldParent = window.getParent();
         if (oldParent != null) oldParent.removeChild(window);
         newParent.addChild(window);
+        triggerOnChangeWindowZOrder(window);
     }
 
     public Window findPointWindow(short rootX, short rootY) {
@@ -2,9 +2,11 @@ package com.winlator.xserver;
 
 import androidx.collection.ArrayMap;
 
+import com.winlator.xconnector.Client;
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
 import com.winlator.xserver.events.Event;
+import com.winlator.xserver.requests.DrawRequests;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -17,15 +19,18 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     private int requestLength;
     private byte requestData;
     private int initialLength;
+    private final Client connection;
     private final XInputStream inputStream;
     private final XOutputStream outputStream;
     private final ArrayMap<Window, EventListener> eventListeners = new ArrayMap<>();
     private final ArrayList<XResource> resources = new ArrayList<>();
+    private DrawRequests.PutImageStream putImageStream;
 
-    public XClient(XServer xServer, XInputStream inputStream, XOutputStream outputStream) {
+    public XClient(XServer xServer, Client connection) {
         this.xServer = xServer;
-        this.inputStream = inputStream;
-        this.outputStream = outputStream;
+        this.connection = connection;
+        this.inputStream = connection.getInputStream();
+        this.outputStream = connection.getOutputStream();
 
         try (XLock lock = xServer.lockAll()) {
             resourceIDBase = xServer.resourceIDs.get();
@@ -58,11 +63,35 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
         }
     }
 
+    public void resetMotionHints() {
+        for (int i = 0; i < eventListeners.size(); i++) eventListeners.valueAt(i).resetMotionHint();
+    }
+
     public boolean isInterestedIn(int eventId, Window window) {
         EventListener eventListener = eventListeners.get(window);
         return eventListener != null && eventListener.isInterestedIn(eventId);
     }
 
+    /**
+     * Parks the client after the current request: its following requests stay queued without being
+     * handled and the server goes on serving other clients until {@link #resume()} is called.
+     */
+    public void suspend() {
+        connection.suspend();
+    }
+
+    public void resume() {
+        connection.resume();
+    }
+
+    public boolean isSuspended() {
+        return connection.isSuspended();
+    }
+
+    public boolean isConnected() {
+        return connection.isConnected();
+    }
+
     public boolean isAuthenticated() {
         return authenticated;
     }
@@ -136,6 +165,14 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
         inputStream.skip(getRemainingRequestLength());
     }
 
+    public DrawRequests.PutImageStream getPutImageStream() {
+        return putImageStream;
+    }
+
+    public void setPutImageStream(DrawRequests.PutImageStream putImageStream) {
+        this.putImageStream = putImageStream;
+    }
+
     public XInputStream getInputStream() {
         return inputStream;
     }
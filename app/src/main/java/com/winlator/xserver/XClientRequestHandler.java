@@ -30,6 +30,7 @@ public class XClientRequestHandler implements RequestHandler {
     @Override
     public boolean handleRequest(Client client) throws IOException {
         XClient xClient = (XClient)client.getTag();
+        if (xClient.isSuspended()) return false;
         XInputStream inputStream = client.getInputStream();
         XOutputStream outputStream = client.getOutputStream();
 
@@ -148,6 +149,12 @@ public class XClientRequestHandler implements RequestHandler {
     }
 
     private boolean handleNormalRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        if (client.getPutImageStream() != null) {
+            try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+                return DrawRequests.continuePutImage(client, inputStream);
+            }
+        }
+
         if (inputStream.available() < 4) return false;
         byte opcode = inputStream.readByte();
         byte requestData = inputStream.readByte();
@@ -160,7 +167,22 @@ public class XClientRequestHandler implements RequestHandler {
             return false;
         }
         else requestLength = inputStream.readInt() * 4 - 8;
-        if (inputStream.available() < requestLength) return false;
+        if (inputStream.available() < requestLength) {
+            if (opcode == ClientOpcodes.PUT_IMAGE && DrawRequests.canStreamPutImage(requestData, inputStream, requestLength)) {
+                client.generateSequenceNumber();
+                client.setRequestData(requestData);
+                client.setRequestLength(requestLength);
+
+                try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+                    DrawRequests.beginPutImage(client, inputStream, requestLength);
+                }
+                catch (XRequestError e) {
+                    e.sendError(client, opcode);
+                }
+                return true;
+            }
+            return false;
+        }
 
         client.generateSequenceNumber();
         client.setRequestData(requestData);
@@ -221,6 +243,9 @@ public class XClientRequestHandler implements RequestHandler {
                 case ClientOpcodes.INTERN_ATOM:
                     AtomRequests.internAtom(client, inputStream, outputStream);
                     break;
+                case ClientOpcodes.GET_ATOM_NAME:
+                    AtomRequests.getAtomName(client, inputStream, outputStream);
+                    break;
                 case ClientOpcodes.CHANGE_PROPERTY:
                     try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
                         WindowRequests.changeProperty(client, inputStream, outputStream);
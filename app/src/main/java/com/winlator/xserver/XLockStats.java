@@ -0,0 +1,60 @@
+package com.winlator.xserver;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Wait and hold times of one of the XServer locks, collected while lock profiling is enabled.
+ */
+public class XLockStats {
+    private long acquireCount = 0;
+    private long totalWaitTime = 0;
+    private long totalHoldTime = 0;
+    private long maxWaitTime = 0;
+    private long maxHoldTime = 0;
+
+    synchronized void record(long waitTime, long holdTime) {
+        acquireCount++;
+        totalWaitTime += waitTime;
+        totalHoldTime += holdTime;
+        maxWaitTime = Math.max(maxWaitTime, waitTime);
+        maxHoldTime = Math.max(maxHoldTime, holdTime);
+    }
+
+    public synchronized void reset() {
+        acquireCount = 0;
+        totalWaitTime = 0;
+        totalHoldTime = 0;
+        maxWaitTime = 0;
+        maxHoldTime = 0;
+    }
+
+    public synchronized long getAcquireCount() {
+        return acquireCount;
+    }
+
+    public synchronized long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    public synchronized long getTotalHoldTime() {
+        return totalHoldTime;
+    }
+
+    public synchronized long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    public synchronized long getMaxHoldTime() {
+        return maxHoldTime;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        long averageWait = acquireCount > 0 ? totalWaitTime / acquireCount : 0;
+        long averageHold = acquireCount > 0 ? totalHoldTime / acquireCount : 0;
+        return String.format(Locale.ENGLISH, "count=%d wait(avg=%dns max=%dns) hold(avg=%dns max=%dns)", acquireCount, averageWait, maxWaitTime, averageHold, maxHoldTime);
+    }
+}
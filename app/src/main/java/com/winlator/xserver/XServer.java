@@ -5,6 +5,7 @@ import android.util.SparseArray;
 
 import com.winlator.core.CursorLocker;
 import com.winlator.renderer.GLRenderer;
+import com.winlator.sysvshm.SHMMappingCache;
 import com.winlator.winhandler.WinHandler;
 import com.winlator.xserver.extensions.BigReqExtension;
 import com.winlator.xserver.extensions.DRI3Extension;
@@ -15,6 +16,7 @@ import com.winlator.xserver.extensions.SyncExtension;
 
 import java.nio.charset.Charset;
 import java.util.EnumMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class XServer {
@@ -27,6 +29,7 @@ public class XServer {
     public final PixmapManager pixmapManager;
     public final ResourceIDs resourceIDs = new ResourceIDs(128);
     public final GraphicsContextManager graphicsContextManager = new GraphicsContextManager();
+    public final SHMMappingCache shmMappingCache = new SHMMappingCache();
     public final SelectionManager selectionManager;
     public final DrawableManager drawableManager;
     public final WindowManager windowManager;
@@ -40,6 +43,9 @@ public class XServer {
     private GLRenderer renderer;
     private WinHandler winHandler;
     private final EnumMap<Lockable, ReentrantLock> locks = new EnumMap<>(Lockable.class);
+    private final EnumMap<Lockable, XLockStats> lockStats = new EnumMap<>(Lockable.class);
+    private volatile boolean lockProfiling = false;
+    private volatile Executor commandExecutor;
     private boolean relativeMouseMovement = false;
     private boolean simulateTouchScreen = false;
 
@@ -47,7 +53,10 @@ public class XServer {
         Log.d("XServer", "Creating xServer " + screenInfo);
         this.screenInfo = screenInfo;
         cursorLocker = new CursorLocker(this);
-        for (Lockable lockable : Lockable.values()) locks.put(lockable, new ReentrantLock());
+        for (Lockable lockable : Lockable.values()) {
+            locks.put(lockable, new ReentrantLock());
+            lockStats.put(lockable, new XLockStats());
+        }
 
         pixmapManager = new PixmapManager();
         drawableManager = new DrawableManager(this);
@@ -100,31 +109,96 @@ public class XServer {
         this.shmSegmentManager = shmSegmentManager;
     }
 
+    /**
+     * Makes input injected from other threads run on the given executor, normally the connector's
+     * epoll thread, so that the server state is only ever mutated by that single writer instead of
+     * the caller contending for the locks. Pass null to go back to locking on the caller thread.
+     */
+    public void setCommandExecutor(Executor commandExecutor) {
+        this.commandExecutor = commandExecutor;
+    }
+
+    public boolean isSingleWriter() {
+        return commandExecutor != null;
+    }
+
+    public void runCommand(Runnable command) {
+        Executor commandExecutor = this.commandExecutor;
+        if (commandExecutor != null) {
+            commandExecutor.execute(command);
+        }
+        else command.run();
+    }
+
+    public boolean isLockProfiling() {
+        return lockProfiling;
+    }
+
+    public void setLockProfiling(boolean lockProfiling) {
+        if (lockProfiling && !this.lockProfiling) {
+            for (XLockStats stats : lockStats.values()) stats.reset();
+        }
+        this.lockProfiling = lockProfiling;
+    }
+
+    public XLockStats getLockStats(Lockable lockable) {
+        return lockStats.get(lockable);
+    }
+
     private class SingleXLock implements XLock {
+        private final Lockable lockable;
         private final ReentrantLock lock;
+        private long acquiredTime = 0;
+        private long waitTime = 0;
 
         private SingleXLock(Lockable lockable) {
+            this.lockable = lockable;
             this.lock = locks.get(lockable);
-            lock.lock();
+            if (lockProfiling) {
+                long startTime = System.nanoTime();
+                lock.lock();
+                acquiredTime = System.nanoTime();
+                waitTime = acquiredTime - startTime;
+            }
+            else lock.lock();
         }
 
         @Override
         public void close() {
+            if (acquiredTime != 0) lockStats.get(lockable).record(waitTime, System.nanoTime() - acquiredTime);
             lock.unlock();
         }
     }
 
     private class MultiXLock implements XLock {
         private final Lockable[] lockables;
+        private final long[] acquiredTimes;
+        private final long[] waitTimes;
 
         private MultiXLock(Lockable[] lockables) {
             this.lockables = lockables;
-            for (Lockable lockable : lockables) locks.get(lockable).lock();
+            if (lockProfiling) {
+                acquiredTimes = new long[lockables.length];
+                waitTimes = new long[lockables.length];
+                for (int i = 0; i < lockables.length; i++) {
+                    long startTime = System.nanoTime();
+                    locks.get(lockables[i]).lock();
+                    acquiredTimes[i] = System.nanoTime();
+                    waitTimes[i] = acquiredTimes[i] - startTime;
+                }
+            }
+            else {
+                acquiredTimes = null;
+                waitTimes = null;
+                for (Lockable lockable : lockables) locks.get(lockable).lock();
+            }
         }
 
         @Override
         public void close() {
+            long releaseTime = acquiredTimes != null ? System.nanoTime() : 0;
             for (int i = lockables.length - 1; i >= 0; i--) {
+                if (acquiredTimes != null) lockStats.get(lockables[i]).record(waitTimes[i], releaseTime - acquiredTimes[i]);
                 locks.get(lockables[i]).unlock();
             }
         }
@@ -151,27 +225,35 @@ public class XServer {
     }
 
     public void injectPointerMove(int x, int y) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setPosition(x, y);
+        Executor commandExecutor = this.commandExecutor;
+        if (commandExecutor != null) {
+            commandExecutor.execute(() -> setPointerPosition(x, y));
         }
+        else setPointerPosition(x, y);
     }
 
     public void injectPointerMoveDelta(int dx, int dy) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setPosition(pointer.getX() + dx, pointer.getY() + dy);
+        Executor commandExecutor = this.commandExecutor;
+        if (commandExecutor != null) {
+            commandExecutor.execute(() -> setPointerPosition(pointer.getX() + dx, pointer.getY() + dy));
         }
+        else setPointerPosition(pointer.getX() + dx, pointer.getY() + dy);
     }
 
     public void injectPointerButtonPress(Pointer.Button buttonCode) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setButton(buttonCode, true);
+        Executor commandExecutor = this.commandExecutor;
+        if (commandExecutor != null) {
+            commandExecutor.execute(() -> setPointerButton(buttonCode, true));
         }
+        else setPointerButton(buttonCode, true);
     }
 
     public void injectPointerButtonRelease(Pointer.Button buttonCode) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setButton(buttonCode, false);
+        Executor commandExecutor = this.commandExecutor;
+        if (commandExecutor != null) {
+            commandExecutor.execute(() -> setPointerButton(buttonCode, false));
         }
+        else setPointerButton(buttonCode, false);
     }
 
     public void injectKeyPress(XKeycode xKeycode) {
@@ -179,12 +261,40 @@ public class XServer {
     }
 
     public void injectKeyPress(XKeycode xKeycode, int keysym) {
+        Executor commandExecutor = this.commandExecutor;
+        if (commandExecutor != null) {
+            commandExecutor.execute(() -> setKeyPress(xKeycode, keysym));
+        }
+        else setKeyPress(xKeycode, keysym);
+    }
+
+    public void injectKeyRelease(XKeycode xKeycode) {
+        Executor commandExecutor = this.commandExecutor;
+        if (commandExecutor != null) {
+            commandExecutor.execute(() -> setKeyRelease(xKeycode));
+        }
+        else setKeyRelease(xKeycode);
+    }
+
+    private void setPointerPosition(int x, int y) {
+        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
+            pointer.setPosition(x, y);
+        }
+    }
+
+    private void setPointerButton(Pointer.Button buttonCode, boolean pressed) {
+        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
+            pointer.setButton(buttonCode, pressed);
+        }
+    }
+
+    private void setKeyPress(XKeycode xKeycode, int keysym) {
         try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
             keyboard.setKeyPress(xKeycode.getId(), keysym);
         }
     }
 
-    public void injectKeyRelease(XKeycode xKeycode) {
+    private void setKeyRelease(XKeycode xKeycode) {
         try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
             keyboard.setKeyRelease(xKeycode.getId());
         }
@@ -1,10 +1,69 @@
 package com.winlator.xserver.events;
 
+import com.winlator.xconnector.XOutputStream;
+import com.winlator.xconnector.XStreamLock;
 import com.winlator.xserver.Bitmask;
 import com.winlator.xserver.Window;
 
+import java.io.IOException;
+
 public class MotionNotify extends InputDeviceEvent {
+    private static final int CODE = 6;
+
+    public MotionNotify() {
+        super(CODE);
+    }
+
     public MotionNotify(boolean detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
-        super(6, (byte)(detail ? 1 : 0), root, event, child, rootX, rootY, eventX, eventY, state);
+        super(CODE, (byte)(detail ? 1 : 0), root, event, child, rootX, rootY, eventX, eventY, state);
+    }
+
+    /**
+     * Refills this event so that a single instance can be reused for every pointer move.
+     */
+    public void set(Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, int state) {
+        set(root.id, event.id, child != null ? child.id : 0, rootX, rootY, eventX, eventY, state);
+    }
+
+    public void set(int rootId, int eventId, int childId, short rootX, short rootY, short eventX, short eventY, int state) {
+        set((byte)0, rootId, eventId, childId, rootX, rootY, eventX, eventY, state);
+    }
+
+    public boolean isHint() {
+        return detail == 1;
+    }
+
+    public void setHint(boolean hint) {
+        detail = (byte)(hint ? 1 : 0);
+    }
+
+    /**
+     * If the last message still queued for the client is a motion event for the same window,
+     * child and state, its position is updated in place instead of queueing another event.
+     */
+    @Override
+    public void send(short sequenceNumber, XOutputStream outputStream) throws IOException {
+        try (XStreamLock lock = outputStream.lock()) {
+            int offset = outputStream.getLastMessageOffset();
+            if (offset != -1 && canMergeInto(outputStream, offset)) {
+                outputStream.putShort(offset + 2, sequenceNumber);
+                outputStream.putInt(offset + 4, timestamp);
+                outputStream.putShort(offset + 20, rootX);
+                outputStream.putShort(offset + 22, rootY);
+                outputStream.putShort(offset + 24, eventX);
+                outputStream.putShort(offset + 26, eventY);
+            }
+            else super.send(sequenceNumber, outputStream);
+        }
+    }
+
+    private boolean canMergeInto(XOutputStream outputStream, int offset) {
+        return outputStream.getBufferedLength() - offset == 32 &&
+               outputStream.getByte(offset) == code &&
+               outputStream.getByte(offset + 1) == detail &&
+               outputStream.getInt(offset + 8) == rootId &&
+               outputStream.getInt(offset + 12) == eventId &&
+               outputStream.getInt(offset + 16) == childId &&
+               outputStream.getShort(offset + 28) == state;
     }
 }
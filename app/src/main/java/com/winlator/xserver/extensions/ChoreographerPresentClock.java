@@ -0,0 +1,89 @@
+package com.winlator.xserver.extensions;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+import android.view.Display;
+
+/**
+ * Clock driven by the display vsync through a {@link Choreographer} running on its own thread.
+ * The MSC is derived from the frame timestamps so that skipped callbacks still advance it. Every
+ * frame anchors the count to its timestamp and picks up the current refresh rate of the display,
+ * which can change while running.
+ */
+public class ChoreographerPresentClock implements PresentClock, Choreographer.FrameCallback {
+    private static final float DEFAULT_REFRESH_RATE = 60;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Display display;
+    private long baseTime = System.nanoTime();
+    private long baseMsc = 0;
+    private long interval;
+    private Choreographer choreographer;
+    private long lastMsc = 0;
+    private long lastFrameMsc = 0;
+    private boolean vblankRequested = false;
+    private OnVBlankListener onVBlankListener;
+
+    public ChoreographerPresentClock(Display display) {
+        this.display = display;
+        interval = getDisplayInterval();
+        thread = new HandlerThread("PresentClock");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(() -> choreographer = Choreographer.getInstance());
+    }
+
+    private long getDisplayInterval() {
+        float refreshRate = display != null ? display.getRefreshRate() : 0;
+        return (long)(1000000000L / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE));
+    }
+
+    private synchronized long toMsc(long time) {
+        lastMsc = Math.max(lastMsc, baseMsc + Math.max(time - baseTime, 0) / interval);
+        return lastMsc;
+    }
+
+    @Override
+    public long getMsc() {
+        return toMsc(System.nanoTime());
+    }
+
+    @Override
+    public synchronized long getUst() {
+        return (baseTime + (getMsc() - baseMsc) * interval) / 1000;
+    }
+
+    @Override
+    public void setOnVBlankListener(OnVBlankListener onVBlankListener) {
+        this.onVBlankListener = onVBlankListener;
+    }
+
+    @Override
+    public synchronized void requestVBlank() {
+        if (vblankRequested) return;
+        vblankRequested = true;
+        handler.post(() -> choreographer.postFrameCallback(this));
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long displayInterval = getDisplayInterval();
+        long msc;
+        synchronized (this) {
+            vblankRequested = false;
+            msc = Math.max(toMsc(frameTimeNanos + interval / 2), lastFrameMsc + 1);
+            lastMsc = Math.max(lastMsc, msc);
+            lastFrameMsc = msc;
+            baseTime = frameTimeNanos;
+            baseMsc = msc;
+            interval = displayInterval;
+        }
+        if (onVBlankListener != null) onVBlankListener.onVBlank(msc, frameTimeNanos / 1000);
+    }
+
+    @Override
+    public void release() {
+        thread.quitSafely();
+    }
+}
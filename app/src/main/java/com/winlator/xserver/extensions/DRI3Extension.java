@@ -5,7 +5,7 @@ import static com.winlator.xserver.XClientRequestHandler.RESPONSE_CODE_SUCCESS;
 import com.winlator.core.Callback;
 import com.winlator.renderer.GPUImage;
 import com.winlator.renderer.Texture;
-import com.winlator.sysvshm.SysVSharedMemory;
+import com.winlator.sysvshm.SHMMappingCache;
 import com.winlator.widget.XServerView;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xconnector.XInputStream;
@@ -32,10 +32,8 @@ import java.util.Objects;
 
 public class DRI3Extension implements Extension {
     public static final byte MAJOR_OPCODE = -102;
-    private final Callback<Drawable> onDestroyDrawableListener = (drawable) -> {
-        ByteBuffer data = drawable.getData();
-        SysVSharedMemory.unmapSHMSegment(data, data.capacity());
-    };
+    private SHMMappingCache mappingCache;
+    private final Callback<Drawable> onDestroyDrawableListener = (drawable) -> mappingCache.release(drawable.getData());
 
     private static abstract class ClientOpcodes {
         private static final byte QUERY_VERSION = 0;
@@ -187,18 +185,28 @@ public class DRI3Extension implements Extension {
     }
 
     private void pixmapFromFd(XClient client, int pixmapId, short width, short height, int stride, int offset, byte depth, int fd, long size)  throws IOException, XRequestError {
+        ByteBuffer buffer = null;
+        Drawable drawable = null;
+        Pixmap pixmap = null;
         try {
-            ByteBuffer buffer = SysVSharedMemory.mapSHMSegment(fd, size, offset, true);
+            buffer = mappingCache.acquire(fd, size, offset, true);
             if (buffer == null) throw new BadAlloc();
 
             short totalWidth = (short)(stride / 4);
-            Drawable drawable = client.xServer.drawableManager.createDrawable(pixmapId, totalWidth, height, depth);
+            drawable = client.xServer.drawableManager.createDrawable(pixmapId, totalWidth, height, depth);
+            if (drawable == null) throw new BadIdChoice(pixmapId);
             drawable.setData(buffer);
             drawable.setTexture(null);
+            pixmap = client.xServer.pixmapManager.createPixmap(drawable);
+            if (pixmap == null) throw new BadIdChoice(pixmapId);
             drawable.setOnDestroyListener(onDestroyDrawableListener);
-            client.xServer.pixmapManager.createPixmap(drawable);
         }
         finally {
+            // The buffer belongs to the drawable only once the pixmap exists
+            if (pixmap == null) {
+                if (drawable != null) client.xServer.drawableManager.removeDrawable(pixmapId);
+                if (buffer != null) mappingCache.release(buffer);
+            }
             XConnectorEpoll.closeFd(fd);
         }
     }
@@ -206,6 +214,8 @@ public class DRI3Extension implements Extension {
     @Override
     public void handleRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         int opcode = client.getRequestData();
+        if (mappingCache == null) mappingCache = client.xServer.shmMappingCache;
+
         switch (opcode) {
             case ClientOpcodes.QUERY_VERSION :
                 queryVersion(client, inputStream, outputStream);
@@ -0,0 +1,60 @@
+package com.winlator.xserver.extensions;
+
+/**
+ * Deterministic clock that only moves when {@link #advance()} is called.
+ */
+public class FakePresentClock implements PresentClock {
+    private final long interval;
+    private long msc = 0;
+    private long ust = 0;
+    private boolean vblankRequested = false;
+    private OnVBlankListener onVBlankListener;
+
+    public FakePresentClock() {
+        this(1000000 / 60);
+    }
+
+    public FakePresentClock(long interval) {
+        this.interval = interval;
+    }
+
+    @Override
+    public synchronized long getMsc() {
+        return msc;
+    }
+
+    @Override
+    public synchronized long getUst() {
+        return ust;
+    }
+
+    @Override
+    public void setOnVBlankListener(OnVBlankListener onVBlankListener) {
+        this.onVBlankListener = onVBlankListener;
+    }
+
+    @Override
+    public synchronized void requestVBlank() {
+        vblankRequested = true;
+    }
+
+    public synchronized boolean isVBlankRequested() {
+        return vblankRequested;
+    }
+
+    public void advance() {
+        long msc, ust;
+        boolean notify;
+        synchronized (this) {
+            msc = ++this.msc;
+            ust = this.ust += interval;
+            notify = vblankRequested;
+            vblankRequested = false;
+        }
+        if (notify && onVBlankListener != null) onVBlankListener.onVBlank(msc, ust);
+    }
+
+    public void advance(int count) {
+        for (int i = 0; i < count; i++) advance();
+    }
+}
@@ -0,0 +1,24 @@
+package com.winlator.xserver.extensions;
+
+/**
+ * Source of the vertical blank counter (MSC) and timestamps (UST, in microseconds) used by the
+ * Present extension to pace presentations.
+ */
+public interface PresentClock {
+    interface OnVBlankListener {
+        void onVBlank(long msc, long ust);
+    }
+
+    long getMsc();
+
+    long getUst();
+
+    void setOnVBlankListener(OnVBlankListener onVBlankListener);
+
+    /**
+     * Asks for a single callback at the next vertical blank, repeated requests before it are merged.
+     */
+    void requestVBlank();
+
+    default void release() {}
+}
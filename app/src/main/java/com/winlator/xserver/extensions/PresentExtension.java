@@ -4,19 +4,24 @@ import static com.winlator.xserver.XClientRequestHandler.RESPONSE_CODE_SUCCESS;
 
 import android.util.SparseArray;
 
+import com.winlator.renderer.GLRenderer;
 import com.winlator.renderer.GPUImage;
 import com.winlator.renderer.Texture;
 import com.winlator.widget.XServerView;
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
 import com.winlator.xconnector.XStreamLock;
+import com.winlator.core.Callback;
 import com.winlator.xenvironment.components.VortekRendererComponent;
 import com.winlator.xserver.Bitmask;
 import com.winlator.xserver.Drawable;
 import com.winlator.xserver.Pixmap;
 import com.winlator.xserver.Window;
+import com.winlator.xserver.WindowManager;
 import com.winlator.xserver.XClient;
 import com.winlator.xserver.XLock;
+import com.winlator.xserver.XResource;
+import com.winlator.xserver.XResourceManager;
 import com.winlator.xserver.XServer;
 import com.winlator.xserver.errors.BadImplementation;
 import com.winlator.xserver.errors.BadMatch;
@@ -27,20 +32,58 @@ import com.winlator.xserver.events.PresentCompleteNotify;
 import com.winlator.xserver.events.PresentIdleNotify;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Objects;
 
-public class PresentExtension implements Extension {
+public class PresentExtension implements Extension, WindowManager.OnWindowModificationListener, XResourceManager.OnResourceLifecycleListener {
     public static final byte MAJOR_OPCODE = -103;
-    private static final int FAKE_INTERVAL = 1000000 / 60;
+    private static final int OPTION_COPY = 1<<1;
     public enum Kind {PIXMAP, MSC_NOTIFY}
     public enum Mode {COPY, FLIP, SKIP}
     private final SparseArray<Event> events = new SparseArray<>();
+    private final HashMap<Drawable, FlipState> flips = new HashMap<>();
+    private final ArrayList<PendingPresent> pendingPresents = new ArrayList<>();
+    private final Callback<Drawable> onUnflipListener = this::onUnflip;
     private SyncExtension syncExtension;
+    private XServer xServer;
+    private PresentClock clock;
+    private PresentScheduler scheduler;
 
     private static abstract class ClientOpcodes {
         private static final byte QUERY_VERSION = 0;
         private static final byte PRESENT_PIXMAP = 1;
+        private static final byte NOTIFY_MSC = 2;
         private static final byte SELECT_INPUT = 3;
+        private static final byte QUERY_CAPABILITIES = 4;
+    }
+
+    private static class FlipState {
+        private final Window window;
+        private final Pixmap pixmap;
+        private final int serial;
+        private final int idleFence;
+
+        private FlipState(Window window, Pixmap pixmap, int serial, int idleFence) {
+            this.window = window;
+            this.pixmap = pixmap;
+            this.serial = serial;
+            this.idleFence = idleFence;
+        }
+    }
+
+    private static class PendingPresent {
+        private Window window;
+        private Pixmap pixmap;
+        private int serial;
+        private int idleFence;
+        private int options;
+        private boolean wholeWindow;
+        private short xOff;
+        private short yOff;
+        private long executionMsc;
     }
 
     private static class Event {
@@ -70,6 +113,32 @@ public class PresentExtension implements Extension {
         return 0;
     }
 
+    /**
+     * Replaces the vertical blank source, pending presents keep their target MSC.
+     */
+    public synchronized void setClock(PresentClock clock) {
+        if (this.clock != null) this.clock.release();
+        this.clock = clock;
+        scheduler = new PresentScheduler(clock);
+    }
+
+    private synchronized PresentScheduler getScheduler() {
+        if (scheduler == null) {
+            GLRenderer renderer = xServer.getRenderer();
+            setClock(new ChoreographerPresentClock(renderer != null ? renderer.xServerView.getDisplay() : null));
+        }
+        return scheduler;
+    }
+
+    private void bindServer(XServer xServer) {
+        if (this.xServer != null) return;
+        this.xServer = xServer;
+        syncExtension = xServer.getExtension(SyncExtension.MAJOR_OPCODE);
+        xServer.windowManager.addOnWindowModificationListener(this);
+        xServer.windowManager.addOnResourceLifecycleListener(this);
+        xServer.pixmapManager.addOnResourceLifecycleListener(this);
+    }
+
     private void sendIdleNotify(Window window, Pixmap pixmap, int serial, int idleFence) {
         if (idleFence != 0) syncExtension.setTriggered(idleFence);
 
@@ -108,15 +177,34 @@ public class PresentExtension implements Extension {
         }
     }
 
+    private static void queryCapabilities(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
+        inputStream.skip(4);
+
+        try (XStreamLock lock = outputStream.lock()) {
+            outputStream.writeByte(RESPONSE_CODE_SUCCESS);
+            outputStream.writeByte((byte)0);
+            outputStream.writeShort(client.getSequenceNumber());
+            outputStream.writeInt(0);
+            outputStream.writeInt(0);
+            outputStream.writePad(20);
+        }
+    }
+
     private void presentPixmap(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         int windowId = inputStream.readInt();
         int pixmapId = inputStream.readInt();
         int serial = inputStream.readInt();
-        inputStream.skip(8);
+        int validRegion = inputStream.readInt();
+        int updateRegion = inputStream.readInt();
         short xOff = inputStream.readShort();
         short yOff = inputStream.readShort();
         inputStream.skip(8);
         int idleFence = inputStream.readInt();
+        int options = inputStream.readInt();
+        inputStream.skip(4);
+        long targetMsc = inputStream.readLong();
+        long divisor = inputStream.readLong();
+        long remainder = inputStream.readLong();
         inputStream.skip(client.getRemainingRequestLength());
 
         final Window window = client.xServer.windowManager.getWindow(windowId);
@@ -128,13 +216,125 @@ public class PresentExtension implements Extension {
         Drawable content = window.getContent();
         if (content.visual.depth != pixmap.drawable.visual.depth) throw new BadMatch();
 
-        long ust = System.nanoTime() / 1000;
-        long msc = ust / FAKE_INTERVAL;
+        PendingPresent present = new PendingPresent();
+        present.window = window;
+        present.pixmap = pixmap;
+        present.serial = serial;
+        present.idleFence = idleFence;
+        present.options = options;
+        present.wholeWindow = validRegion == 0 && updateRegion == 0;
+        present.xOff = xOff;
+        present.yOff = yOff;
+
+        PresentScheduler scheduler = getScheduler();
+        PresentClock clock = scheduler.getClock();
+        long currentMsc = clock.getMsc();
+        present.executionMsc = PresentScheduler.getExecutionMsc(currentMsc, targetMsc, divisor, remainder);
+
+        if (present.executionMsc <= currentMsc) {
+            executePresent(present, currentMsc, clock.getUst());
+        }
+        else {
+            synchronized (pendingPresents) {
+                pendingPresents.add(present);
+            }
+            scheduler.schedule(window, present.executionMsc, (msc, ust) -> xServer.runCommand(() -> {
+                try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+                    executeQueuedPresent(present, msc, ust);
+                }
+            }));
+        }
+    }
+
+    private void executeQueuedPresent(PendingPresent present, long msc, long ust) {
+        boolean skip = false;
+        synchronized (pendingPresents) {
+            if (!pendingPresents.remove(present)) return;
+            for (PendingPresent other : pendingPresents) {
+                if (other.window == present.window && other.executionMsc <= msc) {
+                    skip = true;
+                    break;
+                }
+            }
+        }
+
+        if (xServer.pixmapManager.getPixmap(present.pixmap.id) != present.pixmap) {
+            sendIdleNotify(present.window, present.pixmap, present.serial, present.idleFence);
+            return;
+        }
+
+        if (skip) {
+            sendIdleNotify(present.window, present.pixmap, present.serial, present.idleFence);
+            sendCompleteNotify(present.window, present.serial, Kind.PIXMAP, Mode.SKIP, ust, msc);
+        }
+        else executePresent(present, msc, ust);
+    }
+
+    private boolean canFlip(PendingPresent present, Drawable content) {
+        Drawable drawable = present.pixmap.drawable;
+        return (present.options & OPTION_COPY) == 0 && present.wholeWindow && present.xOff == 0 && present.yOff == 0 &&
+               drawable.width == content.width && drawable.height == content.height && present.window.attributes.isMapped();
+    }
+
+    private void executePresent(PendingPresent present, long msc, long ust) {
+        Window window = present.window;
+        Pixmap pixmap = present.pixmap;
+        Drawable content = window.getContent();
 
         synchronized (content.renderLock) {
-            content.copyArea((short)0, (short)0, xOff, yOff, pixmap.drawable.width, pixmap.drawable.height, pixmap.drawable);
-            sendIdleNotify(window, pixmap, serial, idleFence);
-            sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.COPY, ust, msc);
+            if (canFlip(present, content)) {
+                FlipState previous;
+                synchronized (flips) {
+                    previous = flips.put(content, new FlipState(window, pixmap, present.serial, present.idleFence));
+                }
+                content.setOnUnflipListener(onUnflipListener);
+                content.setFlipSource(pixmap.drawable);
+                if (previous != null && previous.pixmap != pixmap) sendIdleNotify(window, previous.pixmap, previous.serial, previous.idleFence);
+                sendCompleteNotify(window, present.serial, Kind.PIXMAP, Mode.FLIP, ust, msc);
+            }
+            else {
+                content.copyArea((short)0, (short)0, present.xOff, present.yOff, pixmap.drawable.width, pixmap.drawable.height, pixmap.drawable);
+                sendIdleNotify(window, pixmap, present.serial, present.idleFence);
+                sendCompleteNotify(window, present.serial, Kind.PIXMAP, Mode.COPY, ust, msc);
+            }
+        }
+    }
+
+    private void onUnflip(Drawable content) {
+        FlipState state;
+        synchronized (flips) {
+            state = flips.remove(content);
+        }
+        if (state != null) sendIdleNotify(state.window, state.pixmap, state.serial, state.idleFence);
+    }
+
+    private void notifyMSC(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
+        int windowId = inputStream.readInt();
+        int serial = inputStream.readInt();
+        inputStream.skip(4);
+        long targetMsc = inputStream.readLong();
+        long divisor = inputStream.readLong();
+        long remainder = inputStream.readLong();
+
+        final Window window = client.xServer.windowManager.getWindow(windowId);
+        if (window == null) throw new BadWindow(windowId);
+
+        PresentScheduler scheduler = getScheduler();
+        PresentClock clock = scheduler.getClock();
+        long currentMsc = clock.getMsc();
+        long executionMsc = PresentScheduler.getExecutionMsc(currentMsc, targetMsc, divisor, remainder);
+
+        if (executionMsc <= currentMsc) {
+            sendCompleteNotify(window, serial, Kind.MSC_NOTIFY, Mode.COPY, clock.getUst(), currentMsc);
+        }
+        else {
+            scheduler.schedule(window, executionMsc, (msc, ust) -> xServer.runCommand(() -> {
+                try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    if (xServer.windowManager.getWindow(window.id) == window) {
+                        sendCompleteNotify(window, serial, Kind.MSC_NOTIFY, Mode.COPY, ust, msc);
+                    }
+                }
+            }));
         }
     }
 
@@ -176,20 +376,115 @@ public class PresentExtension implements Extension {
         }
     }
 
+    @Override
+    public void onUpdateWindowGeometry(Window window, boolean resized) {
+        if (!resized) return;
+        ArrayList<FlipState> released = null;
+        synchronized (flips) {
+            Iterator<FlipState> iterator = flips.values().iterator();
+            while (iterator.hasNext()) {
+                FlipState state = iterator.next();
+                if (state.window == window) {
+                    if (released == null) released = new ArrayList<>();
+                    released.add(state);
+                    iterator.remove();
+                }
+            }
+        }
+
+        if (released != null) {
+            for (FlipState state : released) sendIdleNotify(state.window, state.pixmap, state.serial, state.idleFence);
+        }
+    }
+
+    @Override
+    public void onFreeResource(XResource resource) {
+        if (resource instanceof Pixmap) {
+            ArrayList<PendingPresent> dropped = null;
+            synchronized (pendingPresents) {
+                Iterator<PendingPresent> iterator = pendingPresents.iterator();
+                while (iterator.hasNext()) {
+                    PendingPresent present = iterator.next();
+                    if (present.pixmap == resource) {
+                        if (dropped == null) dropped = new ArrayList<>();
+                        dropped.add(present);
+                        iterator.remove();
+                    }
+                }
+            }
+
+            if (dropped != null) {
+                for (PendingPresent present : dropped) sendIdleNotify(present.window, present.pixmap, present.serial, present.idleFence);
+            }
+
+            ArrayList<Drawable> contents = null;
+            synchronized (flips) {
+                for (Map.Entry<Drawable, FlipState> entry : flips.entrySet()) {
+                    if (entry.getValue().pixmap == resource) {
+                        if (contents == null) contents = new ArrayList<>();
+                        contents.add(entry.getKey());
+                    }
+                }
+            }
+
+            if (contents != null) {
+                for (Drawable content : contents) {
+                    synchronized (content.renderLock) {
+                        content.unflip();
+                    }
+                }
+            }
+        }
+        else if (resource instanceof Window) {
+            Window window = (Window)resource;
+            if (scheduler != null) scheduler.cancel(window);
+
+            synchronized (pendingPresents) {
+                for (int i = pendingPresents.size() - 1; i >= 0; i--) {
+                    PendingPresent present = pendingPresents.get(i);
+                    if (present.window == window) {
+                        if (present.idleFence != 0) syncExtension.setTriggered(present.idleFence);
+                        pendingPresents.remove(i);
+                    }
+                }
+            }
+
+            FlipState state;
+            synchronized (flips) {
+                state = flips.remove(window.getContent());
+            }
+            if (state != null && state.idleFence != 0) syncExtension.setTriggered(state.idleFence);
+
+            synchronized (events) {
+                for (int i = events.size() - 1; i >= 0; i--) {
+                    if (events.valueAt(i).window == window) events.removeAt(i);
+                }
+            }
+        }
+    }
+
     @Override
     public void handleRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         int opcode = client.getRequestData();
-        if (syncExtension == null) syncExtension = client.xServer.getExtension(SyncExtension.MAJOR_OPCODE);
+        bindServer(client.xServer);
 
         switch (opcode) {
             case ClientOpcodes.QUERY_VERSION :
                 queryVersion(client, inputStream, outputStream);
                 break;
             case ClientOpcodes.PRESENT_PIXMAP:
-                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER)) {
+                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
                     presentPixmap(client, inputStream, outputStream);
                 }
                 break;
+            case ClientOpcodes.NOTIFY_MSC:
+                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    notifyMSC(client, inputStream, outputStream);
+                }
+                break;
+            case ClientOpcodes.QUERY_CAPABILITIES:
+                queryCapabilities(client, inputStream, outputStream);
+                break;
             case ClientOpcodes.SELECT_INPUT:
                 try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
                     selectInput(client, inputStream, outputStream);
@@ -0,0 +1,87 @@
+package com.winlator.xserver.extensions;
+
+import java.util.ArrayList;
+
+/**
+ * Queue of work waiting for a given MSC of a {@link PresentClock}. Entries run from the clock
+ * callback in the order of their target MSC, entries with the same target in submission order.
+ */
+public class PresentScheduler implements PresentClock.OnVBlankListener {
+    private final PresentClock clock;
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private final ArrayList<Entry> dueEntries = new ArrayList<>();
+
+    public interface Task {
+        void execute(long msc, long ust);
+    }
+
+    private static class Entry {
+        private final Object owner;
+        private final long targetMsc;
+        private final Task task;
+
+        private Entry(Object owner, long targetMsc, Task task) {
+            this.owner = owner;
+            this.targetMsc = targetMsc;
+            this.task = task;
+        }
+    }
+
+    public PresentScheduler(PresentClock clock) {
+        this.clock = clock;
+        clock.setOnVBlankListener(this);
+    }
+
+    public PresentClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Returns the MSC at which a request with the given target, divisor and remainder executes,
+     * following the rules of the Present protocol: a target in the past is moved to the current
+     * MSC, or to the next MSC satisfying msc % divisor == remainder when a divisor is set.
+     */
+    public static long getExecutionMsc(long currentMsc, long targetMsc, long divisor, long remainder) {
+        if (divisor == 0) return Math.max(targetMsc, currentMsc);
+        if (currentMsc < targetMsc) return targetMsc;
+
+        remainder %= divisor;
+        long executionMsc = currentMsc - currentMsc % divisor + remainder;
+        if (currentMsc % divisor >= remainder) executionMsc += divisor;
+        return executionMsc;
+    }
+
+    public synchronized void schedule(Object owner, long targetMsc, Task task) {
+        entries.add(new Entry(owner, targetMsc, task));
+        clock.requestVBlank();
+    }
+
+    public synchronized void cancel(Object owner) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).owner == owner) entries.remove(i);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return entries.size();
+    }
+
+    @Override
+    public void onVBlank(long msc, long ust) {
+        synchronized (this) {
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (entry.targetMsc <= msc) {
+                    int index = dueEntries.size();
+                    while (index > 0 && dueEntries.get(index - 1).targetMsc > entry.targetMsc) index--;
+                    dueEntries.add(index, entry);
+                    entries.remove(i--);
+                }
+            }
+            if (!entries.isEmpty()) clock.requestVBlank();
+        }
+
+        for (int i = 0; i < dueEntries.size(); i++) dueEntries.get(i).task.execute(msc, ust);
+        dueEntries.clear();
+    }
+}
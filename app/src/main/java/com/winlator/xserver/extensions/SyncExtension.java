@@ -12,10 +12,22 @@ import com.winlator.xserver.errors.BadMatch;
 import com.winlator.xserver.errors.XRequestError;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 public class SyncExtension implements Extension {
     public static final byte MAJOR_OPCODE = -104;
     private final SparseBooleanArray fences = new SparseBooleanArray();
+    private final ArrayList<FenceAwait> fenceAwaits = new ArrayList<>();
+
+    private static class FenceAwait {
+        private final XClient client;
+        private final int[] ids;
+
+        private FenceAwait(XClient client, int[] ids) {
+            this.client = client;
+            this.ids = ids;
+        }
+    }
 
     private static abstract class ClientOpcodes {
         private static final byte CREATE_FENCE = 14;
@@ -47,7 +59,28 @@ public class SyncExtension implements Extension {
 
     public void setTriggered(int id) {
         synchronized (fences) {
-            if (fences.indexOfKey(id) >= 0) fences.put(id, true);
+            if (fences.indexOfKey(id) >= 0) {
+                fences.put(id, true);
+                resumeAwaitingClients(id);
+            }
+        }
+    }
+
+    private void resumeAwaitingClients(int id) {
+        for (int i = fenceAwaits.size() - 1; i >= 0; i--) {
+            FenceAwait fenceAwait = fenceAwaits.get(i);
+            if (!fenceAwait.client.isConnected()) {
+                fenceAwaits.remove(i);
+                continue;
+            }
+
+            for (int awaitedId : fenceAwait.ids) {
+                if (awaitedId == id) {
+                    fenceAwaits.remove(i);
+                    fenceAwait.client.resume();
+                    break;
+                }
+            }
         }
     }
 
@@ -70,6 +103,7 @@ public class SyncExtension implements Extension {
             int id = inputStream.readInt();
             if (fences.indexOfKey(id) < 0) throw new BadFence(id);
             fences.put(id, true);
+            resumeAwaitingClients(id);
         }
     }
 
@@ -90,6 +124,7 @@ public class SyncExtension implements Extension {
             int id = inputStream.readInt();
             if (fences.indexOfKey(id) < 0) throw new BadFence(id);
             fences.delete(id);
+            resumeAwaitingClients(id);
         }
     }
 
@@ -105,14 +140,15 @@ public class SyncExtension implements Extension {
             }
 
             boolean anyTriggered = false;
-            do {
-                for (int id : ids) {
-                    if (fences.indexOfKey(id) < 0) throw new BadFence(id);
-                    anyTriggered = fences.get(id);
-                    if (anyTriggered) break;
-                }
+            for (int id : ids) {
+                if (fences.indexOfKey(id) < 0) throw new BadFence(id);
+                if (fences.get(id)) anyTriggered = true;
+            }
+
+            if (!anyTriggered) {
+                client.suspend();
+                fenceAwaits.add(new FenceAwait(client, ids));
             }
-            while (!anyTriggered);
         }
     }
 
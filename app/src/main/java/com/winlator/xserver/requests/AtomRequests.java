@@ -30,4 +30,21 @@ public abstract class AtomRequests {
             outputStream.writePad(20);
         }
     }
+
+    public static void getAtomName(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
+        int id = inputStream.readInt();
+        if (!Atom.isValid(id)) throw new BadAtom(id);
+        String name = Atom.getName(id);
+        int length = name.length();
+
+        try (XStreamLock lock = outputStream.lock()) {
+            outputStream.writeByte(RESPONSE_CODE_SUCCESS);
+            outputStream.writeByte((byte)0);
+            outputStream.writeShort(client.getSequenceNumber());
+            outputStream.writeInt((length + 3) / 4);
+            outputStream.writeShort((short)length);
+            outputStream.writePad(22);
+            outputStream.writeString8(name);
+        }
+    }
 }
@@ -19,6 +19,113 @@ import java.nio.ByteBuffer;
 public abstract class DrawRequests {
     public enum Format {BITMAP, XY_PIXMAP, Z_PIXMAP}
     private enum CoordinateMode {ORIGIN, PREVIOUS}
+    public static final int MIN_STREAMED_IMAGE_LENGTH = 65536;
+    private static final int PUT_IMAGE_HEADER_LENGTH = 20;
+
+    /**
+     * State of a large Z_PIXMAP PutImage whose rows are drawn as they arrive instead of
+     * waiting for the whole request to be buffered.
+     */
+    public static class PutImageStream {
+        private final int drawableId;
+        private final short width;
+        private final short height;
+        private final short dstX;
+        private final short dstY;
+        private final byte depth;
+        private int row = 0;
+        private int remainingLength;
+        private boolean discard = false;
+
+        private PutImageStream(int drawableId, short width, short height, short dstX, short dstY, byte depth, int remainingLength) {
+            this.drawableId = drawableId;
+            this.width = width;
+            this.height = height;
+            this.dstX = dstX;
+            this.dstY = dstY;
+            this.depth = depth;
+            this.remainingLength = remainingLength;
+        }
+    }
+
+    public static boolean canStreamPutImage(byte requestData, XInputStream inputStream, int requestLength) {
+        if (requestLength < MIN_STREAMED_IMAGE_LENGTH || inputStream.available() < PUT_IMAGE_HEADER_LENGTH) return false;
+        byte leftPad = inputStream.peekByte(16);
+        byte depth = inputStream.peekByte(17);
+        return requestData == Format.Z_PIXMAP.ordinal() && leftPad == 0 && (depth == 24 || depth == 32);
+    }
+
+    public static void beginPutImage(XClient client, XInputStream inputStream, int requestLength) throws XRequestError {
+        int drawableId = inputStream.readInt();
+        int gcId = inputStream.readInt();
+        short width = inputStream.readShort();
+        short height = inputStream.readShort();
+        short dstX = inputStream.readShort();
+        short dstY = inputStream.readShort();
+        inputStream.skip(1);
+        byte depth = inputStream.readByte();
+        inputStream.skip(2);
+
+        PutImageStream stream = new PutImageStream(drawableId, width, height, dstX, dstY, depth, requestLength - PUT_IMAGE_HEADER_LENGTH);
+        client.setPutImageStream(stream);
+
+        if (client.xServer.drawableManager.getDrawable(drawableId) == null) {
+            stream.discard = true;
+            throw new BadDrawable(drawableId);
+        }
+
+        if (client.xServer.graphicsContextManager.getGraphicsContext(gcId) == null) {
+            stream.discard = true;
+            throw new BadGraphicsContext(gcId);
+        }
+
+        continuePutImage(client, inputStream);
+    }
+
+    public static boolean continuePutImage(XClient client, XInputStream inputStream) {
+        PutImageStream stream = client.getPutImageStream();
+        int rowLength = stream.width * 4;
+        boolean progressed = false;
+
+        int rows = Math.min(stream.height - stream.row, rowLength > 0 ? inputStream.available() / rowLength : 0);
+        if (rows > 0) {
+            ByteBuffer data = inputStream.readByteBuffer(rows * rowLength);
+            Drawable drawable = !stream.discard ? client.xServer.drawableManager.getDrawable(stream.drawableId) : null;
+            if (drawable != null) drawRows(drawable, stream, data, rows);
+
+            stream.row += rows;
+            stream.remainingLength -= rows * rowLength;
+            progressed = true;
+        }
+
+        if (stream.row == stream.height || rowLength == 0) {
+            int length = Math.min(stream.remainingLength, inputStream.available());
+            if (length > 0) {
+                inputStream.skip(length);
+                stream.remainingLength -= length;
+                progressed = true;
+            }
+
+            if (stream.remainingLength <= 0) {
+                client.setPutImageStream(null);
+                progressed = true;
+            }
+        }
+        return progressed;
+    }
+
+    private static void drawRows(Drawable drawable, PutImageStream stream, ByteBuffer data, int rows) {
+        int top = stream.dstY + stream.row;
+        int srcX = Math.max(0, -stream.dstX);
+        int srcY = Math.max(0, -top);
+        int dstX = stream.dstX + srcX;
+        int dstY = top + srcY;
+        int width = Math.min(stream.width - srcX, drawable.width - dstX);
+        int height = Math.min(rows - srcY, drawable.height - dstY);
+        if (width <= 0 || height <= 0) return;
+
+        drawable.drawImage((short)srcX, (short)srcY, (short)dstX, (short)dstY, (short)width, (short)height, stream.depth, data, stream.width, (short)rows);
+    }
 
     public static void putImage(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
         Format format = Format.values()[client.getRequestData()];
@@ -78,8 +185,24 @@ public abstract class DrawRequests {
         Drawable drawable =  client.xServer.drawableManager.getDrawable(drawableId);
         if (drawable == null) throw new BadDrawable(drawableId);
         int visualId = client.xServer.pixmapManager.getPixmap(drawableId) == null ? drawable.visual.id : 0;
+
+        int length = width * height * 4;
+        if (length >= MIN_STREAMED_IMAGE_LENGTH && x >= 0 && y >= 0 && x + width <= drawable.width && y + height <= drawable.height) {
+            int stride = drawable.getStride() * 4;
+            try (XStreamLock lock = outputStream.lock()) {
+                outputStream.writeByte(RESPONSE_CODE_SUCCESS);
+                outputStream.writeByte(drawable.visual.depth);
+                outputStream.writeShort(client.getSequenceNumber());
+                outputStream.writeInt(length / 4);
+                outputStream.writeInt(visualId);
+                outputStream.writePad(20);
+                outputStream.writeRows(drawable.getData(), y * stride + x * 4, width * 4, stride, height);
+            }
+            return;
+        }
+
         ByteBuffer data = drawable.getImage(x, y, width, height);
-        int length = data.limit();
+        length = data.limit();
 
         try (XStreamLock lock = outputStream.lock()) {
             outputStream.writeByte(RESPONSE_CODE_SUCCESS);
@@ -91,6 +214,9 @@ public abstract class DrawRequests {
             outputStream.write(data);
             if ((-length & 3) > 0) outputStream.writePad(-length & 3);
         }
+        finally {
+            drawable.releaseImage(data);
+        }
     }
 
     public static void copyArea(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
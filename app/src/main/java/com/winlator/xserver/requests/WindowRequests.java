@@ -240,6 +240,7 @@ public abstract class WindowRequests {
         short rootY = client.xServer.pointer.getClampedY();
         Window child = window.getChildByCoords(rootX, rootY);
         short[] localPoint = window.rootPointToLocal(rootX, rootY);
+        client.resetMotionHints();
 
         try (XStreamLock lock = outputStream.lock()) {
             outputStream.writeByte(RESPONSE_CODE_SUCCESS);
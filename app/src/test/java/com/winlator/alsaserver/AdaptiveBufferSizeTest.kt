@@ -0,0 +1,26 @@
+package com.winlator.alsaserver
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+
+class AdaptiveBufferSizeTest {
+
+    @Test
+    fun testGrowsOnUnderrunAndShrinksAfterStablePeriod() {
+        val bufferSize = AdaptiveBufferSize(512, 1024, 256, 1000)
+        assertTrue(bufferSize.onUnderrun(0))
+        assertTrue(bufferSize.onUnderrun(10))
+        assertFalse(bufferSize.onUnderrun(20))
+        assertEquals(1024, bufferSize.frames)
+
+        assertFalse(bufferSize.update(500))
+        assertTrue(bufferSize.update(1020))
+        assertEquals(768, bufferSize.frames)
+        assertFalse(bufferSize.update(1500))
+        assertTrue(bufferSize.update(2020))
+        assertFalse(bufferSize.update(5000))
+        assertEquals(512, bufferSize.frames)
+    }
+}
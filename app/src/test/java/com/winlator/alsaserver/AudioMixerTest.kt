@@ -0,0 +1,195 @@
+package com.winlator.alsaserver
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class AudioMixerTest {
+
+    private class CaptureSink : AudioSink {
+        val output = ArrayList<Float>()
+
+        override fun open(sampleRate: Int, channels: Int, framesPerBuffer: Int) {}
+
+        override fun write(samples: FloatArray, frames: Int) {
+            for (i in 0 until frames * 2) output.add(samples[i])
+        }
+
+        override fun close() {}
+    }
+
+    private fun s16Frames(frames: Int, left: Short, right: Short): ByteBuffer {
+        val data = ByteBuffer.allocate(frames * 4).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until frames) data.putShort(left).putShort(right)
+        data.flip()
+        return data
+    }
+
+    @Test
+    fun testStreamsAreSummedWithVolume() {
+        val sink = CaptureSink()
+        val mixer = AudioMixer(sink, 48000, 64)
+        val stream1 = mixer.createStream(48000, 256)
+        val stream2 = mixer.createStream(48000, 256)
+        stream1.isPlaying = true
+        stream2.isPlaying = true
+        stream2.volume = 0.5f
+
+        stream1.write(s16Frames(64, 8192, -8192), ALSAClient.DataType.S16LE, 2)
+        stream2.write(s16Frames(64, 8192, 8192), ALSAClient.DataType.S16LE, 2)
+        assertTrue(mixer.mixPeriod())
+
+        assertEquals(128, sink.output.size)
+        assertEquals(0.25f + 0.125f, sink.output[0], 1e-6f)
+        assertEquals(-0.25f + 0.125f, sink.output[1], 1e-6f)
+        assertEquals(0, stream1.queuedFrames)
+    }
+
+    @Test
+    fun testPausedStreamIsNotMixed() {
+        val sink = CaptureSink()
+        val mixer = AudioMixer(sink, 48000, 32)
+        val stream = mixer.createStream(48000, 256)
+        stream.isPlaying = true
+        stream.write(s16Frames(32, 16384, 16384), ALSAClient.DataType.S16LE, 2)
+        stream.isPlaying = false
+
+        mixer.mixPeriod()
+        assertEquals(0.0f, sink.output[0])
+        assertEquals(32, stream.queuedFrames)
+    }
+
+    @Test
+    fun testMonoAndResampledStream() {
+        val sink = CaptureSink()
+        val mixer = AudioMixer(sink, 48000, 32)
+        val stream = mixer.createStream(24000, 256)
+        stream.isPlaying = true
+
+        val data = ByteBuffer.allocate(64 * 4).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until 64) data.putFloat(0.5f)
+        data.flip()
+        stream.write(data, ALSAClient.DataType.FLOATLE, 1)
+
+        mixer.mixPeriod()
+        assertEquals(64, sink.output.size)
+        for (i in 16 until 64) assertEquals(0.5f, sink.output[i], 1e-3f)
+        assertEquals(sink.output[62], sink.output[63])
+    }
+
+    @Test
+    fun testUnderrunIsCountedAndGrowsStreamBuffer() {
+        val sink = CaptureSink()
+        val mixer = AudioMixer(sink, 48000, 64)
+        val stream = mixer.createStream(48000, 256)
+        stream.isPlaying = true
+        stream.write(s16Frames(128, 1000, 1000), ALSAClient.DataType.S16LE, 2)
+
+        mixer.mixPeriod()
+        mixer.mixPeriod()
+        assertEquals(0L, stream.stats.underrunCount)
+        mixer.mixPeriod()
+        mixer.mixPeriod()
+        assertEquals(1L, stream.stats.underrunCount)
+        assertEquals(256 + 64, stream.stats.bufferFrames)
+        assertEquals(1L, stream.stats.writeCount)
+    }
+
+    @Test
+    fun testLimiterKeepsSumBelowFullScale() {
+        val samples = floatArrayOf(0.5f, 0.9f, 1.5f, -3.0f, 10.0f)
+        AudioMixer.limit(samples)
+        assertEquals(0.5f, samples[0])
+        assertEquals(0.9f, samples[1], 1e-6f)
+        assertTrue(samples[2] in 0.9f..1.0f)
+        assertTrue(samples[3] in -1.0f..-0.9f)
+        assertTrue(samples[4] < 1.0f && samples[4] > samples[2])
+    }
+
+    @Test
+    fun testIdleMixerStopsFeedingSink() {
+        val sink = NullAudioSink()
+        val mixer = AudioMixer(sink, 48000, 32)
+        mixer.createStream(48000, 256).isPlaying = true
+
+        var periods = 0
+        while (mixer.mixPeriod()) periods++
+        assertTrue(periods > 0)
+        assertEquals(periods * 32L, sink.framesWritten)
+    }
+
+    @Test
+    fun testWavFileSinkWritesHeadlessOutput() {
+        val file = File.createTempFile("mixer", ".wav")
+        try {
+            val mixer = AudioMixer(WavFileSink(file), 44100, 128)
+            mixer.start()
+            val stream = mixer.createStream(44100, 1024)
+            stream.write(s16Frames(1024, 1000, -1000), ALSAClient.DataType.S16LE, 2)
+            stream.isPlaying = true
+            while (stream.queuedFrames > 0) Thread.sleep(1)
+            mixer.stop()
+
+            val wav = ByteBuffer.wrap(file.readBytes()).order(ByteOrder.LITTLE_ENDIAN)
+            assertEquals(44100, wav.getInt(24))
+            assertEquals(2, wav.getShort(22).toInt())
+            val dataSize = wav.getInt(40)
+            assertEquals(file.length() - 44, dataSize.toLong())
+            assertTrue(dataSize >= 1024 * 4)
+            assertEquals(1000 * 32767 / 32768, wav.getShort(44).toInt())
+        }
+        finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun testRemovedStreamIsReleasedAfterThePeriodInProgress() {
+        val writing = CountDownLatch(1)
+        val proceed = CountDownLatch(1)
+        val sink = object : AudioSink {
+            override fun open(sampleRate: Int, channels: Int, framesPerBuffer: Int) {}
+
+            override fun write(samples: FloatArray, frames: Int) {
+                writing.countDown()
+                proceed.await()
+            }
+
+            override fun close() {}
+        }
+        val mixer = AudioMixer(sink, 48000, 64)
+        val stream = mixer.createStream(48000, 256)
+        stream.write(s16Frames(256, 1000, 1000), ALSAClient.DataType.S16LE, 2)
+        stream.isPlaying = true
+        mixer.start()
+        try {
+            assertTrue(writing.await(5, TimeUnit.SECONDS))
+            val removed = CountDownLatch(1)
+            mixer.removeStream(stream) { removed.countDown() }
+            assertEquals(1L, removed.count)
+            assertEquals(0, stream.read(FloatArray(128), 64))
+
+            proceed.countDown()
+            assertTrue(removed.await(5, TimeUnit.SECONDS))
+        }
+        finally {
+            proceed.countDown()
+            mixer.stop()
+        }
+    }
+
+    @Test
+    fun testRemovedStreamIsReleasedAtOnceWhenStopped() {
+        val mixer = AudioMixer(CaptureSink(), 48000, 64)
+        val stream = mixer.createStream(48000, 256)
+        var removed = false
+        mixer.removeStream(stream) { removed = true }
+        assertTrue(removed)
+        assertEquals(0, mixer.streamStats.size)
+    }
+}
@@ -0,0 +1,105 @@
+package com.winlator.alsaserver
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.sin
+
+class ResamplerTest {
+
+    private fun sineRing(rate: Int, frequency: Double, frames: Int): AudioRingBuffer {
+        val ring = AudioRingBuffer(frames * 2)
+        val samples = FloatArray(frames * 2)
+        for (i in 0 until frames) {
+            val value = (0.5 * sin(2 * PI * frequency * i / rate)).toFloat()
+            samples[i * 2] = value
+            samples[i * 2 + 1] = -value
+        }
+        ring.write(samples, 0, samples.size)
+        return ring
+    }
+
+    private fun maxError(inputRate: Int, outputRate: Int, quality: Resampler.Quality, frequency: Double): Double {
+        val resampler = Resampler(inputRate, outputRate, quality)
+        val ring = sineRing(inputRate, frequency, inputRate / 10)
+        val output = FloatArray(outputRate / 10 * 2)
+        val produced = resampler.process(ring, output, outputRate / 20)
+
+        var error = 0.0
+        for (i in quality.taps until produced) {
+            val expected = 0.5 * sin(2 * PI * frequency * i / outputRate)
+            error = max(error, abs(output[i * 2] - expected))
+            error = max(error, abs(output[i * 2 + 1] + expected))
+        }
+        return error
+    }
+
+    @Test
+    fun testSineMatchesReference() {
+        assertTrue(maxError(44100, 48000, Resampler.Quality.HIGH, 1000.0) < 1e-3)
+        assertTrue(maxError(48000, 44100, Resampler.Quality.HIGH, 1000.0) < 1e-3)
+        assertTrue(maxError(22050, 48000, Resampler.Quality.MEDIUM, 440.0) < 5e-3)
+        assertTrue(maxError(44100, 48000, Resampler.Quality.LOW, 440.0) < 2e-2)
+    }
+
+    @Test
+    fun testHigherQualityIsMoreAccurate() {
+        val low = maxError(44100, 48000, Resampler.Quality.LOW, 5000.0)
+        val high = maxError(44100, 48000, Resampler.Quality.HIGH, 5000.0)
+        assertTrue(high < low)
+    }
+
+    @Test
+    fun testDownsamplingAttenuatesAboveNyquist() {
+        val output = FloatArray(4096 * 2)
+        val resampler = Resampler(96000, 22050, Resampler.Quality.HIGH)
+        val produced = resampler.process(sineRing(96000, 20000.0, 16384), output, 4096)
+
+        var peak = 0.0f
+        for (i in 64 until produced) peak = max(peak, abs(output[i * 2]))
+        assertTrue(peak < 0.05f)
+    }
+
+    @Test
+    fun testOutputCountFollowsRateRatio() {
+        val resampler = Resampler(44100, 48000, Resampler.Quality.MEDIUM)
+        val ring = AudioRingBuffer(8192 * 2)
+        val chunk = FloatArray(441 * 2)
+        val output = FloatArray(1024 * 2)
+        var produced = 0
+        for (i in 0 until 100) {
+            ring.write(chunk, 0, chunk.size)
+            produced += resampler.process(ring, output, 1024)
+        }
+        assertEquals(48000.0, produced.toDouble(), 16.0)
+    }
+
+    @Test
+    fun benchmarkResampling() {
+        val frames = 4096
+        val output = FloatArray(frames * 2)
+        val input = FloatArray(frames * 2) { (it % 200 - 100) / 100.0f }
+        for (quality in Resampler.Quality.values()) {
+            val resampler = Resampler(44100, 48000, quality)
+            val ring = AudioRingBuffer(frames * 4)
+            val iterations = 1000
+
+            var total = 0L
+            var start = 0L
+            for (i in 0 until iterations * 2) {
+                if (i == iterations) {
+                    total = 0
+                    start = System.nanoTime()
+                }
+                if (ring.free() >= input.size) ring.write(input, 0, input.size)
+                total += resampler.process(ring, output, frames)
+            }
+            val millis = (System.nanoTime() - start) / 1e6
+            // Ten times faster than a 48 kHz device consumes frames
+            assertTrue(total / millis > 480)
+        }
+    }
+}
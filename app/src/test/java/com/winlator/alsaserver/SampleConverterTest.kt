@@ -0,0 +1,84 @@
+package com.winlator.alsaserver
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class SampleConverterTest {
+    private val reference = floatArrayOf(0.0f, 0.5f, -0.5f, 0.25f, -1.0f, 0.75f)
+
+    private fun encode(dataType: ALSAClient.DataType, samples: FloatArray): ByteBuffer {
+        val data = ByteBuffer.allocate(samples.size * dataType.byteCount).order(SampleConverter.getByteOrder(dataType))
+        for (sample in samples) {
+            when (dataType) {
+                ALSAClient.DataType.U8 -> data.put((sample * 128 + 128).toInt().coerceIn(0, 255).toByte())
+                ALSAClient.DataType.S16LE, ALSAClient.DataType.S16BE -> data.putShort((sample * 32768).toInt().coerceIn(-32768, 32767).toShort())
+                ALSAClient.DataType.S32LE, ALSAClient.DataType.S32BE -> data.putInt((sample * 2147483648.0).toLong().coerceIn(Int.MIN_VALUE.toLong(), Int.MAX_VALUE.toLong()).toInt())
+                ALSAClient.DataType.FLOATLE, ALSAClient.DataType.FLOATBE -> data.putFloat(sample)
+            }
+        }
+        data.flip()
+        return data
+    }
+
+    @Test
+    fun testAllFormatsDecodeToReference() {
+        val converter = SampleConverter()
+        for (dataType in ALSAClient.DataType.values()) {
+            val data = encode(dataType, reference)
+            val output = FloatArray(reference.size)
+            converter.convert(data, dataType, 2, reference.size / 2, output)
+
+            val tolerance = if (dataType == ALSAClient.DataType.U8) 1.0f / 128 else 1e-4f
+            for (i in reference.indices) assertEquals("$dataType[$i]", reference[i], output[i], tolerance)
+            assertEquals(0, data.remaining())
+        }
+    }
+
+    @Test
+    fun testByteOrderOfBufferIsPreserved() {
+        val data = encode(ALSAClient.DataType.S16BE, reference)
+        data.order(ByteOrder.LITTLE_ENDIAN)
+        SampleConverter().convert(data, ALSAClient.DataType.S16BE, 2, 3, FloatArray(6))
+        assertEquals(ByteOrder.LITTLE_ENDIAN, data.order())
+    }
+
+    @Test
+    fun testChannelMapping() {
+        val converter = SampleConverter()
+        val mono = FloatArray(6)
+        converter.convert(encode(ALSAClient.DataType.FLOATLE, floatArrayOf(0.1f, 0.2f, 0.3f)), ALSAClient.DataType.FLOATLE, 1, 3, mono)
+        assertEquals(listOf(0.1f, 0.1f, 0.2f, 0.2f, 0.3f, 0.3f), mono.toList())
+
+        val surround = FloatArray(4)
+        val samples = floatArrayOf(0.1f, 0.2f, 0.9f, 0.9f, 0.9f, 0.9f, 0.3f, 0.4f, 0.9f, 0.9f, 0.9f, 0.9f)
+        converter.convert(encode(ALSAClient.DataType.FLOATLE, samples), ALSAClient.DataType.FLOATLE, 6, 2, surround)
+        assertEquals(listOf(0.1f, 0.2f, 0.3f, 0.4f), surround.toList())
+    }
+
+    @Test
+    fun benchmarkConversion() {
+        val frames = 4096
+        val converter = SampleConverter()
+        val output = FloatArray(frames * 2)
+        for (dataType in ALSAClient.DataType.values()) {
+            val data = encode(dataType, FloatArray(frames * 2) { (it % 200 - 100) / 100.0f })
+            val iterations = 2000
+            for (i in 0 until iterations) {
+                data.rewind()
+                converter.convert(data, dataType, 2, frames, output)
+            }
+
+            val start = System.nanoTime()
+            for (i in 0 until iterations) {
+                data.rewind()
+                converter.convert(data, dataType, 2, frames, output)
+            }
+            val millis = (System.nanoTime() - start) / 1e6
+            // Ten times faster than a 48 kHz device consumes frames
+            assertTrue(frames * iterations / millis > 480)
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.winlator.alsaserver
+
+import com.winlator.sysvshm.SharedMemoryAtomics
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.lang.invoke.MethodHandles
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.LockSupport
+
+class SharedAudioRingTest {
+
+    /**
+     * Volatile accesses to the buffer words, with a futex-like wait on the heap.
+     */
+    private class HeapAtomics : SharedMemoryAtomics {
+        private val wakeCount = AtomicInteger()
+        @Volatile private var waiter: Thread? = null
+        val wakes: Int get() = wakeCount.get()
+
+        override fun load(buffer: ByteBuffer, offset: Int): Int = INT.getVolatile(buffer, offset) as Int
+
+        override fun store(buffer: ByteBuffer, offset: Int, value: Int) {
+            INT.setVolatile(buffer, offset, value)
+        }
+
+        override fun wake(buffer: ByteBuffer, offset: Int) {
+            wakeCount.incrementAndGet()
+            waiter?.let { LockSupport.unpark(it) }
+        }
+
+        fun await(buffer: ByteBuffer, offset: Int, value: Int) {
+            waiter = Thread.currentThread()
+            if (load(buffer, offset) == value) LockSupport.parkNanos(100000000L)
+            waiter = null
+        }
+
+        companion object {
+            private val INT = MethodHandles.byteBufferViewVarHandle(IntArray::class.java, ByteOrder.LITTLE_ENDIAN)
+        }
+    }
+
+    private fun createBuffer(capacity: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocateDirect(SharedAudioRing.getSize(capacity)).order(ByteOrder.LITTLE_ENDIAN)
+        SharedAudioRing.initialize(buffer, capacity)
+        return buffer
+    }
+
+    @Test
+    fun testCapacity() {
+        assertEquals(8192, SharedAudioRing.getCapacity(8000, 4))
+        assertEquals(4096, SharedAudioRing.getCapacity(4096, 8))
+        assertEquals(0, SharedAudioRing.getCapacity(4096, 6))
+    }
+
+    @Test
+    fun testWriteWrapsAroundAndPeekDoesNot() {
+        val buffer = createBuffer(16)
+        val atomics = HeapAtomics()
+        val producer = SharedAudioRing(buffer, atomics)
+        val consumer = SharedAudioRing(buffer, atomics)
+
+        assertEquals(12, producer.write(ByteBuffer.wrap(ByteArray(12) { it.toByte() })))
+        consumer.advanceRead(consumer.peek(12).remaining())
+        assertEquals(10, producer.write(ByteBuffer.wrap(ByteArray(10) { (20 + it).toByte() })))
+        assertEquals(6, producer.free())
+
+        val first = consumer.peek(16)
+        assertEquals(4, first.remaining())
+        assertEquals(20, first.get(first.position()).toInt())
+        consumer.advanceRead(4)
+        val second = consumer.peek(16)
+        assertEquals(6, second.remaining())
+        assertEquals(24, second.get(second.position()).toInt())
+        assertEquals(0, atomics.wakes)
+    }
+
+    @Test
+    fun testProducerIsWokenOnceEnoughSpaceIsFree() {
+        val buffer = createBuffer(16)
+        val atomics = HeapAtomics()
+        val producer = SharedAudioRing(buffer, atomics)
+        val consumer = SharedAudioRing(buffer, atomics)
+
+        producer.write(ByteBuffer.allocate(16))
+        producer.setProducerWaiting(8)
+        val sequence = producer.spaceSequence
+        consumer.advanceRead(4)
+        assertEquals(0, atomics.wakes)
+        consumer.advanceRead(4)
+        assertEquals(1, atomics.wakes)
+        assertEquals(sequence + 1, producer.spaceSequence)
+        consumer.advanceRead(4)
+        assertEquals(1, atomics.wakes)
+    }
+
+    @Test
+    fun testSyntheticClientWakeupsPerSecond() {
+        val sampleRate = 48000
+        val periodFrames = 256
+        val bufferFrames = 2048
+        val frameBytes = 4
+        val capacity = SharedAudioRing.getCapacity(bufferFrames * frameBytes, frameBytes)
+        val buffer = createBuffer(capacity)
+        val atomics = HeapAtomics()
+        val producer = SharedAudioRing(buffer, atomics)
+
+        val sink = NullAudioSink(true)
+        val mixer = AudioMixer(sink, sampleRate, periodFrames)
+        val stream = mixer.createStream(sampleRate, bufferFrames)
+        stream.setSharedSource(SharedAudioRing(buffer, atomics), ALSAClient.DataType.S16LE, 2)
+        stream.isPlaying = true
+        mixer.start()
+
+        val period = ByteBuffer.allocate(periodFrames * frameBytes).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until periodFrames) period.putShort(1000).putShort(-1000)
+        var kicks = 0
+        val client = Thread {
+            var periods = 0
+            while (periods < sampleRate / periodFrames) {
+                if (producer.free() < period.capacity()) {
+                    val sequence = producer.spaceSequence
+                    producer.setProducerWaiting(capacity / 2)
+                    if (producer.free() < capacity / 2) atomics.await(buffer, SharedAudioRing.SPACE_SEQ, sequence)
+                    producer.setProducerWaiting(0)
+                    continue
+                }
+                val wasEmpty = producer.available() == 0
+                period.rewind()
+                producer.write(period)
+                periods++
+                if (wasEmpty && producer.isConsumerWaiting) {
+                    kicks++
+                    mixer.wakeUp()
+                }
+            }
+        }
+
+        client.start()
+        client.join()
+        mixer.stop()
+
+        val periods = sink.framesWritten / periodFrames
+        assertTrue(stream.consumedFrames >= sink.framesWritten - periodFrames)
+        assertTrue(sink.framesWritten >= sampleRate / 2)
+        assertTrue(atomics.wakes * 2 < periods)
+        assertTrue(kicks <= 2)
+    }
+}
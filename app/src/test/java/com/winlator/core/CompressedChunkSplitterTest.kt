@@ -0,0 +1,153 @@
+package com.winlator.core
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertNotNull
+import junit.framework.TestCase.assertNull
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import org.tukaani.xz.LZMA2Options
+import org.tukaani.xz.XZ
+import org.tukaani.xz.XZInputStream
+import org.tukaani.xz.XZOutputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.random.Random
+
+class CompressedChunkSplitterTest {
+    private fun createData(size: Int): ByteArray {
+        val random = Random(size)
+        return ByteArray(size) { i -> if ((i / 4096) % 2 == 0) random.nextInt(256).toByte() else (i % 7).toByte() }
+    }
+
+    private fun compressXZ(data: ByteArray, blockSize: Int, check: Int = XZ.CHECK_CRC64): ByteArray {
+        val outStream = ByteArrayOutputStream()
+        XZOutputStream(outStream, LZMA2Options(1), check).use {
+            var offset = 0
+            while (offset < data.size) {
+                val count = minOf(blockSize, data.size - offset)
+                it.write(data, offset, count)
+                it.endBlock()
+                offset += count
+            }
+        }
+        return outStream.toByteArray()
+    }
+
+    private fun split(type: TarCompressorUtils.Type, data: ByteArray): Pair<List<ByteArray>, InputStream?> {
+        val splitter = CompressedChunkSplitter.create(type, ByteArrayInputStream(data))
+        val chunks = ArrayList<ByteArray>()
+        while (true) chunks.add(splitter.next() ?: break)
+        return Pair(chunks, splitter.remainder)
+    }
+
+    @Test
+    fun splitsXZBlocksIntoStandaloneStreams() {
+        for (check in intArrayOf(XZ.CHECK_NONE, XZ.CHECK_CRC32, XZ.CHECK_CRC64, XZ.CHECK_SHA256)) {
+            val data = createData(1_000_000)
+            val (chunks, remainder) = split(TarCompressorUtils.Type.XZ, compressXZ(data, 128 * 1024, check))
+
+            assertNull(remainder)
+            assertEquals(8, chunks.size)
+            val decoded = ByteArrayOutputStream()
+            for (chunk in chunks) XZInputStream(ByteArrayInputStream(chunk)).use { it.copyTo(decoded) }
+            assertTrue(data.contentEquals(decoded.toByteArray()))
+        }
+    }
+
+    @Test
+    fun splitsConcatenatedXZStreams() {
+        val first = createData(300_000)
+        val second = createData(200_000)
+        val (chunks, remainder) = split(TarCompressorUtils.Type.XZ, compressXZ(first, 100_000) + ByteArray(8) + compressXZ(second, 100_000))
+
+        assertNull(remainder)
+        assertEquals(5, chunks.size)
+        val decoded = ByteArrayOutputStream()
+        for (chunk in chunks) XZInputStream(ByteArrayInputStream(chunk)).use { it.copyTo(decoded) }
+        assertTrue((first + second).contentEquals(decoded.toByteArray()))
+    }
+
+    @Test
+    fun leavesOversizedXZBlockToRemainder() {
+        val data = createData(CompressedChunkSplitter.MAX_CHUNK_SIZE + 1)
+        val (chunks, remainder) = split(TarCompressorUtils.Type.XZ, compressXZ(data, data.size))
+
+        assertEquals(0, chunks.size)
+        assertNotNull(remainder)
+        assertTrue(data.contentEquals(XZInputStream(remainder!!).readBytes()))
+    }
+
+    @Test
+    fun leavesOversizedLaterXZBlockToRemainder() {
+        val data = createData(200_000 + CompressedChunkSplitter.MAX_CHUNK_SIZE + 1)
+        val outStream = ByteArrayOutputStream()
+        XZOutputStream(outStream, LZMA2Options(1)).use {
+            it.write(data, 0, 100_000)
+            it.endBlock()
+            it.write(data, 100_000, 100_000)
+            it.endBlock()
+            it.write(data, 200_000, data.size - 200_000)
+        }
+        val (chunks, remainder) = split(TarCompressorUtils.Type.XZ, outStream.toByteArray())
+
+        assertEquals(2, chunks.size)
+        assertNotNull(remainder)
+        val decoded = ByteArrayOutputStream()
+        for (chunk in chunks) XZInputStream(ByteArrayInputStream(chunk)).use { it.copyTo(decoded) }
+        XZInputStream(remainder!!).use { it.copyTo(decoded) }
+        assertTrue(data.contentEquals(decoded.toByteArray()))
+    }
+
+    private fun zstdFrame(content: ByteArray, withContentSize: Boolean = true): ByteArray {
+        val frame = ByteBuffer.allocate(content.size + 32).order(ByteOrder.LITTLE_ENDIAN)
+        frame.putInt(0xfd2fb528.toInt())
+        if (withContentSize) {
+            frame.put(0x80.toByte()).put(0x58.toByte()).putInt(content.size)
+        }
+        else frame.put(0x00.toByte()).put(0x58.toByte())
+        val header = 1 or (content.size shl 3)
+        frame.put(header.toByte()).put((header shr 8).toByte()).put((header shr 16).toByte())
+        frame.put(content)
+        return frame.array().copyOf(frame.position())
+    }
+
+    @Test
+    fun splitsZstdFramesAndSkipsSkippableFrames() {
+        val skippable = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).putInt(0x184d2a5a).putInt(4).putInt(0).array()
+        val frames = listOf(zstdFrame(createData(1000)), zstdFrame(createData(0)), zstdFrame(createData(70000)))
+        val (chunks, remainder) = split(TarCompressorUtils.Type.ZSTD, frames[0] + skippable + frames[1] + frames[2])
+
+        assertNull(remainder)
+        assertEquals(3, chunks.size)
+        for (i in frames.indices) assertTrue(frames[i].contentEquals(chunks[i]))
+    }
+
+    @Test
+    fun leavesZstdFramesWithoutContentSizeToRemainder() {
+        val first = zstdFrame(createData(1000))
+        val rest = zstdFrame(createData(2000), false) + zstdFrame(createData(3000))
+        val (chunks, remainder) = split(TarCompressorUtils.Type.ZSTD, first + rest)
+
+        assertEquals(1, chunks.size)
+        assertNotNull(remainder)
+        assertTrue(rest.contentEquals(remainder!!.readBytes()))
+    }
+
+    @Test
+    fun skipsSkippableFramesFromStreamsThatSkipInParts() {
+        val skippable = ByteBuffer.allocate(8 + 5000).order(ByteOrder.LITTLE_ENDIAN).putInt(0x184d2a50).putInt(5000).array()
+        val frame = zstdFrame(createData(1000))
+        val source = object : ByteArrayInputStream(skippable + frame) {
+            private var skips = 0
+
+            override fun skip(n: Long): Long = if (skips++ % 2 == 0) 0 else super.skip(minOf(n, 1000))
+        }
+        val splitter = CompressedChunkSplitter.create(TarCompressorUtils.Type.ZSTD, source)
+
+        assertTrue(frame.contentEquals(splitter.next()))
+        assertNull(splitter.next())
+    }
+}
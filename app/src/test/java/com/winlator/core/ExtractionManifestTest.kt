@@ -0,0 +1,82 @@
+package com.winlator.core
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertNotNull
+import junit.framework.TestCase.assertNull
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class ExtractionManifestTest {
+    private fun createDir(): File {
+        val dir = Files.createTempDirectory("manifest").toFile()
+        dir.deleteOnExit()
+        return dir
+    }
+
+    private fun createManifestFile() = File(createDir(), ".extraction_manifest")
+
+    @Test
+    fun savedRecordIsReadBack() {
+        val dir = createDir()
+        val dll = File(dir, "system32/d3d11.dll").apply { parentFile!!.mkdirs(); writeBytes(ByteArray(100)) }
+        val link = File(dir, "link.dll")
+        Files.createSymbolicLink(link.toPath(), dll.toPath())
+
+        val manifestFile = createManifestFile()
+        val manifest = ExtractionManifest(manifestFile)
+        val archive = manifest.put("dxwrapper/dxvk-2.4.1.tzst:win32", "1:2", "abcd")
+        manifest.record(archive, dll)
+        manifest.record(archive, link)
+        manifest.record(archive, File(dir, "system32"))
+        assertTrue(manifest.save())
+        assertEquals(setOf("system32", "link.dll"), dir.list()!!.toSet())
+
+        val loaded = ExtractionManifest(manifestFile).get("dxwrapper/dxvk-2.4.1.tzst:win32")
+        assertNotNull(loaded)
+        assertEquals("1:2", loaded.sourceKey)
+        assertEquals("abcd", loaded.hash)
+        assertEquals(2, loaded.fileCount)
+        assertTrue(loaded.contains(dll.absolutePath))
+        assertTrue(loaded.contains(link.absolutePath))
+        assertNull(ExtractionManifest(manifestFile).get("dxwrapper/dxvk-2.4.1.tzst:win64"))
+        assertTrue(ExtractionManifest(manifestFile).getModifiedFiles(loaded).isEmpty())
+    }
+
+    @Test
+    fun modifiedAndRemovedFilesAreReported() {
+        val dir = createDir()
+        val manifestFile = createManifestFile()
+        val files = (0 until 3).map { File(dir, "file$it").apply { writeText("content$it") } }
+        val manifest = ExtractionManifest(manifestFile)
+        val archive = manifest.put("archive.tzst", "key", "hash")
+        for (file in files) manifest.record(archive, file)
+        manifest.save()
+
+        files[0].writeText("changed content")
+        files[1].delete()
+        val loaded = ExtractionManifest(manifestFile)
+        assertEquals(setOf(files[0].absolutePath, files[1].absolutePath), loaded.getModifiedFiles(loaded.get("archive.tzst")))
+    }
+
+    @Test
+    fun archivesShareTheManifest() {
+        val dir = createDir()
+        val manifestFile = createManifestFile()
+        val file = File(dir, "file").apply { writeText("content") }
+        val manifest = ExtractionManifest(manifestFile)
+        manifest.record(manifest.put("first.tzst", "key1", "hash1"), file)
+        manifest.record(manifest.put("second.tzst", "key2", "hash2"), file)
+        manifest.save()
+
+        val loaded = ExtractionManifest(manifestFile)
+        assertEquals("hash1", loaded.get("first.tzst").hash)
+        assertEquals("hash2", loaded.get("second.tzst").hash)
+
+        loaded.remove("first.tzst")
+        loaded.save()
+        assertNull(ExtractionManifest(manifestFile).get("first.tzst"))
+        assertNotNull(ExtractionManifest(manifestFile).get("second.tzst"))
+    }
+}
@@ -0,0 +1,154 @@
+package com.winlator.core
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.util.Random
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+class KeyValueSetTest {
+
+    /**
+     * The previous implementation, which scanned the string on every access.
+     */
+    private class ScanReference(var data: String) {
+        private fun segments(): List<IntArray> {
+            val result = mutableListOf<IntArray>()
+            var start = 0
+            var end = data.indexOf(',').let { if (it == -1) data.length else it }
+            while (start < end) {
+                result.add(intArrayOf(start, end))
+                start = end + 1
+                end = data.indexOf(',', start).let { if (it == -1) data.length else it }
+            }
+            return result
+        }
+
+        fun get(key: String, fallback: String): String {
+            for ((start, end) in segments()) {
+                val index = data.indexOf('=', start)
+                if (data.substring(start, index) == key) return data.substring(index + 1, end)
+            }
+            return fallback
+        }
+
+        fun put(key: String, value: String) {
+            for ((start, end) in segments()) {
+                val index = data.indexOf('=', start)
+                if (data.substring(start, index) == key) {
+                    data = data.substring(0, start) + "$key=$value" + data.substring(end)
+                    return
+                }
+            }
+            data = if (data.isEmpty()) "$key=$value" else "$data,$key=$value"
+        }
+
+        fun entries(): String = segments().joinToString(";") { (start, end) ->
+            val index = data.indexOf('=', start)
+            data.substring(start, index) + "|" + data.substring(index + 1, end)
+        }
+    }
+
+    private fun entries(set: KeyValueSet): String = set.joinToString(";") { it[0] + "|" + it[1] }
+
+    /**
+     * Returns false if an item before the first empty one has no '=', the scan had no defined
+     * result for such strings.
+     */
+    private fun isParsable(data: String): Boolean {
+        for (item in data.split(",")) {
+            if (item.isEmpty()) return true
+            if (!item.contains('=')) return false
+        }
+        return true
+    }
+
+    private fun Random.nextString(alphabet: String, maxLength: Int): String {
+        val length = nextInt(maxLength + 1)
+        return (0 until length).map { alphabet[nextInt(alphabet.length)] }.joinToString("")
+    }
+
+    @Test
+    fun testExamples() {
+        val set = KeyValueSet("version=2.4,framerate=0,async=1,async=0")
+        assertEquals("2.4", set.get("version"))
+        assertEquals(1, set.getInt("async"))
+        assertEquals(5, set.getInt("missing", 5))
+        assertEquals("async=1,async=0", KeyValueSet("async=1,async=0").toString())
+
+        set.put("framerate", 60).put("hud", "fps=1")
+        assertEquals("version=2.4,framerate=60,async=1,async=0,hud=fps=1", set.toString())
+        assertEquals("fps=1", set.get("hud"))
+
+        set.put("list", "a,b=c")
+        assertEquals("a", set.get("list"))
+        assertEquals("c", set.get("b"))
+
+        val truncated = KeyValueSet("a=1,,b=2")
+        assertEquals("", truncated.get("b"))
+        truncated.put("c", 3)
+        assertEquals("a=1,,b=2,c=3", truncated.toString())
+        assertEquals("", truncated.get("c"))
+        assertTrue(KeyValueSet(null as String?).isEmpty())
+    }
+
+    @Test
+    fun testMatchesScanningImplementation() {
+        val random = Random(1)
+        val keys = arrayOf("a", "b", "c", "ab", "")
+        var compared = 0
+
+        repeat(20000) {
+            val initial = if (random.nextInt(3) == 0) {
+                random.nextString("ab=,1", 10)
+            } else {
+                (0 until random.nextInt(5)).joinToString(",") { random.nextString("abc", 2) + "=" + random.nextString("1=x", 3) }
+            }
+            if (!isParsable(initial)) return@repeat
+
+            val reference = ScanReference(initial)
+            val set = KeyValueSet(initial)
+            for (step in 0 until 6) {
+                val key = if (random.nextInt(10) == 0) random.nextString("ab=,", 3) else keys[random.nextInt(keys.size)]
+                when (random.nextInt(4)) {
+                    0 -> assertEquals(initial, reference.get(key, "-"), set.get(key, "-"))
+                    1 -> {
+                        val value = if (random.nextInt(5) == 0) random.nextString("1=,", 3) else random.nextString("12", 2)
+                        reference.put(key, value)
+                        set.put(key, value)
+                    }
+                    2 -> assertEquals(initial, reference.entries(), entries(set))
+                    3 -> assertEquals(initial, reference.data.isEmpty(), set.isEmpty())
+                }
+                assertEquals(initial, reference.data, set.toString())
+                if (!isParsable(reference.data)) break
+            }
+            compared++
+        }
+        assertTrue(compared > 10000)
+    }
+
+    @Test
+    fun concurrentReadersOfAnUnparsedSetSeeAllEntries() {
+        val data = (0 until 200).joinToString(",") { "key$it=$it" }
+        val threads = 4
+        val failures = AtomicInteger()
+        repeat(200) {
+            val set = KeyValueSet(data)
+            val start = CountDownLatch(1)
+            val readers = (0 until threads).map { reader ->
+                Thread {
+                    start.await()
+                    for (i in 0 until 200) {
+                        val key = (i + reader * 50) % 200
+                        if (set.getInt("key$key", -1) != key) failures.incrementAndGet()
+                    }
+                }.apply { start() }
+            }
+            start.countDown()
+            readers.forEach { it.join() }
+        }
+        assertEquals(0, failures.get())
+    }
+}
@@ -0,0 +1,101 @@
+package com.winlator.core
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertNull
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class WineRegistryEditorTest {
+    private val content = "WINE REGISTRY Version 2\n" +
+            ";; All keys relative to \\\\User\\\\S-1-5-21-0-0-0-1000\n" +
+            "\n" +
+            "#arch=win64\n" +
+            "\n" +
+            "[Control Panel\\\\Desktop] 1700000000\n" +
+            "#time=1da0000000000000\n" +
+            "\"Wallpaper\"=\"C:\\\\windows\\\\wallpaper.bmp\"\n" +
+            "\"FontSmoothing\"=\"2\"\n" +
+            "\"UserPreferencesMask\"=hex:10,00,02,80,10,00,00,00,00,00,00,00,00,00,00,00,00,00,\\\n" +
+            "  00,00,00,00\n" +
+            "\n" +
+            "[Software\\\\Wine\\\\DllOverrides] 1700000001\n" +
+            "#time=1da0000000000001\n" +
+            "\"d3d11\"=\"native,builtin\"\n" +
+            "@=\"default\"\n" +
+            "\n" +
+            "[Software\\\\Wine\\\\DllOverrides\\\\Sub] 1700000002\n" +
+            "#time=1da0000000000002\n" +
+            "\"Value\"=dword:00000001\n"
+
+    private fun createFile(content: String): File {
+        val dir = Files.createTempDirectory("registry").toFile()
+        dir.deleteOnExit()
+        val file = File(dir, "user.reg")
+        file.writeText(content)
+        return file
+    }
+
+    @Test
+    fun testFileWithoutEditsIsByteIdentical() {
+        for (text in listOf(content, content.trimEnd('\n'), "")) {
+            val file = createFile(text)
+            val editor = WineRegistryEditor(file)
+            assertEquals(text, editor.content)
+            if (text.isNotEmpty()) editor.setStringValue("Control Panel\\Desktop", "FontSmoothing", "2")
+            editor.close()
+            assertEquals(text, file.readText())
+            assertEquals(1, file.parentFile.listFiles()!!.size)
+        }
+    }
+
+    @Test
+    fun testReadValues() {
+        val editor = WineRegistryEditor(createFile(content))
+        assertEquals("C:\\windows\\wallpaper.bmp", editor.getStringValue("Control Panel\\Desktop", "Wallpaper"))
+        assertEquals("default", editor.getStringValue("software\\wine\\dlloverrides", null))
+        assertEquals(1, editor.getDwordValue("Software\\Wine\\DllOverrides\\Sub", "Value"))
+        assertNull(editor.getStringValue("Software\\Wine\\Missing", "Value"))
+        editor.close()
+    }
+
+    @Test
+    fun testEditsAreWrittenOnceOnClose() {
+        val file = createFile(content)
+        WineRegistryEditor(file).use { editor ->
+            editor.setStringValue("Software\\Wine\\DllOverrides", "d3d11", "builtin")
+            editor.setStringValue("Software\\Wine\\DllOverrides", "dxgi", "native")
+            editor.setHexValue("Control Panel\\Desktop", "UserPreferencesMask", byteArrayOf(1, 2))
+            editor.removeValue("Control Panel\\Desktop", "Wallpaper")
+            editor.setDwordValue("Software\\Wine\\DllOverrides\\New", "Value", 2)
+            assertEquals(content, file.readText())
+        }
+
+        val text = file.readText()
+        assertTrue(text.contains("\"FontSmoothing\"=\"2\"\n\"UserPreferencesMask\"=hex:01,02\n\n[Software"))
+        assertTrue(text.contains("\"d3d11\"=\"builtin\"\n@=\"default\"\n\"dxgi\"=\"native\"\n\n[Software\\\\Wine\\\\DllOverrides\\\\Sub]"))
+        assertTrue(text.contains("\"Value\"=dword:00000001\n\n[Software\\\\Wine\\\\DllOverrides\\\\New] "))
+        assertTrue(text.endsWith("\"Value\"=dword:00000002\n"))
+        assertFalse(text.contains("Wallpaper"))
+
+        val editor = WineRegistryEditor(file)
+        assertEquals("native", editor.getStringValue("Software\\Wine\\DllOverrides", "dxgi"))
+        assertEquals(2, editor.getDwordValue("Software\\Wine\\DllOverrides\\New", "Value"))
+        editor.close()
+    }
+
+    @Test
+    fun testRemoveKey() {
+        val file = createFile(content)
+        WineRegistryEditor(file).use { editor ->
+            assertTrue(editor.removeKey("Software\\Wine\\DllOverrides", true))
+            assertFalse(editor.removeKey("Software\\Wine\\DllOverrides\\Sub"))
+            editor.setCreateKeyIfNotExist(false)
+            editor.setStringValue("Software\\Wine\\DllOverrides", "d3d11", "native")
+        }
+        assertTrue(file.readText().endsWith("  00,00,00,00\n"))
+        assertFalse(file.readText().contains("DllOverrides"))
+    }
+}
@@ -0,0 +1,136 @@
+package com.winlator.steampipeserver
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.SocketChannel
+
+class SteamPipeServerTest {
+    private lateinit var server: SteamPipeServer
+
+    @Before
+    fun setUp() {
+        server = SteamPipeServer(0)
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.stop()
+    }
+
+    private fun connect(): SocketChannel {
+        val channel = SocketChannel.open(InetSocketAddress("127.0.0.1", server.port))
+        channel.socket().tcpNoDelay = true
+        return channel
+    }
+
+    private fun SocketChannel.send(vararg values: Int) {
+        val buffer = ByteBuffer.allocate(values.size * 4).order(ByteOrder.LITTLE_ENDIAN)
+        for (value in values) buffer.putInt(value)
+        buffer.flip()
+        while (buffer.hasRemaining()) write(buffer)
+    }
+
+    private fun SocketChannel.receive(size: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+        while (buffer.hasRemaining()) {
+            if (read(buffer) == -1) throw IllegalStateException("Connection closed")
+        }
+        buffer.flip()
+        return buffer
+    }
+
+    private fun waitForClients(count: Int) {
+        val deadline = System.currentTimeMillis() + 2000
+        while (server.clientCount != count && System.currentTimeMillis() < deadline) Thread.sleep(5)
+        assertEquals(count, server.clientCount)
+    }
+
+    @Test
+    fun testRepliesAndShutdown() {
+        connect().use { channel ->
+            channel.send(RequestCodes.MSG_INIT)
+            assertEquals(1, channel.receive(4).int)
+            channel.send(RequestCodes.MSG_RESTART_APP, 480, RequestCodes.MSG_IS_RUNNING)
+            assertEquals(0, channel.receive(4).int)
+            assertEquals(1, channel.receive(4).int)
+            channel.send(RequestCodes.MSG_SHUTDOWN)
+            assertEquals(-1, channel.read(ByteBuffer.allocate(4)))
+        }
+        waitForClients(0)
+    }
+
+    @Test
+    fun testMessagesSplitAcrossWrites() {
+        connect().use { channel ->
+            val buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+            buffer.putInt(RequestCodes.MSG_RESTART_APP).putInt(480).putInt(RequestCodes.MSG_INIT)
+            for (i in 0 until buffer.capacity()) {
+                channel.write(ByteBuffer.wrap(buffer.array(), i, 1))
+                Thread.sleep(1)
+            }
+            assertEquals(0, channel.receive(4).int)
+            assertEquals(1, channel.receive(4).int)
+        }
+    }
+
+    @Test
+    fun testCallbacksAreQueuedForRegisteredClients() {
+        connect().use { registered ->
+            connect().use { other ->
+                registered.send(RequestCodes.MSG_REGISTER_CALLBACK, RequestCodes.MSG_INIT)
+                other.send(RequestCodes.MSG_INIT)
+                registered.receive(4)
+                other.receive(4)
+
+                server.postCallback(101, byteArrayOf(1, 2, 3))
+                server.postCallback(102, byteArrayOf())
+                registered.send(RequestCodes.MSG_GET_CALLBACKS)
+                val reply = registered.receive(4 + 11 + 8)
+                assertEquals(2, reply.int)
+                assertEquals(101, reply.int)
+                assertEquals(3, reply.int)
+                assertEquals(3, reply.get(reply.position() + 2).toInt())
+                reply.position(reply.position() + 3)
+                assertEquals(102, reply.int)
+                assertEquals(0, reply.int)
+
+                other.send(RequestCodes.MSG_GET_CALLBACKS)
+                assertEquals(0, other.receive(4).int)
+            }
+        }
+    }
+
+    @Test
+    fun testRoundTripLatencyAndIdleCpu() {
+        val messageCount = 10000
+        connect().use { channel ->
+            channel.send(RequestCodes.MSG_INIT)
+            channel.receive(4)
+
+            val latencies = LongArray(messageCount)
+            for (i in 0 until messageCount) {
+                val startTime = System.nanoTime()
+                channel.send(RequestCodes.MSG_IS_RUNNING)
+                assertEquals(1, channel.receive(4).int)
+                latencies[i] = System.nanoTime() - startTime
+            }
+            latencies.sort()
+            assertTrue(latencies[messageCount / 2] < 1000000L)
+
+            val serverThread = Thread.getAllStackTraces().keys.first { it.name == "SteamPipeServer" }
+            val threadMXBean = ManagementFactory.getThreadMXBean()
+            val cpuTime = threadMXBean.getThreadCpuTime(serverThread.id)
+            Thread.sleep(500)
+            val idleCpuTime = threadMXBean.getThreadCpuTime(serverThread.id) - cpuTime
+            assertTrue(idleCpuTime < 5000000L)
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.winlator.sysvshm
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertNotSame
+import junit.framework.TestCase.assertNull
+import org.junit.After
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+class SHMMappingCacheTest {
+    private val files = ArrayList<Path>()
+
+    /**
+     * Stands in for memfds with temporary files: descriptors are plain numbers pointing to a file,
+     * so several of them can refer to the same file like descriptors received for one buffer.
+     */
+    private inner class FileMapper : SHMMappingCache.Mapper {
+        val descriptors = HashMap<Int, Path>()
+        var mapCount = 0
+        var unmapCount = 0
+
+        fun open(path: Path): Int {
+            val fd = descriptors.size + 100
+            descriptors[fd] = path
+            return fd
+        }
+
+        override fun getFileIdentity(fd: Int, identity: LongArray): Boolean {
+            val path = descriptors[fd] ?: return false
+            identity[0] = (Files.getAttribute(path, "unix:dev") as Number).toLong()
+            identity[1] = (Files.getAttribute(path, "unix:ino") as Number).toLong()
+            return true
+        }
+
+        override fun map(fd: Int, size: Long, offset: Int, readonly: Boolean): ByteBuffer? {
+            val path = descriptors[fd] ?: return null
+            mapCount++
+            FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset.toLong(), size)
+            }
+        }
+
+        override fun unmap(data: ByteBuffer, size: Long) {
+            unmapCount++
+        }
+    }
+
+    private fun createFile(size: Int): Path {
+        val path = Files.createTempFile("shm", null)
+        Files.write(path, ByteArray(size) { it.toByte() })
+        files.add(path)
+        return path
+    }
+
+    @After
+    fun deleteFiles() {
+        for (path in files) Files.deleteIfExists(path)
+    }
+
+    @Test
+    fun testSameFileReusesMapping() {
+        val mapper = FileMapper()
+        val cache = SHMMappingCache(mapper)
+        val file = createFile(8192)
+
+        val first = cache.acquire(mapper.open(file), 8192, 0, true)
+        val second = cache.acquire(mapper.open(file), 8192, 0, true)
+
+        assertEquals(1, mapper.mapCount)
+        assertEquals(1L, cache.misses)
+        assertEquals(1L, cache.hits)
+        assertEquals(1, cache.mappingCount)
+        assertEquals(8192L, cache.liveBytes)
+        assertNotSame(first, second)
+        assertEquals(first.get(5), second.get(5))
+    }
+
+    @Test
+    fun testMappingFreedWithLastView() {
+        val mapper = FileMapper()
+        val cache = SHMMappingCache(mapper)
+        val file = createFile(4096)
+
+        val first = cache.acquire(mapper.open(file), 4096, 0, true)
+        val second = cache.acquire(mapper.open(file), 4096, 0, true)
+
+        cache.release(first)
+        assertEquals(0, mapper.unmapCount)
+        assertEquals(1, cache.mappingCount)
+
+        cache.release(second)
+        assertEquals(1, mapper.unmapCount)
+        assertEquals(0, cache.mappingCount)
+        assertEquals(0L, cache.liveBytes)
+
+        cache.release(second)
+        assertEquals(1, mapper.unmapCount)
+
+        cache.acquire(mapper.open(file), 4096, 0, true)
+        assertEquals(2, mapper.mapCount)
+    }
+
+    @Test
+    fun testDifferentFilesAndRangesAreSeparate() {
+        val mapper = FileMapper()
+        val cache = SHMMappingCache(mapper)
+        val file1 = createFile(8192)
+        val file2 = createFile(8192)
+
+        cache.acquire(mapper.open(file1), 8192, 0, true)
+        cache.acquire(mapper.open(file2), 8192, 0, true)
+        cache.acquire(mapper.open(file1), 4096, 4096, true)
+
+        assertEquals(3, mapper.mapCount)
+        assertEquals(3, cache.mappingCount)
+        assertEquals(8192L * 2 + 4096, cache.liveBytes)
+    }
+
+    @Test
+    fun testUnknownDescriptorIsNotMapped() {
+        val mapper = FileMapper()
+        val cache = SHMMappingCache(mapper)
+        assertNull(cache.acquire(-1, 4096, 0, true))
+        assertEquals(0, cache.viewCount)
+    }
+
+    @Test
+    fun testSegmentsAreKeyedByShmid() {
+        val mapper = FileMapper()
+        val cache = SHMMappingCache(mapper)
+        val file = createFile(4096)
+
+        val first = cache.acquireSegment(1, mapper.open(file), 4096, true)
+        val second = cache.acquireSegment(2, mapper.open(file), 4096, true)
+        val third = cache.acquireSegment(1, mapper.open(file), 4096, true)
+        cache.acquire(mapper.open(file), 4096, 0, true)
+
+        assertEquals(3, mapper.mapCount)
+        assertEquals(1L, cache.hits)
+        assertEquals(3, cache.mappingCount)
+        assertNotSame(first, third)
+
+        cache.release(first)
+        cache.release(third)
+        cache.release(second)
+        assertEquals(2, mapper.unmapCount)
+        assertEquals(1, cache.mappingCount)
+    }
+}
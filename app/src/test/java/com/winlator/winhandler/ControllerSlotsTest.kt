@@ -0,0 +1,47 @@
+package com.winlator.winhandler
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+
+class ControllerSlotsTest {
+
+    @Test
+    fun testControllersGetSlotsInConnectionOrder() {
+        val slots = ControllerSlots()
+        slots.update(listOf("a", "b"))
+        assertEquals(0, slots.getSlot("a"))
+        assertEquals(1, slots.getSlot("b"))
+        assertEquals(2, slots.assign("c"))
+        assertEquals(3, slots.assign("d"))
+        assertEquals(-1, slots.assign("e"))
+        assertEquals(2, slots.assign("c"))
+    }
+
+    @Test
+    fun testReconnectedControllerKeepsItsSlot() {
+        val slots = ControllerSlots()
+        slots.update(listOf("a", "b"))
+        slots.update(listOf("b"))
+        assertFalse(slots.isConnected(0))
+        assertEquals("a", slots.getDescriptor(0))
+
+        slots.update(listOf("b", "c"))
+        assertEquals(2, slots.getSlot("c"))
+        slots.update(listOf("a", "b", "c"))
+        assertEquals(0, slots.getSlot("a"))
+        assertTrue(slots.isConnected(0))
+    }
+
+    @Test
+    fun testDisconnectedSlotIsReusedWhenAllAreTaken() {
+        val slots = ControllerSlots()
+        slots.update(listOf("a", "b", "c", "d"))
+        slots.update(listOf("a", "c", "d"))
+        assertEquals(1, slots.assign("e"))
+        assertEquals(-1, slots.getSlot("b"))
+        slots.update(listOf("a", "b", "c", "d", "e"))
+        assertEquals(-1, slots.getSlot("b"))
+    }
+}
@@ -0,0 +1,107 @@
+package com.winlator.winhandler
+
+import com.winlator.inputcontrols.GamepadState
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class GamepadMailboxTest {
+    private val pollInterval = 4000000L
+
+    private fun packet() = ByteBuffer.allocate(GamepadMailbox.PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+
+    @Test
+    fun testAnalogUpdatesAreCoalesced() {
+        val mailbox = GamepadMailbox()
+        val state = GamepadState()
+        assertTrue(mailbox.post(true, 7, state, 0))
+        assertTrue(mailbox.poll(packet(), 0, pollInterval))
+
+        for (i in 1..100) {
+            state.thumbLX = i / 100.0f
+            mailbox.post(true, 7, state, i * 10L)
+        }
+        assertFalse(mailbox.poll(packet(), 1000, pollInterval))
+        assertEquals(pollInterval - 1000, mailbox.getDelay(1000, pollInterval))
+
+        val buffer = packet()
+        assertTrue(mailbox.poll(buffer, pollInterval, pollInterval))
+        assertEquals(1, buffer.get(0).toInt())
+        assertEquals(7, buffer.getInt(1))
+        assertEquals(Short.MAX_VALUE, buffer.getShort(8))
+        assertFalse(mailbox.poll(packet(), pollInterval * 2, pollInterval))
+        assertEquals(Long.MAX_VALUE, mailbox.getDelay(pollInterval * 2, pollInterval))
+        assertEquals(2L, mailbox.sendCount)
+        assertEquals(101L, mailbox.postCount)
+    }
+
+    @Test
+    fun testButtonEdgesAreQueuedAndDueImmediately() {
+        val mailbox = GamepadMailbox()
+        val state = GamepadState()
+        mailbox.post(true, 1, state, 0)
+        mailbox.poll(packet(), 0, pollInterval)
+
+        state.setPressed(0, true)
+        assertTrue(mailbox.post(true, 1, state, 100))
+        state.setPressed(0, false)
+        assertTrue(mailbox.post(true, 1, state, 200))
+        assertEquals(0L, mailbox.getDelay(300, pollInterval))
+
+        val pressed = packet()
+        val released = packet()
+        assertTrue(mailbox.poll(pressed, 300, pollInterval))
+        assertTrue(mailbox.poll(released, 300, pollInterval))
+        assertFalse(mailbox.poll(packet(), 300, pollInterval))
+        assertEquals(1, pressed.getShort(5).toInt())
+        assertEquals(0, released.getShort(5).toInt())
+        assertEquals(200L, mailbox.maxLatency)
+    }
+
+    @Test
+    fun testPacketsPerSecond() {
+        val mailbox = GamepadMailbox()
+        val state = GamepadState()
+        val inputRate = 1000
+        val buffer = packet()
+        var nextPollTime = 0L
+
+        for (i in 0 until inputRate) {
+            val time = i * 1000000000L / inputRate
+            state.thumbRX = (i % 100) / 100.0f
+            if (i % 250 == 0) state.setPressed(1, !state.isPressed(1))
+            if (mailbox.post(true, 1, state, time) || time >= nextPollTime) {
+                while (mailbox.poll(buffer, time, pollInterval)) buffer.clear()
+                nextPollTime = time + mailbox.getDelay(time, pollInterval).coerceAtMost(pollInterval)
+            }
+        }
+
+        assertEquals(inputRate.toLong(), mailbox.postCount)
+        assertTrue(mailbox.sendCount <= 1000000000L / pollInterval + 4)
+        assertTrue(mailbox.maxLatency <= pollInterval)
+    }
+
+    @Test
+    fun testPacketHoldsExactlyTheStateFields() {
+        val state = GamepadState()
+        val stateBuffer = ByteBuffer.allocate(64)
+        state.writeTo(stateBuffer)
+        assertEquals(GamepadState.SIZE, stateBuffer.position())
+
+        val mailbox = GamepadMailbox()
+        state.triggerR = 1.0f
+        mailbox.post(true, 3, state, 0)
+        val buffer = ByteBuffer.allocate(GamepadMailbox.PACKET_SIZE + 1).order(ByteOrder.LITTLE_ENDIAN)
+        assertTrue(mailbox.poll(buffer, 0, pollInterval))
+        assertEquals(GamepadMailbox.PACKET_SIZE, buffer.position())
+        assertEquals(-1, buffer.get(GamepadMailbox.PACKET_SIZE - 1).toInt())
+
+        mailbox.post(false, 0, null, 1)
+        val disabled = ByteBuffer.allocate(GamepadMailbox.PACKET_SIZE)
+        assertTrue(mailbox.poll(disabled, 1, pollInterval))
+        assertTrue(disabled.array().all { it == 0.toByte() })
+    }
+}
@@ -0,0 +1,110 @@
+package com.winlator.winhandler
+
+import com.winlator.inputcontrols.GamepadState
+import com.winlator.sysvshm.SharedMemoryAtomics
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.lang.invoke.MethodHandles
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.atomic.AtomicBoolean
+
+class GamepadStateBlockTest {
+
+    /**
+     * Volatile accesses to the buffer words, as the native atomics of a shared mapping.
+     */
+    private class HeapAtomics : SharedMemoryAtomics {
+        override fun load(buffer: ByteBuffer, offset: Int): Int = INT.getVolatile(buffer, offset) as Int
+
+        override fun store(buffer: ByteBuffer, offset: Int, value: Int) {
+            INT.setVolatile(buffer, offset, value)
+        }
+
+        override fun wake(buffer: ByteBuffer, offset: Int) {}
+
+        companion object {
+            private val INT = MethodHandles.byteBufferViewVarHandle(IntArray::class.java, ByteOrder.LITTLE_ENDIAN)
+        }
+    }
+
+    private fun createBuffer() = ByteBuffer.allocateDirect(GamepadStateBlock.SIZE).order(ByteOrder.LITTLE_ENDIAN)
+
+    @Test
+    fun testStateRoundTrip() {
+        val buffer = createBuffer()
+        val atomics = HeapAtomics()
+        val block = GamepadStateBlock(buffer, atomics)
+        val reader = GamepadStateReader(buffer, atomics)
+
+        val state = GamepadState()
+        state.thumbLX = 0.5f
+        state.thumbRY = -1.0f
+        state.triggerR = 1.0f
+        state.dpad[1] = true
+        state.dpad[2] = true
+        state.setPressed(3, true)
+        block.write(true, 42, state)
+
+        val result = GamepadState()
+        assertEquals(2, reader.read(result))
+        assertTrue(reader.isEnabled)
+        assertEquals(42, reader.gamepadId)
+        assertEquals(0.5f, result.thumbLX, 1e-4f)
+        assertEquals(-1.0f, result.thumbRY, 1e-4f)
+        assertEquals(1.0f, result.triggerR)
+        assertEquals(3, result.povHat.toInt())
+        assertTrue(result.isPressed(3))
+
+        block.write(false, 0, null)
+        assertEquals(4, reader.read(result))
+        assertFalse(reader.isEnabled)
+        assertEquals(0, result.buttons.toInt())
+    }
+
+    @Test
+    fun testNoTornReadsUnderConcurrentWrites() {
+        val buffer = createBuffer()
+        val atomics = HeapAtomics()
+        val block = GamepadStateBlock(buffer, atomics)
+        val running = AtomicBoolean(true)
+
+        val writer = Thread {
+            val state = GamepadState()
+            var i = 0
+            while (running.get()) {
+                val value = i++ and 0x3ff
+                state.buttons = value.toShort()
+                state.thumbLX = value / 1023.0f
+                state.thumbLY = -value / 1023.0f
+                state.thumbRX = value / 1023.0f
+                state.thumbRY = -value / 1023.0f
+                state.triggerL = (value and 0xff) / 255.0f
+                state.triggerR = (value and 0xff) / 255.0f
+                block.write(true, value, state)
+            }
+        }
+
+        val reader = GamepadStateReader(buffer, atomics)
+        val state = GamepadState()
+        var reads = 0
+        var tornReads = 0
+        writer.start()
+        val endTime = System.nanoTime() + 300000000L
+        while (System.nanoTime() < endTime) {
+            reader.read(state)
+            val value = state.buttons.toInt()
+            if (reader.gamepadId != value || Math.round(state.thumbLX * 1023) != value || Math.round(-state.thumbLY * 1023) != value ||
+                Math.round(state.thumbRX * 1023) != value || Math.round(-state.thumbRY * 1023) != value ||
+                Math.round(state.triggerL * 255) != (value and 0xff) || state.triggerL != state.triggerR) tornReads++
+            reads++
+        }
+        running.set(false)
+        writer.join()
+
+        assertTrue(reads > 0)
+        assertEquals(0, tornReads)
+    }
+}
@@ -0,0 +1,110 @@
+package com.winlator.xserver
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+
+class DamageRegionTest {
+
+    @Test
+    fun testSmallDamageStaysPartial() {
+        val damage = DamageRegion(800, 600)
+        assertTrue(damage.isEmpty)
+
+        damage.add(10, 10, 16, 16)
+        assertFalse(damage.isFull)
+        assertEquals(1, damage.rectCount)
+        assertEquals(16 * 16, damage.area)
+
+        damage.clear()
+        assertTrue(damage.isEmpty)
+    }
+
+    @Test
+    fun testDamageIsClippedToBounds() {
+        val damage = DamageRegion(100, 100)
+        damage.add(-10, 90, 30, 30)
+        assertEquals(0, damage.getX(0))
+        assertEquals(90, damage.getY(0))
+        assertEquals(20, damage.getWidth(0))
+        assertEquals(10, damage.getHeight(0))
+
+        damage.add(200, 200, 10, 10)
+        assertEquals(1, damage.rectCount)
+    }
+
+    @Test
+    fun testOverlappingAndContainedRectsMerge() {
+        val damage = DamageRegion(800, 600)
+        damage.add(100, 100, 50, 50)
+        damage.add(110, 110, 10, 10)
+        assertEquals(1, damage.rectCount)
+
+        damage.add(140, 100, 50, 50)
+        assertEquals(1, damage.rectCount)
+        assertEquals(100, damage.getX(0))
+        assertEquals(90, damage.getWidth(0))
+    }
+
+    @Test
+    fun testDistantRectsAreKeptApartUpToLimit() {
+        val damage = DamageRegion(1920, 1080)
+        damage.add(0, 0, 16, 16)
+        damage.add(1900, 1060, 16, 16)
+        assertEquals(2, damage.rectCount)
+        assertEquals(2 * 16 * 16, damage.area)
+
+        for (i in 0 until 20) damage.add(i * 90, (i % 4) * 250, 8, 8)
+        assertTrue(damage.rectCount <= DamageRegion.MAX_RECTS)
+        assertFalse(damage.isFull)
+    }
+
+    @Test
+    fun testLargeDamageCollapsesToFull() {
+        val damage = DamageRegion(100, 100)
+        damage.add(0, 0, 100, 80)
+        assertTrue(damage.isFull)
+        assertEquals(1, damage.rectCount)
+        assertEquals(100 * 100, damage.area)
+    }
+
+    @Test
+    fun testTakeCopiesAndClearsAtomically() {
+        val damage = DamageRegion(800, 600)
+        val rects = IntArray(DamageRegion.MAX_RECTS * 4)
+        damage.add(10, 20, 30, 40)
+        assertEquals(1, damage.take(rects))
+        assertEquals(10, rects[0])
+        assertEquals(20, rects[1])
+        assertEquals(30, rects[2])
+        assertEquals(40, rects[3])
+        assertTrue(damage.isEmpty)
+
+        damage.add(500, 500, 10, 10)
+        assertFalse(damage.isEmpty)
+        assertEquals(1, damage.take(rects))
+
+        damage.addAll()
+        assertEquals(0, damage.take(rects))
+        assertTrue(damage.isEmpty)
+    }
+
+    @Test
+    fun testDamageAddedConcurrentlyIsNeverLost() {
+        val damage = DamageRegion(1000, 1000)
+        val rects = IntArray(DamageRegion.MAX_RECTS * 4)
+        val covered = BooleanArray(1000)
+        val writer = Thread {
+            for (x in 0 until 1000) damage.add(x, 0, 1, 1)
+        }
+        writer.start()
+        while (writer.isAlive || !damage.isEmpty) {
+            val count = damage.take(rects)
+            for (i in 0 until count) {
+                for (x in rects[i * 4] until rects[i * 4] + rects[i * 4 + 2]) covered[x] = true
+            }
+        }
+        assertTrue(covered.all { it })
+    }
+}
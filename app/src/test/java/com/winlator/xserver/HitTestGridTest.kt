@@ -0,0 +1,84 @@
+package com.winlator.xserver
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class HitTestGridTest {
+    private val screenWidth = 1920
+    private val screenHeight = 1080
+
+    private class Tree(val grid: HitTestGrid, val rects: Array<IntArray>)
+
+    private fun createTree(windowCount: Int, seed: Long): Tree {
+        val random = Random(seed)
+        val grid = HitTestGrid()
+        grid.clear(screenWidth, screenHeight)
+        val rects = Array(windowCount) {
+            val width = 16 + random.nextInt(400)
+            val height = 16 + random.nextInt(300)
+            intArrayOf(random.nextInt(screenWidth + 100) - 50, random.nextInt(screenHeight + 100) - 50, width, height)
+        }
+        for (rect in rects) grid.add(rect[0], rect[1], rect[2], rect[3])
+        return Tree(grid, rects)
+    }
+
+    private fun linearFind(rects: Array<IntArray>, x: Int, y: Int): Int {
+        for (i in rects.indices) {
+            val rect = rects[i]
+            if (x >= rect[0] && y >= rect[1] && x < rect[0] + rect[2] && y < rect[1] + rect[3]) return i
+        }
+        return -1
+    }
+
+    @Test
+    fun testMatchesLinearScan() {
+        for (windowCount in intArrayOf(10, 100, 1000)) {
+            val tree = createTree(windowCount, windowCount.toLong())
+            val random = Random(42)
+            for (i in 0 until 20000) {
+                val x = random.nextInt(screenWidth + 200) - 100
+                val y = random.nextInt(screenHeight + 200) - 100
+                assertEquals(linearFind(tree.rects, x, y), tree.grid.find(x, y))
+            }
+        }
+    }
+
+    @Test
+    fun testTopmostWins() {
+        val grid = HitTestGrid()
+        grid.clear(100, 100)
+        grid.add(10, 10, 20, 20)
+        grid.add(0, 0, 100, 100)
+        assertEquals(0, grid.find(15, 15))
+        assertEquals(1, grid.find(50, 50))
+        assertEquals(-1, grid.find(150, 50))
+    }
+
+    @Test
+    fun benchmarkLookups() {
+        val lookups = 200000
+        for (windowCount in intArrayOf(10, 100, 1000)) {
+            val tree = createTree(windowCount, 7)
+            val random = Random(1)
+            val xs = IntArray(lookups) { random.nextInt(screenWidth) }
+            val ys = IntArray(lookups) { random.nextInt(screenHeight) }
+
+            for (i in 0 until lookups) assertEquals(linearFind(tree.rects, xs[i], ys[i]), tree.grid.find(xs[i], ys[i]))
+
+            var gridChecksum = 0
+            var start = System.nanoTime()
+            for (i in 0 until lookups) gridChecksum += tree.grid.find(xs[i], ys[i])
+            val gridTime = System.nanoTime() - start
+
+            var linearChecksum = 0
+            start = System.nanoTime()
+            for (i in 0 until lookups) linearChecksum += linearFind(tree.rects, xs[i], ys[i])
+            val linearTime = System.nanoTime() - start
+
+            assertEquals(linearChecksum, gridChecksum)
+            if (windowCount == 1000) assertTrue(gridTime < linearTime)
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.winlator.xserver.events
+
+import com.winlator.xconnector.XOutputStream
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class MotionNotifyCoalescingTest {
+    private val moveCount = 10000
+
+    private inline fun injectMoves(outputStream: XOutputStream, event: MotionNotify, windowFor: (Int) -> Int, stateFor: (Int) -> Int) {
+        for (i in 0 until moveCount) {
+            val x = (i % 1920).toShort()
+            val y = (i % 1080).toShort()
+            event.set(1, windowFor(i), 0, x, y, x, y, stateFor(i))
+            event.send(i.toShort(), outputStream)
+        }
+    }
+
+    @Test
+    fun testMovesToSameWindowAreMerged() {
+        val outputStream = XOutputStream(256)
+        val event = MotionNotify()
+        injectMoves(outputStream, event, { 2 }, { 0 })
+
+        assertEquals(32, outputStream.bufferedLength)
+        assertEquals(moveCount.toLong(), outputStream.messageCount)
+        val last = moveCount - 1
+        assertEquals(last.toShort(), outputStream.getShort(2))
+        assertEquals((last % 1920).toShort(), outputStream.getShort(20))
+        assertEquals((last % 1080).toShort(), outputStream.getShort(22))
+    }
+
+    @Test
+    fun testStateChangesAndOtherWindowsAreNotMerged() {
+        val sameWindowStream = XOutputStream(256)
+        injectMoves(sameWindowStream, MotionNotify(), { 2 }, { i -> if (i / 100 % 2 == 0) 0 else 1 shl 8 })
+        assertEquals(32 * (moveCount / 100), sameWindowStream.bufferedLength)
+
+        val alternatingStream = XOutputStream(256)
+        injectMoves(alternatingStream, MotionNotify(), { i -> 2 + i % 2 }, { 0 })
+        assertEquals(32 * moveCount, alternatingStream.bufferedLength)
+    }
+
+    @Test
+    fun testMovesDoNotAllocate() {
+        val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val outputStream = XOutputStream(256)
+        val event = MotionNotify()
+        injectMoves(outputStream, event, { 2 }, { 0 })
+
+        val threadId = Thread.currentThread().id
+        val allocatedBefore = threadBean.getThreadAllocatedBytes(threadId)
+        injectMoves(outputStream, event, { 2 }, { 0 })
+        val allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore
+
+        assertEquals(32, outputStream.bufferedLength)
+        assertTrue(allocated < 64 * 1024)
+    }
+}
@@ -0,0 +1,78 @@
+package com.winlator.xserver.extensions
+
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertFalse
+import junit.framework.TestCase.assertTrue
+import org.junit.Test
+
+class PresentSchedulerTest {
+
+    @Test
+    fun testExecutionMscWithoutDivisor() {
+        assertEquals(10L, PresentScheduler.getExecutionMsc(10, 0, 0, 0))
+        assertEquals(10L, PresentScheduler.getExecutionMsc(10, 10, 0, 0))
+        assertEquals(12L, PresentScheduler.getExecutionMsc(10, 12, 0, 0))
+    }
+
+    @Test
+    fun testExecutionMscWithDivisor() {
+        assertEquals(12L, PresentScheduler.getExecutionMsc(10, 12, 4, 1))
+        assertEquals(13L, PresentScheduler.getExecutionMsc(10, 5, 4, 1))
+        assertEquals(12L, PresentScheduler.getExecutionMsc(10, 0, 2, 0))
+        assertEquals(11L, PresentScheduler.getExecutionMsc(10, 0, 2, 1))
+    }
+
+    @Test
+    fun testTasksRunAtTargetMsc() {
+        val clock = FakePresentClock(1000)
+        val scheduler = PresentScheduler(clock)
+        val executed = ArrayList<String>()
+
+        scheduler.schedule(this, 3) { msc, ust -> executed.add("b$msc/$ust") }
+        scheduler.schedule(this, 2) { msc, ust -> executed.add("a$msc/$ust") }
+        assertTrue(clock.isVBlankRequested)
+
+        clock.advance()
+        assertEquals(0, executed.size)
+        assertTrue(clock.isVBlankRequested)
+
+        clock.advance()
+        assertEquals(listOf("a2/2000"), executed)
+
+        clock.advance()
+        assertEquals(listOf("a2/2000", "b3/3000"), executed)
+        assertFalse(clock.isVBlankRequested)
+        assertEquals(0, scheduler.pendingCount)
+    }
+
+    @Test
+    fun testLateTasksRunInTargetOrder() {
+        val clock = FakePresentClock()
+        val scheduler = PresentScheduler(clock)
+        val executed = ArrayList<Int>()
+        clock.advance(5)
+
+        scheduler.schedule(this, 3) { _, _ -> executed.add(3) }
+        scheduler.schedule(this, 1) { _, _ -> executed.add(1) }
+        scheduler.schedule(this, 2) { _, _ -> executed.add(2) }
+        scheduler.schedule(this, 1) { _, _ -> executed.add(4) }
+
+        clock.advance()
+        assertEquals(listOf(1, 4, 2, 3), executed)
+    }
+
+    @Test
+    fun testCancelDropsOwnerTasks() {
+        val clock = FakePresentClock()
+        val scheduler = PresentScheduler(clock)
+        val owner = Any()
+        val executed = ArrayList<Int>()
+
+        scheduler.schedule(owner, 1) { _, _ -> executed.add(1) }
+        scheduler.schedule(this, 1) { _, _ -> executed.add(2) }
+        scheduler.cancel(owner)
+
+        clock.advance()
+        assertEquals(listOf(2), executed)
+    }
+}